@@ -0,0 +1,84 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * ArcPolicy is the adaptive replacement cache of Megiddo and Modha. The
+ * cached pages are split between T1, the pages accessed once since they
+ * entered the pool, and T2, those accessed again; each is an LRU list.
+ * The pages last evicted from each are remembered, without contents, in
+ * ghost lists B1 and B2. A page admitted again while in B1 shows that T1
+ * should be larger, one in B2 that T2 should be, and the policy moves its
+ * target size p for T1 accordingly, so that it adapts between recency and
+ * frequency as the workload changes.
+ * <p>
+ * The BufferPool evicts before it admits the page it makes room for, so
+ * unlike the original the choice between T1 and T2 does not depend on
+ * whether that page is in B2.
+ */
+public class ArcPolicy extends ReplacementPolicy {
+
+    private final int c;
+    //the target size of T1
+    private double p = 0;
+    //least recently used first
+    private final LinkedHashMap<PageId, Boolean> t1 = new LinkedHashMap<PageId, Boolean>(16, 0.75f, true);
+    private final LinkedHashMap<PageId, Boolean> t2 = new LinkedHashMap<PageId, Boolean>(16, 0.75f, true);
+    private final LinkedHashMap<PageId, Boolean> b1 = new LinkedHashMap<PageId, Boolean>();
+    private final LinkedHashMap<PageId, Boolean> b2 = new LinkedHashMap<PageId, Boolean>();
+
+    /** Creates an ARC policy for a pool of numPages pages. */
+    public ArcPolicy(int numPages) {
+        this.c = Math.max(1, numPages);
+    }
+
+    public void admitted(PageId pid) {
+        if (b1.containsKey(pid)) {
+            p = Math.min(c, p + Math.max(b2.size() / (double) b1.size(), 1));
+            b1.remove(pid);
+            t2.put(pid, Boolean.TRUE);
+        } else if (b2.containsKey(pid)) {
+            p = Math.max(0, p - Math.max(b1.size() / (double) b2.size(), 1));
+            b2.remove(pid);
+            t2.put(pid, Boolean.TRUE);
+        } else {
+            t1.put(pid, Boolean.TRUE);
+        }
+        trim();
+    }
+
+    public void accessed(PageId pid) {
+        if (t1.remove(pid) != null)
+            t2.put(pid, Boolean.TRUE);
+        else
+            t2.get(pid);
+    }
+
+    public void removed(PageId pid) {
+        if (t1.remove(pid) != null)
+            b1.put(pid, Boolean.TRUE);
+        else if (t2.remove(pid) != null)
+            b2.put(pid, Boolean.TRUE);
+        trim();
+    }
+
+    //keep T1 and B1 to c pages, and all four lists to 2c
+    private void trim() {
+        Iterator<PageId> it = b1.keySet().iterator();
+        while (t1.size() + b1.size() > c && it.hasNext()) {
+            it.next();
+            it.remove();
+        }
+        it = b2.keySet().iterator();
+        while (t1.size() + t2.size() + b1.size() + b2.size() > 2 * c && it.hasNext()) {
+            it.next();
+            it.remove();
+        }
+    }
+
+    public Iterator<PageId> victims() {
+        if (!t1.isEmpty() && (t1.size() > p || t2.isEmpty()))
+            return concat(t1.keySet().iterator(), t2.keySet().iterator());
+        return concat(t2.keySet().iterator(), t1.keySet().iterator());
+    }
+}
@@ -0,0 +1,502 @@
+package simpledb;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * BTreeFile is a B+ tree index on one column of a table stored in a
+ * HeapFile. Its leaves hold an entry (key, RecordId) for every tuple of the
+ * table, in key order, and are chained left to right; the internal pages
+ * above them route a search for a key to the one leaf that can hold it.
+ * Page 0 is always the root, so the tree needs no directory: when the root
+ * splits, its contents move to two new pages and page 0 becomes an internal
+ * page over them.
+ * <p>
+ * Pages are fetched through the BufferPool and locked like any others. A
+ * search read-locks the pages on its way down; an insert write-locks the
+ * leaf it changes, and the pages a split changes. Deletes only remove the
+ * entry from its leaf; pages are never merged, so a leaf may become empty
+ * until inserts fill it again, as in many production B-trees. The
+ * BufferPool never evicts a dirty page, so an abort puts back every page
+ * the transaction changed, the root included. The new pages a split
+ * allocates are appended to the file outside the transaction, though: an
+ * aborted split leaves them as unused blank pages at the end of the file
+ * until the next {@link #build}.
+ * <p>
+ * The index is stored in a file of its own, named after the table file and
+ * the column (see {@link #indexFile}), and is rebuilt from the table by
+ * {@link #build} when the catalog finds it missing or older than the table.
+ *
+ * @see BTreeLeafPage
+ * @see BTreeInternalPage
+ * @see IndexScan
+ */
+public class BTreeFile implements IndexFile {
+
+    private static final long serialVersionUID = 1L;
+
+    /** Suffix of index files, after the table file name and column. */
+    public static final String SUFFIX = ".btree";
+    /** Fraction of each page build() fills, leaving room for inserts. */
+    public static final double FILL_FACTOR = 0.8;
+
+    private final File file;
+    private final HeapFile table;
+    private final int keyField;
+    private final Type keyType;
+    private final int pageSize = BufferPool.PAGE_SIZE;
+    private transient PageChannel channel;
+    //the height lookupPages() last read, or 0 if the root has been written
+    //since, as a root split is the only way the height changes
+    private transient volatile int height = 0;
+
+    /**
+     * Opens the index stored in f on column keyField of table. The index is
+     * not built; an index file that does not exist is an empty index.
+     */
+    public BTreeFile(File f, HeapFile table, int keyField) {
+        this.file = f;
+        this.table = table;
+        this.keyField = keyField;
+        this.keyType = table.getTupleDesc().getFieldType(keyField);
+    }
+
+    /**
+     * @return the file that stores the index on column of the table stored
+     *   in tableFile
+     */
+    public static File indexFile(File tableFile, String column) {
+        return new File(tableFile.getPath() + "." + column + SUFFIX);
+    }
+
+    /** @return the file backing this index */
+    public File getFile() {
+        return file;
+    }
+
+    public DbFile getTable() {
+        return table;
+    }
+
+    public int getKeyField() {
+        return keyField;
+    }
+
+    /**
+     * @return an ID uniquely identifying this index, see HeapFile#getId
+     */
+    public int getId() {
+        return file.getAbsoluteFile().hashCode();
+    }
+
+    /** @return the TupleDesc of the table, which is what iterators return */
+    public TupleDesc getTupleDesc() {
+        return table.getTupleDesc();
+    }
+
+    private synchronized PageChannel getPageChannel() {
+        if (channel == null)
+            channel = new PageChannel(file, pageSize);
+        return channel;
+    }
+
+    /** @return the number of pages in the index file */
+    public int numPages() {
+        return getPageChannel().numPages();
+    }
+
+    private IndexPageId pageId(int pgNo) {
+        return new IndexPageId(getId(), pgNo);
+    }
+
+    // see DbFile.java for javadocs
+    public Page readPage(PageId pid) {
+        try {
+            return BTreePage.create(new IndexPageId(pid.getTableId(), pid.pageNumber()),
+                    keyType, getPageChannel().readPage(pid.pageNumber()));
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    // see DbFile.java for javadocs
+    public void writePage(Page page) throws IOException {
+        getPageChannel().writePage(page.getId().pageNumber(), page.getPageData());
+        if (page.getId().pageNumber() == 0)
+            height = 0;
+    }
+
+    private BTreePage getPage(TransactionId tid, int pgNo, Permissions perm)
+            throws TransactionAbortedException, DbException {
+        return (BTreePage) Database.getBufferPool().getPage(tid, pageId(pgNo), perm);
+    }
+
+    //mark page dirty now, as fetching the next page may evict it, and
+    //remember it as the latest version of its page
+    private void dirtied(TransactionId tid, BTreePage page, Map<PageId, Page> dirty) {
+        Database.getBufferPool().pageDirtied(tid, page);
+        dirty.put(page.getId(), page);
+    }
+
+    //extend the file by a page of zeroes, which is an empty leaf; page 0
+    //is kept for the root even before it is first written. The page is
+    //not part of the transaction, so it stays allocated if it aborts
+    private synchronized int allocatePage() throws IOException {
+        PageChannel ch = getPageChannel();
+        int pgNo = Math.max(ch.numPages(), 1);
+        ch.writePage(pgNo, new byte[pageSize]);
+        return pgNo;
+    }
+
+    //the number of the leaf that holds e, or the leftmost leaf if e is
+    //null, read-locking the pages on the way
+    private int findLeaf(TransactionId tid, IndexEntry e, List<Integer> path)
+            throws TransactionAbortedException, DbException {
+        int pgNo = 0;
+        BTreePage p = getPage(tid, pgNo, Permissions.READ_ONLY);
+        while (!p.isLeaf()) {
+            if (path != null)
+                path.add(pgNo);
+            BTreeInternalPage ip = (BTreeInternalPage) p;
+            pgNo = ip.child(e == null ? 0 : ip.childIndex(e));
+            p = getPage(tid, pgNo, Permissions.READ_ONLY);
+        }
+        return pgNo;
+    }
+
+    /**
+     * Adds the entry of t, a tuple just inserted into the table, splitting
+     * pages up the tree as far as they are full.
+     *
+     * @return the pages changed
+     */
+    public ArrayList<Page> insertTuple(TransactionId tid, Tuple t)
+            throws DbException, IOException, TransactionAbortedException {
+        Map<PageId, Page> dirty = new LinkedHashMap<PageId, Page>();
+        List<Integer> path = new ArrayList<Integer>();
+        IndexEntry item = IndexEntry.of(t, keyField);
+        int nodeNo = findLeaf(tid, item, path);
+        BTreePage node = getPage(tid, nodeNo, Permissions.READ_WRITE);
+        //the page to the right of item, when item is a separator
+        int itemRight = -1;
+        //a page holding more than it can store cannot be written, so the
+        //pages a split needs are fetched (which may evict pages) before the
+        //full page takes the item, and it is split right after
+        while (node.size() >= node.maxSize()) {
+            if (nodeNo == 0) {
+                splitRoot(tid, node, item, itemRight, dirty);
+                return new ArrayList<Page>(dirty.values());
+            }
+            int rightNo = allocatePage();
+            getPage(tid, rightNo, Permissions.READ_WRITE);
+            int parentNo = path.remove(path.size() - 1);
+            BTreePage parent = getPage(tid, parentNo, Permissions.READ_WRITE);
+
+            add(node, item, itemRight);
+            BTreePage right;
+            if (node.isLeaf()) {
+                BTreeLeafPage r = new BTreeLeafPage(pageId(rightNo), keyType, pageSize);
+                BTreeLeafPage l = (BTreeLeafPage) node;
+                l.moveTail(l.size() / 2, r);
+                r.setNext(l.getNext());
+                l.setNext(rightNo);
+                item = r.get(0);
+                right = r;
+            } else {
+                BTreeInternalPage r = new BTreeInternalPage(pageId(rightNo), keyType, pageSize, 0);
+                item = ((BTreeInternalPage) node).split(node.size() / 2, r);
+                right = r;
+            }
+            dirtied(tid, node, dirty);
+            dirtied(tid, right, dirty);
+            itemRight = rightNo;
+            node = parent;
+            nodeNo = parentNo;
+        }
+        add(node, item, itemRight);
+        dirtied(tid, node, dirty);
+        return new ArrayList<Page>(dirty.values());
+    }
+
+    //add entry item to a leaf, or separator item and the page to its right
+    //to an internal page
+    private void add(BTreePage node, IndexEntry item, int itemRight) {
+        if (node.isLeaf())
+            ((BTreeLeafPage) node).insert(item);
+        else
+            ((BTreeInternalPage) node).insert(item, itemRight);
+    }
+
+    //split the full root as it takes item: its contents go to two new
+    //pages, and page 0 becomes an internal page over them
+    private void splitRoot(TransactionId tid, BTreePage root, IndexEntry item,
+            int itemRight, Map<PageId, Page> dirty)
+            throws DbException, IOException, TransactionAbortedException {
+        int leftNo = allocatePage();
+        int rightNo = allocatePage();
+        BTreePage blank = getPage(tid, leftNo, Permissions.READ_WRITE);
+        getPage(tid, rightNo, Permissions.READ_WRITE);
+        //split the root in place, then copy what is left of it to the left
+        //page; the root object itself is replaced below
+        add(root, item, itemRight);
+        BTreePage right;
+        IndexEntry up;
+        if (root.isLeaf()) {
+            BTreeLeafPage r = new BTreeLeafPage(pageId(rightNo), keyType, pageSize);
+            ((BTreeLeafPage) root).moveTail(root.size() / 2, r);
+            up = r.get(0);
+            right = r;
+        } else {
+            BTreeInternalPage r = new BTreeInternalPage(pageId(rightNo), keyType, pageSize, 0);
+            up = ((BTreeInternalPage) root).split(root.size() / 2, r);
+            right = r;
+        }
+        BTreePage left = BTreePage.create(pageId(leftNo), keyType, root.getPageData());
+        left.inheritBeforeImage(blank);
+        if (left.isLeaf())
+            ((BTreeLeafPage) left).setNext(rightNo);
+        BTreeInternalPage newRoot = new BTreeInternalPage(pageId(0), keyType, pageSize, leftNo);
+        //an abort must turn page 0 back into the old root
+        newRoot.inheritBeforeImage(root);
+        newRoot.insert(up, rightNo);
+        dirtied(tid, left, dirty);
+        dirtied(tid, right, dirty);
+        dirtied(tid, newRoot, dirty);
+    }
+
+    /**
+     * Removes the entry of t, a tuple just deleted from the table.
+     *
+     * @return the leaf changed
+     * @throws DbException if the index has no entry for t
+     */
+    public Page deleteTuple(TransactionId tid, Tuple t) throws DbException,
+            TransactionAbortedException {
+        IndexEntry e = IndexEntry.of(t, keyField);
+        int pgNo = findLeaf(tid, e, null);
+        BTreeLeafPage leaf = (BTreeLeafPage) getPage(tid, pgNo, Permissions.READ_WRITE);
+        if (!leaf.delete(e))
+            throw new DbException("index " + file.getName() + " has no entry for " + t);
+        Database.getBufferPool().pageDirtied(tid, leaf);
+        return leaf;
+    }
+
+    public boolean supports(Predicate.Op op) {
+        switch (op) {
+        case EQUALS:
+        case GREATER_THAN:
+        case GREATER_THAN_OR_EQ:
+        case LESS_THAN:
+        case LESS_THAN_OR_EQ:
+            return true;
+        case LIKE:
+            //LIKE is equality on ints, but substring matching on strings
+            return keyType == Type.INT_TYPE;
+        default:
+            return false;
+        }
+    }
+
+    /**
+     * @return the height of the tree, as the pages on disk show it; the
+     *   pages are only read again after the root has been written
+     */
+    public int lookupPages() {
+        int h = height;
+        if (h > 0)
+            return h;
+        h = 1;
+        BTreePage p = (BTreePage) readPage(pageId(0));
+        while (p != null && !p.isLeaf()) {
+            p = (BTreePage) readPage(pageId(((BTreeInternalPage) p).child(0)));
+            h++;
+        }
+        height = h;
+        return h;
+    }
+
+    /**
+     * Returns all tuples of the table, in key order.
+     */
+    public DbFileIterator iterator(TransactionId tid) {
+        return iterator(tid, new ArrayList<Predicate>());
+    }
+
+    public DbFileIterator iterator(TransactionId tid, List<Predicate> preds) {
+        return new BTreeIterator(tid, preds);
+    }
+
+    /**
+     * Walks the leaves from the first entry that can satisfy the predicates
+     * to the last, and returns the tuples of the entries that do. The
+     * entries of a leaf are copied when the iterator reaches it.
+     */
+    private class BTreeIterator implements DbFileIterator {
+        private final TransactionId tid;
+        private final List<Predicate> preds;
+        //the smallest and largest keys the predicates allow, or null
+        private Field low = null;
+        private Field high = null;
+        private List<IndexEntry> entries = null;
+        private int pos;
+        private int nextLeaf;
+        private Tuple next = null;
+
+        BTreeIterator(TransactionId tid, List<Predicate> preds) {
+            this.tid = tid;
+            this.preds = preds;
+            for (Predicate p : preds) {
+                Field v = p.getOperand();
+                switch (p.getOp()) {
+                case EQUALS:
+                case LIKE:
+                    if (p.getOp() == Predicate.Op.LIKE && keyType != Type.INT_TYPE)
+                        break;
+                    low = max(low, v);
+                    high = min(high, v);
+                    break;
+                case GREATER_THAN:
+                case GREATER_THAN_OR_EQ:
+                    low = max(low, v);
+                    break;
+                case LESS_THAN:
+                case LESS_THAN_OR_EQ:
+                    high = min(high, v);
+                    break;
+                default:
+                    break;
+                }
+            }
+        }
+
+        private Field max(Field a, Field b) {
+            return a == null || IndexEntry.compareKeys(b, a) > 0 ? b : a;
+        }
+
+        private Field min(Field a, Field b) {
+            return a == null || IndexEntry.compareKeys(b, a) < 0 ? b : a;
+        }
+
+        public void open() throws DbException, TransactionAbortedException {
+            IndexEntry start = low == null ? null : new IndexEntry(low);
+            int leafNo = findLeaf(tid, start, null);
+            BTreeLeafPage leaf = (BTreeLeafPage) getPage(tid, leafNo, Permissions.READ_ONLY);
+            entries = leaf.entries();
+            pos = start == null ? 0 : leaf.find(start);
+            nextLeaf = leaf.getNext();
+            next = null;
+        }
+
+        public boolean hasNext() throws DbException, TransactionAbortedException {
+            while (next == null && entries != null) {
+                if (pos < entries.size()) {
+                    IndexEntry e = entries.get(pos++);
+                    if (high != null && IndexEntry.compareKeys(e.key, high) > 0)
+                        entries = null;
+                    else if (e.satisfies(preds))
+                        next = e.fetch(tid, table);
+                } else if (nextLeaf == 0) {
+                    entries = null;
+                } else {
+                    BTreeLeafPage leaf = (BTreeLeafPage) getPage(tid, nextLeaf,
+                            Permissions.READ_ONLY);
+                    entries = leaf.entries();
+                    pos = 0;
+                    nextLeaf = leaf.getNext();
+                }
+            }
+            return next != null;
+        }
+
+        public Tuple next() throws DbException, TransactionAbortedException,
+                NoSuchElementException {
+            if (!hasNext())
+                throw new NoSuchElementException();
+            Tuple t = next;
+            next = null;
+            return t;
+        }
+
+        public void rewind() throws DbException, TransactionAbortedException {
+            close();
+            open();
+        }
+
+        public void close() {
+            entries = null;
+            next = null;
+        }
+    }
+
+    /**
+     * Replaces the contents of the index with the entries of all tuples of
+     * the table, written bottom-up straight to the index file: leaves filled
+     * to FILL_FACTOR in key order, then each level of internal pages over
+     * the one below, up to the root on page 0. No other transaction may use
+     * the table or the index meanwhile.
+     */
+    public void build() throws IOException, DbException, TransactionAbortedException {
+        List<IndexEntry> all = new ArrayList<IndexEntry>();
+        TransactionId tid = new TransactionId();
+        DbFileIterator it = table.iterator(tid);
+        it.open();
+        while (it.hasNext())
+            all.add(IndexEntry.of(it.next(), keyField));
+        it.close();
+        Database.getBufferPool().transactionComplete(tid);
+        Collections.sort(all);
+
+        //cached pages of the old contents are stale
+        PageChannel ch = getPageChannel();
+        for (int pgNo = 0; pgNo < ch.numPages(); pgNo++)
+            Database.getBufferPool().discardPage(pageId(pgNo));
+        ch.truncate(0);
+
+        int perLeaf = Math.max(1, (int) (BTreeLeafPage.maxEntries(keyType, pageSize) * FILL_FACTOR));
+        int numLeaves = (all.size() + perLeaf - 1) / perLeaf;
+        if (numLeaves <= 1) {
+            BTreeLeafPage root = new BTreeLeafPage(pageId(0), keyType, pageSize);
+            for (IndexEntry e : all)
+                root.insert(e);
+            writePage(root);
+            return;
+        }
+
+        //the pages of the level being built, and the smallest entry below
+        //each of them
+        List<Integer> pages = new ArrayList<Integer>();
+        List<IndexEntry> firsts = new ArrayList<IndexEntry>();
+        int nextPage = 1;
+        for (int i = 0; i < numLeaves; i++) {
+            int pgNo = nextPage++;
+            BTreeLeafPage leaf = new BTreeLeafPage(pageId(pgNo), keyType, pageSize);
+            for (IndexEntry e : all.subList(i * perLeaf, Math.min(all.size(), (i + 1) * perLeaf)))
+                leaf.insert(e);
+            leaf.setNext(i + 1 < numLeaves ? pgNo + 1 : 0);
+            writePage(leaf);
+            pages.add(pgNo);
+            firsts.add(leaf.get(0));
+        }
+
+        int perNode = Math.max(2, (int) (BTreeInternalPage.maxEntries(keyType, pageSize) * FILL_FACTOR) + 1);
+        while (pages.size() > 1) {
+            int numNodes = (pages.size() + perNode - 1) / perNode;
+            List<Integer> upper = new ArrayList<Integer>();
+            List<IndexEntry> upperFirsts = new ArrayList<IndexEntry>();
+            for (int i = 0; i < numNodes; i++) {
+                int pgNo = numNodes == 1 ? 0 : nextPage++;
+                int from = i * perNode;
+                int to = Math.min(pages.size(), from + perNode);
+                BTreeInternalPage node = new BTreeInternalPage(pageId(pgNo), keyType,
+                        pageSize, pages.get(from));
+                for (int c = from + 1; c < to; c++)
+                    node.insert(firsts.get(c), pages.get(c));
+                writePage(node);
+                upper.add(pgNo);
+                upperFirsts.add(firsts.get(from));
+            }
+            pages = upper;
+            firsts = upperFirsts;
+        }
+    }
+}
@@ -0,0 +1,131 @@
+package simpledb;
+
+import java.nio.ByteBuffer;
+import java.util.*;
+
+/**
+ * BTreeInternalPage is an internal node of a BTreeFile: n separator entries
+ * and the page numbers of the n + 1 subtrees around them. Subtree i holds
+ * the entries from separator i - 1 (inclusive) up to separator i
+ * (exclusive), so a separator is the smallest entry of the subtree to its
+ * right when it is made.
+ * <p>
+ * The header int is the page number of subtree 0; each separator follows
+ * as the serialized key, the page number and slot of its tuple, and the page
+ * number of the subtree to its right.
+ *
+ * @see BTreeFile
+ */
+public class BTreeInternalPage extends BTreePage {
+
+    private final List<IndexEntry> keys;
+    private final List<Integer> children;
+
+    BTreeInternalPage(IndexPageId pid, Type keyType, int pageSize, ByteBuffer bb, byte[] before) {
+        super(pid, keyType, pageSize, before);
+        int n = bb.getInt(1);
+        this.keys = new ArrayList<IndexEntry>(n + 1);
+        this.children = new ArrayList<Integer>(n + 2);
+        children.add(bb.getInt(5));
+        int size = IndexEntry.size(keyType) + 4;
+        for (int i = 0; i < n; i++) {
+            int offset = HEADER_SIZE + i * size;
+            keys.add(IndexEntry.read(keyType, bb, offset));
+            children.add(bb.getInt(offset + size - 4));
+        }
+    }
+
+    /**
+     * Creates an internal page that replaces page pid, with the single
+     * subtree child.
+     */
+    BTreeInternalPage(IndexPageId pid, Type keyType, int pageSize, int child) {
+        super(pid, keyType, pageSize, null);
+        this.keys = new ArrayList<IndexEntry>();
+        this.children = new ArrayList<Integer>();
+        children.add(child);
+    }
+
+    /** @return the number of separators an internal page of pageSize bytes holds */
+    static int maxEntries(Type keyType, int pageSize) {
+        return (pageSize - HEADER_SIZE) / (IndexEntry.size(keyType) + 4);
+    }
+
+    public boolean isLeaf() {
+        return false;
+    }
+
+    public int size() {
+        return keys.size();
+    }
+
+    public int maxSize() {
+        return maxEntries(keyType, pageSize);
+    }
+
+    /**
+     * @return the position of the subtree that holds e, which is the number
+     *   of separators not above e
+     */
+    int childIndex(IndexEntry e) {
+        int lo = 0, hi = keys.size();
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (keys.get(mid).compareTo(e) <= 0)
+                lo = mid + 1;
+            else
+                hi = mid;
+        }
+        return lo;
+    }
+
+    /** @return the page number of subtree i */
+    int child(int i) {
+        return children.get(i);
+    }
+
+    IndexEntry key(int i) {
+        return keys.get(i);
+    }
+
+    /**
+     * Adds separator e with the subtree right to its right, after the
+     * subtree e was split from. The page may hold one separator more than
+     * maxSize() until the caller splits it.
+     */
+    void insert(IndexEntry e, int right) {
+        prepareWrite();
+        int i = childIndex(e);
+        keys.add(i, e);
+        children.add(i + 1, right);
+    }
+
+    /**
+     * Moves the separators after position mid and their subtrees to the
+     * empty page to, and removes separator mid, which is returned: it
+     * separates this page from to in the parent.
+     */
+    IndexEntry split(int mid, BTreeInternalPage to) {
+        prepareWrite();
+        to.prepareWrite();
+        IndexEntry up = keys.get(mid);
+        to.children.clear();
+        to.keys.addAll(keys.subList(mid + 1, keys.size()));
+        to.children.addAll(children.subList(mid + 1, children.size()));
+        keys.subList(mid, keys.size()).clear();
+        children.subList(mid + 1, children.size()).clear();
+        return up;
+    }
+
+    void encode(ByteBuffer bb) {
+        bb.put(0, INTERNAL);
+        bb.putInt(1, keys.size());
+        bb.putInt(5, children.get(0));
+        int size = IndexEntry.size(keyType) + 4;
+        for (int i = 0; i < keys.size(); i++) {
+            int offset = HEADER_SIZE + i * size;
+            keys.get(i).write(bb, offset);
+            bb.putInt(offset + size - 4, children.get(i + 1));
+        }
+    }
+}
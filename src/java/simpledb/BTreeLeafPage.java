@@ -0,0 +1,133 @@
+package simpledb;
+
+import java.nio.ByteBuffer;
+import java.util.*;
+
+/**
+ * BTreeLeafPage is a leaf of a BTreeFile. It holds the index entries of a
+ * range of keys in order, and the page number of the next leaf, so that
+ * range scans walk from leaf to leaf without going back up the tree. The
+ * last leaf has next page 0, which is the root and never a leaf's sibling.
+ * <p>
+ * After the header come the entries, each the serialized key followed by
+ * the page number and slot of its tuple.
+ *
+ * @see BTreeFile
+ */
+public class BTreeLeafPage extends BTreePage {
+
+    private final List<IndexEntry> entries;
+    private int next;
+
+    BTreeLeafPage(IndexPageId pid, Type keyType, int pageSize, ByteBuffer bb, byte[] before) {
+        super(pid, keyType, pageSize, before);
+        int n = bb.getInt(1);
+        this.next = bb.getInt(5);
+        this.entries = new ArrayList<IndexEntry>(n + 1);
+        int size = IndexEntry.size(keyType);
+        for (int i = 0; i < n; i++)
+            entries.add(IndexEntry.read(keyType, bb, HEADER_SIZE + i * size));
+    }
+
+    /** Creates an empty leaf that replaces page pid. */
+    BTreeLeafPage(IndexPageId pid, Type keyType, int pageSize) {
+        super(pid, keyType, pageSize, null);
+        this.entries = new ArrayList<IndexEntry>();
+        this.next = 0;
+    }
+
+    /** @return the number of entries a leaf of pageSize bytes holds */
+    static int maxEntries(Type keyType, int pageSize) {
+        return (pageSize - HEADER_SIZE) / IndexEntry.size(keyType);
+    }
+
+    public boolean isLeaf() {
+        return true;
+    }
+
+    public int size() {
+        return entries.size();
+    }
+
+    public int maxSize() {
+        return maxEntries(keyType, pageSize);
+    }
+
+    IndexEntry get(int i) {
+        return entries.get(i);
+    }
+
+    /** @return a copy of the entries of this leaf */
+    List<IndexEntry> entries() {
+        return new ArrayList<IndexEntry>(entries);
+    }
+
+    /** @return the page number of the next leaf, or 0 for the last leaf */
+    int getNext() {
+        return next;
+    }
+
+    void setNext(int next) {
+        prepareWrite();
+        this.next = next;
+    }
+
+    /**
+     * @return the position of the first entry not below e
+     */
+    int find(IndexEntry e) {
+        int lo = 0, hi = entries.size();
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (entries.get(mid).compareTo(e) < 0)
+                lo = mid + 1;
+            else
+                hi = mid;
+        }
+        return lo;
+    }
+
+    /**
+     * Adds e in order. The leaf may hold one entry more than maxSize()
+     * until the caller splits it.
+     */
+    void insert(IndexEntry e) {
+        prepareWrite();
+        entries.add(find(e), e);
+    }
+
+    /**
+     * Removes e.
+     *
+     * @return false if e is not on this leaf
+     */
+    boolean delete(IndexEntry e) {
+        int i = find(e);
+        if (i == entries.size() || entries.get(i).compareTo(e) != 0)
+            return false;
+        prepareWrite();
+        entries.remove(i);
+        return true;
+    }
+
+    /**
+     * Moves the entries from position from on to the end of the empty leaf
+     * to.
+     */
+    void moveTail(int from, BTreeLeafPage to) {
+        prepareWrite();
+        to.prepareWrite();
+        List<IndexEntry> tail = entries.subList(from, entries.size());
+        to.entries.addAll(tail);
+        tail.clear();
+    }
+
+    void encode(ByteBuffer bb) {
+        bb.put(0, LEAF);
+        bb.putInt(1, entries.size());
+        bb.putInt(5, next);
+        int size = IndexEntry.size(keyType);
+        for (int i = 0; i < entries.size(); i++)
+            entries.get(i).write(bb, HEADER_SIZE + i * size);
+    }
+}
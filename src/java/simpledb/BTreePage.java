@@ -0,0 +1,51 @@
+package simpledb;
+
+import java.nio.ByteBuffer;
+
+/**
+ * BTreePage is a page of a BTreeFile: either a {@link BTreeLeafPage}, which
+ * holds index entries, or a {@link BTreeInternalPage}, which holds
+ * separator entries and the pages of the subtrees between them. As entries
+ * are distinct even where keys repeat, a delete can go straight to the leaf
+ * holding the entry of its tuple.
+ * <p>
+ * Every page starts with a type byte (0 for a leaf, so that a page of zeroes
+ * is an empty leaf), the number of entries, and one int the page types use
+ * as they see fit.
+ *
+ * @see BTreeFile
+ */
+public abstract class BTreePage extends IndexPage {
+
+    static final byte LEAF = 0;
+    static final byte INTERNAL = 1;
+    //type byte, entry count and one int
+    static final int HEADER_SIZE = 9;
+
+    BTreePage(IndexPageId pid, Type keyType, int pageSize, byte[] before) {
+        super(pid, keyType, pageSize, before);
+    }
+
+    /**
+     * Decodes a page image of a BTreeFile with keys of keyType.
+     */
+    static BTreePage create(IndexPageId pid, Type keyType, byte[] data) {
+        ByteBuffer bb = ByteBuffer.wrap(data);
+        if (bb.get(0) == INTERNAL)
+            return new BTreeInternalPage(pid, keyType, data.length, bb, data);
+        return new BTreeLeafPage(pid, keyType, data.length, bb, data);
+    }
+
+    /** @return true if this is a leaf page */
+    public abstract boolean isLeaf();
+
+    /** @return the number of entries on this page */
+    public abstract int size();
+
+    /** @return the largest number of entries the page can store */
+    public abstract int maxSize();
+
+    BTreePage decode(byte[] data) {
+        return create(pid, keyType, data);
+    }
+}
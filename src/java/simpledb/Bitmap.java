@@ -0,0 +1,301 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * Bitmap is a compressed set of tuple positions (page number, slot) in a
+ * heap file, kept the way a roaring bitmap is: the slots of each page that
+ * has any are kept in a container of their own, as a sorted array of slot
+ * numbers while that is the smaller, or else as a bit set. Pages without
+ * set bits take no space, and the AND or OR of two bitmaps merges their
+ * page lists and combines only the containers of the pages they share.
+ * <p>
+ * Bitmaps are not thread-safe; the results of and and or are new bitmaps
+ * that share nothing with their operands.
+ *
+ * @see BitmapIndex
+ * @see BitmapScan
+ */
+public class Bitmap {
+
+    //the pages with set bits, ascending, and their containers
+    private int[] pages = new int[4];
+    private Container[] containers = new Container[4];
+    private int numPages = 0;
+
+    //the set slots of one page
+    private static class Container {
+        //the slots, ascending, while bits is null
+        char[] array = new char[4];
+        int card = 0;
+        long[] bits = null;
+
+        boolean contains(int slot) {
+            if (bits != null)
+                return slot >> 6 < bits.length && (bits[slot >> 6] & (1L << slot)) != 0;
+            return Arrays.binarySearch(array, 0, card, (char) slot) >= 0;
+        }
+
+        void add(int slot) {
+            if (bits != null) {
+                if (slot >> 6 >= bits.length)
+                    bits = Arrays.copyOf(bits, (slot >> 6) + 1);
+                if ((bits[slot >> 6] & (1L << slot)) == 0)
+                    card++;
+                bits[slot >> 6] |= 1L << slot;
+                return;
+            }
+            int i = Arrays.binarySearch(array, 0, card, (char) slot);
+            if (i >= 0)
+                return;
+            i = -i - 1;
+            if (card == array.length)
+                array = Arrays.copyOf(array, card * 2);
+            System.arraycopy(array, i, array, i + 1, card - i);
+            array[i] = (char) slot;
+            card++;
+            compact();
+        }
+
+        void remove(int slot) {
+            if (bits != null) {
+                if (slot >> 6 < bits.length && (bits[slot >> 6] & (1L << slot)) != 0) {
+                    bits[slot >> 6] &= ~(1L << slot);
+                    card--;
+                    compact();
+                }
+                return;
+            }
+            int i = Arrays.binarySearch(array, 0, card, (char) slot);
+            if (i < 0)
+                return;
+            System.arraycopy(array, i + 1, array, i, card - i - 1);
+            card--;
+        }
+
+        //the set slots, ascending
+        int[] slots() {
+            int[] s = new int[card];
+            if (bits == null) {
+                for (int i = 0; i < card; i++)
+                    s[i] = array[i];
+                return s;
+            }
+            int n = 0;
+            for (int w = 0; w < bits.length; w++) {
+                long word = bits[w];
+                while (word != 0) {
+                    s[n++] = (w << 6) + Long.numberOfTrailingZeros(word);
+                    word &= word - 1;
+                }
+            }
+            return s;
+        }
+
+        long[] toBits() {
+            if (bits != null)
+                return bits.clone();
+            long[] b = new long[card == 0 ? 1 : (array[card - 1] >> 6) + 1];
+            for (int i = 0; i < card; i++)
+                b[array[i] >> 6] |= 1L << array[i];
+            return b;
+        }
+
+        //switch to whichever of an array of 2 bytes per slot and a bit set
+        //of 8 bytes per 64 slots is the smaller, with some slack so that
+        //adding and removing one slot does not flip back and forth
+        void compact() {
+            if (bits == null) {
+                int words = (array[card - 1] >> 6) + 1;
+                if (card * 2 > words * 8 * 2)
+                    bits = toBits();
+            } else {
+                int words = bits.length;
+                while (words > 0 && bits[words - 1] == 0)
+                    words--;
+                if (card * 2 < words * 8 / 2) {
+                    array = new char[Math.max(card, 4)];
+                    char[] a = array;
+                    int[] s = slots();
+                    for (int i = 0; i < s.length; i++)
+                        a[i] = (char) s[i];
+                    bits = null;
+                }
+            }
+        }
+
+        Container copy() {
+            Container c = new Container();
+            c.card = card;
+            c.array = array.clone();
+            c.bits = bits == null ? null : bits.clone();
+            return c;
+        }
+
+        //a new container of the bits in both of a and b, or in either
+        static Container combine(Container a, Container b, boolean and) {
+            Container c = new Container();
+            long[] x = a.toBits();
+            long[] y = b.toBits();
+            long[] z = new long[and ? Math.min(x.length, y.length) : Math.max(x.length, y.length)];
+            for (int w = 0; w < z.length; w++) {
+                long u = w < x.length ? x[w] : 0;
+                long v = w < y.length ? y[w] : 0;
+                z[w] = and ? u & v : u | v;
+                c.card += Long.bitCount(z[w]);
+            }
+            c.bits = z;
+            if (c.card > 0)
+                c.compact();
+            return c;
+        }
+    }
+
+    //the index of page pgNo in pages, or -(insertion point) - 1
+    private int find(int pgNo) {
+        return Arrays.binarySearch(pages, 0, numPages, pgNo);
+    }
+
+    //append the container of page pgNo, which is after all others
+    private void append(int pgNo, Container c) {
+        if (numPages == pages.length) {
+            pages = Arrays.copyOf(pages, numPages * 2);
+            containers = Arrays.copyOf(containers, numPages * 2);
+        }
+        pages[numPages] = pgNo;
+        containers[numPages] = c;
+        numPages++;
+    }
+
+    /** Sets the bit of slot on page pgNo. */
+    public void add(int pgNo, int slot) {
+        int i = find(pgNo);
+        if (i < 0) {
+            i = -i - 1;
+            if (numPages == pages.length) {
+                pages = Arrays.copyOf(pages, numPages * 2);
+                containers = Arrays.copyOf(containers, numPages * 2);
+            }
+            System.arraycopy(pages, i, pages, i + 1, numPages - i);
+            System.arraycopy(containers, i, containers, i + 1, numPages - i);
+            pages[i] = pgNo;
+            containers[i] = new Container();
+            numPages++;
+        }
+        containers[i].add(slot);
+    }
+
+    /** Clears the bit of slot on page pgNo. */
+    public void remove(int pgNo, int slot) {
+        int i = find(pgNo);
+        if (i < 0)
+            return;
+        containers[i].remove(slot);
+        if (containers[i].card == 0)
+            removeAt(i);
+    }
+
+    private void removeAt(int i) {
+        System.arraycopy(pages, i + 1, pages, i, numPages - i - 1);
+        System.arraycopy(containers, i + 1, containers, i, numPages - i - 1);
+        numPages--;
+        containers[numPages] = null;
+    }
+
+    /** @return true if the bit of slot on page pgNo is set */
+    public boolean contains(int pgNo, int slot) {
+        int i = find(pgNo);
+        return i >= 0 && containers[i].contains(slot);
+    }
+
+    /** Clears the bits of all slots on page pgNo. */
+    public void clearPage(int pgNo) {
+        int i = find(pgNo);
+        if (i >= 0)
+            removeAt(i);
+    }
+
+    /** Clears the bits of all slots on pages numPages and up. */
+    public void truncate(int numPages) {
+        int i = find(numPages);
+        int keep = i >= 0 ? i : -i - 1;
+        for (int j = keep; j < this.numPages; j++)
+            containers[j] = null;
+        this.numPages = Math.min(this.numPages, keep);
+    }
+
+    /** @return a new bitmap of the positions set in both this and other */
+    public Bitmap and(Bitmap other) {
+        Bitmap r = new Bitmap();
+        int i = 0, j = 0;
+        while (i < numPages && j < other.numPages) {
+            if (pages[i] < other.pages[j]) {
+                i++;
+            } else if (pages[i] > other.pages[j]) {
+                j++;
+            } else {
+                Container c = Container.combine(containers[i], other.containers[j], true);
+                if (c.card > 0)
+                    r.append(pages[i], c);
+                i++;
+                j++;
+            }
+        }
+        return r;
+    }
+
+    /** @return a new bitmap of the positions set in this or other */
+    public Bitmap or(Bitmap other) {
+        Bitmap r = new Bitmap();
+        int i = 0, j = 0;
+        while (i < numPages || j < other.numPages) {
+            if (j == other.numPages || (i < numPages && pages[i] < other.pages[j])) {
+                r.append(pages[i], containers[i].copy());
+                i++;
+            } else if (i == numPages || pages[i] > other.pages[j]) {
+                r.append(other.pages[j], other.containers[j].copy());
+                j++;
+            } else {
+                r.append(pages[i], Container.combine(containers[i], other.containers[j], false));
+                i++;
+                j++;
+            }
+        }
+        return r;
+    }
+
+    /** @return the number of set bits */
+    public int cardinality() {
+        int n = 0;
+        for (int i = 0; i < numPages; i++)
+            n += containers[i].card;
+        return n;
+    }
+
+    /** @return the number of pages with set bits */
+    public int numPages() {
+        return numPages;
+    }
+
+    /** @return the page number of the i-th page with set bits, ascending */
+    public int getPage(int i) {
+        return pages[i];
+    }
+
+    /** @return the set slots of the i-th page with set bits, ascending */
+    public int[] getSlots(int i) {
+        return containers[i].slots();
+    }
+
+    /**
+     * @return the approximate number of bytes the containers take, without
+     *   object overheads
+     */
+    public long sizeInBytes() {
+        long n = numPages * 8L;
+        for (int i = 0; i < numPages; i++)
+            n += containers[i].bits != null ? containers[i].bits.length * 8L
+                    : containers[i].array.length * 2L;
+        return n;
+    }
+}
@@ -0,0 +1,323 @@
+package simpledb;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.text.ParseException;
+import java.util.*;
+
+/**
+ * BitmapIndex keeps, for each distinct value of one column of a HeapFile,
+ * a {@link Bitmap} of the positions (page number, slot) of the tuples with
+ * that value. It suits columns with few distinct values, such as status or
+ * region codes: the tuples that satisfy any predicate on the column are
+ * the OR of the bitmaps of the values that satisfy it, and the tuples that
+ * satisfy several predicates, on this or other indexed columns, are the
+ * AND of their bitmaps, all found without reading the table.
+ * <p>
+ * Like the ZoneMap, the index lives in memory. Inserts set their bits as
+ * they happen, including uncommitted ones, but deletes leave theirs set: a
+ * delete may still abort, and scans build their bitmaps without locks, so
+ * clearing the bits early would drop tuples that are still committed. A
+ * bit too many is harmless, since the scan finds the slot empty or applies
+ * the predicates again. The bits of a page are made exact from its
+ * contents when the page is written, which a commit does, or an abort
+ * restores it. It is persisted in two sidecar files
+ * next to the table file: the table file name plus "." and the column name
+ * plus ".bm" holds, for every page, the code of the value of each slot, 0
+ * for an empty slot; plus ".bmv" holds the values of codes 1, 2, ... in
+ * order. Sidecars that are missing or older than the table file are
+ * rebuilt from the pages.
+ *
+ * @see HeapFile#addBitmapIndex
+ * @see BitmapScan
+ */
+public class BitmapIndex {
+
+    /** Suffix of the sidecar of value codes, after the column name. */
+    public static final String SUFFIX = ".bm";
+    /** Suffix of the sidecar of values, after the column name. */
+    public static final String VALUES_SUFFIX = ".bmv";
+    /** The most distinct values an index can code. */
+    public static final int MAX_VALUES = 0xFFFF;
+
+    private final HeapFile hf;
+    private final int column;
+    private final File file;
+    private final File valuesFile;
+    private final int slotsPerPage;
+    private PageChannel sidecar;
+    //the value of code i + 1, the code of each value, and its positions
+    private final List<Field> values = new ArrayList<Field>();
+    private final Map<Field, Integer> codes = new HashMap<Field, Integer>();
+    private final Map<Field, Bitmap> bitmaps = new HashMap<Field, Bitmap>();
+    //true once the column had more than MAX_VALUES distinct values
+    private boolean full = false;
+    private boolean loaded = false;
+
+    /**
+     * Creates the bitmap index on column of hf. Nothing is read until the
+     * index is first used.
+     */
+    public BitmapIndex(HeapFile hf, int column) {
+        this.hf = hf;
+        this.column = column;
+        String prefix = hf.getFile().getPath() + "." + hf.getTupleDesc().getFieldName(column);
+        this.file = new File(prefix + SUFFIX);
+        this.valuesFile = new File(prefix + VALUES_SUFFIX);
+        this.slotsPerPage = hf.tuplesPerPage();
+    }
+
+    /** @return the indexed column */
+    public int getColumn() {
+        return column;
+    }
+
+    /** @return the sidecar file of value codes */
+    public File getFile() {
+        return file;
+    }
+
+    //load the sidecars on first use, rebuilding them from the table if
+    //they are stale
+    private void load() {
+        if (loaded)
+            return;
+        loaded = true;
+        int tablePages = hf.numPages();
+        sidecar = new PageChannel(file, slotsPerPage * 2);
+        boolean stale = !file.exists() || !valuesFile.exists()
+                || file.lastModified() < hf.getFile().lastModified();
+        int known = 0;
+        if (!stale) {
+            try {
+                known = Math.min(sidecar.numPages(), tablePages);
+                readValues();
+                readEntries(known);
+            } catch (IOException e) {
+                stale = true;
+            } catch (ParseException e) {
+                stale = true;
+            }
+        }
+        if (stale) {
+            known = 0;
+            values.clear();
+            codes.clear();
+            bitmaps.clear();
+            valuesFile.delete();
+        }
+        for (int pgNo = known; pgNo < tablePages; pgNo++) {
+            Page p = hf.readPage(new HeapPageId(hf.getId(), pgNo));
+            if (p instanceof HeapPage)
+                persistEntry(pgNo, recompute((HeapPage) p));
+        }
+    }
+
+    private void readValues() throws IOException, ParseException {
+        Type type = hf.getTupleDesc().getFieldType(column);
+        DataInputStream in = new DataInputStream(new BufferedInputStream(
+                new FileInputStream(valuesFile)));
+        try {
+            long n = valuesFile.length() / type.getLen();
+            for (long i = 0; i < n; i++)
+                addValue(type.parse(in));
+        } finally {
+            in.close();
+        }
+    }
+
+    //read the entries of pages 0..n-1 into the bitmaps, many at a time
+    private void readEntries(int n) throws IOException {
+        int batch = Math.max(1, (1 << 20) / (slotsPerPage * 2));
+        ByteBuffer bb = ByteBuffer.allocate(batch * slotsPerPage * 2);
+        for (int first = 0; first < n; first += batch) {
+            int count = Math.min(batch, n - first);
+            bb.clear();
+            bb.limit(count * slotsPerPage * 2);
+            sidecar.readPage(first, bb);
+            bb.flip();
+            for (int pgNo = first; pgNo < first + count; pgNo++) {
+                for (int slot = 0; slot < slotsPerPage; slot++) {
+                    int code = bb.getChar();
+                    if (code > values.size())
+                        throw new IOException("unknown value code " + code);
+                    if (code > 0)
+                        bitmaps.get(values.get(code - 1)).add(pgNo, slot);
+                }
+            }
+        }
+    }
+
+    private void addValue(Field v) {
+        values.add(v);
+        codes.put(v, values.size());
+        bitmaps.put(v, new Bitmap());
+    }
+
+    //the code of v, adding it to the values sidecar first if it is new;
+    //0 once there are too many values
+    private int code(Field v) {
+        Integer c = codes.get(v);
+        if (c != null)
+            return c;
+        if (values.size() == MAX_VALUES) {
+            full = true;
+            return 0;
+        }
+        try {
+            DataOutputStream out = new DataOutputStream(new FileOutputStream(valuesFile, true));
+            try {
+                v.serialize(out);
+            } finally {
+                out.close();
+            }
+        } catch (IOException e) {
+            //the sidecars are rebuilt when found stale
+            e.printStackTrace();
+        }
+        addValue(v);
+        return values.size();
+    }
+
+    //set the bits of page from its tuples; returns the codes of its slots
+    private char[] recompute(HeapPage page) {
+        int pgNo = page.getId().pageNumber();
+        for (Bitmap b : bitmaps.values())
+            b.clearPage(pgNo);
+        char[] entry = new char[slotsPerPage];
+        Iterator<Tuple> it = page.iterator();
+        while (it.hasNext()) {
+            Tuple t = it.next();
+            int slot = t.getRecordId().tupleno();
+            int code = code(t.getField(column));
+            if (code > 0) {
+                bitmaps.get(values.get(code - 1)).add(pgNo, slot);
+                if (slot < slotsPerPage)
+                    entry[slot] = (char) code;
+            }
+        }
+        return entry;
+    }
+
+    private void persistEntry(int pgNo, char[] entry) {
+        ByteBuffer bb = ByteBuffer.allocate(slotsPerPage * 2);
+        bb.asCharBuffer().put(entry);
+        try {
+            sidecar.writePage(pgNo, bb);
+        } catch (IOException e) {
+            //the sidecars are rebuilt when found stale
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Records, in memory only, that t was inserted into slot of page pgNo.
+     */
+    public synchronized void inserted(int pgNo, int slot, Tuple t) {
+        load();
+        int code = code(t.getField(column));
+        if (code > 0)
+            bitmaps.get(values.get(code - 1)).add(pgNo, slot);
+    }
+
+    /**
+     * Sets the bits of the page from its contents and writes its entry to
+     * the sidecar. Called when the page is written to disk.
+     */
+    public synchronized void persist(HeapPage page) {
+        load();
+        persistEntry(page.getId().pageNumber(), recompute(page));
+    }
+
+    /**
+     * Sets the bits of the page from its contents, in memory only. Called
+     * when an aborted transaction's changes to a cached page are undone.
+     */
+    public synchronized void restore(HeapPage page) {
+        load();
+        recompute(page);
+    }
+
+    /**
+     * Drops the bits and entries of pages numPages and up. Called when the
+     * table file is truncated.
+     */
+    public synchronized void truncate(int numPages) {
+        load();
+        for (Bitmap b : bitmaps.values())
+            b.truncate(numPages);
+        try {
+            sidecar.truncate(numPages);
+        } catch (IOException e) {
+            //the sidecars are rebuilt when found stale
+            e.printStackTrace();
+        }
+    }
+
+    /** @return the number of distinct values the index has seen */
+    public synchronized int numValues() {
+        load();
+        return values.size();
+    }
+
+    /**
+     * @return true if the index can find the tuples satisfying predicates on
+     *   its column; false once the column has had more distinct values than
+     *   it can code
+     */
+    public synchronized boolean isUsable() {
+        load();
+        return !full;
+    }
+
+    /**
+     * @return a new bitmap of the positions of the tuples whose value of
+     *   the column satisfies "value op operand": the OR of the bitmaps of
+     *   all values that do
+     */
+    public synchronized Bitmap lookup(Predicate.Op op, Field operand) {
+        load();
+        List<Bitmap> matching = new ArrayList<Bitmap>();
+        for (Field v : values)
+            if (v.compare(op, operand))
+                matching.add(bitmaps.get(v));
+        if (matching.isEmpty())
+            return new Bitmap();
+        //OR them pairwise, so that each position is copied log n times
+        //rather than once per value
+        while (matching.size() > 1) {
+            List<Bitmap> next = new ArrayList<Bitmap>();
+            for (int i = 0; i + 1 < matching.size(); i += 2)
+                next.add(matching.get(i).or(matching.get(i + 1)));
+            if (matching.size() % 2 == 1)
+                next.add(matching.get(matching.size() - 1));
+            matching = next;
+        }
+        //a copy, as the value's own bitmap changes with the table
+        return matching.get(0).or(new Bitmap());
+    }
+
+    /**
+     * @return a new bitmap of the positions of the tuples that satisfy all
+     *   of preds, which must be predicates on the column
+     */
+    public synchronized Bitmap lookup(List<Predicate> preds) {
+        Bitmap result = null;
+        for (Predicate p : preds) {
+            Bitmap b = lookup(p.getOp(), p.getOperand());
+            result = result == null ? b : result.and(b);
+        }
+        return result;
+    }
+
+    /**
+     * @return the approximate number of bytes the bitmaps take in memory
+     */
+    public synchronized long sizeInBytes() {
+        load();
+        long n = 0;
+        for (Bitmap b : bitmaps.values())
+            n += b.sizeInBytes();
+        return n;
+    }
+}
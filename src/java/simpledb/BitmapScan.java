@@ -0,0 +1,140 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * BitmapScan is an access method that reads the tuples of a heap file
+ * table that satisfy a set of predicates on columns with bitmap indexes.
+ * It combines the bitmaps of the predicates first, and then fetches only
+ * the pages with set bits, and on them only the tuples in the set slots.
+ * Its tuples have the TupleDesc of the table and come in table order.
+ * <p>
+ * The bitmaps are combined when the scan is opened, without locks. The
+ * indexes include uncommitted inserts, and keep the bits of deletes until
+ * they commit, so a tuple may have been deleted or replaced by the time
+ * its page is read; callers should still apply the predicates.
+ *
+ * @see BitmapIndex
+ * @see LogicalPlan#physicalPlan
+ */
+public class BitmapScan extends SeqScan {
+
+    private static final long serialVersionUID = 1L;
+    private final List<Predicate> preds;
+
+    /**
+     * Creates a scan over the tuples of the specified table that satisfy
+     * preds as a part of the specified transaction.
+     *
+     * @param tid
+     *            The transaction this scan is running as a part of.
+     * @param tableid
+     *            the table to scan, a HeapFile
+     * @param tableAlias
+     *            the alias of this table (see SeqScan)
+     * @param preds
+     *            predicates on columns of the table that have bitmap
+     *            indexes
+     */
+    public BitmapScan(TransactionId tid, int tableid, String tableAlias,
+            List<Predicate> preds) {
+        super(tid, tableid, tableAlias);
+        this.preds = new ArrayList<Predicate>(preds);
+        this.it = new BitmapIterator(tid,
+                (HeapFile) Database.getCatalog().getDbFile(tableid), this.preds);
+    }
+
+    /** @return the predicates the tuples of this scan satisfy */
+    public List<Predicate> getPredicates() {
+        return preds;
+    }
+
+    /**
+     * @return the positions of the tuples of hf that satisfy all of preds,
+     *   the AND of the bitmaps of each, or null if a predicate is on a
+     *   column without a usable bitmap index
+     */
+    public static Bitmap lookup(HeapFile hf, List<Predicate> preds) {
+        Bitmap result = null;
+        for (Predicate p : preds) {
+            BitmapIndex index = null;
+            for (BitmapIndex b : hf.getBitmapIndexes())
+                if (b.getColumn() == p.getField() && b.isUsable())
+                    index = b;
+            if (index == null)
+                return null;
+            Bitmap b = index.lookup(p.getOp(), p.getOperand());
+            result = result == null ? b : result.and(b);
+        }
+        return result;
+    }
+
+    //reads the tuples in the set slots of each page with set bits
+    private static class BitmapIterator implements DbFileIterator {
+        private final TransactionId tid;
+        private final HeapFile hf;
+        private final List<Predicate> preds;
+        private Bitmap bitmap = null;
+        //the index of the next page in bitmap, and the slots to read of the
+        //current one
+        private int page;
+        private HeapPage current;
+        private int[] slots;
+        private int pos;
+        private Tuple next = null;
+
+        BitmapIterator(TransactionId tid, HeapFile hf, List<Predicate> preds) {
+            this.tid = tid;
+            this.hf = hf;
+            this.preds = preds;
+        }
+
+        public void open() throws DbException, TransactionAbortedException {
+            bitmap = lookup(hf, preds);
+            if (bitmap == null)
+                throw new DbException("no bitmap index for " + preds);
+            page = 0;
+            current = null;
+            slots = new int[0];
+            pos = 0;
+            next = null;
+        }
+
+        public boolean hasNext() throws DbException, TransactionAbortedException {
+            while (next == null && bitmap != null) {
+                if (pos < slots.length) {
+                    next = current.getTuple(slots[pos++]);
+                } else if (page < bitmap.numPages()) {
+                    HeapPageId pid = new HeapPageId(hf.getId(), bitmap.getPage(page));
+                    current = (HeapPage) Database.getBufferPool().getPage(tid, pid,
+                            Permissions.READ_ONLY);
+                    slots = bitmap.getSlots(page++);
+                    pos = 0;
+                } else {
+                    bitmap = null;
+                }
+            }
+            return next != null;
+        }
+
+        public Tuple next() throws DbException, TransactionAbortedException,
+                NoSuchElementException {
+            if (!hasNext())
+                throw new NoSuchElementException();
+            Tuple t = next;
+            next = null;
+            return t;
+        }
+
+        public void rewind() throws DbException, TransactionAbortedException {
+            close();
+            open();
+        }
+
+        public void close() {
+            bitmap = null;
+            current = null;
+            next = null;
+        }
+    }
+}
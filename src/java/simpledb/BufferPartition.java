@@ -0,0 +1,269 @@
+package simpledb;
+
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * BufferPartition is one partition of a BufferPool: the cached pages whose
+ * PageIds hash to it, with their own map, replacement policy, frames, page
+ * locks and byte budget. A page only leaves its partition to make room for
+ * a page of the same partition, so getPage calls for pages of different
+ * partitions never wait for each other.
+ * <p>
+ * A partition is its own latch. Its methods must be called with it
+ * locked, and never lock another partition; only the map is read without
+ * the latch. Page locks are taken in its LockManager before the latch.
+ */
+class BufferPartition extends ReentrantLock {
+
+    private static final long serialVersionUID = 1L;
+
+    final Map<PageId, Node> pages = new ConcurrentHashMap<PageId, Node>();
+    final ReplacementPolicy policy;
+    //the frames pages are read into, or null to read them onto the heap
+    final FrameArena arena;
+    final LockManager lockManager = new LockManager();
+    //bytes the cached pages may take, bytes they take, bytes taken by
+    //pages being read for getPage calls, and by pages being read ahead
+    final long capacity;
+    long cachedBytes = 0;
+    long readingBytes = 0;
+    long reservedBytes = 0;
+    //signalled when a page read for a getPage call is cached
+    final Condition pageRead = newCondition();
+    //pages flushed so far; a page read ahead while a page was flushed may
+    //be older than the flushed copy, so it is dropped
+    volatile long pagesFlushed = 0;
+    //getPage calls that found their page cached, and that had to read it
+    volatile long hits = 0;
+    volatile long misses = 0;
+
+    /**
+     * Creates a partition that caches up to numPages pages of PAGE_SIZE
+     * bytes, evicting as policy chooses.
+     *
+     * @param offHeap true to read heap pages into frames of an arena
+     */
+    BufferPartition(int numPages, ReplacementPolicy policy, boolean offHeap) {
+        this.policy = policy;
+        this.arena = offHeap ? new FrameArena(numPages) : null;
+        this.capacity = (long) numPages * BufferPool.PAGE_SIZE;
+    }
+
+    //true if a page of size bytes fits in the partition without evicting
+    boolean hasRoom(int size) {
+        return cachedBytes + readingBytes + reservedBytes + size <= capacity;
+    }
+
+    //true if a page of size bytes that getPage needs fits without evicting.
+    //Pages being read ahead do not count: getPage takes their room, and a
+    //read ahead that finds no room left when it completes is dropped
+    boolean hasRoomToRead(int size) {
+        return cachedBytes + readingBytes + size <= capacity;
+    }
+
+    /**
+     * Evicts clean pages until a page of size bytes that getPage needs
+     * fits. If no page can be evicted but pages are being read for other
+     * getPage calls, waits for one of them to be cached, which releases
+     * the latch meanwhile.
+     *
+     * @return true if the page fits, or is larger than the whole partition
+     *   and the partition is empty; false if it waited, so that the caller
+     *   must look the page up again
+     * @throws DbException if all the pages of the partition are dirty
+     */
+    boolean makeRoomToRead(int size) throws DbException {
+        while (!hasRoomToRead(size)) {
+            if (victim() != null) {
+                evictPage();
+            } else if (readingBytes > 0) {
+                pageRead.awaitUninterruptibly();
+                return false;
+            } else if (pages.isEmpty()) {
+                return true;
+            } else {
+                throw new DbException("all pages dirty");
+            }
+        }
+        return true;
+    }
+
+    //drop page pid from the partition, without writing it
+    void discard(PageId pid) {
+        Node n = pages.remove(pid);
+        if (n != null) {
+            cachedBytes -= n.size;
+            policy.removed(pid);
+            releaseFrame(n);
+        }
+    }
+
+    //a free frame of the arena to read page pid into, or -1 to read it
+    //onto the heap
+    int allocateFrame(PageId pid) {
+        if (arena == null)
+            return -1;
+        DbFile f = Database.getCatalog().getDbFile(pid.getTableId());
+        if (!(f instanceof HeapFile) || !((HeapFile) f).readsIntoFrames())
+            return -1;
+        return arena.allocate();
+    }
+
+    //read page pid into frame, or onto the heap if frame is -1; this is
+    //the one method that may be called without the latch, as the frame is
+    //not in use until the page is cached
+    Page readPage(PageId pid, int frame) {
+        DbFile f = Database.getCatalog().getDbFile(pid.getTableId());
+        if (frame < 0)
+            return f.readPage(pid);
+        return ((HeapFile) f).readPage(pid, arena.frame(frame));
+    }
+
+    //give the frame of n back to the arena, first detaching the page read
+    //into it, which a transaction or a tuple of it may still be using
+    void releaseFrame(Node n) {
+        if (n.frame < 0)
+            return;
+        if (n.framed != null)
+            n.framed.detach();
+        arena.release(n.frame);
+        n.frame = -1;
+        n.framed = null;
+    }
+
+    //drop a clean page that is not waiting to be used by a scan, to make
+    //room for a page read ahead
+    boolean evictCleanPage() {
+        Iterator<PageId> it = policy.victims();
+        while (it.hasNext()) {
+            Node n = pages.get(it.next());
+            if (n.page.isDirty() == null && !n.prefetched) {
+                discard(n.pageId);
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Discards a clean page from the partition. Dirty pages are never
+     * evicted, so that no uncommitted change reaches the disk (NO STEAL).
+     *
+     * @throws DbException if all the pages of the partition are dirty
+     */
+    void evictPage() throws DbException {
+        Node victim = victim();
+        if (victim == null)
+            throw new DbException("all pages dirty");
+        discard(victim.pageId);
+    }
+
+    //the page to evict, or null if all pages are dirty. Best is the first
+    //victim of the policy that is clean and that nobody holds a write lock
+    //on: the holder may be about to change the page it was handed, and
+    //would change a page the pool no longer holds. Failing that, a clean
+    //page, rather not one read ahead for a scan that has yet to use it
+    private Node victim() {
+        Node clean = null;
+        Node prefetched = null;
+        Iterator<PageId> it = policy.victims();
+        while (it.hasNext()) {
+            Node n = pages.get(it.next());
+            if (n.page.isDirty() != null) {
+                continue;
+            } else if (n.prefetched) {
+                if (prefetched == null)
+                    prefetched = n;
+            } else if (!lockManager.isWriteLocked(n.pageId)) {
+                return n;
+            } else if (clean == null) {
+                clean = n;
+            }
+        }
+        return clean != null ? clean : prefetched;
+    }
+
+    /**
+     * Flushes a certain page to disk
+     * @param pid an ID indicating the page to flush
+     */
+    void flushPage(PageId pid) {
+        try {
+            Node node = pages.get(pid);
+            //evicted by another thread meanwhile, which wrote it
+            if (node == null)
+                return;
+            Page page = node.page;
+            page.markDirty(false, null);
+            DbFile dbFile = Database.getCatalog().getDbFile(pid.getTableId());
+            dbFile.writePage(page);
+            pagesFlushed++;
+        } catch(IOException e) {
+            e.printStackTrace();
+            System.exit(0);
+        }
+    }
+
+    //A method to tell the policy a cached page was accessed, unless it was
+    //evicted meanwhile. A page of a ring that is used other than by the
+    //ring's scan leaves the ring.
+    void touch(Node node, BufferRing ring) {
+        if (pages.get(node.pageId) != node)
+            return;
+        if (node.ring != ring)
+            node.ring = null;
+        policy.accessed(node.pageId);
+    }
+
+    //cache page pid, read into frame unless it is -1, for the scan of ring
+    //if it is not null
+    void cache(PageId pid, Page page, BufferRing ring, int frame) {
+        updateLruWithNewNode(pid, page);
+        if (frame >= 0) {
+            Node node = pages.get(pid);
+            node.frame = frame;
+            if (page instanceof HeapPage)
+                node.framed = (HeapPage) page;
+            else
+                releaseFrame(node);
+        }
+        if (ring != null) {
+            pages.get(pid).ring = ring;
+            ring.add(pid);
+        }
+    }
+
+    //drop page pid, just taken out of ring as its oldest page, if it is
+    //still only the ring's, clean and not locked for writing; otherwise it
+    //stays cached as any other page
+    boolean recycle(PageId pid, BufferRing ring) {
+        Node n = pages.get(pid);
+        if (n == null || n.ring != ring)
+            return false;
+        n.ring = null;
+        if (n.page.isDirty() == null && !n.prefetched
+                && !lockManager.isWriteLocked(pid)) {
+            discard(pid);
+            return true;
+        }
+        return false;
+    }
+
+    //A method to update LRU cache when page are accessed.
+    void updateLruWithNewNode(PageId pid, Page retrievedPage) {
+        Node node = new Node(pid, retrievedPage);
+        node.size = BufferPool.pageSize(pid);
+        Node old = pages.put(pid, node);
+        if (old != null) {
+            policy.accessed(pid);
+            releaseFrame(old);
+        } else {
+            policy.admitted(pid);
+        }
+        cachedBytes += node.size - (old == null ? 0 : old.size);
+    }
+}
@@ -3,12 +3,34 @@ package simpledb;
 import java.io.*;
 import java.util.*;
 import java.util.concurrent.*;
+import java.nio.ByteBuffer;
 
 /**
  * BufferPool manages the reading and writing of pages into memory from
  * disk. Access methods call into it to retrieve pages, and it fetches
  * pages from the appropriate location.
  * <p>
+ * When the pool is full, it evicts a page chosen by its
+ * {@link ReplacementPolicy}, which sees every page that enters the pool,
+ * every getPage of a cached page and every page that leaves the pool. The
+ * default is LRU. Scans of tables larger than the pool read their pages
+ * into a {@link BufferRing} of their own instead.
+ * <p>
+ * Heap file pages of PAGE_SIZE bytes are read into the frames of a
+ * {@link FrameArena} of direct memory, of which the cached HeapPages are
+ * views, so that the page images are not on the Java heap. The system
+ * property simpledb.OffHeapFrames=false turns the arena off.
+ * <p>
+ * The pool is split into partitions by a hash of the PageId. Each
+ * partition has its own map, replacement policy, frames, page locks and
+ * latch, and its share of the pool's memory, so that getPage calls for
+ * pages of different partitions never wait for each other. Pools of fewer
+ * than 2 * PARTITION_PAGES pages have one partition; the system property
+ * simpledb.BufferPoolPartitions sets the number, up to one partition per
+ * PARTITION_PAGES pages. Dirty pages are never evicted, so each partition
+ * must have room for the pages transactions dirty in it: a pool split into
+ * tiny partitions would run out of room in one while others have plenty.
+ * <p>
  * The BufferPool is also responsible for locking;  when a transaction fetches
  * a page, BufferPool checks that the transaction has the appropriate
  * locks to read/write the page.
@@ -24,26 +46,149 @@ public class BufferPool {
     private static final int ABORT_UPPER_TIME = 300;
     private static final int SLEEP_TIME = 200;
 
+    /** Number of pages a sequential scan asks to have read ahead of it. */
+    public static final int PREFETCH_PAGES = 8;
+    /** Number of pages in the ring of a large sequential scan. */
+    public static final int RING_PAGES = 16;
+    /** Number of threads reading pages ahead of scans. */
+    public static final int PREFETCH_THREADS = 4;
+    //shared by all buffer pools; daemon threads, so they never keep the
+    //JVM alive
+    private static ExecutorService prefetcher = null;
+
+    /** Fewest pages in a partition of a pool split by default. */
+    public static final int PARTITION_PAGES = 512;
+    /** Most partitions a pool is split into by default. */
+    public static final int PARTITIONS = 16;
+
     private int pageNum = 0;
-    private Map<PageId, Node> bufferedPages = null;
-    private Node head = null;
-    private Node end = null;
+    //bytes the cached pages may take: pageNum pages of PAGE_SIZE bytes,
+    //shared by tables of all page sizes
+    private final long capacity;
+    //the partitions; each caches and locks the pages that hash to it
+    private final BufferPartition[] partitions;
+    //the pages getPage was called for, while a trace is recorded
+    private volatile List<PageId> trace = null;
 
     //proj4
-    private LockManager lockManager;
     private Map<TransactionId, Long> currentTransactions;
+    //running transactions that have only fetched pages they could lock
+    //right away (see tryGetPage). Waiting for one of them cannot be part of
+    //a deadlock, so acquireLock waits for their locks however long it takes
+    private Set<TransactionId> neverWaited;
+    //pages each running transaction appended with bulkInsertTuples
+    private Map<TransactionId, List<PageId>> appendedPages;
+    //tables each running transaction deleted tuples from, which may need
+    //a vacuum once it commits
+    private Map<TransactionId, Set<Integer>> deletedFrom;
+    //pages being read, ahead of a scan or for a getPage call; getPage
+    //waits for these reads rather than reading the page a second time
+    private ConcurrentHashMap<PageId, Future<Page>> reading;
+    private volatile int readAhead = PREFETCH_PAGES;
+    private volatile int ringPages = RING_PAGES;
 
     /**
-     * Creates a BufferPool that caches up to numPages pages.
+     * Creates a BufferPool that caches up to numPages pages. Tables whose
+     * pages are not PAGE_SIZE bytes share the same memory: the pool holds
+     * numPages * PAGE_SIZE bytes of pages of any size. The replacement
+     * policy is the one the system property simpledb.ReplacementPolicy
+     * names, LRU by default, and the number of partitions the one the
+     * property simpledb.BufferPoolPartitions sets, or one per
+     * PARTITION_PAGES pages up to PARTITIONS by default.
      *
      * @param numPages maximum number of pages in this buffer pool.
      */
     public BufferPool(int numPages) {
+        this(numPages, Integer.getInteger("simpledb.BufferPoolPartitions",
+                Math.min(PARTITIONS, numPages / PARTITION_PAGES)).intValue());
+    }
+
+    /**
+     * Creates a BufferPool that caches up to numPages pages in numPartitions
+     * partitions of about the same number of pages, each with a policy of
+     * its own of the kind simpledb.ReplacementPolicy names.
+     *
+     * @param numPages maximum number of pages in this buffer pool.
+     * @param numPartitions number of partitions; at least 1, and at most
+     *   one per PARTITION_PAGES pages, are used
+     */
+    public BufferPool(int numPages, int numPartitions) {
+        this(numPages, policies(numPages, numPartitions));
+    }
+
+    /**
+     * Creates a BufferPool of one partition that caches up to numPages
+     * pages and evicts pages as policy chooses.
+     *
+     * @param numPages maximum number of pages in this buffer pool.
+     * @param policy a new policy, not used by any other pool
+     */
+    public BufferPool(int numPages, ReplacementPolicy policy) {
+        this(numPages, new ReplacementPolicy[] { policy });
+    }
+
+    private BufferPool(int numPages, ReplacementPolicy[] policies) {
         // some code goes here
         this.pageNum = numPages;
-        this.bufferedPages = new ConcurrentHashMap<PageId, Node>();
+        this.capacity = (long) numPages * PAGE_SIZE;
+        boolean offHeap = Boolean.parseBoolean(
+                System.getProperty("simpledb.OffHeapFrames", "true"));
+        this.partitions = new BufferPartition[policies.length];
+        for (int i = 0; i < partitions.length; i++)
+            partitions[i] = new BufferPartition(share(numPages, partitions.length, i),
+                    policies[i], offHeap);
         currentTransactions = new ConcurrentHashMap<TransactionId, Long>();
-        lockManager = new LockManager();
+        neverWaited = Collections.newSetFromMap(new ConcurrentHashMap<TransactionId, Boolean>());
+        appendedPages = new ConcurrentHashMap<TransactionId, List<PageId>>();
+        deletedFrom = new ConcurrentHashMap<TransactionId, Set<Integer>>();
+        reading = new ConcurrentHashMap<PageId, Future<Page>>();
+    }
+
+    //a policy for each of numPartitions partitions of a pool of numPages
+    //pages, sized for the pages of its partition; no partition has fewer
+    //than PARTITION_PAGES pages, unless the pool has only one
+    private static ReplacementPolicy[] policies(int numPages, int numPartitions) {
+        int n = Math.max(1, Math.min(numPartitions, numPages / PARTITION_PAGES));
+        ReplacementPolicy[] policies = new ReplacementPolicy[n];
+        for (int i = 0; i < n; i++)
+            policies[i] = ReplacementPolicy.create(share(numPages, n, i));
+        return policies;
+    }
+
+    //the pages of partition i of n of a pool of numPages pages
+    private static int share(int numPages, int n, int i) {
+        return numPages / n + (i < numPages % n ? 1 : 0);
+    }
+
+    //the partition of page pid. Consecutive pages of a table go to
+    //consecutive partitions, so that a table is spread evenly over them,
+    //and tables start at scattered partitions
+    private BufferPartition partition(PageId pid) {
+        if (partitions.length == 1)
+            return partitions[0];
+        int h = pid.getTableId() * 0x9e3779b9 + pid.pageNumber();
+        return partitions[(h & 0x7fffffff) % partitions.length];
+    }
+
+    /** @return the number of partitions of the pool */
+    public int getPartitions() {
+        return partitions.length;
+    }
+
+    /**
+     * Locks the latches of all partitions, in order, so that no page
+     * enters, leaves or is written until {@link #unlatchAll}. The LogFile
+     * holds the whole pool this way while it checkpoints or rolls back.
+     */
+    public void latchAll() {
+        for (BufferPartition p : partitions)
+            p.lock();
+    }
+
+    /** Unlocks the latches {@link #latchAll} locked. */
+    public void unlatchAll() {
+        for (int i = partitions.length - 1; i >= 0; i--)
+            partitions[i].unlock();
     }
 
     /**
@@ -62,21 +207,402 @@ public class BufferPool {
      * @param perm the requested permissions on the page
      */
     public  Page getPage(TransactionId tid, PageId pid, Permissions perm)
+        throws TransactionAbortedException, DbException {
+        return getPage(tid, pid, perm, null);
+    }
+
+    /**
+     * Retrieves the specified page like {@link #getPage(TransactionId,
+     * PageId, Permissions)}, for a scan that reads its pages into ring. If
+     * the page is not cached, it takes the place of the oldest page of the
+     * ring once the ring is full.
+     *
+     * @param ring the ring of the scan, or null to cache the page as usual
+     */
+    public  Page getPage(TransactionId tid, PageId pid, Permissions perm, BufferRing ring)
         throws TransactionAbortedException, DbException {
         // some code goes here
         //return null;
 
+        acquireLock(tid, pid, perm);
+        List<PageId> t = trace;
+        if (t != null)
+            t.add(pid);
+
+        BufferPartition p = partition(pid);
+        //the oldest page of the ring may be of another partition, and only
+        //latchAll holds two latches at once, so recycle before latching
+        if (ring != null && !p.pages.containsKey(pid))
+            recycle(ring);
+
+        for (;;) {
+            //if the page is being read, ahead of a scan or for another
+            //getPage call, let that read finish first
+            Future<Page> pending = reading.get(pid);
+            if (pending != null) {
+                try {
+                    pending.get();
+                } catch (InterruptedException e) {
+                    //read the page ourselves below
+                } catch (ExecutionException e) {
+                    //read the page ourselves below
+                }
+            }
+
+            FutureTask<Page> read;
+            p.lock();
+            try {
+                Node node = p.pages.get(pid);
+                if (node != null) {
+                    //a page read ahead was not cached for its own sake
+                    if (node.prefetched)
+                        p.misses++;
+                    else
+                        p.hits++;
+                    node.prefetched = false;
+                    p.touch(node, ring);
+                    return node.page;
+                }
+                //another getPage call started reading it meanwhile
+                if (reading.containsKey(pid))
+                    continue;
+                int size = pageSize(pid);
+                if (!p.makeRoomToRead(size))
+                    continue;
+                p.misses++;
+                read = read(p, pid, size, ring);
+            } finally {
+                p.unlock();
+            }
+
+            //read outside the latch, so that hits on the partition do not
+            //wait for the disk
+            read.run();
+            try {
+                return read.get();
+            } catch (InterruptedException e) {
+                //the read already ran
+                throw new RuntimeException(e);
+            } catch (ExecutionException e) {
+                if (e.getCause() instanceof Error)
+                    throw (Error) e.getCause();
+                throw (RuntimeException) e.getCause();
+            }
+        }
+    }
+
+    /**
+     * Retrieves the specified page like {@link #getPage(TransactionId,
+     * PageId, Permissions)} if tid can lock it right away, and never waits
+     * for a lock another transaction holds. Used by background work such as
+     * {@link Vacuum}, which can pass over a page in use rather than make
+     * the transactions that use it wait.
+     *
+     * @return the page, or null if another transaction holds a lock on it
+     *   that conflicts with perm
+     */
+    public Page tryGetPage(TransactionId tid, PageId pid, Permissions perm)
+        throws TransactionAbortedException, DbException {
+        if (!currentTransactions.containsKey(tid)) {
+            currentTransactions.put(tid, System.currentTimeMillis());
+            neverWaited.add(tid);
+        }
+        if (partition(pid).lockManager.grantLock(pid, tid, perm))
+            return null;
+        return getPage(tid, pid, perm);
+    }
+
+    //the read of page pid, of size bytes, into partition p, which is
+    //latched and has room for it. The bytes are reserved and the read is
+    //registered in reading, so that other getPage calls for pid wait for
+    //it; once run, it caches the page for the scan of ring, if any
+    private FutureTask<Page> read(final BufferPartition p, final PageId pid,
+            final int size, final BufferRing ring) {
+        p.readingBytes += size;
+        final int frame = p.allocateFrame(pid);
+        FutureTask<Page> read = new FutureTask<Page>(new Callable<Page>() {
+            public Page call() {
+                Page page = null;
+                try {
+                    page = p.readPage(pid, frame);
+                } finally {
+                    p.lock();
+                    try {
+                        p.readingBytes -= size;
+                        if (page != null)
+                            p.cache(pid, page, ring, frame);
+                        else if (frame >= 0)
+                            p.arena.release(frame);
+                        p.pageRead.signalAll();
+                    } finally {
+                        p.unlock();
+                    }
+                    reading.remove(pid);
+                }
+                return page;
+            }
+        });
+        reading.put(pid, read);
+        return read;
+    }
+
+    /**
+     * @return the number of getPage calls that found their page cached,
+     *   not counting pages read ahead of a scan
+     */
+    public long getHits() {
+        long hits = 0;
+        for (BufferPartition p : partitions)
+            hits += p.hits;
+        return hits;
+    }
+
+    /**
+     * @return the number of getPage calls that had to read their page, or
+     *   found it read ahead of a scan
+     */
+    public long getMisses() {
+        long misses = 0;
+        for (BufferPartition p : partitions)
+            misses += p.misses;
+        return misses;
+    }
+
+    /**
+     * @return the number of getPage calls that found their page cached, out
+     *   of all getPage calls, or 0 if there were none
+     */
+    public double getHitRatio() {
+        long h = getHits();
+        long n = h + getMisses();
+        return n == 0 ? 0 : h / (double) n;
+    }
+
+    /** Sets the hit and miss counts back to 0. */
+    public void resetStats() {
+        for (BufferPartition p : partitions) {
+            p.lock();
+            try {
+                p.hits = 0;
+                p.misses = 0;
+            } finally {
+                p.unlock();
+            }
+        }
+    }
+
+    /**
+     * Starts recording the pages getPage is called for, to replay them
+     * through replacement policies offline. Recording a trace again starts
+     * a new one.
+     */
+    public void startTrace() {
+        trace = Collections.synchronizedList(new ArrayList<PageId>());
+    }
+
+    /**
+     * Stops recording pages.
+     *
+     * @return the pages getPage was called for since startTrace, in order,
+     *   or an empty list if no trace was being recorded
+     */
+    public List<PageId> stopTrace() {
+        List<PageId> t = trace;
+        trace = null;
+        return t == null ? new ArrayList<PageId>() : t;
+    }
+
+    /**
+     * @return the number of pages a sequential scan asks to have read ahead
+     *   of the page it is on
+     */
+    public int getReadAhead() {
+        return readAhead;
+    }
+
+    /**
+     * Sets the number of pages sequential scans ask to have read ahead; 0
+     * turns read-ahead off.
+     */
+    public void setReadAhead(int pages) {
+        readAhead = pages;
+    }
+
+    /**
+     * @return the number of pages in the ring of a large sequential scan
+     */
+    public int getScanRing() {
+        return ringPages;
+    }
+
+    /**
+     * Sets the number of pages in the rings of large sequential scans; 0
+     * turns rings off, so that scans cache their pages as usual.
+     */
+    public void setScanRing(int pages) {
+        ringPages = pages;
+    }
+
+    /**
+     * Returns a new ring for a sequential scan of bytes bytes of pages, if
+     * the scan is large enough to need one: if it reads more than the pool
+     * holds. The ring holds enough pages for the pages read ahead.
+     *
+     * @return the ring, or null if the scan should cache its pages as usual
+     */
+    public BufferRing scanRing(long bytes) {
+        int pages = ringPages;
+        if (pages <= 0 || bytes <= capacity)
+            return null;
+        return new BufferRing(Math.max(pages, 2 * readAhead));
+    }
+
+    /**
+     * Starts reading page pid into the buffer pool on a background I/O
+     * thread, so that a sequential scan finds it cached when it gets there.
+     * Nothing happens if the page is cached or already being read. No lock
+     * is taken: the page only enters the pool if it is still not cached when
+     * the read completes, and getPage calls for it wait for the read.
+     * <p>
+     * Read-ahead only uses free memory, or memory of clean pages that were
+     * not themselves read ahead and not yet used; it never writes a page.
+     *
+     * @return false if there was no room to read the page into
+     */
+    public boolean prefetchPage(PageId pid) {
+        return prefetchPage(pid, null);
+    }
+
+    /**
+     * Starts reading page pid into the buffer pool like {@link
+     * #prefetchPage(PageId)}, for a scan that reads its pages into ring.
+     *
+     * @param ring the ring of the scan, or null to cache the page as usual
+     */
+    public boolean prefetchPage(final PageId pid, final BufferRing ring) {
+        final BufferPartition p = partition(pid);
+        if (p.pages.containsKey(pid) || reading.containsKey(pid))
+            return true;
+        final int size = pageSize(pid);
+        if (ring != null)
+            recycle(ring);
+        p.lock();
+        try {
+            while (!p.hasRoom(size)) {
+                if (!p.evictCleanPage())
+                    return false;
+            }
+            if (reading.containsKey(pid))
+                return true;
+            p.reservedBytes += size;
+            final long flushed = p.pagesFlushed;
+            final int frame = p.allocateFrame(pid);
+            FutureTask<Page> read = new FutureTask<Page>(new Callable<Page>() {
+                public Page call() {
+                    try {
+                        Page page = p.readPage(pid, frame);
+                        p.lock();
+                        try {
+                            p.reservedBytes -= size;
+                            if (page != null && !p.pages.containsKey(pid)
+                                    && p.hasRoom(size)
+                                    && p.pagesFlushed == flushed) {
+                                p.cache(pid, page, ring, frame);
+                                p.pages.get(pid).prefetched = true;
+                            } else if (frame >= 0) {
+                                //the page was never handed out
+                                p.arena.release(frame);
+                            }
+                        } finally {
+                            p.unlock();
+                        }
+                        return page;
+                    } finally {
+                        reading.remove(pid);
+                    }
+                }
+            });
+            reading.put(pid, read);
+            prefetcher().execute(read);
+        } finally {
+            p.unlock();
+        }
+        return true;
+    }
+
+    private static synchronized ExecutorService prefetcher() {
+        if (prefetcher == null) {
+            prefetcher = Executors.newFixedThreadPool(PREFETCH_THREADS, new ThreadFactory() {
+                public Thread newThread(Runnable r) {
+                    Thread t = new Thread(r, "prefetch");
+                    t.setDaemon(true);
+                    return t;
+                }
+            });
+        }
+        return prefetcher;
+    }
+
+    //the number of bytes of page pid; only HeapFiles have pages of a size
+    //other than PAGE_SIZE
+    static int pageSize(PageId pid) {
+        DbFile f = Database.getCatalog().getDbFile(pid.getTableId());
+        return f instanceof HeapFile ? ((HeapFile) f).getPageSize() : PAGE_SIZE;
+    }
+
+    /**
+     * @return the bytes of direct memory the pool has allocated for page
+     *   frames so far
+     */
+    public long getOffHeapBytes() {
+        long bytes = 0;
+        for (BufferPartition p : partitions) {
+            p.lock();
+            try {
+                if (p.arena != null)
+                    bytes += p.arena.allocatedBytes();
+            } finally {
+                p.unlock();
+            }
+        }
+        return bytes;
+    }
+
+    //make room for the next page of ring, if it is full, by dropping its
+    //oldest page that is still only the ring's, clean and not locked for
+    //writing; the other pages leave the ring and stay cached
+    private void recycle(BufferRing ring) {
+        PageId oldest;
+        while ((oldest = ring.removeOldest()) != null) {
+            BufferPartition p = partition(oldest);
+            p.lock();
+            try {
+                if (p.recycle(oldest, ring))
+                    return;
+            } finally {
+                p.unlock();
+            }
+        }
+    }
+
+    //wait for the lock on pid, aborting tid once it has run too long,
+    //unless the lock is only held by transactions that never waited
+    private void acquireLock(TransactionId tid, PageId pid, Permissions perm)
+        throws TransactionAbortedException {
         //for new transactions, record time.
         if (!currentTransactions.containsKey(tid)) {
             long time = System.currentTimeMillis();
             currentTransactions.put(tid, time);
         }
 
+        LockManager lockManager = partition(pid).lockManager;
         boolean isDenied = lockManager.grantLock(pid, tid, perm);
         //put on sleep if denied
         while(isDenied){
+            neverWaited.remove(tid);
             if ((System.currentTimeMillis() - currentTransactions.get(tid))
-                 > ABORT_UPPER_TIME) {
+                 > ABORT_UPPER_TIME
+                 && !lockManager.heldOnlyBy(pid, tid, perm, neverWaited)) {
                 throw new TransactionAbortedException();
             }
 
@@ -89,25 +615,6 @@ public class BufferPool {
                 System.exit(0);
             }
         }
-
-        Page retrievedPage = null;
-        if (!bufferedPages.containsKey(pid)) {
-            if (bufferedPages.size() >= pageNum) {
-                evictPage();
-            }
-
-            retrievedPage = Database.getCatalog().getDbFile(pid.getTableId())
-                            .readPage(pid);
-
-            updateLruWithNewNode(pid, retrievedPage);
-        } else {
-            retrievedPage = bufferedPages.get(pid).page;
-            // Node node = bufferedPages.get(pid);
-            // removeNode(node);
-            // changeHead(node);
-        }
-
-        return retrievedPage;
     }
 
     /**
@@ -122,7 +629,7 @@ public class BufferPool {
     public  void releasePage(TransactionId tid, PageId pid) {
         // some code goes here
         // not necessary for proj4
-        lockManager.releaseLock(pid, tid);
+        partition(pid).lockManager.releaseLock(pid, tid);
     }
 
     /**
@@ -143,7 +650,7 @@ public class BufferPool {
         // some code goes here
         // not necessary for proj1
         //return false;
-        return lockManager.hasLocks(tid, p);
+        return partition(p).lockManager.hasLocks(tid, p);
     }
 
     /**
@@ -159,42 +666,94 @@ public class BufferPool {
         // not necessary for proj1
 
     	
-    	//commit, flush the pages
-    	if(commit){
-    		for(PageId pageId : bufferedPages.keySet()){
-    			Page page = bufferedPages.get(pageId).page;
-    			//dirty page
-    			if(page.isDirty() != null && tid.equals(page.isDirty())){
-    				flushPage(pageId);
-    				page.setBeforeImage();
-    			}
-
-                if (page.isDirty() == null) {
-                    page.setBeforeImage();
-                }
-    			
+    	//commit, flush the pages; each partition is latched while its
+    	//pages are gone through, as other threads may evict or replace
+    	//them meanwhile
+    	for (BufferPartition p : partitions) {
+    		p.lock();
+    		try {
+    			if (commit)
+    				commitPages(p, tid);
+    			else
+    				abortPages(p, tid);
+    		} finally {
+    			p.unlock();
     		}
     	}
-    	else{
-    		for(PageId pageId : bufferedPages.keySet()){
-    			Page page = bufferedPages.get(pageId).page;
-    			//dirty page, revert changes
-    			if(page.isDirty() != null && tid.equals(page.isDirty())){
-    				Node n = bufferedPages.get(pageId);
-    				n.page = page.getBeforeImage();
-    				bufferedPages.put(pageId, n);
-                   // updateLruWithNewNode(pageId, page.getBeforeImage());
+
+    	//pages appended by bulk inserts are already on disk; on abort,
+    	//overwrite them with empty pages
+    	List<PageId> appended = appendedPages.remove(tid);
+    	if (!commit && appended != null) {
+    		for (PageId pageId : appended) {
+    			HeapFile f = (HeapFile) Database.getCatalog().getDbFile(pageId.getTableId());
+    			Page empty = f.newPage((HeapPageId) pageId,
+    			        ByteBuffer.wrap(HeapPage.createEmptyPageData(f.getPageSize())));
+    			f.writePage(empty);
+    			BufferPartition p = partition(pageId);
+    			p.lock();
+    			try {
+    				Node n = p.pages.get(pageId);
+    				if (n != null)
+    					n.page = empty;
+    			} finally {
+    				p.unlock();
     			}
-    			
     		}
     	}
-    	
+
     	//release the lock
-    	lockManager.releaseAllTransactionLocks(tid);
+    	for (BufferPartition p : partitions)
+    		p.lockManager.releaseAllTransactionLocks(tid);
     	currentTransactions.remove(tid);
+    	neverWaited.remove(tid);
+
+    	//committed deletes may have left a table worth compacting
+    	Set<Integer> tables = deletedFrom.remove(tid);
+    	if (commit && tables != null) {
+    		for (int tableId : tables) {
+    			DbFile f = Database.getCatalog().getDbFile(tableId);
+    			if (f instanceof HeapFile)
+    				Vacuum.deleted((HeapFile) f);
+    		}
+    	}
     	
     }
 
+    //write the pages of partition p that tid dirtied, which is latched,
+    //and make the current contents of its clean pages their before images
+    private void commitPages(BufferPartition p, TransactionId tid) {
+    	for(Node node : p.pages.values()){
+    		Page page = node.page;
+    		//dirty page
+    		if(page.isDirty() != null && tid.equals(page.isDirty())){
+    			p.flushPage(node.pageId);
+    			page.setBeforeImage();
+    		}
+
+            if (page.isDirty() == null) {
+                page.setBeforeImage();
+            }
+    	}
+    }
+
+    //put back the before images of the pages of partition p that tid
+    //dirtied; p is latched
+    private void abortPages(BufferPartition p, TransactionId tid) {
+    	for(Node n : p.pages.values()){
+    		Page page = n.page;
+    		PageId pageId = n.pageId;
+    		//dirty page, revert changes
+    		if(page.isDirty() != null && tid.equals(page.isDirty())){
+    			n.page = page.getBeforeImage();
+    			//the free-space and zone maps saw the aborted inserts and deletes
+    			DbFile f = Database.getCatalog().getDbFile(pageId.getTableId());
+    			if (f instanceof HeapFile && n.page instanceof HeapPage)
+    				((HeapFile) f).pageRestored((HeapPage) n.page);
+    		}
+    	}
+    }
+
     /**
      * Add a tuple to the specified table behalf of transaction tid.  Will
      * acquire a write lock on the page the tuple is added to(Lock 
@@ -215,14 +774,14 @@ public class BufferPool {
         // not necessary for proj1
         try {
             DbFile dbFile = Database.getCatalog().getDbFile(tableId);
-            HeapFile heapFile = (HeapFile)dbFile;
-            List<Page> pages = heapFile.insertTuple(tid, t);
+            List<Page> pages = dbFile.insertTuple(tid, t);
             //Database.getCatalog().getDbFile(tableId)
               //          .insertTuple(tid, t);
             for (Page page : pages) {
-                page.markDirty(true, tid);
+                pageDirtied(tid, page);
                // updateLruWithNewNode(page.getId(), page);
             }
+            indexInserted(tid, tableId, t);
         } catch (TransactionAbortedException e) {
             e.printStackTrace();
             System.exit(0);
@@ -235,6 +794,89 @@ public class BufferPool {
         }
     }
 
+    /**
+     * Add a batch of tuples to the end of the specified table on behalf of
+     * transaction tid, on new pages that are filled one after another.
+     * The pages are written to the table file right away (see
+     * HeapFile#bulkInsert), under write locks of tid that are taken before
+     * the pages exist, so other transactions cannot see them before tid
+     * commits; they are overwritten with empty pages if tid aborts. The new
+     * pages are then registered in the buffer pool in one step, as far as
+     * there are free frames; the rest are read back from disk when needed.
+     *
+     * @param tid the transaction adding the tuples
+     * @param tableId the table to add the tuples to
+     * @param tuples the tuples to add
+     */
+    public void bulkInsertTuples(TransactionId tid, int tableId, List<Tuple> tuples)
+        throws DbException, IOException, TransactionAbortedException {
+        DbFile dbFile = Database.getCatalog().getDbFile(tableId);
+        if (!(dbFile instanceof HeapFile)) {
+            for (Tuple t : tuples)
+                insertTuple(tid, tableId, t);
+            return;
+        }
+        List<Page> pages = ((HeapFile) dbFile).bulkInsert(tid, tuples);
+        int size = ((HeapFile) dbFile).getPageSize();
+        for (Page page : pages) {
+            BufferPartition p = partition(page.getId());
+            p.lock();
+            try {
+                if (p.hasRoom(size))
+                    p.updateLruWithNewNode(page.getId(), page);
+            } finally {
+                p.unlock();
+            }
+        }
+        for (Tuple t : tuples)
+            indexInserted(tid, tableId, t);
+    }
+
+    //add the entry of t, just inserted into table tableId, to the indexes
+    //of the table
+    private void indexInserted(TransactionId tid, int tableId, Tuple t)
+        throws DbException, IOException, TransactionAbortedException {
+        for (IndexFile index : Database.getCatalog().getIndexes(tableId))
+            for (Page page : index.insertTuple(tid, t))
+                pageDirtied(tid, page);
+    }
+
+    /**
+     * Gives tid write locks on pages it is about to append to a file. It
+     * may wait for them, so the caller must not hold the file's monitor,
+     * which other transactions need to append and write pages. Once the
+     * pages are appended, the caller registers them with
+     * {@link #pagesAppended}; if the file has grown past their numbers
+     * meanwhile, it gives back the locks this returns instead.
+     *
+     * @return the pages of pids that tid did not hold a lock on before
+     * @see HeapFile#bulkInsert
+     */
+    public List<PageId> lockAppendedPages(TransactionId tid, List<PageId> pids)
+        throws TransactionAbortedException {
+        List<PageId> locked = new ArrayList<PageId>();
+        for (PageId pid : pids) {
+            if (!holdsLock(tid, pid))
+                locked.add(pid);
+            acquireLock(tid, pid, Permissions.READ_WRITE);
+        }
+        return locked;
+    }
+
+    /**
+     * Remembers that tid appended the pages pids, which it locked with
+     * {@link #lockAppendedPages}, so they can be emptied again if tid
+     * aborts.
+     */
+    public void pagesAppended(TransactionId tid, List<PageId> pids) {
+        List<PageId> appended = appendedPages.get(tid);
+        if (appended == null) {
+            appended = new ArrayList<PageId>();
+            appendedPages.put(tid, appended);
+        }
+        appended.addAll(pids);
+    }
+
     /**
      * Remove the specified tuple from the buffer pool.
      * Will acquire a write lock on the page the tuple is removed from. May block if
@@ -253,11 +895,20 @@ public class BufferPool {
         // some code goes here
         // not necessary for proj1
         try {
-            Page page = Database.getCatalog().getDbFile(t.getRecordId()
-                .getPageId().getTableId()).deleteTuple(tid, t);
+            int tableId = t.getRecordId().getPageId().getTableId();
+            //while the tuple's fields can still be read from its page
+            for (IndexFile index : Database.getCatalog().getIndexes(tableId))
+                pageDirtied(tid, index.deleteTuple(tid, t));
+            Page page = Database.getCatalog().getDbFile(tableId).deleteTuple(tid, t);
 
-            page.markDirty(true, tid);
+            pageDirtied(tid, page);
             //updateLruWithNewNode(page.getId(), page);
+            Set<Integer> tables = deletedFrom.get(tid);
+            if (tables == null) {
+                tables = new HashSet<Integer>();
+                deletedFrom.put(tid, tables);
+            }
+            tables.add(tableId);
         } catch (DbException e) {
             e.printStackTrace();
             System.exit(0);
@@ -267,16 +918,41 @@ public class BufferPool {
         }
     }
 
+    /**
+     * Marks page dirty on behalf of tid after tid changed it. Another
+     * thread may have evicted the page between getPage handing it to tid
+     * and the change; the page is then put back, so the change is not lost.
+     */
+    void pageDirtied(TransactionId tid, Page page) {
+        BufferPartition p = partition(page.getId());
+        p.lock();
+        try {
+            page.markDirty(true, tid);
+            Node n = p.pages.get(page.getId());
+            if (n == null || n.page != page)
+                p.updateLruWithNewNode(page.getId(), page);
+        } finally {
+            p.unlock();
+        }
+    }
+
     /**
      * Flush all dirty pages to disk.
      * NB: Be careful using this routine -- it writes dirty data to disk so will
      *     break simpledb if running in NO STEAL mode.
      */
-    public synchronized void flushAllPages() throws IOException {
+    public void flushAllPages() throws IOException {
         // some code goes here
         // not necessary for proj1
-        for (PageId key : bufferedPages.keySet()) {
-            flushPage(key);
+        for (BufferPartition p : partitions) {
+            p.lock();
+            try {
+                for (PageId key : p.pages.keySet()) {
+                    p.flushPage(key);
+                }
+            } finally {
+                p.unlock();
+            }
         }
     }
 
@@ -285,148 +961,38 @@ public class BufferPool {
         buffer pool doesn't keep a rolled back page in its
         cache.
     */
-    public synchronized void discardPage(PageId pid) {
+    public void discardPage(PageId pid) {
         // some code goes here
     // not necessary for proj1
+        BufferPartition p = partition(pid);
+        p.lock();
+        try {
+            p.discard(pid);
+        } finally {
+            p.unlock();
+        }
     }
 
     /**
      * Flushes a certain page to disk
      * @param pid an ID indicating the page to flush
      */
-    private synchronized  void flushPage(PageId pid) throws IOException {
+    private void flushPage(PageId pid) throws IOException {
         // some code goes here
         // not necessary for proj1
+        BufferPartition p = partition(pid);
+        p.lock();
         try {
-            Page page = bufferedPages.get(pid).page;
-            page.markDirty(false, null);
-            DbFile dbFile = Database.getCatalog()
-                                .getDbFile(((HeapPageId)pid).getTableId());
-            dbFile.writePage(page);
-        } catch(IOException e) {
-            e.printStackTrace();
-            System.exit(0);
+            p.flushPage(pid);
+        } finally {
+            p.unlock();
         }
     }
 
     /** Write all pages of the specified transaction to disk.
      */
-    public synchronized  void flushPages(TransactionId tid) throws IOException {
+    public void flushPages(TransactionId tid) throws IOException {
         // some code goes here
         // not necessary for proj1
     }
-
-    /**
-     * Discards a page from the buffer pool.
-     * Flushes the page to disk to ensure dirty pages are updated on disk.
-     */
-    private synchronized  void evictPage() throws DbException {
-        // some code goes here
-        // not necessary for proj1
-        //flush the page first, which is the end node
-        // System.out.println("In evict head " + head + " end "+end);
-        // Node evictedNode = end;
-
-        // Page retrievedPage = bufferedPages.get(evictedNode.pageId).page;
-
-        // //find page that is not dirty
-        // //System.out.println(end.pageId.hashCode() + " ??" );
-        // while (evictedNode != null && retrievedPage.isDirty() != null) {
-        //     System.out.println("bufferpool loops");
-        //     evictedNode = evictedNode.pre;
-        //     retrievedPage = evictedNode == null ? 
-        //             null : bufferedPages.get(evictedNode.pageId).page;
-        // }
-        // System.out.println("evict one node in evict");
-        // if (evictedNode == null) {
-        //     throw new DbException("All pages are dirty.");
-        // }
-
-        // try {
-        //     flushPage(evictedNode.pageId);
-        // } catch (IOException e) {
-        //     e.printStackTrace();
-        //     System.exit(0);
-        // } catch (Exception e) {
-        //     e.printStackTrace();
-        //     System.exit(0);
-        // }
-        // //remove the page
-        // bufferedPages.remove(evictedNode.pageId);
-        //removeNode(evictedNode);
-
-        Page retrievedPage = null;
-
-        for (PageId pid : bufferedPages.keySet()) {
-            retrievedPage = bufferedPages.get(pid).page;
-            if (retrievedPage.isDirty() == null) {
-                break;
-            }
-        }
-
-        try {
-            flushPage(retrievedPage.getId());
-        } catch (IOException e) {
-            e.printStackTrace();
-            System.exit(0);
-        } catch (Exception e) {
-            e.printStackTrace();
-            System.exit(0);
-        }
-        //remove the page
-        bufferedPages.remove(retrievedPage.getId());
-
-    }
-
-    //A methods to change the head node of double-list.
-    private void changeHead(Node node){
-        node.next = head;
-       node.pre = head == null ? null : head.pre;
-        // node.pre = null;
-
-        // if (head != null)
-        //     head.pre = node;
-
-        head = node;
- 
-        if(end == null)
-            end = head;
-    }
-
-    //A method to remove the node of double-list.
-    private void removeNode(Node node){
-
-        if (node.pre == null) {
-            this.head = node.next;
-        } else {
-            node.pre.next = node.next;
-        }
-
-        if (node.next == null) {
-            this.end = node.pre;
-        } else {
-            node.next.pre = node.pre;
-        } 
-    }
-
-    //A method to update LRU cache when page are accessed.
-    private void updateLruWithNewNode(PageId pid, Page retrievedPage) {
-        Node node = new Node(pid, retrievedPage);
-        changeHead(node);
-        bufferedPages.put(pid, node);
-    }
 }
-
-//Add a new class to implement LRU cache
-class Node {
-    PageId pageId;
-    Page page;
-    Node pre;
-    Node next;
-
-    public Node(PageId id, Page p) {
-        this.pageId = id;
-        this.page = p;
-    }
-}
-
@@ -0,0 +1,42 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * BufferRing is the small set of frames one large sequential scan reads its
+ * pages into. Once the ring is full, each page the scan reads takes the
+ * place of the oldest page of the ring, rather than of a page the
+ * replacement policy picks, so that a scan of a table larger than the
+ * BufferPool does not flush the pages other transactions use. A page of
+ * the ring that another scan or transaction also uses, or that is dirtied,
+ * leaves the ring and stays cached as any other page.
+ * <p>
+ * Rings are made by {@link BufferPool#scanRing}. The pages of a ring may
+ * be in different partitions of the pool, so a ring guards its list of
+ * pages with its own monitor rather than a partition's latch.
+ */
+public class BufferRing {
+
+    private final int size;
+    //the pages of the ring, oldest first
+    private final LinkedList<PageId> pages = new LinkedList<PageId>();
+
+    BufferRing(int size) {
+        this.size = size;
+    }
+
+    /** @return the number of pages the ring holds at most */
+    public int size() {
+        return size;
+    }
+
+    //add page pid, just cached, as the newest page of the ring
+    synchronized void add(PageId pid) {
+        pages.addLast(pid);
+    }
+
+    //take the oldest page out of the ring if the ring is full; null if not
+    synchronized PageId removeOldest() {
+        return pages.size() >= size ? pages.removeFirst() : null;
+    }
+}
@@ -18,6 +18,11 @@ public class Catalog {
     private Map<Integer, DbFile> dbFiles = null;
     private Map<Integer, String> tableNames = null;
     private Map<Integer, String> tablePKs = null;
+    //files with pages of their own that are not tables: the partitions of
+    //partitioned tables and the indexes; they have ids but no names
+    private Map<Integer, DbFile> subFiles = null;
+    //the indexes of each table
+    private Map<Integer, List<IndexFile>> indexes = null;
     /**
      * Constructor.
      * Creates a new, empty catalog.
@@ -27,6 +32,8 @@ public class Catalog {
         dbFiles = new HashMap<Integer, DbFile>();
         tableNames = new HashMap<Integer, String>();
         tablePKs = new HashMap<Integer, String>();
+        subFiles = new HashMap<Integer, DbFile>();
+        indexes = new HashMap<Integer, List<IndexFile>>();
     }
 
     /**
@@ -56,15 +63,59 @@ public class Catalog {
                 }
             }
 
-            dbFiles.remove(idToRemove);
+            removeSubFiles(idToRemove, dbFiles.remove(idToRemove));
             tableNames.remove(idToRemove);
             tablePKs.remove(idToRemove);
         }
+        //pages of a partitioned table belong to its partitions, so the
+        //buffer pool looks the partitions up by their ids
+        if (file instanceof PartitionedFile) {
+            PartitionedFile pf = (PartitionedFile) file;
+            for (int i = 0; i < pf.numPartitions(); i++)
+                subFiles.put(pf.getPartition(i).getId(), pf.getPartition(i));
+        }
         dbFiles.put(id, file);
         tableNames.put(id, name);
         tablePKs.put(id, pkeyField);
     }
 
+    private void removeSubFiles(int id, DbFile file) {
+        if (file instanceof PartitionedFile) {
+            PartitionedFile pf = (PartitionedFile) file;
+            for (int i = 0; i < pf.numPartitions(); i++)
+                subFiles.remove(pf.getPartition(i).getId());
+        }
+        List<IndexFile> l = indexes.remove(id);
+        if (l != null)
+            for (IndexFile index : l)
+                subFiles.remove(index.getId());
+    }
+
+    /**
+     * Adds an index on the table with id tableid, which the BufferPool then
+     * keeps up to date and the planner may use.
+     */
+    public void addIndex(int tableid, IndexFile index) {
+        List<IndexFile> l = indexes.get(tableid);
+        if (l == null) {
+            l = new ArrayList<IndexFile>();
+            indexes.put(tableid, l);
+        }
+        l.add(index);
+        //the buffer pool looks index pages up by the index id
+        subFiles.put(index.getId(), index);
+    }
+
+    /**
+     * @return the indexes on the table with id tableid; empty if it has none
+     */
+    public List<IndexFile> getIndexes(int tableid) {
+        List<IndexFile> l = indexes.get(tableid);
+        if (l == null)
+            return Collections.emptyList();
+        return l;
+    }
+
     public void addTable(DbFile file, String name) {
         addTable(file, name, "");
     }
@@ -112,6 +163,9 @@ public class Catalog {
         if (dbFiles.containsKey(tableid)) {
             return dbFiles.get(tableid).getTupleDesc();
         }
+        if (subFiles.containsKey(tableid)) {
+            return subFiles.get(tableid).getTupleDesc();
+        }
 
         throw new NoSuchElementException("Catalog has no TupleDesc with id: " + tableid);
     }
@@ -128,6 +182,9 @@ public class Catalog {
         if (dbFiles.containsKey(tableid)) {
             return dbFiles.get(tableid);
         }
+        if (subFiles.containsKey(tableid)) {
+            return subFiles.get(tableid);
+        }
 
         throw new NoSuchElementException("Catalog has no DbFile with id: " + tableid);
     }
@@ -161,19 +218,263 @@ public class Catalog {
         dbFiles.clear();
         tableNames.clear();
         tablePKs.clear();
+        subFiles.clear();
+        indexes.clear();
     }
     
+    /**
+     * Creates the DbFile for a table of the catalog file, picking the
+     * implementation from the table annotations.
+     * <ul>
+     * <li> no annotation: a {@link HeapFile}
+     * <li> mapped: a {@link MappedHeapFile}
+     * <li> columnar: a {@link ColumnarFile}
+     * <li> slotted: a HeapFile (or MappedHeapFile) of variable-length
+     *      {@link SlottedHeapPage}s
+     * <li> compressed: a {@link CompressedHeapFile}; takes precedence over
+     *      mapped
+     * <li> pagesize=N: pages of N bytes (N may end in k or m) instead of
+     *      pageSize; not for columnar tables, and at most
+     *      SlottedHeapPage.MAX_PAGE_SIZE for slotted ones
+     * <li> range(col,b1,...,bk): a {@link PartitionedFile} of k + 1
+     *      partitions split at the bounds b1 < ... < bk of int column col
+     * <li> hash(col,n): a PartitionedFile of n partitions by the hash of
+     *      column col
+     * </ul>
+     * The partitions of a partitioned table are stored in files named like
+     * f with .p0, .p1, ... before the extension; the other annotations
+     * apply to each of them, and may not include columnar.
+     */
+    private DbFile openTableFile(File f, TupleDesc td, String[] annotations, int pageSize) {
+        for (int i = 0; i < annotations.length; i++) {
+            String a = annotations[i].toLowerCase();
+            if (a.startsWith("range(") || a.startsWith("hash(")) {
+                List<String> rest = new ArrayList<String>(Arrays.asList(annotations));
+                rest.remove(i);
+                return openPartitionedFile(f, td, annotations[i],
+                        rest.toArray(new String[0]), pageSize);
+            }
+        }
+        boolean mapped = false;
+        boolean columnar = false;
+        boolean slotted = false;
+        boolean compressed = false;
+        boolean sized = false;
+        for (String a : annotations) {
+            if (a.length() == 0)
+                continue;
+            if (a.toLowerCase().startsWith("pagesize=")) {
+                pageSize = parsePageSize(a.substring("pagesize=".length()));
+                sized = true;
+            }
+            else if (a.toLowerCase().equals("mapped"))
+                mapped = true;
+            else if (a.toLowerCase().equals("columnar"))
+                columnar = true;
+            else if (a.toLowerCase().equals("slotted"))
+                slotted = true;
+            else if (a.toLowerCase().equals("compressed"))
+                compressed = true;
+            else {
+                System.out.println("Unknown table annotation " + a);
+                System.exit(0);
+            }
+        }
+        if (columnar && sized) {
+            System.out.println("Columnar tables have pages of " + BufferPool.PAGE_SIZE + " bytes");
+            System.exit(0);
+        }
+        if (slotted && pageSize > SlottedHeapPage.MAX_PAGE_SIZE) {
+            System.out.println("Slotted pages hold at most " + SlottedHeapPage.MAX_PAGE_SIZE + " bytes");
+            System.exit(0);
+        }
+        if (columnar)
+            return new ColumnarFile(f, td);
+        if (compressed)
+            return new CompressedHeapFile(f, td, slotted, pageSize);
+        if (mapped)
+            return new MappedHeapFile(f, td, slotted, pageSize);
+        return new HeapFile(f, td, slotted, pageSize);
+    }
+
+    //a partitioned table as given by spec, range(col,b1,...) or
+    //hash(col,n), whose partitions are opened with the other annotations
+    private PartitionedFile openPartitionedFile(File f, TupleDesc td, String spec,
+            String[] annotations, int pageSize) {
+        boolean range = spec.toLowerCase().startsWith("range(");
+        if (!spec.endsWith(")")) {
+            System.out.println("Invalid partitioning " + spec + " (no spaces allowed)");
+            System.exit(0);
+        }
+        String[] args = spec.substring(spec.indexOf('(') + 1, spec.length() - 1).split(",");
+        int column = -1;
+        for (int i = 0; i < td.numFields(); i++)
+            if (td.getFieldName(i).equals(args[0].trim()))
+                column = i;
+        if (column < 0 || (range && td.getFieldType(column) != Type.INT_TYPE)) {
+            System.out.println("Invalid partition column " + args[0]);
+            System.exit(0);
+        }
+        int[] bounds = new int[range ? args.length - 1 : 0];
+        int n = 0;
+        try {
+            for (int i = 0; i < bounds.length; i++) {
+                bounds[i] = Integer.parseInt(args[i + 1].trim());
+                if (i > 0 && bounds[i] <= bounds[i - 1])
+                    throw new NumberFormatException();
+            }
+            n = range ? bounds.length + 1 : Integer.parseInt(args[1].trim());
+            if (n < 1 || (!range && args.length != 2))
+                throw new NumberFormatException();
+        } catch (RuntimeException e) {
+            System.out.println("Invalid partitioning " + spec);
+            System.exit(0);
+        }
+        HeapFile[] parts = new HeapFile[n];
+        for (int i = 0; i < n; i++) {
+            DbFile part = openTableFile(PartitionedFile.partitionFile(f, i), td,
+                    annotations, pageSize);
+            if (!(part instanceof HeapFile)) {
+                System.out.println("Partitions must be heap files: " + spec);
+                System.exit(0);
+            }
+            parts[i] = (HeapFile) part;
+        }
+        if (range)
+            return new PartitionedFile(f, td, column, bounds, parts);
+        return new PartitionedFile(f, td, column, parts);
+    }
+
+    //the B+ tree on column of table, rebuilt if it is missing or older
+    //than the table file
+    private BTreeFile openBTree(DbFile table, String column) {
+        int keyField = -1;
+        for (int i = 0; i < table.getTupleDesc().numFields(); i++)
+            if (table.getTupleDesc().getFieldName(i).equals(column))
+                keyField = i;
+        if (keyField < 0) {
+            System.out.println("Invalid index column " + column);
+            System.exit(0);
+        }
+        if (!(table instanceof HeapFile)) {
+            System.out.println("Only heap files can be indexed: btree(" + column + ")");
+            System.exit(0);
+        }
+        HeapFile hf = (HeapFile) table;
+        File f = BTreeFile.indexFile(hf.getFile(), column);
+        BTreeFile index = new BTreeFile(f, hf, keyField);
+        if (!f.exists() || f.lastModified() < hf.getFile().lastModified()) {
+            try {
+                index.build();
+            } catch (Exception e) {
+                e.printStackTrace();
+                System.exit(0);
+            }
+            System.out.println("Built index " + f.getName());
+        }
+        return index;
+    }
+
+    //add a bitmap index on column of table; it loads its sidecars, or
+    //rebuilds them, when first used
+    private void addBitmapIndex(DbFile table, String column) {
+        int keyField = -1;
+        for (int i = 0; i < table.getTupleDesc().numFields(); i++)
+            if (table.getTupleDesc().getFieldName(i).equals(column))
+                keyField = i;
+        if (keyField < 0) {
+            System.out.println("Invalid index column " + column);
+            System.exit(0);
+        }
+        if (!(table instanceof HeapFile)) {
+            System.out.println("Only heap files can be indexed: bitmap(" + column + ")");
+            System.exit(0);
+        }
+        ((HeapFile) table).addBitmapIndex(keyField);
+    }
+
+    //reopen the hash indexes CREATE INDEX made on columns of table,
+    //rebuilding those older than the table file
+    private void openHashIndexes(DbFile table) {
+        if (!(table instanceof HeapFile))
+            return;
+        HeapFile hf = (HeapFile) table;
+        TupleDesc td = hf.getTupleDesc();
+        for (int i = 0; i < td.numFields(); i++) {
+            File f = HashIndexFile.indexFile(hf.getFile(), td.getFieldName(i));
+            if (!f.exists())
+                continue;
+            HashIndexFile index = new HashIndexFile(f, hf, i);
+            if (f.lastModified() < hf.getFile().lastModified()) {
+                try {
+                    index.build();
+                } catch (Exception e) {
+                    e.printStackTrace();
+                    System.exit(0);
+                }
+                System.out.println("Built index " + f.getName());
+            }
+            addIndex(hf.getId(), index);
+        }
+    }
+
+    //a page size such as 8192, 64k or 1m
+    private static int parsePageSize(String size) {
+        int unit = 1;
+        String n = size.toLowerCase();
+        if (n.endsWith("k"))
+            unit = 1 << 10;
+        else if (n.endsWith("m"))
+            unit = 1 << 20;
+        if (unit > 1)
+            n = n.substring(0, n.length() - 1);
+        try {
+            int bytes = Integer.parseInt(n) * unit;
+            if (bytes >= 64)
+                return bytes;
+        } catch (NumberFormatException e) {
+            //fall through
+        }
+        System.out.println("Invalid page size " + size);
+        System.exit(0);
+        return 0;
+    }
+
     /**
      * Reads the schema from a file and creates the appropriate tables in the database.
+     * Each line describes one table as
+     * <pre>name (field type [pk], ...) [annotation ...]</pre>
+     * where the optional table annotations are described in
+     * {@link #openTableFile}. A line
+     * <pre>pagesize=N</pre>
+     * sets the page size of the tables on the lines after it that have no
+     * pagesize annotation of their own; it is BufferPool.PAGE_SIZE until
+     * then. For example
+     * <pre>events (ts int, kind int, msg string) range(ts,1000,2000) slotted</pre>
+     * declares a table of three range partitions of slotted heap files.
+     * <p>
+     * An annotation btree(col) adds a {@link BTreeFile} index on column col
+     * of a heap file table; it is stored next to the table file and built
+     * from the table if it is missing or older than the table file. The
+     * {@link HashIndexFile} indexes made by CREATE INDEX are found next to
+     * the table file the same way, and rebuilt if they are older than it.
+     * An annotation bitmap(col) adds a {@link BitmapIndex} on column col of
+     * a heap file table, for columns with few distinct values.
      * @param catalogFile
      */
     public void loadSchema(String catalogFile) {
         String line = "";
         String baseFolder=new File(catalogFile).getParent();
+        int pageSize = BufferPool.PAGE_SIZE;
         try {
             BufferedReader br = new BufferedReader(new FileReader(new File(catalogFile)));
             
             while ((line = br.readLine()) != null) {
+                //a database-wide page size for the tables that follow
+                if (line.trim().toLowerCase().startsWith("pagesize=")) {
+                    pageSize = parsePageSize(line.trim().substring("pagesize=".length()));
+                    continue;
+                }
                 //assume line is of the format name (field type, field type, ...)
                 String name = line.substring(0, line.indexOf("(")).trim();
                 //System.out.println("TABLE NAME: " + name);
@@ -205,9 +506,29 @@ public class Catalog {
                 Type[] typeAr = types.toArray(new Type[0]);
                 String[] namesAr = names.toArray(new String[0]);
                 TupleDesc t = new TupleDesc(typeAr, namesAr);
-                HeapFile tabHf = new HeapFile(new File(baseFolder+"/"+name + ".dat"), t);
+                //table annotations follow the field list, e.g. "name (...) mapped"
+                String[] annotations = line.substring(line.indexOf(")") + 1).trim().split("\\s+");
+                //index annotations are not about the table file
+                List<String> tableAnnotations = new ArrayList<String>();
+                List<String> btrees = new ArrayList<String>();
+                List<String> bitmaps = new ArrayList<String>();
+                for (String a : annotations) {
+                    if (a.toLowerCase().startsWith("btree(") && a.endsWith(")"))
+                        btrees.add(a.substring("btree(".length(), a.length() - 1).trim());
+                    else if (a.toLowerCase().startsWith("bitmap(") && a.endsWith(")"))
+                        bitmaps.add(a.substring("bitmap(".length(), a.length() - 1).trim());
+                    else
+                        tableAnnotations.add(a);
+                }
+                DbFile tabHf = openTableFile(new File(baseFolder+"/"+name + ".dat"), t,
+                        tableAnnotations.toArray(new String[0]), pageSize);
                 addTable(tabHf,name,primaryKey);
                 System.out.println("Added table : " + name + " with schema " + t);
+                for (String column : btrees)
+                    addIndex(tabHf.getId(), openBTree(tabHf, column));
+                for (String column : bitmaps)
+                    addBitmapIndex(tabHf, column);
+                openHashIndexes(tabHf);
             }
         } catch (IOException e) {
             e.printStackTrace();
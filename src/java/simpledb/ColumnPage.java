@@ -0,0 +1,136 @@
+package simpledb;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+
+/**
+ * ColumnPage holds the values of one column of a ColumnarFile for a run of
+ * consecutive rows. Like a HeapPage it starts with a bitmap of used slots,
+ * followed by one fixed-size slot per row holding the serialized Field.
+ * The bitmaps of all columns of a row are kept the same, so any column can
+ * tell which rows exist.
+ *
+ * @see ColumnarFile
+ */
+public class ColumnPage implements Page {
+
+    private final ColumnPageId pid;
+    private final Type type;
+    private final int numSlots;
+    private final int headerSize;
+    //the page image; owned by this page and updated in place
+    private final byte[] data;
+    private final ByteBuffer buf;
+    //copy of the before image, taken on the first write after
+    //setBeforeImage; null while the before image is the current data
+    private byte[] oldData;
+
+    private TransactionId transactionId = null;
+
+    /**
+     * Create a ColumnPage from a page image read from disk. The number of
+     * slots and the type of the values are looked up through the
+     * ColumnarFile of the page's table in the catalog.
+     *
+     * @see ColumnarFile#slotsOnPage
+     */
+    public ColumnPage(ColumnPageId id, byte[] data) throws IOException {
+        this.pid = id;
+        ColumnarFile f = (ColumnarFile) Database.getCatalog().getDbFile(id.getTableId());
+        this.type = f.getTupleDesc().getFieldType(id.column());
+        this.numSlots = f.slotsOnPage(id);
+        this.headerSize = ColumnarFile.headerSize(type);
+        if (data.length != BufferPool.PAGE_SIZE)
+            throw new IOException("page " + id + " has " + data.length + " bytes");
+        this.data = data;
+        this.buf = ByteBuffer.wrap(data);
+    }
+
+    public ColumnPageId getId() {
+        return pid;
+    }
+
+    /** @return the number of row slots on this page */
+    public int getNumSlots() {
+        return numSlots;
+    }
+
+    /**
+     * Returns true if associated slot on this page is filled.
+     */
+    public boolean isSlotUsed(int i) {
+        return ((data[i / 8] >> (i % 8)) & 0x01) != 0;
+    }
+
+    /**
+     * @return the index of the first empty slot at or after i, or -1
+     */
+    public int nextEmptySlot(int i) {
+        for (; i < numSlots; i++) {
+            if (!isSlotUsed(i))
+                return i;
+        }
+        return -1;
+    }
+
+    /**
+     * @return the value in slot i, which must be used
+     */
+    public Field getField(int i) {
+        return type.parse(buf, headerSize + i * type.getLen());
+    }
+
+    /**
+     * Stores f in slot i and marks the slot used.
+     */
+    public void setField(int i, Field f) {
+        prepareWrite();
+        ColumnarFile.putField(buf, headerSize + i * type.getLen(), f);
+        data[i / 8] |= (1 << (i % 8));
+    }
+
+    /**
+     * Marks slot i empty.
+     *
+     * @throws DbException if the slot is already empty
+     */
+    public void clearSlot(int i) throws DbException {
+        if (i < 0 || i >= numSlots || !isSlotUsed(i))
+            throw new DbException("No such tuple exists.");
+        prepareWrite();
+        data[i / 8] &= ~(1 << (i % 8));
+    }
+
+    //copy the before image on the first write after setBeforeImage
+    private void prepareWrite() {
+        if (oldData == null)
+            oldData = data.clone();
+    }
+
+    public byte[] getPageData() {
+        return data.clone();
+    }
+
+    public ColumnPage getBeforeImage() {
+        try {
+            return new ColumnPage(pid, oldData != null ? oldData.clone() : data.clone());
+        } catch (IOException e) {
+            e.printStackTrace();
+            //should never happen -- we parsed it OK before!
+            System.exit(1);
+        }
+        return null;
+    }
+
+    public void setBeforeImage() {
+        oldData = null;
+    }
+
+    public void markDirty(boolean dirty, TransactionId tid) {
+        this.transactionId = dirty ? tid : null;
+    }
+
+    public TransactionId isDirty() {
+        return this.transactionId;
+    }
+}
@@ -0,0 +1,70 @@
+package simpledb;
+
+/**
+ * Unique identifier for ColumnPage objects: the page number counts the pages
+ * of one column of a ColumnarFile, from 0.
+ *
+ * @see ColumnarFile
+ */
+public class ColumnPageId implements PageId {
+    private int tableId;
+    private int column;
+    private int pageNo;
+
+    /**
+     * Constructor. Create a page id structure for a specific page of a
+     * specific column of a specific table.
+     *
+     * @param tableId The table that is being referenced
+     * @param column The column of the table
+     * @param pgNo The page number among the pages of that column.
+     */
+    public ColumnPageId(int tableId, int column, int pgNo) {
+        this.tableId = tableId;
+        this.column = column;
+        this.pageNo = pgNo;
+    }
+
+    /** @return the table associated with this PageId */
+    public int getTableId() {
+        return this.tableId;
+    }
+
+    /** @return the column of the table whose values are on this page */
+    public int column() {
+        return this.column;
+    }
+
+    /**
+     * @return the page number among the pages of column() associated with
+     *   this PageId
+     */
+    public int pageNumber() {
+        return this.pageNo;
+    }
+
+    public int hashCode() {
+        return (this.tableId * 31 + this.column) * 1000003 + this.pageNo;
+    }
+
+    public boolean equals(Object o) {
+        if (!(o instanceof ColumnPageId))
+            return false;
+
+        ColumnPageId other = (ColumnPageId) o;
+        return other.pageNo == this.pageNo && other.column == this.column
+                && other.tableId == this.tableId;
+    }
+
+    /**
+     *  Return a representation of this object as an array of
+     *  integers, for writing to disk.
+     */
+    public int[] serialize() {
+        return new int[] { this.tableId, this.column, this.pageNo };
+    }
+
+    public String toString() {
+        return "ColumnPageId(" + tableId + ", " + column + ", " + pageNo + ")";
+    }
+}
@@ -0,0 +1,463 @@
+package simpledb;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.util.*;
+
+/**
+ * ColumnarFile is a DbFile that stores each column of a table on pages of
+ * its own, so that a scan that needs only a few columns reads and decodes
+ * only their pages.
+ * <p>
+ * Rows are grouped into row groups of getRowsPerGroup() consecutive rows.
+ * On disk a row group is a run of pages holding the pages of column 0 for
+ * those rows, then the pages of column 1, and so on, so each column of a row
+ * group is a contiguous run of pages. The number of pages each column needs
+ * per row group depends only on the width of its type, so the layout
+ * follows from the TupleDesc alone and the file needs no directory. Each
+ * column page is a {@link ColumnPage}: a bitmap of used slots followed by
+ * the fixed-size values; the bitmaps of a row agree across columns.
+ * <p>
+ * A tuple's RecordId names the page of column 0 that holds the row, and its
+ * slot on that page. Tables are stored in this format with the "columnar"
+ * annotation in the catalog file; {@link #convert} turns a heap file into
+ * a columnar one.
+ *
+ * @see ColumnarScan
+ * @see Catalog#loadSchema
+ */
+public class ColumnarFile implements DbFile {
+
+    private static final long serialVersionUID = 1L;
+
+    /** Pages per row group of the widest column. */
+    public static final int CHUNK_PAGES = 32;
+
+    private final File file;
+    private final TupleDesc td;
+    //rows per row group
+    private final int rowsPerGroup;
+    //slots per page, pages per row group and first page within the row
+    //group of each column
+    private final int[] slots;
+    private final int[] chunkPages;
+    private final int[] chunkOffset;
+    //pages per row group, all columns together
+    private final int groupPages;
+    private transient PageChannel channel;
+    //no page of column 0 before this one has a free slot; concurrent
+    //inserts and deletes move it, so it only changes under the monitor
+    private transient volatile int freeHint = 0;
+
+    /**
+     * Constructs a columnar file backed by the specified file.
+     *
+     * @param f
+     *            the file that stores the on-disk backing store for this
+     *            table.
+     */
+    public ColumnarFile(File f, TupleDesc td) {
+        this.file = f;
+        this.td = td;
+        int n = td.numFields();
+        this.slots = new int[n];
+        int minSlots = Integer.MAX_VALUE;
+        for (int c = 0; c < n; c++) {
+            slots[c] = slotsPerPage(td.getFieldType(c));
+            minSlots = Math.min(minSlots, slots[c]);
+        }
+        this.rowsPerGroup = minSlots * CHUNK_PAGES;
+        this.chunkPages = new int[n];
+        this.chunkOffset = new int[n];
+        int pages = 0;
+        for (int c = 0; c < n; c++) {
+            chunkOffset[c] = pages;
+            chunkPages[c] = (rowsPerGroup + slots[c] - 1) / slots[c];
+            pages += chunkPages[c];
+        }
+        this.groupPages = pages;
+    }
+
+    static int slotsPerPage(Type type) {
+        return (BufferPool.PAGE_SIZE * 8) / (type.getLen() * 8 + 1);
+    }
+
+    static int headerSize(Type type) {
+        return (slotsPerPage(type) + 7) / 8;
+    }
+
+    /** Serializes f into bb at offset, in its Field.serialize format. */
+    static void putField(ByteBuffer bb, int offset, Field f) {
+        if (f instanceof IntField) {
+            bb.putInt(offset, ((IntField) f).getValue());
+            return;
+        }
+        ByteArrayOutputStream baos = new ByteArrayOutputStream(f.getType().getLen());
+        try {
+            f.serialize(new DataOutputStream(baos));
+        } catch (IOException e) {
+            //cannot happen when writing to memory
+            throw new RuntimeException(e);
+        }
+        byte[] bytes = baos.toByteArray();
+        for (int i = 0; i < bytes.length; i++)
+            bb.put(offset + i, bytes[i]);
+    }
+
+    /**
+     * Returns the File backing this ColumnarFile on disk.
+     */
+    public File getFile() {
+        return file;
+    }
+
+    /**
+     * Returns the PageChannel that all page reads and writes of this file go
+     * through, opening it on first use.
+     */
+    public synchronized PageChannel getPageChannel() {
+        if (channel == null)
+            channel = new PageChannel(file, BufferPool.PAGE_SIZE);
+        return channel;
+    }
+
+    // see DbFile.java for javadocs
+    public int getId() {
+        return file.getAbsoluteFile().hashCode();
+    }
+
+    // see DbFile.java for javadocs
+    public TupleDesc getTupleDesc() {
+        return td;
+    }
+
+    /** @return the number of rows in one row group */
+    public int getRowsPerGroup() {
+        return rowsPerGroup;
+    }
+
+    /** @return the number of pages in the file, all columns together */
+    public int numPages() {
+        return getPageChannel().numPages();
+    }
+
+    /** @return the number of row groups in the file */
+    public int numGroups() {
+        return (numPages() + groupPages - 1) / groupPages;
+    }
+
+    /** @return the number of pages column c has in the file */
+    public int numColumnPages(int c) {
+        return numGroups() * chunkPages[c];
+    }
+
+    /** @return the number of pages of column c that are read by a full scan */
+    public int pagesPerGroup(int c) {
+        return chunkPages[c];
+    }
+
+    /**
+     * @return the number of row slots on the page pid; the last page of a
+     *   column in a row group may have fewer than fit on the page
+     */
+    public int slotsOnPage(ColumnPageId pid) {
+        int c = pid.column();
+        int p = pid.pageNumber() % chunkPages[c];
+        return Math.min(slots[c], rowsPerGroup - p * slots[c]);
+    }
+
+    //file page holding page pgNo of column c
+    private int filePage(int c, int pgNo) {
+        return (pgNo / chunkPages[c]) * groupPages + chunkOffset[c] + pgNo % chunkPages[c];
+    }
+
+    /** @return the page of column c holding row */
+    ColumnPageId pageOfRow(int c, int row) {
+        return new ColumnPageId(getId(), c, pageNumberOfRow(c, row));
+    }
+
+    /** @return the number of the page of column c holding row */
+    int pageNumberOfRow(int c, int row) {
+        return (row / rowsPerGroup) * chunkPages[c] + (row % rowsPerGroup) / slots[c];
+    }
+
+    /** @return the slot of row on its page of column c */
+    int slotOfRow(int c, int row) {
+        return (row % rowsPerGroup) % slots[c];
+    }
+
+    /** @return the row number of slot on page pgNo of column c */
+    int rowOf(int c, int pgNo, int slot) {
+        return (pgNo / chunkPages[c]) * rowsPerGroup + (pgNo % chunkPages[c]) * slots[c] + slot;
+    }
+
+    /** @return the RecordId of row */
+    RecordId recordIdOf(int row) {
+        return new RecordId(pageOfRow(0, row), slotOfRow(0, row));
+    }
+
+    // see DbFile.java for javadocs
+    public Page readPage(PageId pid) {
+        ColumnPageId cpid = (ColumnPageId) pid;
+        if (cpid.column() < 0 || cpid.column() >= td.numFields())
+            throw new IllegalArgumentException("no column " + cpid.column());
+        try {
+            byte[] data = getPageChannel().readPage(filePage(cpid.column(), cpid.pageNumber()));
+            return new ColumnPage(cpid, data);
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    // see DbFile.java for javadocs
+    public void writePage(Page page) throws IOException {
+        ColumnPageId cpid = (ColumnPageId) page.getId();
+        getPageChannel().writePage(filePage(cpid.column(), cpid.pageNumber()), page.getPageData());
+    }
+
+    // see DbFile.java for javadocs
+    public ArrayList<Page> insertTuple(TransactionId tid, Tuple t)
+            throws DbException, IOException, TransactionAbortedException {
+        if (!td.equals(t.getTupleDesc()))
+            throw new DbException("TupleDesc is mismatch!");
+
+        //find a free row through the pages of column 0
+        int row = -1;
+        int pages0 = numColumnPages(0);
+        for (int p = freeHint; p < pages0 && row < 0; p++) {
+            ColumnPage page = (ColumnPage) Database.getBufferPool().getPage(tid,
+                    new ColumnPageId(getId(), 0, p), Permissions.READ_WRITE);
+            int slot = page.nextEmptySlot(0);
+            if (slot >= 0)
+                row = rowOf(0, p, slot);
+            else
+                pageFull(p);
+        }
+        if (row < 0) {
+            //start a new row group by extending the file to its last page
+            synchronized (this) {
+                int groups = numGroups();
+                getPageChannel().writePage((groups + 1) * groupPages - 1,
+                        HeapPage.createEmptyPageData());
+                row = groups * rowsPerGroup;
+            }
+        }
+
+        ArrayList<Page> pageList = new ArrayList<Page>();
+        for (int c = 0; c < td.numFields(); c++) {
+            ColumnPage page = (ColumnPage) Database.getBufferPool().getPage(tid,
+                    pageOfRow(c, row), Permissions.READ_WRITE);
+            page.setField(slotOfRow(c, row), t.getField(c));
+            pageList.add(page);
+        }
+        t.setRecordId(recordIdOf(row));
+        return pageList;
+    }
+
+    // see DbFile.java for javadocs
+    public Page deleteTuple(TransactionId tid, Tuple t) throws DbException,
+            TransactionAbortedException {
+        RecordId rid = t.getRecordId();
+        if (rid == null || !(rid.getPageId() instanceof ColumnPageId)
+                || rid.getPageId().getTableId() != getId())
+            throw new DbException("Tuple is not in this table");
+        ColumnPageId pid0 = (ColumnPageId) rid.getPageId();
+        int row = rowOf(0, pid0.pageNumber(), rid.tupleno());
+
+        //the buffer pool only marks the returned page dirty, so mark the
+        //pages of the other columns here
+        Page first = null;
+        for (int c = 0; c < td.numFields(); c++) {
+            ColumnPage page = (ColumnPage) Database.getBufferPool().getPage(tid,
+                    pageOfRow(c, row), Permissions.READ_WRITE);
+            page.clearSlot(slotOfRow(c, row));
+            if (c == 0)
+                first = page;
+            else
+                page.markDirty(true, tid);
+        }
+        slotFreed(pid0.pageNumber());
+        return first;
+    }
+
+    //page p of column 0 has no free slot; a delete may have moved the hint
+    //back before it since the insert read it
+    private synchronized void pageFull(int p) {
+        if (freeHint == p)
+            freeHint = p + 1;
+    }
+
+    //page p of column 0 has a free slot
+    private synchronized void slotFreed(int p) {
+        freeHint = Math.min(freeHint, p);
+    }
+
+    // see DbFile.java for javadocs
+    public DbFileIterator iterator(TransactionId tid) {
+        return iterator(tid, null);
+    }
+
+    /**
+     * Returns an iterator over the tuples of this file that only reads the
+     * pages of the columns for which columns[c] is true. The tuples have the
+     * full TupleDesc of the file; fields of the other columns are null.
+     *
+     * @param columns the columns to read, or null to read all of them
+     */
+    public DbFileIterator iterator(TransactionId tid, boolean[] columns) {
+        return new ColumnIterator(tid, columns);
+    }
+
+    class ColumnIterator implements DbFileIterator {
+        private final TransactionId tid;
+        private final int[] cols;
+        //the column whose bitmaps decide which rows exist
+        private final int driver;
+        private final ColumnPage[] current;
+        private int pageNo;
+        private int slot;
+        private boolean open = false;
+        private Tuple next = null;
+
+        ColumnIterator(TransactionId tid, boolean[] columns) {
+            this.tid = tid;
+            int n = td.numFields();
+            int count = 0;
+            for (int c = 0; c < n; c++) {
+                if (columns == null || columns[c])
+                    count++;
+            }
+            this.cols = new int[count];
+            count = 0;
+            for (int c = 0; c < n; c++) {
+                if (columns == null || columns[c])
+                    cols[count++] = c;
+            }
+            this.driver = cols.length > 0 ? cols[0] : 0;
+            this.current = new ColumnPage[n];
+        }
+
+        public void open() {
+            open = true;
+            pageNo = -1;
+            slot = 0;
+            next = null;
+            Arrays.fill(current, null);
+        }
+
+        //page pgNo of column c, fetched through the buffer pool when the
+        //scan moves on to it
+        private ColumnPage page(int c, int pgNo)
+                throws DbException, TransactionAbortedException {
+            ColumnPage p = current[c];
+            if (p == null || p.getId().pageNumber() != pgNo) {
+                p = (ColumnPage) Database.getBufferPool().getPage(tid,
+                        new ColumnPageId(getId(), c, pgNo), Permissions.READ_ONLY);
+                current[c] = p;
+            }
+            return p;
+        }
+
+        private Tuple fetch() throws DbException, TransactionAbortedException {
+            int pages = numColumnPages(driver);
+            while (true) {
+                ColumnPage dp = pageNo >= 0 ? current[driver] : null;
+                while (dp != null && slot < dp.getNumSlots() && !dp.isSlotUsed(slot))
+                    slot++;
+                if (dp != null && slot < dp.getNumSlots())
+                    break;
+                if (++pageNo >= pages)
+                    return null;
+                slot = 0;
+                page(driver, pageNo);
+            }
+
+            int row = rowOf(driver, pageNo, slot++);
+            Tuple t = new Tuple(td);
+            for (int c : cols) {
+                ColumnPage p = page(c, pageNumberOfRow(c, row));
+                t.setField(c, p.getField(slotOfRow(c, row)));
+            }
+            t.setRecordId(recordIdOf(row));
+            return t;
+        }
+
+        public boolean hasNext() throws DbException, TransactionAbortedException {
+            if (!open)
+                return false;
+            if (next == null)
+                next = fetch();
+            return next != null;
+        }
+
+        public Tuple next() throws DbException, TransactionAbortedException {
+            if (!hasNext())
+                throw new NoSuchElementException();
+            Tuple t = next;
+            next = null;
+            return t;
+        }
+
+        public void rewind() {
+            close();
+            open();
+        }
+
+        public void close() {
+            open = false;
+            next = null;
+            Arrays.fill(current, null);
+        }
+    }
+
+    /**
+     * Writes all tuples of source, which must have schema td, to out in the
+     * layout of a ColumnarFile, replacing its contents. Row groups are built
+     * in memory and written with one write each.
+     *
+     * @return the number of tuples written
+     */
+    public static int convert(DbFileIterator source, TupleDesc td, File out)
+            throws IOException, DbException, TransactionAbortedException {
+        ColumnarFile layout = new ColumnarFile(out, td);
+        new FileOutputStream(out).close();
+        PageChannel ch = new PageChannel(out, BufferPool.PAGE_SIZE);
+        int n = td.numFields();
+        int[] headers = new int[n];
+        int[] widths = new int[n];
+        for (int c = 0; c < n; c++) {
+            headers[c] = headerSize(td.getFieldType(c));
+            widths[c] = td.getFieldType(c).getLen();
+        }
+        ByteBuffer group = ByteBuffer.allocate(layout.groupPages * BufferPool.PAGE_SIZE);
+        int rows = 0;
+        int inGroup = 0;
+        int groups = 0;
+        try {
+            source.open();
+            while (source.hasNext()) {
+                Tuple t = source.next();
+                for (int c = 0; c < n; c++) {
+                    int page = layout.chunkOffset[c] + inGroup / layout.slots[c];
+                    int slot = inGroup % layout.slots[c];
+                    int base = page * BufferPool.PAGE_SIZE;
+                    group.put(base + slot / 8, (byte) (group.get(base + slot / 8) | (1 << (slot % 8))));
+                    putField(group, base + headers[c] + slot * widths[c], t.getField(c));
+                }
+                rows++;
+                if (++inGroup == layout.rowsPerGroup) {
+                    ch.writePage(groups++ * layout.groupPages, group);
+                    group = ByteBuffer.allocate(layout.groupPages * BufferPool.PAGE_SIZE);
+                    inGroup = 0;
+                }
+            }
+            if (inGroup > 0)
+                ch.writePage(groups * layout.groupPages, group);
+            ch.force();
+        } finally {
+            source.close();
+            ch.close();
+        }
+        return rows;
+    }
+}
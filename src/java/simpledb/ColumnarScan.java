@@ -0,0 +1,46 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * ColumnarScan is a sequential scan of a table stored in a ColumnarFile that
+ * only reads the pages of the columns the query refers to. Its tuples have
+ * the full TupleDesc of the table, so the rest of the plan is unchanged;
+ * fields of the columns that are not read are null.
+ *
+ * @see ColumnarFile#iterator(TransactionId, boolean[])
+ * @see LogicalPlan#physicalPlan
+ */
+public class ColumnarScan extends SeqScan {
+
+    private static final long serialVersionUID = 1L;
+    private final boolean[] columns;
+
+    /**
+     * Creates a scan over the specified columns of the specified table as a
+     * part of the specified transaction.
+     *
+     * @param tid
+     *            The transaction this scan is running as a part of.
+     * @param tableid
+     *            the table to scan; must be stored in a ColumnarFile
+     * @param tableAlias
+     *            the alias of this table (see SeqScan)
+     * @param columns
+     *            the indexes of the columns to read
+     */
+    public ColumnarScan(TransactionId tid, int tableid, String tableAlias,
+            Set<Integer> columns) {
+        super(tid, tableid, tableAlias);
+        ColumnarFile f = (ColumnarFile) Database.getCatalog().getDbFile(tableid);
+        this.columns = new boolean[f.getTupleDesc().numFields()];
+        for (int c : columns)
+            this.columns[c] = true;
+        this.it = f.iterator(tid, this.columns);
+    }
+
+    /** @return true if column c is read by this scan */
+    public boolean readsColumn(int c) {
+        return columns[c];
+    }
+}
@@ -0,0 +1,412 @@
+package simpledb;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.util.*;
+
+import com.jcraft.jzlib.JZlib;
+import com.jcraft.jzlib.ZStream;
+
+/**
+ * CompressedHeapFile is a HeapFile whose pages are deflated (with jzlib) on
+ * writePage and inflated again on readPage, so that the BufferPool still
+ * sees ordinary pages while a cold scan reads only the compressed bytes. It
+ * is selected per table with the "compressed" catalog annotation.
+ * <p>
+ * The table file is a sequence of records aligned to BLOCK_SIZE bytes. Each
+ * record is a 12-byte header (page number, compressed length, capacity in
+ * blocks) followed by the deflated page; a page that does not shrink is
+ * stored as is, with its length negated. The capacity leaves some slack, so
+ * that a page that compresses a little worse after an update can still be
+ * rewritten in place; a page that outgrows its record is moved to a new
+ * record at the end of the file and the old record becomes dead space.
+ * <p>
+ * Where the current record of every page starts is kept in a page-offset
+ * index, in memory and in a sidecar file (the table file name plus ".idx")
+ * holding the first block, length and capacity of each page. A sidecar that
+ * is missing or older than the table file is rebuilt by walking the record
+ * headers; the last record of a page in the file is its current one. When
+ * the table is truncated, the records of dropped pages that stay behind as
+ * dead space are marked with a length of DROPPED, so a rebuild does not
+ * bring those pages back.
+ *
+ * @see HeapFile
+ * @see Catalog#loadSchema
+ */
+public class CompressedHeapFile extends HeapFile {
+
+    private static final long serialVersionUID = 1L;
+
+    /** Suffix appended to the table file name to get the index file. */
+    public static final String INDEX_SUFFIX = ".idx";
+
+    /** Records start at multiples of this many bytes. */
+    public static final int BLOCK_SIZE = 128;
+
+    private static final int HEADER_SIZE = 12;
+    //the length in the header of a record whose page was truncated away
+    private static final int DROPPED = 0;
+    private static final int ENTRY_SIZE = 12;
+
+    //deflate level; pages are small, so speed matters more than ratio
+    private static final int LEVEL = JZlib.Z_BEST_SPEED;
+
+    private final File indexFile;
+    private transient PageChannel blocks;
+    private transient PageChannel index;
+    //per page: first block, compressed length (negative if stored) and
+    //capacity in blocks of its current record
+    private int[] firstBlock;
+    private int[] length;
+    private int[] capacity;
+    private int numPages = -1;
+    //first block past the last record
+    private int endBlock;
+
+    /**
+     * Constructs a compressed heap file backed by the specified file.
+     *
+     * @param f
+     *            the file that stores the on-disk backing store for this heap
+     *            file.
+     * @param slotted
+     *            true if the pages are SlottedHeapPages
+     */
+    public CompressedHeapFile(File f, TupleDesc td, boolean slotted) {
+        this(f, td, slotted, BufferPool.PAGE_SIZE);
+    }
+
+    /**
+     * Constructs a compressed heap file whose pages are pageSize bytes
+     * before compression.
+     *
+     * @see HeapFile#HeapFile(File, TupleDesc, boolean, int)
+     */
+    public CompressedHeapFile(File f, TupleDesc td, boolean slotted, int pageSize) {
+        super(f, td, slotted, pageSize);
+        this.indexFile = new File(f.getPath() + INDEX_SUFFIX);
+    }
+
+    /** @return the page-offset index file of this table */
+    public File getIndexFile() {
+        return indexFile;
+    }
+
+    //load the index on first use, rebuilding it if it is stale
+    private synchronized void load() throws IOException {
+        if (numPages >= 0)
+            return;
+        blocks = new PageChannel(getFile(), BLOCK_SIZE);
+        index = new PageChannel(indexFile, ENTRY_SIZE);
+        firstBlock = new int[16];
+        length = new int[16];
+        capacity = new int[16];
+        numPages = 0;
+        endBlock = (int) ((blocks.size() + BLOCK_SIZE - 1) / BLOCK_SIZE);
+        boolean stale = !indexFile.exists()
+                || indexFile.lastModified() < getFile().lastModified();
+        if (!stale) {
+            int n = index.numPages();
+            ByteBuffer bb = ByteBuffer.allocate(n * ENTRY_SIZE);
+            index.readPage(0, bb);
+            for (int i = 0; i < n; i++) {
+                int b = bb.getInt(i * ENTRY_SIZE);
+                if (b < 0 || b >= endBlock) {
+                    stale = true;
+                    break;
+                }
+                setEntry(i, b, bb.getInt(i * ENTRY_SIZE + 4), bb.getInt(i * ENTRY_SIZE + 8));
+            }
+        }
+        if (stale) {
+            numPages = 0;
+            rebuild();
+        }
+    }
+
+    //walk the record headers of the table file to find the current record
+    //of every page, and rewrite the index file from them
+    private void rebuild() throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        int b = 0;
+        while (b < endBlock) {
+            header.clear();
+            blocks.readPage(b, header);
+            int pgNo = header.getInt(0);
+            int len = header.getInt(4);
+            int cap = header.getInt(8);
+            if (cap <= 0 || pgNo < 0)
+                break;
+            if (len != DROPPED)
+                setEntry(pgNo, b, len, cap);
+            else if (pgNo < numPages)
+                firstBlock[pgNo] = -1;
+            b += cap;
+        }
+        //pages whose latest record is marked dropped are gone; truncating
+        //only ever drops the last pages of the table
+        while (numPages > 0 && firstBlock[numPages - 1] < 0)
+            numPages--;
+        new FileOutputStream(indexFile).close();
+        for (int i = 0; i < numPages; i++)
+            persistEntry(i);
+    }
+
+    private void setEntry(int pgNo, int block, int len, int cap) {
+        if (pgNo >= firstBlock.length) {
+            int n = Math.max(pgNo + 1, firstBlock.length * 2);
+            firstBlock = Arrays.copyOf(firstBlock, n);
+            length = Arrays.copyOf(length, n);
+            capacity = Arrays.copyOf(capacity, n);
+        }
+        firstBlock[pgNo] = block;
+        length[pgNo] = len;
+        capacity[pgNo] = cap;
+        numPages = Math.max(numPages, pgNo + 1);
+    }
+
+    private void persistEntry(int pgNo) throws IOException {
+        ByteBuffer bb = ByteBuffer.allocate(ENTRY_SIZE);
+        bb.putInt(firstBlock[pgNo]).putInt(length[pgNo]).putInt(capacity[pgNo]);
+        bb.flip();
+        index.writePage(pgNo, bb);
+    }
+
+    /**
+     * Returns the number of pages in this file, which is the number of
+     * entries in its page-offset index.
+     */
+    public int numPages() {
+        try {
+            load();
+        } catch (IOException e) {
+            e.printStackTrace();
+            return 0;
+        }
+        synchronized (this) {
+            return numPages;
+        }
+    }
+
+    byte[] readPageData(int pgNo) throws IOException {
+        load();
+        int block;
+        int len;
+        synchronized (this) {
+            if (pgNo < 0 || pgNo >= numPages)
+                return HeapPage.createEmptyPageData(getPageSize());
+            block = firstBlock[pgNo];
+            len = length[pgNo];
+        }
+        byte[] stored = new byte[HEADER_SIZE + Math.abs(len)];
+        blocks.readPage(block, ByteBuffer.wrap(stored));
+        if (len < 0)
+            return Arrays.copyOfRange(stored, HEADER_SIZE, stored.length);
+        return inflate(stored, HEADER_SIZE, len, getPageSize());
+    }
+
+    void readPageData(int pgNo, ByteBuffer dst) throws IOException {
+        dst.put(readPageData(pgNo));
+    }
+
+    synchronized void writePageData(int pgNo, ByteBuffer data) throws IOException {
+        load();
+        if (data.hasArray())
+            writeRecord(pgNo, deflate(data.array(), data.arrayOffset() + data.position(),
+                    data.remaining()));
+        else {
+            byte[] page = new byte[data.remaining()];
+            data.duplicate().get(page);
+            writeRecord(pgNo, deflate(page, 0, page.length));
+        }
+    }
+
+    synchronized int appendPages(ByteBuffer data) throws IOException {
+        load();
+        int first = numPages;
+        byte[] page = new byte[getPageSize()];
+        for (int pgNo = first; data.remaining() >= page.length; pgNo++) {
+            data.get(page);
+            writeRecord(pgNo, deflate(page, 0, page.length));
+        }
+        return first;
+    }
+
+    /**
+     * Drops the index entries of pages numPages and up, and cuts the table
+     * file after the last record of the pages that are left. Records of
+     * dropped pages that lie before that stay behind as dead space, marked
+     * as dropped.
+     */
+    synchronized void truncatePages(int numPages) throws IOException {
+        load();
+        if (numPages >= this.numPages)
+            return;
+        int end = 0;
+        for (int i = 0; i < numPages; i++)
+            end = Math.max(end, firstBlock[i] + capacity[i]);
+        //mark every record of a dropped page that is left, superseded ones
+        //included, so a rebuild finds none of them
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        int b = 0;
+        while (b < end) {
+            header.clear();
+            blocks.readPage(b, header);
+            int pgNo = header.getInt(0);
+            int cap = header.getInt(8);
+            if (cap <= 0 || pgNo < 0)
+                break;
+            if (pgNo >= numPages && header.getInt(4) != DROPPED) {
+                header.putInt(4, DROPPED);
+                header.position(0);
+                blocks.writePage(b, header);
+            }
+            b += cap;
+        }
+        this.numPages = numPages;
+        endBlock = end;
+        blocks.truncate(end);
+        index.truncate(numPages);
+    }
+
+    //write record (header space included) as the current record of pgNo,
+    //in place if it fits in the old one
+    private void writeRecord(int pgNo, ByteBuffer record) throws IOException {
+        int len = record.getInt(4);
+        int need = (record.limit() + BLOCK_SIZE - 1) / BLOCK_SIZE;
+        int block;
+        int cap;
+        if (pgNo < numPages && capacity[pgNo] >= need) {
+            block = firstBlock[pgNo];
+            cap = capacity[pgNo];
+        } else {
+            //leave a quarter of slack, up to the size of a stored page
+            block = endBlock;
+            cap = Math.min(need + (need + 3) / 4,
+                    (HEADER_SIZE + getPageSize() + BLOCK_SIZE - 1) / BLOCK_SIZE);
+            cap = Math.max(cap, need);
+            endBlock += cap;
+        }
+        record.putInt(0, pgNo);
+        record.putInt(8, cap);
+        record.position(0);
+        blocks.writePage(block, record);
+        setEntry(pgNo, block, len, cap);
+        persistEntry(pgNo);
+    }
+
+    /**
+     * Deflates the page image of size bytes at offset of page into a record
+     * with HEADER_SIZE bytes of room in front for its header, with the
+     * stored length filled in.
+     */
+    static ByteBuffer deflate(byte[] page, int offset, int size) {
+        byte[] out = new byte[HEADER_SIZE + size];
+        ZStream z = new ZStream();
+        z.deflateInit(LEVEL, windowBits(size));
+        z.next_in = page;
+        z.next_in_index = offset;
+        z.avail_in = size;
+        z.next_out = out;
+        z.next_out_index = HEADER_SIZE;
+        z.avail_out = size;
+        int err = z.deflate(JZlib.Z_FINISH);
+        int len = (int) z.total_out;
+        z.deflateEnd();
+        ByteBuffer bb = ByteBuffer.wrap(out);
+        if (err != JZlib.Z_STREAM_END || len >= size) {
+            //does not shrink; store the page as is
+            System.arraycopy(page, offset, out, HEADER_SIZE, size);
+            bb.putInt(4, -size);
+            bb.limit(HEADER_SIZE + size);
+        } else {
+            bb.putInt(4, len);
+            bb.limit(HEADER_SIZE + len);
+        }
+        return bb;
+    }
+
+    //inflate len bytes of in from offset into a page image of pageSize bytes
+    static byte[] inflate(byte[] in, int offset, int len, int pageSize) throws IOException {
+        byte[] page = HeapPage.createEmptyPageData(pageSize);
+        ZStream z = new ZStream();
+        z.inflateInit(windowBits(pageSize));
+        z.next_in = in;
+        z.next_in_index = offset;
+        z.avail_in = len;
+        z.next_out = page;
+        z.next_out_index = 0;
+        z.avail_out = page.length;
+        int err = z.inflate(JZlib.Z_FINISH);
+        z.inflateEnd();
+        if (err != JZlib.Z_STREAM_END)
+            throw new IOException("corrupt compressed page: " + z.msg);
+        return page;
+    }
+
+    //a deflate window just large enough for one page, up to the largest
+    //window deflate has
+    private static int windowBits(int pageSize) {
+        int bits = 9;
+        while (bits < 15 && (1 << bits) < pageSize)
+            bits++;
+        return bits;
+    }
+
+    /**
+     * Rewrites the uncompressed heap file heapFile as a compressed table
+     * file out, page by page; the page format itself is not interpreted.
+     *
+     * @return the number of pages written
+     */
+    public static int compress(File heapFile, File out) throws IOException {
+        return compress(heapFile, out, BufferPool.PAGE_SIZE);
+    }
+
+    /**
+     * Rewrites the uncompressed heap file heapFile, whose pages are
+     * pageSize bytes, as a compressed table file out.
+     *
+     * @return the number of pages written
+     */
+    public static int compress(File heapFile, File out, int pageSize) throws IOException {
+        PageChannel in = new PageChannel(heapFile, pageSize);
+        new FileOutputStream(out).close();
+        new File(out.getPath() + INDEX_SUFFIX).delete();
+        CompressedHeapFile cf = new CompressedHeapFile(out, null, false, pageSize);
+        int n = in.numPages();
+        try {
+            cf.load();
+            for (int i = 0; i < n; i++)
+                cf.writePageData(i, ByteBuffer.wrap(in.readPage(i)));
+            cf.blocks.force();
+        } finally {
+            in.close();
+            cf.close();
+        }
+        return n;
+    }
+
+    /**
+     * @return the number of pages of this file's page size that the
+     *   compressed records of this file occupy on disk, dead space included
+     */
+    public synchronized int storedPages() {
+        try {
+            load();
+        } catch (IOException e) {
+            return numPages;
+        }
+        return (int) (((long) endBlock * BLOCK_SIZE + getPageSize() - 1)
+                / getPageSize());
+    }
+
+    /** Closes the table and index files; they are reopened on next use. */
+    synchronized void close() throws IOException {
+        if (numPages < 0)
+            return;
+        blocks.close();
+        index.close();
+        numPages = -1;
+    }
+}
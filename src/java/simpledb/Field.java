@@ -1,6 +1,7 @@
 package simpledb;
 
 import java.io.*;
+import java.nio.ByteBuffer;
 
 /**
  * Interface for values of fields in tuples in SimpleDB.
@@ -14,6 +15,15 @@ public interface Field extends Serializable{
      */
     void serialize(DataOutputStream dos) throws IOException;
 
+    /**
+     * Write the bytes representing this field into bb at the absolute
+     * position offset, in the same format as {@link #serialize(DataOutputStream)}.
+     * The position of bb is not changed.
+     * @param bb The buffer to write to
+     * @param offset The index in bb of the first byte of the field
+     */
+    void serialize(ByteBuffer bb, int offset);
+
     /**
      * Compare the value of this field object to the passed in value.
      * @param op The operator
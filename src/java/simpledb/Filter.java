@@ -40,10 +40,21 @@ public class Filter extends Operator {
     public void open() throws DbException, NoSuchElementException,
             TransactionAbortedException {
         // some code goes here
+        pushDown();
         F_child.open();
         super.open();
     }
 
+    //let a SeqScan below this filter, directly or under other filters, skip
+    //the pages that cannot hold a tuple passing the predicate
+    private void pushDown() {
+        DbIterator c = F_child;
+        while (c instanceof Filter)
+            c = ((Filter) c).F_child;
+        if (c instanceof SeqScan)
+            ((SeqScan) c).pushPredicate(F_predicate);
+    }
+
     public void close() {
         // some code goes here
         F_child.close();
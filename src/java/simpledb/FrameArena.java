@@ -0,0 +1,106 @@
+package simpledb;
+
+import java.nio.ByteBuffer;
+
+/**
+ * FrameArena is the off-heap memory the BufferPool reads page images into:
+ * a fixed number of frames of BufferPool.PAGE_SIZE bytes, sliced from
+ * direct ByteBuffers that are allocated a chunk at a time as the pool
+ * fills. A HeapPage read into a frame is a view of it, so the page images
+ * of a full pool are not on the Java heap, and the garbage collector never
+ * copies or scans them; the pool's size is then bounded by
+ * -XX:MaxDirectMemorySize rather than by the heap.
+ * <p>
+ * Freed frames are reused in the order they were freed, so that a frame
+ * stays untouched for as long as possible after its page left the pool.
+ * If direct memory runs out, the arena stops growing and the pool reads
+ * the pages it has no frame for onto the heap, as without an arena.
+ * <p>
+ * Arenas are not thread-safe; each partition of a BufferPool has an arena
+ * of its own, which it uses under its latch.
+ */
+public class FrameArena {
+
+    /** Number of frames allocated at once. */
+    public static final int CHUNK_FRAMES = 256;
+
+    private final int numFrames;
+    //views of the frames allocated so far
+    private final ByteBuffer[] frames;
+    private int allocated = 0;
+    //a queue of the free frames, oldest first
+    private final int[] free;
+    private int freeHead = 0;
+    private int freeCount = 0;
+    //true once direct memory ran out
+    private boolean exhausted = false;
+
+    /** Creates an arena of up to numFrames frames; none is allocated yet. */
+    public FrameArena(int numFrames) {
+        this.numFrames = numFrames;
+        this.frames = new ByteBuffer[numFrames];
+        this.free = new int[numFrames];
+    }
+
+    /**
+     * @return the number of a free frame, allocating more direct memory if
+     *   needed, or -1 if all frames are in use or there is no more direct
+     *   memory
+     */
+    public int allocate() {
+        if (freeCount == 0 && !grow())
+            return -1;
+        int frame = free[freeHead];
+        freeHead = (freeHead + 1) % free.length;
+        freeCount--;
+        return frame;
+    }
+
+    //allocate the next chunk of frames and queue them as free
+    private boolean grow() {
+        if (allocated == numFrames || exhausted)
+            return false;
+        int n = Math.min(CHUNK_FRAMES, numFrames - allocated);
+        ByteBuffer chunk;
+        try {
+            chunk = ByteBuffer.allocateDirect(n * BufferPool.PAGE_SIZE);
+        } catch (OutOfMemoryError e) {
+            //past -XX:MaxDirectMemorySize; read further pages onto the heap
+            exhausted = true;
+            return false;
+        }
+        for (int i = 0; i < n; i++) {
+            chunk.limit((i + 1) * BufferPool.PAGE_SIZE);
+            chunk.position(i * BufferPool.PAGE_SIZE);
+            frames[allocated] = chunk.slice();
+            release(allocated++);
+        }
+        return true;
+    }
+
+    /**
+     * @return a new view of frame, with position 0 and limit PAGE_SIZE
+     */
+    public ByteBuffer frame(int frame) {
+        return frames[frame].duplicate();
+    }
+
+    /**
+     * Returns frame to the arena. Nothing may read the frame after this,
+     * as its next page may be read into it.
+     */
+    public void release(int frame) {
+        free[(freeHead + freeCount) % free.length] = frame;
+        freeCount++;
+    }
+
+    /** @return the number of frames in use */
+    public int framesInUse() {
+        return allocated - freeCount;
+    }
+
+    /** @return the number of bytes of direct memory the arena allocated */
+    public long allocatedBytes() {
+        return (long) allocated * BufferPool.PAGE_SIZE;
+    }
+}
@@ -0,0 +1,196 @@
+package simpledb;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.util.*;
+
+/**
+ * FreeSpaceMap records the number of free tuple slots of every page of a
+ * HeapFile, so that HeapFile.insertTuple can go straight to a page with room
+ * instead of locking and inspecting pages 0..numPages() in turn.
+ * <p>
+ * The map lives in memory and is persisted in a sidecar file next to the
+ * table file (the table file name plus ".fsm"), as one unsigned short per
+ * page. In-memory counts follow HeapPage.insertTuple and deleteTuple as they
+ * happen, including uncommitted changes; the sidecar is written when a page
+ * itself is written to disk or appended to the file. Counts are only hints: insertTuple re-checks the
+ * page it is sent to and corrects the map when it was wrong. A sidecar that
+ * is missing or older than the table file is rebuilt from the page headers.
+ *
+ * @see HeapFile#insertTuple
+ */
+public class FreeSpaceMap {
+
+    /** Suffix appended to the table file name to get the sidecar file. */
+    public static final String SUFFIX = ".fsm";
+
+    private final HeapFile hf;
+    private final File file;
+    private PageChannel sidecar;
+    //free slots per page; pages past the end are unknown
+    private int[] free = new int[0];
+    private int numPages = 0;
+    private boolean loaded = false;
+
+    /**
+     * Creates the free-space map of hf. Nothing is read until the map is
+     * first used.
+     */
+    public FreeSpaceMap(HeapFile hf) {
+        this.hf = hf;
+        this.file = new File(hf.getFile().getPath() + SUFFIX);
+    }
+
+    /** @return the sidecar file of this map */
+    public File getFile() {
+        return file;
+    }
+
+    //load the sidecar on first use, rebuilding it from the table if it is
+    //stale; pages appended later are reported through update and persist
+    private void load() {
+        if (loaded)
+            return;
+        loaded = true;
+        int tablePages = hf.numPages();
+        sidecar = new PageChannel(file, 2);
+        boolean stale = !file.exists()
+                || file.lastModified() < hf.getFile().lastModified();
+        int known = stale ? 0 : Math.min(sidecar.numPages(), tablePages);
+        ensureCapacity(tablePages);
+        try {
+            if (known > 0) {
+                ByteBuffer bb = ByteBuffer.allocate(known * 2);
+                sidecar.readPage(0, bb);
+                for (int i = 0; i < known; i++)
+                    free[i] = bb.getShort(i * 2) & 0xffff;
+            }
+        } catch (IOException e) {
+            known = 0;
+        }
+        for (numPages = known; numPages < tablePages; numPages++)
+            free[numPages] = countFreeSlots(numPages);
+        persistEntries(known, tablePages);
+    }
+
+    private void ensureCapacity(int n) {
+        if (free.length < n)
+            free = Arrays.copyOf(free, Math.max(n, free.length * 2));
+    }
+
+    //read the page straight from disk, outside the buffer pool
+    private int countFreeSlots(int pgNo) {
+        Page p = hf.readPage(new HeapPageId(hf.getId(), pgNo));
+        if (p instanceof HeapPage)
+            return ((HeapPage) p).getNumEmptySlots();
+        return 0;
+    }
+
+    //write the entries of pages from..to-1 to the sidecar in one write
+    private void persistEntries(int from, int to) {
+        if (from >= to)
+            return;
+        ByteBuffer bb = ByteBuffer.allocate((to - from) * 2);
+        for (int pgNo = from; pgNo < to; pgNo++)
+            bb.putShort((short) Math.min(free[pgNo], 0xffff));
+        bb.flip();
+        try {
+            sidecar.writePage(from, bb);
+        } catch (IOException e) {
+            //the sidecar is only a hint; it is rebuilt when found stale
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * @return the recorded number of free slots on page pgNo
+     */
+    public synchronized int getFreeSlots(int pgNo) {
+        load();
+        return pgNo < numPages ? free[pgNo] : 0;
+    }
+
+    /**
+     * Records, in memory only, that page pgNo now has freeSlots free slots.
+     * Called as tuples are inserted into and deleted from cached pages.
+     */
+    public synchronized void update(int pgNo, int freeSlots) {
+        load();
+        if (pgNo >= numPages) {
+            ensureCapacity(pgNo + 1);
+            numPages = pgNo + 1;
+        }
+        free[pgNo] = freeSlots;
+    }
+
+    /**
+     * Records that page pgNo has freeSlots free slots and writes the entry
+     * to the sidecar. Called when the page is written to disk.
+     */
+    public synchronized void persist(int pgNo, int freeSlots) {
+        update(pgNo, freeSlots);
+        persistEntries(pgNo, pgNo + 1);
+    }
+
+    /**
+     * Records that pages first, first+1, ... have freeSlots[0],
+     * freeSlots[1], ... free slots and writes their entries to the sidecar
+     * in one write. Called when the pages are appended to the table file,
+     * so that the sidecar does not fall behind the table.
+     */
+    public synchronized void persist(int first, int[] freeSlots) {
+        for (int i = 0; i < freeSlots.length; i++)
+            update(first + i, freeSlots[i]);
+        persistEntries(first, first + freeSlots.length);
+    }
+
+    /**
+     * Drops the entries of pages numPages and up, in memory and in the
+     * sidecar. Called when the table file is truncated.
+     */
+    public synchronized void truncate(int numPages) {
+        load();
+        if (numPages >= this.numPages)
+            return;
+        //update leaves the entries of skipped pages as they are
+        Arrays.fill(free, numPages, this.numPages, 0);
+        this.numPages = numPages;
+        try {
+            sidecar.truncate(numPages);
+        } catch (IOException e) {
+            //the sidecar is only a hint; it is rebuilt when found stale
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Returns the first page at or after start (wrapping around to page 0)
+     * that is recorded as having a free slot, or -1 if there is none.
+     */
+    public synchronized int findPageWithSpace(int start) {
+        load();
+        if (numPages == 0)
+            return -1;
+        start = Math.max(0, start) % numPages;
+        for (int i = 0; i < numPages; i++) {
+            int pgNo = (start + i) % numPages;
+            if (free[pgNo] > 0)
+                return pgNo;
+        }
+        return -1;
+    }
+
+    /**
+     * @return the fraction of all slots of the file that are free, as
+     *   recorded in this map, given the number of slots per page
+     */
+    public synchronized double freeFraction(int slotsPerPage) {
+        load();
+        if (numPages == 0 || slotsPerPage <= 0)
+            return 0.0;
+        long total = 0;
+        for (int i = 0; i < numPages; i++)
+            total += free[i];
+        return total / ((double) numPages * slotsPerPage);
+    }
+}
@@ -0,0 +1,108 @@
+package simpledb;
+
+import java.nio.ByteBuffer;
+import java.util.*;
+
+/**
+ * HashBucketPage is a page of a bucket of a HashIndexFile: the bucket's
+ * primary page or one of the overflow pages chained behind it. It holds
+ * index entries in no particular order, after the number of entries and
+ * the page number of the next overflow page, which is 0 at the end of the
+ * chain (page 0 is the header). A page of zeroes is an empty bucket.
+ *
+ * @see HashIndexFile
+ */
+public class HashBucketPage extends IndexPage {
+
+    //entry count and overflow page
+    static final int HEADER_SIZE = 8;
+
+    private final List<IndexEntry> entries;
+    private int overflow;
+
+    HashBucketPage(IndexPageId pid, Type keyType, int pageSize, byte[] data) {
+        super(pid, keyType, pageSize, data);
+        ByteBuffer bb = ByteBuffer.wrap(data);
+        int n = bb.getInt(0);
+        this.overflow = bb.getInt(4);
+        this.entries = new ArrayList<IndexEntry>(n);
+        int size = IndexEntry.size(keyType);
+        for (int i = 0; i < n; i++)
+            entries.add(IndexEntry.read(keyType, bb, HEADER_SIZE + i * size));
+    }
+
+    /** Creates an empty page of a bucket, to be written as page pid. */
+    HashBucketPage(IndexPageId pid, Type keyType, int pageSize) {
+        super(pid, keyType, pageSize, null);
+        this.entries = new ArrayList<IndexEntry>();
+        this.overflow = 0;
+    }
+
+    /** @return the number of entries a bucket page of pageSize bytes holds */
+    static int maxEntries(Type keyType, int pageSize) {
+        return (pageSize - HEADER_SIZE) / IndexEntry.size(keyType);
+    }
+
+    public int size() {
+        return entries.size();
+    }
+
+    public int maxSize() {
+        return maxEntries(keyType, pageSize);
+    }
+
+    /** @return a copy of the entries of this page */
+    List<IndexEntry> entries() {
+        return new ArrayList<IndexEntry>(entries);
+    }
+
+    /** @return the next page of the bucket, or 0 if this is the last */
+    int getOverflow() {
+        return overflow;
+    }
+
+    void setOverflow(int overflow) {
+        prepareWrite();
+        this.overflow = overflow;
+    }
+
+    /** Adds e; the page must not be full. */
+    void add(IndexEntry e) {
+        prepareWrite();
+        entries.add(e);
+    }
+
+    /**
+     * Removes e.
+     *
+     * @return false if e is not on this page
+     */
+    boolean remove(IndexEntry e) {
+        int i = entries.indexOf(e);
+        if (i < 0)
+            return false;
+        prepareWrite();
+        //order does not matter, so fill the hole with the last entry
+        entries.set(i, entries.get(entries.size() - 1));
+        entries.remove(entries.size() - 1);
+        return true;
+    }
+
+    /** Removes all entries. */
+    void clear() {
+        prepareWrite();
+        entries.clear();
+    }
+
+    void encode(ByteBuffer bb) {
+        bb.putInt(0, entries.size());
+        bb.putInt(4, overflow);
+        int size = IndexEntry.size(keyType);
+        for (int i = 0; i < entries.size(); i++)
+            entries.get(i).write(bb, HEADER_SIZE + i * size);
+    }
+
+    HashBucketPage decode(byte[] data) {
+        return new HashBucketPage(pid, keyType, pageSize, data);
+    }
+}
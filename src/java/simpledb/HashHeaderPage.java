@@ -0,0 +1,128 @@
+package simpledb;
+
+import java.nio.ByteBuffer;
+
+/**
+ * HashHeaderPage is page 0 of a HashIndexFile. It holds the state of the
+ * linear hash table: its level and the next bucket to split, which together
+ * give the number of buckets and the bucket of each hash value; the head of
+ * the list of free overflow pages; and where the primary pages of each
+ * segment of buckets start.
+ * <p>
+ * Segment 0 is bucket 0; segment s > 0 is buckets 2^(s-1) to 2^s - 1. The
+ * primary pages of a segment are consecutive, and are allocated together
+ * when the first bucket of the segment is made, so a bucket's primary page
+ * follows from its number without a directory.
+ *
+ * @see HashIndexFile
+ */
+public class HashHeaderPage extends IndexPage {
+
+    /** Number of segments, enough for buckets up to 2^31 - 1. */
+    static final int SEGMENTS = 32;
+
+    private int level;
+    private int next;
+    private int freeHead;
+    private final int[] segmentStart = new int[SEGMENTS];
+
+    HashHeaderPage(IndexPageId pid, Type keyType, int pageSize, byte[] data) {
+        super(pid, keyType, pageSize, data);
+        ByteBuffer bb = ByteBuffer.wrap(data);
+        this.level = bb.getInt(0);
+        this.next = bb.getInt(4);
+        this.freeHead = bb.getInt(8);
+        for (int s = 0; s < SEGMENTS; s++)
+            segmentStart[s] = bb.getInt(12 + 4 * s);
+    }
+
+    /** Creates the header of a table of 2^level + next buckets. */
+    HashHeaderPage(IndexPageId pid, Type keyType, int pageSize, int level, int next) {
+        super(pid, keyType, pageSize, null);
+        this.level = level;
+        this.next = next;
+    }
+
+    /** @return the segment bucket is in */
+    static int segment(int bucket) {
+        return 32 - Integer.numberOfLeadingZeros(bucket);
+    }
+
+    /** @return the first bucket of segment s */
+    static int segmentFirst(int s) {
+        return s == 0 ? 0 : 1 << (s - 1);
+    }
+
+    /** @return the number of buckets in segment s */
+    static int segmentSize(int s) {
+        return s == 0 ? 1 : 1 << (s - 1);
+    }
+
+    /** @return the number of buckets */
+    int numBuckets() {
+        return (1 << level) + next;
+    }
+
+    /** @return the bucket of a key with hash value h */
+    int bucketOf(int h) {
+        int b = h & ((1 << level) - 1);
+        if (b < next)
+            b = h & ((2 << level) - 1);
+        return b;
+    }
+
+    /** @return the page number of the primary page of bucket */
+    int pageOf(int bucket) {
+        int s = segment(bucket);
+        return segmentStart[s] + bucket - segmentFirst(s);
+    }
+
+    /** @return the bucket the next split divides */
+    int nextToSplit() {
+        return next;
+    }
+
+    /**
+     * Records that bucket nextToSplit() was split, which adds bucket
+     * numBuckets(), whose segment must have pages by then.
+     */
+    void splitDone() {
+        prepareWrite();
+        if (++next == 1 << level) {
+            level++;
+            next = 0;
+        }
+    }
+
+    /** @return true if segment s has pages */
+    boolean hasSegment(int s) {
+        return segmentStart[s] != 0;
+    }
+
+    void setSegmentStart(int s, int pgNo) {
+        prepareWrite();
+        segmentStart[s] = pgNo;
+    }
+
+    /** @return the first free overflow page, or 0 if there is none */
+    int getFreeHead() {
+        return freeHead;
+    }
+
+    void setFreeHead(int pgNo) {
+        prepareWrite();
+        freeHead = pgNo;
+    }
+
+    void encode(ByteBuffer bb) {
+        bb.putInt(0, level);
+        bb.putInt(4, next);
+        bb.putInt(8, freeHead);
+        for (int s = 0; s < SEGMENTS; s++)
+            bb.putInt(12 + 4 * s, segmentStart[s]);
+    }
+
+    HashHeaderPage decode(byte[] data) {
+        return new HashHeaderPage(pid, keyType, pageSize, data);
+    }
+}
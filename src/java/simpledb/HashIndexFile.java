@@ -0,0 +1,480 @@
+package simpledb;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * HashIndexFile is a linear hash index on one column of a table stored in a
+ * HeapFile, for lookups of single keys. The entry (key, RecordId) of each
+ * tuple is stored in the bucket its key hashes to: a primary page and a
+ * chain of overflow pages behind it. Page 0 is a {@link HashHeaderPage}
+ * that maps a key's hash value to the primary page of its bucket, so a
+ * lookup reads one bucket page as long as its bucket has no overflow pages.
+ * <p>
+ * The table grows a bucket at a time: whenever an insert has to chain a new
+ * overflow page to a bucket, the bucket the header names next is split in
+ * two, and its entries are divided between the two by one more bit of their
+ * hash values. Buckets are never merged; deletes only remove the entry, and
+ * overflow pages a split empties are reused.
+ * <p>
+ * Pages are fetched through the BufferPool and locked like any others;
+ * every operation read-locks the header, and splits write-lock it. The
+ * BufferPool never evicts a dirty page, so an abort puts back every page
+ * the transaction changed. The pages a split appends to the file, for a
+ * new segment of buckets or an overflow page, are written outside the
+ * transaction, though: an aborted split leaves them unused at the end of
+ * the file until the next {@link #build}.
+ *
+ * @see Catalog#loadSchema
+ * @see Parser#handleCreateIndexStatement
+ */
+public class HashIndexFile implements IndexFile {
+
+    private static final long serialVersionUID = 1L;
+
+    /** Suffix of index files, after the table file name and column. */
+    public static final String SUFFIX = ".hash";
+    /** Fraction of each bucket's primary page build() fills on average. */
+    public static final double FILL_FACTOR = 0.75;
+
+    private final File file;
+    private final HeapFile table;
+    private final int keyField;
+    private final Type keyType;
+    private final int pageSize = BufferPool.PAGE_SIZE;
+    private transient PageChannel channel;
+
+    /**
+     * Opens the index stored in f on column keyField of table. The index is
+     * not built; it must be built before it is used.
+     */
+    public HashIndexFile(File f, HeapFile table, int keyField) {
+        this.file = f;
+        this.table = table;
+        this.keyField = keyField;
+        this.keyType = table.getTupleDesc().getFieldType(keyField);
+    }
+
+    /**
+     * @return the file that stores the hash index on column of the table
+     *   stored in tableFile
+     */
+    public static File indexFile(File tableFile, String column) {
+        return new File(tableFile.getPath() + "." + column + SUFFIX);
+    }
+
+    /** @return the file backing this index */
+    public File getFile() {
+        return file;
+    }
+
+    public DbFile getTable() {
+        return table;
+    }
+
+    public int getKeyField() {
+        return keyField;
+    }
+
+    /**
+     * @return an ID uniquely identifying this index, see HeapFile#getId
+     */
+    public int getId() {
+        return file.getAbsoluteFile().hashCode();
+    }
+
+    /** @return the TupleDesc of the table, which is what iterators return */
+    public TupleDesc getTupleDesc() {
+        return table.getTupleDesc();
+    }
+
+    private synchronized PageChannel getPageChannel() {
+        if (channel == null)
+            channel = new PageChannel(file, pageSize);
+        return channel;
+    }
+
+    /** @return the number of pages in the index file */
+    public int numPages() {
+        return getPageChannel().numPages();
+    }
+
+    private IndexPageId pageId(int pgNo) {
+        return new IndexPageId(getId(), pgNo);
+    }
+
+    // see DbFile.java for javadocs
+    public Page readPage(PageId pid) {
+        try {
+            byte[] data = getPageChannel().readPage(pid.pageNumber());
+            IndexPageId id = new IndexPageId(pid.getTableId(), pid.pageNumber());
+            if (pid.pageNumber() == 0)
+                return new HashHeaderPage(id, keyType, pageSize, data);
+            return new HashBucketPage(id, keyType, pageSize, data);
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    // see DbFile.java for javadocs
+    public void writePage(Page page) throws IOException {
+        getPageChannel().writePage(page.getId().pageNumber(), page.getPageData());
+    }
+
+    private IndexPage getPage(TransactionId tid, int pgNo, Permissions perm)
+            throws TransactionAbortedException, DbException {
+        return (IndexPage) Database.getBufferPool().getPage(tid, pageId(pgNo), perm);
+    }
+
+    //mark page dirty now, as fetching the next page may evict it, and
+    //remember it as the latest version of its page
+    private void dirtied(TransactionId tid, IndexPage page, Map<PageId, Page> dirty) {
+        Database.getBufferPool().pageDirtied(tid, page);
+        dirty.put(page.getId(), page);
+    }
+
+    /**
+     * @return the hash value of key; the bits a bucket number takes from it
+     *   are mixed from all bits of the key's hashCode
+     */
+    static int hash(Field key) {
+        int h = key.hashCode();
+        h ^= h >>> 16;
+        h *= 0x85ebca6b;
+        h ^= h >>> 13;
+        h *= 0xc2b2ae35;
+        h ^= h >>> 16;
+        return h;
+    }
+
+    //extend the file by n pages of zeroes, which are empty buckets;
+    //returns the first
+    private synchronized int appendPages(int n) throws IOException {
+        PageChannel ch = getPageChannel();
+        int pgNo = Math.max(ch.numPages(), 1);
+        ch.writePage(pgNo + n - 1, new byte[pageSize]);
+        return pgNo;
+    }
+
+    //an empty overflow page, from the free list if it has one
+    private HashBucketPage allocate(TransactionId tid, HashHeaderPage header,
+            Map<PageId, Page> dirty) throws DbException, IOException,
+            TransactionAbortedException {
+        int pgNo = header.getFreeHead();
+        if (pgNo == 0)
+            return (HashBucketPage) getPage(tid, appendPages(1), Permissions.READ_WRITE);
+        HashBucketPage p = (HashBucketPage) getPage(tid, pgNo, Permissions.READ_WRITE);
+        header.setFreeHead(p.getOverflow());
+        p.setOverflow(0);
+        dirtied(tid, header, dirty);
+        dirtied(tid, p, dirty);
+        return p;
+    }
+
+    //put the emptied overflow page p on the free list
+    private void free(TransactionId tid, HashHeaderPage header, HashBucketPage p,
+            Map<PageId, Page> dirty) {
+        p.clear();
+        p.setOverflow(header.getFreeHead());
+        header.setFreeHead(p.getId().pageNumber());
+        dirtied(tid, p, dirty);
+        dirtied(tid, header, dirty);
+    }
+
+    //the pages of the bucket whose primary page is pgNo, write-locked
+    private List<HashBucketPage> chain(TransactionId tid, int pgNo)
+            throws DbException, TransactionAbortedException {
+        List<HashBucketPage> pages = new ArrayList<HashBucketPage>();
+        while (pgNo != 0) {
+            HashBucketPage p = (HashBucketPage) getPage(tid, pgNo, Permissions.READ_WRITE);
+            pages.add(p);
+            pgNo = p.getOverflow();
+        }
+        return pages;
+    }
+
+    //replace the entries of the bucket whose pages are chain with entries,
+    //adding overflow pages or freeing those no longer needed
+    private void rewrite(TransactionId tid, HashHeaderPage header,
+            List<HashBucketPage> chain, List<IndexEntry> entries,
+            Map<PageId, Page> dirty) throws DbException, IOException,
+            TransactionAbortedException {
+        List<HashBucketPage> pages = new ArrayList<HashBucketPage>(chain);
+        int pos = 0;
+        for (int i = 0; ; i++) {
+            if (i == pages.size()) {
+                HashBucketPage o = allocate(tid, header, dirty);
+                pages.get(i - 1).setOverflow(o.getId().pageNumber());
+                dirtied(tid, pages.get(i - 1), dirty);
+                pages.add(o);
+            }
+            HashBucketPage p = pages.get(i);
+            p.clear();
+            while (pos < entries.size() && p.size() < p.maxSize())
+                p.add(entries.get(pos++));
+            if (pos == entries.size()) {
+                p.setOverflow(0);
+                dirtied(tid, p, dirty);
+                for (int j = i + 1; j < pages.size(); j++)
+                    free(tid, header, pages.get(j), dirty);
+                return;
+            }
+            dirtied(tid, p, dirty);
+        }
+    }
+
+    //split the bucket the header names next, adding a bucket at the end
+    private void split(TransactionId tid, HashHeaderPage header, Map<PageId, Page> dirty)
+            throws DbException, IOException, TransactionAbortedException {
+        int old = header.nextToSplit();
+        int added = header.numBuckets();
+        int s = HashHeaderPage.segment(added);
+        if (!header.hasSegment(s))
+            header.setSegmentStart(s, appendPages(HashHeaderPage.segmentSize(s)));
+        List<HashBucketPage> oldChain = chain(tid, header.pageOf(old));
+        List<HashBucketPage> addedChain = chain(tid, header.pageOf(added));
+        header.splitDone();
+        dirtied(tid, header, dirty);
+
+        List<IndexEntry> stay = new ArrayList<IndexEntry>();
+        List<IndexEntry> move = new ArrayList<IndexEntry>();
+        for (HashBucketPage p : oldChain)
+            for (IndexEntry e : p.entries())
+                (header.bucketOf(hash(e.key)) == old ? stay : move).add(e);
+        rewrite(tid, header, oldChain, stay, dirty);
+        rewrite(tid, header, addedChain, move, dirty);
+    }
+
+    /**
+     * Adds the entry of t, a tuple just inserted into the table, to its
+     * bucket. If the bucket needs a new overflow page for it, the next
+     * bucket is split.
+     *
+     * @return the pages changed
+     */
+    public ArrayList<Page> insertTuple(TransactionId tid, Tuple t)
+            throws DbException, IOException, TransactionAbortedException {
+        IndexEntry e = IndexEntry.of(t, keyField);
+        Map<PageId, Page> dirty = new LinkedHashMap<PageId, Page>();
+        HashHeaderPage header = (HashHeaderPage) getPage(tid, 0, Permissions.READ_ONLY);
+        int pgNo = header.pageOf(header.bucketOf(hash(e.key)));
+        HashBucketPage p = (HashBucketPage) getPage(tid, pgNo, Permissions.READ_WRITE);
+        while (p.size() >= p.maxSize() && p.getOverflow() != 0)
+            p = (HashBucketPage) getPage(tid, p.getOverflow(), Permissions.READ_WRITE);
+        if (p.size() < p.maxSize()) {
+            p.add(e);
+            dirtied(tid, p, dirty);
+            return new ArrayList<Page>(dirty.values());
+        }
+
+        header = (HashHeaderPage) getPage(tid, 0, Permissions.READ_WRITE);
+        HashBucketPage o = allocate(tid, header, dirty);
+        o.add(e);
+        dirtied(tid, o, dirty);
+        p.setOverflow(o.getId().pageNumber());
+        dirtied(tid, p, dirty);
+        split(tid, header, dirty);
+        return new ArrayList<Page>(dirty.values());
+    }
+
+    /**
+     * Removes the entry of t, a tuple just deleted from the table.
+     *
+     * @return the page changed
+     * @throws DbException if the index has no entry for t
+     */
+    public Page deleteTuple(TransactionId tid, Tuple t) throws DbException,
+            TransactionAbortedException {
+        IndexEntry e = IndexEntry.of(t, keyField);
+        HashHeaderPage header = (HashHeaderPage) getPage(tid, 0, Permissions.READ_ONLY);
+        int pgNo = header.pageOf(header.bucketOf(hash(e.key)));
+        while (pgNo != 0) {
+            HashBucketPage p = (HashBucketPage) getPage(tid, pgNo, Permissions.READ_WRITE);
+            if (p.remove(e)) {
+                Database.getBufferPool().pageDirtied(tid, p);
+                return p;
+            }
+            pgNo = p.getOverflow();
+        }
+        throw new DbException("index " + file.getName() + " has no entry for " + t);
+    }
+
+    public boolean supports(Predicate.Op op) {
+        return op == Predicate.Op.EQUALS;
+    }
+
+    /**
+     * @return 1, the primary page of the key's bucket; the header page is
+     *   read too, but it stays in the buffer pool while the index is used
+     */
+    public int lookupPages() {
+        return 1;
+    }
+
+    /**
+     * Returns all tuples of the table, bucket by bucket.
+     */
+    public DbFileIterator iterator(TransactionId tid) {
+        return iterator(tid, new ArrayList<Predicate>());
+    }
+
+    public DbFileIterator iterator(TransactionId tid, List<Predicate> preds) {
+        return new HashIterator(tid, preds);
+    }
+
+    /**
+     * Reads the bucket of the key the predicates ask for, or all buckets if
+     * they do not name one, and returns the tuples of the entries that
+     * satisfy the predicates. The entries of a page are copied when the
+     * iterator reaches it.
+     */
+    private class HashIterator implements DbFileIterator {
+        private final TransactionId tid;
+        private final List<Predicate> preds;
+        //the key the predicates ask for, or null
+        private Field key = null;
+        private HashHeaderPage header = null;
+        private int bucket;
+        private int lastBucket;
+        //the next page of the current bucket, or 0
+        private int nextPage;
+        private List<IndexEntry> entries = null;
+        private int pos;
+        private Tuple next = null;
+
+        HashIterator(TransactionId tid, List<Predicate> preds) {
+            this.tid = tid;
+            this.preds = preds;
+            for (Predicate p : preds)
+                if (p.getOp() == Predicate.Op.EQUALS)
+                    key = p.getOperand();
+        }
+
+        public void open() throws DbException, TransactionAbortedException {
+            header = (HashHeaderPage) getPage(tid, 0, Permissions.READ_ONLY);
+            if (key != null) {
+                bucket = header.bucketOf(hash(key));
+                lastBucket = bucket;
+            } else {
+                bucket = 0;
+                lastBucket = header.numBuckets() - 1;
+            }
+            nextPage = header.pageOf(bucket);
+            entries = new ArrayList<IndexEntry>();
+            pos = 0;
+            next = null;
+        }
+
+        public boolean hasNext() throws DbException, TransactionAbortedException {
+            while (next == null && entries != null) {
+                if (pos < entries.size()) {
+                    IndexEntry e = entries.get(pos++);
+                    if (e.satisfies(preds))
+                        next = e.fetch(tid, table);
+                } else if (nextPage != 0) {
+                    HashBucketPage p = (HashBucketPage) getPage(tid, nextPage,
+                            Permissions.READ_ONLY);
+                    entries = p.entries();
+                    pos = 0;
+                    nextPage = p.getOverflow();
+                } else if (bucket < lastBucket) {
+                    nextPage = header.pageOf(++bucket);
+                } else {
+                    entries = null;
+                }
+            }
+            return next != null;
+        }
+
+        public Tuple next() throws DbException, TransactionAbortedException,
+                NoSuchElementException {
+            if (!hasNext())
+                throw new NoSuchElementException();
+            Tuple t = next;
+            next = null;
+            return t;
+        }
+
+        public void rewind() throws DbException, TransactionAbortedException {
+            close();
+            open();
+        }
+
+        public void close() {
+            entries = null;
+            next = null;
+        }
+    }
+
+    /**
+     * Replaces the contents of the index with the entries of all tuples of
+     * the table, written straight to the index file: enough buckets for
+     * their primary pages to be FILL_FACTOR full on average, with overflow
+     * pages after all primary pages. No other transaction may use the table
+     * or the index meanwhile.
+     */
+    public void build() throws IOException, DbException, TransactionAbortedException {
+        TransactionId tid = new TransactionId();
+        build(tid);
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * Replaces the contents of the index like {@link #build()}, reading the
+     * table in transaction tid. The read locks tid takes on the pages of
+     * the table are kept until the caller completes tid, so no tuple of
+     * them can move before the caller adds the index to the Catalog, after
+     * which a {@link Vacuum} leaves the table alone.
+     */
+    public void build(TransactionId tid)
+            throws IOException, DbException, TransactionAbortedException {
+        List<IndexEntry> all = new ArrayList<IndexEntry>();
+        DbFileIterator it = table.iterator(tid);
+        it.open();
+        while (it.hasNext())
+            all.add(IndexEntry.of(it.next(), keyField));
+        it.close();
+
+        //cached pages of the old contents are stale
+        PageChannel ch = getPageChannel();
+        for (int pgNo = 0; pgNo < ch.numPages(); pgNo++)
+            Database.getBufferPool().discardPage(pageId(pgNo));
+        ch.truncate(0);
+
+        int perBucket = HashBucketPage.maxEntries(keyType, pageSize);
+        int numBuckets = Math.max(1, (int) Math.ceil(all.size() / (perBucket * FILL_FACTOR)));
+        int level = 31 - Integer.numberOfLeadingZeros(numBuckets);
+        HashHeaderPage header = new HashHeaderPage(pageId(0), keyType, pageSize, level,
+                numBuckets - (1 << level));
+        //primary pages of all segments in use, then overflow pages
+        int nextPage = 1;
+        for (int s = 0; s <= HashHeaderPage.segment(numBuckets - 1); s++) {
+            header.setSegmentStart(s, nextPage);
+            nextPage += HashHeaderPage.segmentSize(s);
+        }
+        writePage(header);
+
+        List<List<IndexEntry>> buckets = new ArrayList<List<IndexEntry>>();
+        for (int b = 0; b < numBuckets; b++)
+            buckets.add(new ArrayList<IndexEntry>());
+        for (IndexEntry e : all)
+            buckets.get(header.bucketOf(hash(e.key))).add(e);
+        //the last segment may have pages past the last bucket
+        ch.writePage(nextPage - 1, new byte[pageSize]);
+        for (int b = 0; b < numBuckets; b++) {
+            List<IndexEntry> entries = buckets.get(b);
+            int pgNo = header.pageOf(b);
+            int pos = 0;
+            do {
+                HashBucketPage p = new HashBucketPage(pageId(pgNo), keyType, pageSize);
+                while (pos < entries.size() && p.size() < p.maxSize())
+                    p.add(entries.get(pos++));
+                if (pos < entries.size()) {
+                    pgNo = nextPage++;
+                    p.setOverflow(pgNo);
+                }
+                writePage(p);
+            } while (pos < entries.size());
+        }
+    }
+}
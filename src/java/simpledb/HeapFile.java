@@ -1,6 +1,7 @@
 package simpledb;
 
 import java.io.*;
+import java.nio.ByteBuffer;
 import java.util.*;
 
 /**
@@ -19,6 +20,21 @@ public class HeapFile implements DbFile {
     File DFfile;
     //table schema
     TupleDesc DFtd;
+    //true if the pages are SlottedHeapPages rather than fixed-slot HeapPages
+    private final boolean slotted;
+    //bytes per page of this file
+    private final int pageSize;
+    //true if the class overrides readPage(PageId), which the BufferPool
+    //must then call rather than read pages into its frames
+    private final boolean readPageOverridden;
+    //open channel used for all page I/O on DFfile
+    private transient PageChannel channel;
+    //free slots per page, consulted by insertTuple
+    private transient FreeSpaceMap freeSpace;
+    //value ranges per page, consulted by scans with pushed predicates
+    private transient ZoneMap zones;
+    //positions of each value of some columns, consulted by BitmapScans
+    private transient List<BitmapIndex> bitmapIndexes;
     
 
     /**
@@ -30,8 +46,55 @@ public class HeapFile implements DbFile {
      */
     public HeapFile(File f, TupleDesc td) {
         // some code goes here
+        this(f, td, false);
+    }
+
+    /**
+     * Constructs a heap file backed by the specified file, whose pages are
+     * in the variable-length SlottedHeapPage format if slotted is true.
+     *
+     * @see SlottedHeapPage
+     */
+    public HeapFile(File f, TupleDesc td, boolean slotted) {
+        this(f, td, slotted, BufferPool.PAGE_SIZE);
+    }
+
+    /**
+     * Constructs a heap file backed by the specified file whose pages are
+     * pageSize bytes instead of BufferPool.PAGE_SIZE, for example larger
+     * pages for tables that are mostly scanned.
+     *
+     * @see Catalog#loadSchema
+     */
+    public HeapFile(File f, TupleDesc td, boolean slotted, int pageSize) {
         this.DFfile = f;
         this.DFtd = td;
+        this.slotted = slotted;
+        this.pageSize = pageSize;
+        this.readPageOverridden = overridesReadPage(getClass());
+    }
+
+    /**
+     * @return the number of bytes in a page of this file
+     */
+    public int getPageSize() {
+        return this.pageSize;
+    }
+
+    /**
+     * @return true if the pages of this file are SlottedHeapPages
+     */
+    public boolean isSlotted() {
+        return this.slotted;
+    }
+
+    /**
+     * Creates a page of this file's format from the page image in data.
+     */
+    HeapPage newPage(HeapPageId pid, ByteBuffer data) throws IOException {
+        if (this.slotted)
+            return new SlottedHeapPage(pid, data);
+        return new HeapPage(pid, data);
     }
 
     /**
@@ -44,6 +107,86 @@ public class HeapFile implements DbFile {
         return this.DFfile;
     }
 
+    /**
+     * Returns the PageChannel that all page reads and writes of this file go
+     * through, opening it on first use.
+     */
+    public synchronized PageChannel getPageChannel() {
+        if (this.channel == null)
+            this.channel = new PageChannel(this.DFfile, this.pageSize);
+        return this.channel;
+    }
+
+    /**
+     * Returns the free-space map of this file, creating it on first use.
+     */
+    public synchronized FreeSpaceMap getFreeSpaceMap() {
+        if (this.freeSpace == null)
+            this.freeSpace = new FreeSpaceMap(this);
+        return this.freeSpace;
+    }
+
+    /**
+     * Returns the zone map of this file, creating it on first use.
+     */
+    public synchronized ZoneMap getZoneMap() {
+        if (this.zones == null)
+            this.zones = new ZoneMap(this);
+        return this.zones;
+    }
+
+    /**
+     * Adds a bitmap index on column, which this file then keeps up to date,
+     * unless it already has one.
+     *
+     * @return the bitmap index on column
+     */
+    public synchronized BitmapIndex addBitmapIndex(int column) {
+        for (BitmapIndex b : getBitmapIndexes())
+            if (b.getColumn() == column)
+                return b;
+        BitmapIndex b = new BitmapIndex(this, column);
+        this.bitmapIndexes.add(b);
+        return b;
+    }
+
+    /**
+     * @return the bitmap indexes on columns of this file
+     */
+    public synchronized List<BitmapIndex> getBitmapIndexes() {
+        if (this.bitmapIndexes == null)
+            this.bitmapIndexes = new ArrayList<BitmapIndex>();
+        return this.bitmapIndexes;
+    }
+
+    /**
+     * Called by HeapPage after inserted is inserted into slot of page, or
+     * after the tuple in slot is deleted from it if inserted is null, to
+     * keep the free-space and zone maps and the bitmap indexes in step with
+     * the cached page. The zone map and the bitmap indexes only learn of a
+     * delete when the page is written, as the delete may still abort.
+     */
+    void pageChanged(HeapPage page, int slot, Tuple inserted) {
+        int pgNo = page.getId().pageNumber();
+        getFreeSpaceMap().update(pgNo, page.getNumEmptySlots());
+        if (inserted == null)
+            return;
+        getZoneMap().inserted(pgNo, inserted);
+        for (BitmapIndex b : getBitmapIndexes())
+            b.inserted(pgNo, slot, inserted);
+    }
+
+    /**
+     * Called by the BufferPool when an aborted transaction's changes to a
+     * cached page are undone by replacing it with page, its before image.
+     */
+    void pageRestored(HeapPage page) {
+        getFreeSpaceMap().update(page.getId().pageNumber(), page.getNumEmptySlots());
+        getZoneMap().restore(page);
+        for (BitmapIndex b : getBitmapIndexes())
+            b.restore(page);
+    }
+
     /**
      * Returns an ID uniquely identifying this HeapFile. Implementation note:
      * you will need to generate this tableid somewhere ensure that each
@@ -74,35 +217,122 @@ public class HeapFile implements DbFile {
     public Page readPage(PageId pid) {
         // some code goes here
         HeapPageId hpid = (HeapPageId) pid;
-        long offset = BufferPool.PAGE_SIZE * hpid.pageNumber();
-        byte[] tbuffer = new byte[BufferPool.PAGE_SIZE];
         
         try{
-            BufferedInputStream fin = new BufferedInputStream(new FileInputStream(this.DFfile));
-            fin.skip(offset);
-            fin.read(tbuffer, 0, BufferPool.PAGE_SIZE);
-            
-            try{
-                fin.close();
-            } catch(IOException E){
-                //DO NOTHIGN
-            }
-            
-            return new HeapPage(hpid, tbuffer);
+            byte[] tbuffer = readPageData(hpid.pageNumber());
+            return newPage(hpid, ByteBuffer.wrap(tbuffer));
         } catch(IOException e){
             return null;
         }
     }
 
+    /**
+     * Reads page pid into frame, a buffer of getPageSize() bytes from its
+     * position 0 that the caller owns, and returns the page as a view of
+     * it. Only used for files whose pages {@link #readsIntoFrames}.
+     *
+     * @see FrameArena
+     */
+    Page readPage(PageId pid, ByteBuffer frame) {
+        HeapPageId hpid = (HeapPageId) pid;
+        try {
+            readPageData(hpid.pageNumber(), frame.duplicate());
+            return newPage(hpid, frame);
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    /**
+     * @return true if the BufferPool may read the pages of this file into
+     *   its frames: pages of BufferPool.PAGE_SIZE bytes that stay views of
+     *   the bytes they were read from, of a class that does not override
+     *   {@link #readPage(PageId)}, which the pool would otherwise bypass
+     */
+    boolean readsIntoFrames() {
+        return !this.slotted && this.pageSize == BufferPool.PAGE_SIZE
+                && !this.readPageOverridden;
+    }
+
+    //true if c overrides readPage(PageId)
+    private static boolean overridesReadPage(Class<?> c) {
+        try {
+            return c.getMethod("readPage", PageId.class).getDeclaringClass() != HeapFile.class;
+        } catch (NoSuchMethodException e) {
+            return true;
+        }
+    }
+
     // see DbFile.java for javadocs
     public void writePage(Page page) throws IOException {
         // some code goes here
         // not necessary for proj1
-        RandomAccessFile randomWriter = new RandomAccessFile(this.DFfile, "rw");
-        randomWriter.seek(page.getId().pageNumber() * BufferPool.PAGE_SIZE);
-        byte[] data = page.getPageData();
-        randomWriter.write(data);
-        randomWriter.close();
+        ByteBuffer image;
+        if (page instanceof HeapPage) {
+            //serialize into this thread's page buffer rather than a new array
+            image = HeapPage.pageBuffer(this.pageSize);
+            ((HeapPage) page).getPageData(image);
+            image.flip();
+        } else {
+            image = ByteBuffer.wrap(page.getPageData());
+        }
+        writePageData(page.getId().pageNumber(), image);
+        if (page instanceof HeapPage) {
+            getFreeSpaceMap().persist(page.getId().pageNumber(),
+                    ((HeapPage) page).getNumEmptySlots());
+            getZoneMap().persist((HeapPage) page);
+            for (BitmapIndex b : getBitmapIndexes())
+                b.persist((HeapPage) page);
+        }
+    }
+
+    /**
+     * Reads the image of page pgNo from disk. Subclasses that store pages
+     * in another layout override this, writePageData, appendPages and
+     * numPages.
+     */
+    byte[] readPageData(int pgNo) throws IOException {
+        return getPageChannel().readPage(pgNo);
+    }
+
+    /**
+     * Reads the image of page pgNo into dst, from its position to its
+     * limit. Subclasses that override readPageData(int) override this too.
+     */
+    void readPageData(int pgNo, ByteBuffer dst) throws IOException {
+        getPageChannel().readPage(pgNo, dst);
+    }
+
+    /**
+     * Writes the remaining bytes of data as the image of page pgNo. data may
+     * be a buffer the caller reuses, so it must not be kept.
+     */
+    void writePageData(int pgNo, ByteBuffer data) throws IOException {
+        getPageChannel().writePage(pgNo, data);
+    }
+
+    /**
+     * Cuts the table file down to its first numPages pages. Subclasses that
+     * store pages in another layout override this too.
+     */
+    void truncatePages(int numPages) throws IOException {
+        getPageChannel().truncate(numPages);
+    }
+
+    /**
+     * Drops pages numPages and up from the end of this file, and their
+     * entries from the free-space and zone maps. The caller must hold write
+     * locks on the dropped pages, which must be empty, and discard them
+     * from the BufferPool afterwards.
+     *
+     * @see Vacuum
+     */
+    synchronized void truncate(int numPages) throws IOException {
+        truncatePages(numPages);
+        getFreeSpaceMap().truncate(numPages);
+        getZoneMap().truncate(numPages);
+        for (BitmapIndex b : getBitmapIndexes())
+            b.truncate(numPages);
     }
 
     /**
@@ -110,7 +340,7 @@ public class HeapFile implements DbFile {
      */
     public int numPages() {
         // some code goes here
-        return (int)this.DFfile.length() / BufferPool.PAGE_SIZE;
+        return getPageChannel().numPages();
     }
 
     // see DbFile.java for javadocs
@@ -120,32 +350,165 @@ public class HeapFile implements DbFile {
         //return null;
         // not necessary for proj1
         ArrayList<Page> pageList = new ArrayList<Page>();
+        FreeSpaceMap fsm = getFreeSpaceMap();
         
-        for(int i = 0; i < this.numPages(); i++){
-            PageId pid = new HeapPageId(this.getId(), i);
+        //start looking at an offset picked by the transaction, so that
+        //concurrent inserters do not all queue for the same page lock
+        int n = this.numPages();
+        int start = n == 0 ? 0 : (tid.hashCode() & 0x7fffffff) % n;
+        for(int tries = 0; tries < n; tries++){
+            int pgNo = fsm.findPageWithSpace(start);
+            if(pgNo < 0)
+                break;
+            PageId pid = new HeapPageId(this.getId(), pgNo);
             HeapPage p = (HeapPage)Database.getBufferPool().getPage(tid, pid, Permissions.READ_WRITE);
             
+            //a vacuum may have cut the page off the file while we waited
+            //for its lock
+            if(pgNo >= this.numPages())
+                break;
             //if there is space, tuple can be inserted
-            if(p.getNumEmptySlots() > 0){
-                //System.out.print("find avaliable page");
+            if(p.hasRoomFor(t)){
                 p.insertTuple(t);
                 pageList.add(p);
                 return pageList;
             }
+            //the map was stale for this page, or t is larger than the free
+            //bytes of a slotted page that smaller tuples still fit in; set
+            //what the page really has free and move on
+            fsm.update(pgNo, p.getNumEmptySlots());
+            start = pgNo + 1;
         }
         
         //out of loop, no available page, create a new page
-        HeapPageId newpid = new HeapPageId(this.getId(), this.numPages());
-        HeapPage newp = new HeapPage(newpid, HeapPage.createEmptyPageData());
-        //newp.insertTuple(t);
-        this.writePage(newp);
+        //extend the file through the channel; the page itself is then
+        //filled in through the buffer pool like any other page
+        HeapPageId newpid = new HeapPageId(this.getId(), appendPages(
+                ByteBuffer.wrap(HeapPage.createEmptyPageData(this.pageSize))));
         HeapPage tempp = (HeapPage)Database.getBufferPool().getPage(tid, newpid, Permissions.READ_WRITE);
+        //the table file has grown, so the sidecar must cover the new page
+        //or it is found stale and rebuilt at the next start
+        fsm.persist(newpid.pageNumber(), tempp.getNumEmptySlots());
         tempp.insertTuple(t);
         pageList.add(tempp);
         return pageList;
         
     }
 
+    /**
+     * Writes the pages in data (a whole number of pages) past the current
+     * end of the file.
+     *
+     * @return the page number of the first page written
+     */
+    synchronized int appendPages(ByteBuffer data) throws IOException {
+        int first = this.numPages();
+        getPageChannel().writePage(first, data);
+        return first;
+    }
+
+    /**
+     * @return the number of tuples that fit on one page of this file; for a
+     *   slotted file, the number of the smallest possible tuples
+     */
+    public int tuplesPerPage() {
+        if (this.slotted)
+            return SlottedHeapPage.maxTuples(this.DFtd, this.pageSize);
+        return HeapPage.numSlots(this.DFtd, this.pageSize);
+    }
+
+    /**
+     * Adds tuples to the end of this file on new pages, filling each page
+     * before starting the next, instead of searching for room tuple by tuple
+     * as insertTuple does. The pages are built in memory, logged as one batch
+     * with empty before images, and appended with a single write; tid holds
+     * write locks on them from before they are written. Each tuple is
+     * updated to reflect where it is stored.
+     *
+     * @return the new pages, which are clean since they are already on disk
+     * @see BufferPool#bulkInsertTuples
+     */
+    public ArrayList<Page> bulkInsert(TransactionId tid, List<Tuple> tuples)
+            throws DbException, IOException, TransactionAbortedException {
+        ArrayList<Page> pageList = new ArrayList<Page>();
+        if (tuples.isEmpty())
+            return pageList;
+        for (Tuple t : tuples) {
+            if (!this.DFtd.equals(t.getTupleDesc()))
+                throw new DbException("TupleDesc is mismatch!");
+        }
+        //page i holds tuples starts[i] through starts[i+1]-1
+        ArrayList<Integer> starts = new ArrayList<Integer>();
+        int perPage = tuplesPerPage();
+        for (int from = 0; from < tuples.size(); ) {
+            starts.add(from);
+            from = this.slotted ? SlottedHeapPage.fill(tuples, from, this.pageSize)
+                    : Math.min(tuples.size(), from + perPage);
+        }
+        starts.add(tuples.size());
+        int numNew = starts.size() - 1;
+        ByteBuffer data = ByteBuffer.allocate(numNew * this.pageSize);
+        for (int i = 0; i < numNew; i++) {
+            int from = starts.get(i);
+            int to = starts.get(i + 1);
+            data.put(this.slotted ? SlottedHeapPage.createPageData(this.DFtd, this.pageSize, tuples, from, to)
+                    : HeapPage.createPageData(this.DFtd, this.pageSize, tuples, from, to));
+        }
+        data.flip();
+
+        //lock the pages past the end of the file before they exist, so no
+        //other transaction sees them before tid commits. The locks may be
+        //waited for, which must not hold up the appends and page writes
+        //that need this file's monitor, so they are taken outside it; if
+        //the file grew meanwhile, they are given back and taken again
+        //further on
+        BufferPool pool = Database.getBufferPool();
+        while (true) {
+            int first = this.numPages();
+            ArrayList<PageId> pids = new ArrayList<PageId>();
+            for (int i = 0; i < numNew; i++)
+                pids.add(new HeapPageId(this.getId(), first + i));
+            List<PageId> locked = pool.lockAppendedPages(tid, pids);
+            synchronized (this) {
+                if (this.numPages() != first) {
+                    for (PageId pid : locked)
+                        pool.releasePage(tid, pid);
+                    continue;
+                }
+                pool.pagesAppended(tid, pids);
+
+                ArrayList<Page> before = new ArrayList<Page>();
+                for (int i = 0; i < numNew; i++) {
+                    HeapPageId pid = (HeapPageId) pids.get(i);
+                    //the page reads its image straight out of the write buffer
+                    data.position(i * this.pageSize);
+                    data.limit(data.position() + this.pageSize);
+                    pageList.add(newPage(pid, data.slice()));
+                    data.limit(data.capacity());
+                    before.add(newPage(pid, ByteBuffer.wrap(HeapPage.createEmptyPageData(this.pageSize))));
+                    int from = starts.get(i);
+                    for (int j = from; j < starts.get(i + 1); j++)
+                        tuples.get(j).setRecordId(new RecordId(pid, j - from));
+                }
+                Database.getLogFile().logWrites(tid, before, pageList);
+                data.position(0);
+                appendPages(data);
+            }
+            break;
+        }
+
+        int[] freeSlots = new int[numNew];
+        for (int i = 0; i < numNew; i++)
+            freeSlots[i] = ((HeapPage) pageList.get(i)).getNumEmptySlots();
+        getFreeSpaceMap().persist(pageList.get(0).getId().pageNumber(), freeSlots);
+        for (Page p : pageList) {
+            getZoneMap().persist((HeapPage) p);
+            for (BitmapIndex b : getBitmapIndexes())
+                b.persist((HeapPage) p);
+        }
+        return pageList;
+    }
+
     // see DbFile.java for javadocs
     public Page deleteTuple(TransactionId tid, Tuple t) throws DbException,
             TransactionAbortedException {
@@ -168,6 +531,12 @@ public class HeapFile implements DbFile {
     }
     
     
+    /**
+     * Iterator over the tuples of a HeapFile, page by page. Predicates added
+     * with skipPagesFailing are checked against the zone map before each
+     * page is fetched, and pages that cannot hold a tuple satisfying all of
+     * them are skipped; the tuples returned are not filtered otherwise.
+     */
     class DFIterator implements DbFileIterator{
         HeapFile hf;
         TransactionId transid;
@@ -175,6 +544,16 @@ public class HeapFile implements DbFile {
         //int TupleIndex;
         Iterator<Tuple> TupleIndex;
         HeapPage currentHP;
+        //predicates every wanted tuple satisfies, used to skip pages
+        List<Predicate> pushed = new ArrayList<Predicate>();
+        //hf.numPages() when last asked; only asked again at the end of it
+        int numPages;
+        //last page fetched, and the page read ahead up to
+        int lastFetched;
+        int prefetchedTo;
+        //the frames a scan of a table larger than the buffer pool reads its
+        //pages into, or null
+        BufferRing ring;
         
         
         public DFIterator(HeapFile hf, TransactionId transid){
@@ -188,54 +567,93 @@ public class HeapFile implements DbFile {
             //System.out.print("DFIterator init ready\n");
         }
         
+        /**
+         * Lets this iterator skip pages that cannot hold a tuple for which
+         * p.filter is true, because the caller discards all other tuples.
+         */
+        public void skipPagesFailing(Predicate p) {
+            if (!pushed.contains(p))
+                pushed.add(p);
+        }
+
         public void open(){
             PageIndex = -1;
             TupleIndex = null;
             currentHP = null;
+            numPages = hf.numPages();
+            lastFetched = -1;
+            prefetchedTo = -1;
+            ring = Database.getBufferPool().scanRing((long) numPages * hf.getPageSize());
         }
         
         //get a tuple iterator of this page (page of PageIndex)
         //set this.TupleIndex to the iterator
-        public void getTupleITofPage() {   
+        public void getTupleITofPage()
+                throws DbException, TransactionAbortedException {
+            //from its second page on, a scan is fetching pages in order:
+            //have the next ones read ahead
+            if (lastFetched >= 0 && PageIndex > lastFetched)
+                readAhead();
+            lastFetched = PageIndex;
             HeapPageId thpid = new HeapPageId(hf.getId(), PageIndex);
-            try{
-                currentHP = (HeapPage)Database.getBufferPool().getPage(transid, thpid, Permissions.READ_ONLY);
-            } catch(DbException dbe){
-                    //DO NOTHING
-                System.out.print("DbException\n");
-            } catch(TransactionAbortedException tae){
-                    //DO NOTHING
-                System.out.print("TransactionAbortedException\n");
-            }
+            //an abort must reach the caller: going on would read the
+            //previous page again, or a page that is not locked
+            currentHP = (HeapPage)Database.getBufferPool().getPage(transid, thpid,
+                    Permissions.READ_ONLY, ring);
             this.TupleIndex = currentHP.iterator();
         }
         
-        public boolean hasNext(){
-            if(PageIndex >= hf.numPages())
+        //ask the buffer pool to read ahead the pages this scan will fetch
+        //next, as many as it has frames for
+        void readAhead() {
+            BufferPool bp = Database.getBufferPool();
+            int last = Math.min(PageIndex + bp.getReadAhead(), numPages - 1);
+            for (int i = Math.max(prefetchedTo + 1, PageIndex + 1); i <= last; i++) {
+                if (!pushed.isEmpty() && !hf.getZoneMap().mayMatch(i, pushed))
+                    continue;
+                if (!bp.prefetchPage(new HeapPageId(hf.getId(), i), ring))
+                    return;
+                prefetchedTo = i;
+            }
+            prefetchedTo = Math.max(prefetchedTo, last);
+        }
+
+        //the table may have grown since numPages was read
+        boolean pastEnd() {
+            if (PageIndex < numPages)
                 return false;
-            
+            numPages = hf.numPages();
+            return PageIndex >= numPages;
+        }
+
+        public boolean hasNext() throws DbException, TransactionAbortedException {
             if(TupleIndex != null && TupleIndex.hasNext())
                 return true;
+            if(pastEnd())
+                return false;
             else{
                 //try to get a valid iterator
                 while(true){
                     PageIndex++;
                     //all page has been scanned
-                    if(PageIndex >= hf.numPages())
+                    if(pastEnd())
                         break;
+                    //no need to fetch a page the predicates rule out
+                    if(!pushed.isEmpty() && !hf.getZoneMap().mayMatch(PageIndex, pushed))
+                        continue;
                     getTupleITofPage();
                     if(this.TupleIndex != null && this.TupleIndex.hasNext())
                         break;
                 }
                 //no more pages, (the last PageIndex is hf.numPages() - 1)
-                if(PageIndex >= hf.numPages())
+                if(PageIndex >= numPages)
                     return false;
                 else
                     return true;
             }
         }
         
-        public Tuple next(){
+        public Tuple next() throws DbException, TransactionAbortedException {
             if(this.hasNext()){
                 return TupleIndex.next();
             }
@@ -251,7 +669,7 @@ public class HeapFile implements DbFile {
         
         public void close(){
             TupleIndex = null;
-            PageIndex = hf.numPages() + 1;
+            PageIndex = numPages = Integer.MAX_VALUE;
         }
     }
 
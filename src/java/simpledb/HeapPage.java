@@ -3,6 +3,7 @@ package simpledb;
 import java.util.*;
 import java.io.*;
 import java.math.BigInteger;
+import java.nio.ByteBuffer;
 
 /**
  * Each instance of HeapPage stores data for one page of HeapFiles and 
@@ -17,10 +18,23 @@ public class HeapPage implements Page {
     HeapPageId pid;
     TupleDesc td;
     byte header[];
+    //the page image this page was created from; used slots without an
+    //entry in tuples are decoded from it on demand. It may be a frame of
+    //the BufferPool's FrameArena, until detach replaces it with a copy
+    volatile ByteBuffer data;
+    //tuples inserted since the page was read, allocated on first insert
     Tuple tuples[];
     int numSlots;
+    //bytes in this page; set per table, BufferPool.PAGE_SIZE by default
+    int pageSize;
 
+    //private copy of the before image, made when the page is first
+    //modified after its before image was set; null until then
     byte[] oldData;
+    //true while the before image is the unmodified page image in data
+    private boolean beforeImageIsData = true;
+    //true once the page contents differ from data
+    private boolean modified = false;
 
     private TransactionId transactionId = null;
 
@@ -29,9 +43,11 @@ public class HeapPage implements Page {
      * The format of a HeapPage is a set of header bytes indicating
      * the slots of the page that are in use, some number of tuple slots.
      *  Specifically, the number of tuples is equal to: <p>
-     *          floor((BufferPool.PAGE_SIZE*8) / (tuple size * 8 + 1))
+     *          floor((page size*8) / (tuple size * 8 + 1))
      * <p> where tuple size is the size of tuples in this
-     * database table, which can be determined via {@link Catalog#getTupleDesc}.
+     * database table, which can be determined via {@link Catalog#getTupleDesc},
+     * and page size is the length of data: BufferPool.PAGE_SIZE unless the
+     * table was given another size (see {@link HeapFile#getPageSize}).
      * The number of 8-bit header words is equal to:
      * <p>
      *      ceiling(no. tuple slots / 8)
@@ -41,38 +57,58 @@ public class HeapPage implements Page {
      * @see BufferPool#PAGE_SIZE
      */
     public HeapPage(HeapPageId id, byte[] data) throws IOException {
+        this(id, ByteBuffer.wrap(data));
+    }
+
+    /**
+     * Create a HeapPage from page bytes that are already in memory, such as
+     * a slice of a mapped table file. The page image starts at position 0 of
+     * data; data is only read, never modified.
+     *
+     * @see #HeapPage(HeapPageId, byte[])
+     */
+    public HeapPage(HeapPageId id, ByteBuffer data) throws IOException {
         this.pid = id;
         this.td = Database.getCatalog().getTupleDesc(id.getTableId());
+        this.pageSize = data.limit();
         this.numSlots = getNumTuples();
-        DataInputStream dis = new DataInputStream(new ByteArrayInputStream(data));
 
         // allocate and read the header slots of this page
         header = new byte[getHeaderSize()];
         for (int i=0; i<header.length; i++)
-            header[i] = dis.readByte();
+            header[i] = data.get(i);
 
-        try{
-            // allocate and read the actual records of this page
-            tuples = new Tuple[numSlots];
-            for (int i=0; i<tuples.length; i++)
-                tuples[i] = readNextTuple(dis,i);
-        }catch(NoSuchElementException e){
-            e.printStackTrace();
-        }
-        dis.close();
+        // the records themselves stay in data and are decoded lazily
+        if (data.limit() < header.length + numSlots * td.getSize())
+            throw new IOException("page " + id.pageNumber() + " is too short");
+        this.data = data;
+    }
 
-        setBeforeImage();
+    /**
+     * Constructor for subclasses that keep the page in a format of their
+     * own, such as {@link SlottedHeapPage}; only the id and schema are set.
+     */
+    HeapPage(HeapPageId id) {
+        this.pid = id;
+        this.td = Database.getCatalog().getTupleDesc(id.getTableId());
     }
 
     /** Retrieve the number of tuples on this page.
         @return the number of tuples on this page
     */
-    //floor((BufferPool.PAGE_SIZE*8) / (tuple size * 8 + 1))
+    //floor((pageSize*8) / (tuple size * 8 + 1))
     private int getNumTuples() {        
         // some code goes here
         //return 0;
-        int tupleSize = Database.getCatalog().getTupleDesc(pid.getTableId()).getSize();
-        return (int)Math.floor((BufferPool.PAGE_SIZE * 8.0) / (tupleSize * 8.0 + 1));
+        return numSlots(Database.getCatalog().getTupleDesc(pid.getTableId()), pageSize);
+    }
+
+    /**
+     * @return the number of tuple slots on a page of pageSize bytes of a
+     *   table with schema td
+     */
+    static int numSlots(TupleDesc td, int pageSize) {
+        return (int)Math.floor((pageSize * 8.0) / (td.getSize() * 8.0 + 1));
     }
 
     /**
@@ -89,7 +125,10 @@ public class HeapPage implements Page {
         -- used by recovery */
     public HeapPage getBeforeImage(){
         try {
-            return new HeapPage(pid,oldData);
+            byte[] before = oldData;
+            if (before == null)
+                before = beforeImageIsData ? copyOfData() : getPageData();
+            return new HeapPage(pid,before);
         } catch (IOException e) {
             e.printStackTrace();
             //should never happen -- we parsed it OK before!
@@ -98,8 +137,74 @@ public class HeapPage implements Page {
         return null;
     }
     
+    /**
+     * Makes the current contents of this page its before image. No bytes are
+     * copied here; the image is captured by the first modification after
+     * this call (see {@link #prepareWrite}).
+     */
     public void setBeforeImage() {
-        oldData = getPageData().clone();
+        oldData = null;
+        beforeImageIsData = !modified;
+    }
+
+    /**
+     * Captures the before image, if it has not been captured since it was
+     * last set, ahead of a modification of this page. When the page is
+     * unchanged since it was read this is a plain copy of the page image;
+     * only a page that was modified and committed earlier is serialized.
+     */
+    private void prepareWrite() {
+        if (oldData == null)
+            oldData = beforeImageIsData ? copyOfData() : getPageData();
+        modified = true;
+    }
+
+    //a private copy of the page image this page was read from
+    private byte[] copyOfData() {
+        byte[] copy = new byte[data.limit()];
+        copyData(ByteBuffer.wrap(copy));
+        return copy;
+    }
+
+    //copy the page image this page was read from into dst, at its position
+    private void copyData(ByteBuffer dst) {
+        ByteBuffer d = data;
+        if (!d.isDirect()) {
+            dst.put((ByteBuffer) d.duplicate().clear());
+            return;
+        }
+        synchronized (this) {
+            dst.put((ByteBuffer) data.duplicate().clear());
+        }
+    }
+
+    /**
+     * Decodes the field of type t at offset of the page image. A frame of
+     * the BufferPool is only read under this page's monitor, which detach
+     * holds until the page no longer uses the frame, so the bytes cannot
+     * be those of the next page read into it.
+     */
+    Field parse(Type t, int offset) {
+        ByteBuffer d = data;
+        if (!d.isDirect())
+            return t.parse(d, offset);
+        synchronized (this) {
+            return t.parse(data, offset);
+        }
+    }
+
+    /**
+     * Replaces the page image with a private copy on the heap, if it is a
+     * direct buffer, so that the BufferPool can reuse the frame the page
+     * was read into while the page and its tuples are still in use. The
+     * pool releases the frame only once this returns.
+     *
+     * @see FrameArena
+     */
+    synchronized void detach() {
+        ByteBuffer d = data;
+        if (d != null && d.isDirect())
+            data = ByteBuffer.wrap(copyOfData());
     }
 
     /**
@@ -112,37 +217,15 @@ public class HeapPage implements Page {
     }
 
     /**
-     * Suck up tuples from the source file.
+     * Returns the tuple in slot i: the inserted Tuple if there is one, or
+     * else a view that decodes the slot from the page image on demand.
+     * The slot must be in use.
      */
-    private Tuple readNextTuple(DataInputStream dis, int slotId) throws NoSuchElementException {
-        // if associated bit is not set, read forward to the next tuple, and
-        // return null.
-        if (!isSlotUsed(slotId)) {
-            for (int i=0; i<td.getSize(); i++) {
-                try {
-                    dis.readByte();
-                } catch (IOException e) {
-                    throw new NoSuchElementException("error reading empty tuple");
-                }
-            }
-            return null;
-        }
-
-        // read fields in the tuple
-        Tuple t = new Tuple(td);
-        RecordId rid = new RecordId(pid, slotId);
-        t.setRecordId(rid);
-        try {
-            for (int j=0; j<td.numFields(); j++) {
-                Field f = td.getFieldType(j).parse(dis);
-                t.setField(j, f);
-            }
-        } catch (java.text.ParseException e) {
-            e.printStackTrace();
-            throw new NoSuchElementException("parsing error!");
-        }
-
-        return t;
+    private Tuple tupleAt(int i) {
+        if (tuples != null && tuples[i] != null)
+            return tuples[i];
+        return new LazyTuple(td, new RecordId(pid, i), this,
+                header.length + i * td.getSize());
     }
 
     /**
@@ -157,64 +240,98 @@ public class HeapPage implements Page {
      * @return A byte array correspond to the bytes of this page.
      */
     public byte[] getPageData() {
-        int len = BufferPool.PAGE_SIZE;
-        ByteArrayOutputStream baos = new ByteArrayOutputStream(len);
-        DataOutputStream dos = new DataOutputStream(baos);
-
-        // create the header of the page
-        for (int i=0; i<header.length; i++) {
-            try {
-                dos.writeByte(header[i]);
-            } catch (IOException e) {
-                // this really shouldn't happen
-                e.printStackTrace();
-            }
-        }
-
-        // create the tuples
-        for (int i=0; i<tuples.length; i++) {
+        byte[] page = new byte[pageSize];
+        getPageData(ByteBuffer.wrap(page));
+        return page;
+    }
 
-            // empty slot
+    /**
+     * Writes the bytes getPageData returns into dst, starting at its
+     * position, and advances the position past them. Lets callers that
+     * write many pages serialize into a buffer they reuse (see
+     * {@link #pageBuffer}) instead of a new array per page.
+     * <p>
+     * The page image this page was read from is copied in one piece, and
+     * then only the header, the slots of inserted tuples (field by field, at
+     * their offsets) and the freed slots (zeroed) are written over it.
+     */
+    public void getPageData(ByteBuffer dst) {
+        int base = dst.position();
+        copyData(dst);
+
+        ByteBuffer out = dst.duplicate();
+        out.position(base);
+        out.put(header);
+
+        int tupleSize = td.getSize();
+        int slots = base + header.length;
+        //zero runs of free slots in one go
+        int freeFrom = -1;
+        for (int i = 0; i < numSlots; i++) {
             if (!isSlotUsed(i)) {
-                for (int j=0; j<td.getSize(); j++) {
-                    try {
-                        dos.writeByte(0);
-                    } catch (IOException e) {
-                        e.printStackTrace();
-                    }
-
-                }
+                if (freeFrom < 0)
+                    freeFrom = i;
                 continue;
             }
-
-            // non-empty slot
-            for (int j=0; j<td.numFields(); j++) {
-                Field f = tuples[i].getField(j);
-                try {
-                    f.serialize(dos);
-                
-                } catch (IOException e) {
-                    e.printStackTrace();
-                }
+            if (freeFrom >= 0) {
+                zero(dst, slots + freeFrom * tupleSize, (i - freeFrom) * tupleSize);
+                freeFrom = -1;
+            }
+            if (tuples != null && tuples[i] != null) {
+                int offset = slots + i * tupleSize;
+                for (int j = 0; j < td.numFields(); j++)
+                    tuples[i].getField(j).serialize(dst, offset + td.getFieldOffset(j));
             }
         }
+        if (freeFrom >= 0)
+            zero(dst, slots + freeFrom * tupleSize, (numSlots - freeFrom) * tupleSize);
 
         // padding
-        int zerolen = BufferPool.PAGE_SIZE - (header.length + td.getSize() * tuples.length); //- numSlots * td.getSize();
-        byte[] zeroes = new byte[zerolen];
-        try {
-            dos.write(zeroes, 0, zerolen);
-        } catch (IOException e) {
-            e.printStackTrace();
-        }
+        int used = header.length + tupleSize * numSlots;
+        zero(dst, base + used, pageSize - used);
+        dst.position(base + pageSize);
+    }
 
-        try {
-            dos.flush();
-        } catch (IOException e) {
-            e.printStackTrace();
+    private static final byte[] ZEROES = new byte[1024];
+
+    /**
+     * Sets len bytes of bb from the absolute position offset to 0, without
+     * changing the position of bb.
+     */
+    static void zero(ByteBuffer bb, int offset, int len) {
+        if (len <= 0)
+            return;
+        if (bb.hasArray()) {
+            int from = bb.arrayOffset() + offset;
+            Arrays.fill(bb.array(), from, from + len, (byte) 0);
+            return;
+        }
+        ByteBuffer out = bb.duplicate();
+        out.position(offset);
+        while (len > 0) {
+            int n = Math.min(len, ZEROES.length);
+            out.put(ZEROES, 0, n);
+            len -= n;
         }
+    }
+
+    //one buffer per thread, grown to the largest page it has held
+    private static final ThreadLocal<ByteBuffer> pageBuffers = new ThreadLocal<ByteBuffer>();
 
-        return baos.toByteArray();
+    /**
+     * Returns this thread's buffer for serializing pages with
+     * {@link #getPageData(ByteBuffer)}, cleared, with its limit set to
+     * pageSize. Its contents are only valid until the thread's next call.
+     */
+    static ByteBuffer pageBuffer(int pageSize) {
+        ByteBuffer bb = pageBuffers.get();
+        if (bb == null || bb.capacity() < pageSize) {
+            bb = ByteBuffer.allocate(pageSize);
+            pageBuffers.set(bb);
+        }
+        bb.clear();
+        bb.limit(pageSize);
+        return bb;
     }
 
     /**
@@ -227,8 +344,45 @@ public class HeapPage implements Page {
      * @return The returned ByteArray.
      */
     public static byte[] createEmptyPageData() {
-        int len = BufferPool.PAGE_SIZE;
-        return new byte[len]; //all 0
+        return createEmptyPageData(BufferPool.PAGE_SIZE);
+    }
+
+    /**
+     * Generates a byte array corresponding to an empty HeapPage of pageSize
+     * bytes, for tables whose pages are not BufferPool.PAGE_SIZE bytes.
+     */
+    public static byte[] createEmptyPageData(int pageSize) {
+        return new byte[pageSize]; //all 0
+    }
+
+    /**
+     * Static method to generate the page image of a new page of pageSize
+     * bytes of a table with schema td holding tuples from through to-1 of
+     * tuples in its first slots. Used by bulk inserts to build whole pages
+     * without going through insertTuple one tuple at a time.
+     *
+     * @throws DbException if the tuples do not fit on one page
+     */
+    static byte[] createPageData(TupleDesc td, int pageSize, List<Tuple> tuples, int from, int to)
+            throws DbException {
+        int slots = numSlots(td, pageSize);
+        int count = to - from;
+        if (count > slots)
+            throw new DbException(count + " tuples do not fit on a page of " + slots + " slots");
+
+        ByteBuffer bb = ByteBuffer.wrap(createEmptyPageData(pageSize));
+        int headerSize = (int)Math.ceil(slots / 8.0);
+        for (int i = 0; i < count; i++)
+            bb.put(i / 8, (byte) (bb.get(i / 8) | (1 << (i % 8))));
+
+        //the rest of the page is already zero
+        for (int i = 0; i < count; i++) {
+            Tuple t = tuples.get(from + i);
+            int offset = headerSize + i * td.getSize();
+            for (int j = 0; j < td.numFields(); j++)
+                t.getField(j).serialize(bb, offset + td.getFieldOffset(j));
+        }
+        return bb.array();
     }
 
     /**
@@ -254,7 +408,11 @@ public class HeapPage implements Page {
         if (this.pid.getTableId() != rid.getPageId().getTableId())
             throw new DbException("Tuple is not in this table");
 
+        prepareWrite();
         markSlotUsed(tupleNo, false);
+        if (tuples != null)
+            tuples[tupleNo] = null;
+        spaceChanged(tupleNo, null);
     }
 
     /**
@@ -272,7 +430,7 @@ public class HeapPage implements Page {
         
         //look for empty tuple
         int emptyIndex = -1;
-        for (int i = 0; i < header.length*8; i++) {
+        for (int i = 0; i < numSlots; i++) {
             if (!isSlotUsed(i)) {
                 emptyIndex = i;
                 break;
@@ -282,10 +440,35 @@ public class HeapPage implements Page {
         if (emptyIndex == -1)
             throw new DbException("Insersion failed cause page is full.");
 
+        prepareWrite();
+        if (tuples == null)
+            tuples = new Tuple[numSlots];
         tuples[emptyIndex] = t;
         markSlotUsed(emptyIndex, true);
         RecordId rid = new RecordId(this.pid,emptyIndex);
         t.setRecordId(rid);
+        spaceChanged(emptyIndex, t);
+    }
+
+    /**
+     * @return true if t can be inserted into this page
+     */
+    public boolean hasRoomFor(Tuple t) {
+        return getNumEmptySlots() > 0;
+    }
+
+    //let the HeapFile owning this page update its free-space and zone
+    //maps and bitmap indexes; inserted is the tuple just inserted into
+    //slot, or null after a delete from it
+    void spaceChanged(int slot, Tuple inserted) {
+        DbFile f;
+        try {
+            f = Database.getCatalog().getDbFile(pid.getTableId());
+        } catch (NoSuchElementException e) {
+            return;
+        }
+        if (f instanceof HeapFile)
+            ((HeapFile) f).pageChanged(this, slot, inserted);
     }
 
     /**
@@ -315,18 +498,27 @@ public class HeapPage implements Page {
     public int getNumEmptySlots() {
         // some code goes here
         //return 0;
+        //only count real slots; the padding bits of the last header byte
+        //are never used
         int emptySlotsNo = 0;
-        for (byte b : this.header) {
-            byte tmp = b;
-            for (int i = 0; i < 8; i++) {
-                if (((tmp >> i) & 0x01) == 0)
-                    emptySlotsNo++;
-            }
+        for (int i = 0; i < numSlots; i++) {
+            if (!isSlotUsed(i))
+                emptySlotsNo++;
         }
 
         return emptySlotsNo;
     }
 
+    /**
+     * Returns the tuple in slot i, as an index entry names it, or null if
+     * the slot is empty.
+     */
+    public Tuple getTuple(int i) {
+        if (i < 0 || i >= numSlots || !isSlotUsed(i))
+            return null;
+        return tupleAt(i);
+    }
+
     /**
      * Returns true if associated slot on this page is filled.
      */
@@ -362,21 +554,44 @@ public class HeapPage implements Page {
     public Iterator<Tuple> iterator() {
         // some code goes here
         //return null;
-        List<Tuple> tupleList = new LinkedList<Tuple>();
-        for (int i = 0; i < this.tuples.length; i++) {
-            if (isSlotUsed(i))
-                tupleList.add(this.tuples[i]);
-        }
+        // iterate over a snapshot of the slots, so that tuples inserted or
+        // deleted while the iterator is open do not affect it
+        final byte[] usedSlots = header.clone();
+        final Tuple[] inserted = tuples == null ? null : tuples.clone();
+        return new Iterator<Tuple>() {
+            private int next = advance(0);
+
+            private int advance(int i) {
+                while (i < numSlots && ((usedSlots[i/8] >> (i%8)) & 0x01) == 0)
+                    i++;
+                return i;
+            }
+
+            public boolean hasNext() {
+                return next < numSlots;
+            }
 
-        return tupleList.iterator();
+            public Tuple next() {
+                if (next >= numSlots)
+                    throw new NoSuchElementException();
+                Tuple t = inserted != null && inserted[next] != null
+                        ? inserted[next] : tupleAt(next);
+                next = advance(next + 1);
+                return t;
+            }
+
+            public void remove() {
+                throw new UnsupportedOperationException();
+            }
+        };
     }
 
     //add a method to return all tuple as list
     public List<Tuple> getAllTuples() {
         List<Tuple> list = new ArrayList<Tuple>();
-        for (int i = 0; i < this.tuples.length; i++)
+        for (int i = 0; i < numSlots; i++)
             if (isSlotUsed(i))
-                list.add(tuples[i]);
+                list.add(tupleAt(i));
 
         return list;
     }
@@ -0,0 +1,106 @@
+package simpledb;
+
+import java.nio.ByteBuffer;
+import java.util.List;
+
+/**
+ * An index entry: a key and the page number and slot of the tuple it
+ * belongs to, in the table the index is on. Entries are ordered by key and
+ * then by RecordId, so every entry is distinct even where keys repeat. An
+ * entry without a page number sorts before all others with the same key.
+ * <p>
+ * On a page, an entry is the serialized key followed by the page number and
+ * slot.
+ *
+ * @see IndexFile
+ */
+class IndexEntry implements Comparable<IndexEntry> {
+    final Field key;
+    final int pageNo;
+    final int slot;
+
+    IndexEntry(Field key, int pageNo, int slot) {
+        this.key = key;
+        this.pageNo = pageNo;
+        this.slot = slot;
+    }
+
+    //the smallest entry with this key
+    IndexEntry(Field key) {
+        this(key, -1, -1);
+    }
+
+    /** @return the entry of t, a tuple stored in a table */
+    static IndexEntry of(Tuple t, int keyField) throws DbException {
+        RecordId rid = t.getRecordId();
+        if (rid == null)
+            throw new DbException("tuple is not stored in the table");
+        return new IndexEntry(t.getField(keyField), rid.getPageId().pageNumber(),
+                rid.tupleno());
+    }
+
+    /** @return true if the key satisfies all of preds */
+    boolean satisfies(List<Predicate> preds) {
+        for (Predicate p : preds)
+            if (!key.compare(p.getOp(), p.getOperand()))
+                return false;
+        return true;
+    }
+
+    /**
+     * Fetches the tuple of this entry from the heap file table.
+     *
+     * @return the tuple, or null if its slot is empty
+     */
+    Tuple fetch(TransactionId tid, HeapFile table) throws DbException,
+            TransactionAbortedException {
+        HeapPage p = (HeapPage) Database.getBufferPool().getPage(tid,
+                new HeapPageId(table.getId(), pageNo), Permissions.READ_ONLY);
+        return p.getTuple(slot);
+    }
+
+    /** Orders two keys of the same type. */
+    static int compareKeys(Field a, Field b) {
+        if (a instanceof IntField) {
+            int x = ((IntField) a).getValue();
+            int y = ((IntField) b).getValue();
+            return x < y ? -1 : (x == y ? 0 : 1);
+        }
+        return ((StringField) a).getValue().compareTo(((StringField) b).getValue());
+    }
+
+    /** @return the number of bytes an entry with a key of keyType takes */
+    static int size(Type keyType) {
+        return keyType.getLen() + 8;
+    }
+
+    static IndexEntry read(Type keyType, ByteBuffer bb, int offset) {
+        int len = keyType.getLen();
+        return new IndexEntry(keyType.parse(bb, offset), bb.getInt(offset + len),
+                bb.getInt(offset + len + 4));
+    }
+
+    void write(ByteBuffer bb, int offset) {
+        int len = key.getType().getLen();
+        key.serialize(bb, offset);
+        bb.putInt(offset + len, pageNo);
+        bb.putInt(offset + len + 4, slot);
+    }
+
+    public int compareTo(IndexEntry o) {
+        int c = compareKeys(key, o.key);
+        if (c != 0)
+            return c;
+        if (pageNo != o.pageNo)
+            return pageNo < o.pageNo ? -1 : 1;
+        return slot < o.slot ? -1 : (slot == o.slot ? 0 : 1);
+    }
+
+    public boolean equals(Object o) {
+        return o instanceof IndexEntry && compareTo((IndexEntry) o) == 0;
+    }
+
+    public int hashCode() {
+        return key.hashCode() * 31 + pageNo * 17 + slot;
+    }
+}
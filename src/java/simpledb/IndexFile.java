@@ -0,0 +1,45 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * An IndexFile is a DbFile that indexes one column, the key, of a table
+ * stored in another DbFile. Its pages go through the BufferPool like any
+ * other, but it stores index entries rather than tuples: insertTuple and
+ * deleteTuple take a tuple of the table that was just inserted into or
+ * deleted from it, and add or remove the entry of that tuple, and its
+ * iterators return the table's tuples.
+ * <p>
+ * The catalog keeps the indexes of each table, and the BufferPool updates
+ * them whenever it inserts or deletes a tuple of the table.
+ *
+ * @see Catalog#getIndexes
+ * @see IndexScan
+ */
+public interface IndexFile extends DbFile {
+
+    /** @return the table this index is on */
+    public DbFile getTable();
+
+    /** @return the index of the key column in the table's TupleDesc */
+    public int getKeyField();
+
+    /**
+     * @return true if the index can find the tuples whose key satisfies a
+     *   predicate with operator op without reading all of its entries
+     */
+    public boolean supports(Predicate.Op op);
+
+    /**
+     * @return the number of index pages a lookup reads before it reaches
+     *   the first matching entry
+     */
+    public int lookupPages();
+
+    /**
+     * Returns an iterator over the tuples of the table whose key satisfies
+     * all of preds, which must be predicates on the key column with
+     * operators the index supports.
+     */
+    public DbFileIterator iterator(TransactionId tid, List<Predicate> preds);
+}
@@ -0,0 +1,138 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * IndexJoin is an index nested-loop join: rather than scanning the inner
+ * relation for every outer tuple, it looks up the inner tuples that join
+ * with the outer tuple through an index on the inner join column. The
+ * inner relation must be a scan of a table, under any number of Filters,
+ * which are applied to the tuples the index finds.
+ * <p>
+ * It returns the same tuples as a Join of its children, in the order of
+ * the outer child and then of the index.
+ *
+ * @see JoinOptimizer#instantiateJoin
+ */
+public class IndexJoin extends Join {
+
+    private static final long serialVersionUID = 1L;
+    private final TransactionId tid;
+    private final IndexFile index;
+    private final Predicate.Op probeOp;
+    private final List<Predicate> filters;
+    private transient Tuple outerTuple = null;
+    private transient DbFileIterator probe = null;
+
+    /**
+     * Constructor.
+     *
+     * @param p
+     *            The predicate to use to join the children
+     * @param child1
+     *            Iterator for the left(outer) relation to join
+     * @param child2
+     *            Iterator for the right(inner) relation, the scan of the
+     *            indexed table under filters; it is opened with the join,
+     *            but not read
+     * @param tid
+     *            The transaction the inner scan is a part of
+     * @param index
+     *            an index on the inner join column that supports the
+     *            operator probeOp(p.getOperator())
+     * @param filters
+     *            the predicates of the Filters of child2
+     */
+    public IndexJoin(JoinPredicate p, DbIterator child1, DbIterator child2,
+            TransactionId tid, IndexFile index, List<Predicate> filters) {
+        super(p, child1, child2);
+        this.tid = tid;
+        this.index = index;
+        this.probeOp = probeOp(p.getOperator());
+        this.filters = new ArrayList<Predicate>(filters);
+    }
+
+    /**
+     * @return the operator of the predicate on the inner join column that
+     *   a join predicate with operator op puts on it for a given outer
+     *   tuple, or null if an index cannot find the inner tuples
+     */
+    public static Predicate.Op probeOp(Predicate.Op op) {
+        switch (op) {
+        case EQUALS:
+            return Predicate.Op.EQUALS;
+        case LESS_THAN:
+            return Predicate.Op.GREATER_THAN;
+        case LESS_THAN_OR_EQ:
+            return Predicate.Op.GREATER_THAN_OR_EQ;
+        case GREATER_THAN:
+            return Predicate.Op.LESS_THAN;
+        case GREATER_THAN_OR_EQ:
+            return Predicate.Op.LESS_THAN_OR_EQ;
+        default:
+            return null;
+        }
+    }
+
+    /** @return the index the join looks inner tuples up in */
+    public IndexFile getIndex() {
+        return index;
+    }
+
+    private DbIterator outer() {
+        return getChildren()[0];
+    }
+
+    public void open() throws DbException, NoSuchElementException,
+            TransactionAbortedException {
+        outerTuple = null;
+        probe = null;
+        super.open();
+    }
+
+    public void close() {
+        if (probe != null)
+            probe.close();
+        probe = null;
+        outerTuple = null;
+        super.close();
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        if (probe != null)
+            probe.close();
+        probe = null;
+        outerTuple = null;
+        super.rewind();
+    }
+
+    /**
+     * Returns the next outer tuple joined with an inner tuple the index
+     * finds for it that passes the filters of the inner child.
+     */
+    protected Tuple fetchNext() throws TransactionAbortedException, DbException {
+        JoinPredicate jp = getJoinPredicate();
+        while (true) {
+            if (probe != null && probe.hasNext()) {
+                Tuple inner = probe.next();
+                boolean pass = true;
+                for (Predicate f : filters)
+                    pass = pass && f.filter(inner);
+                if (pass)
+                    return Tuple.merge(outerTuple, inner);
+                continue;
+            }
+            if (probe != null)
+                probe.close();
+            probe = null;
+            if (!outer().hasNext())
+                return null;
+            outerTuple = outer().next();
+            List<Predicate> preds = new ArrayList<Predicate>();
+            preds.add(new Predicate(index.getKeyField(), probeOp,
+                    outerTuple.getField(jp.getField1())));
+            probe = index.iterator(tid, preds);
+            probe.open();
+        }
+    }
+}
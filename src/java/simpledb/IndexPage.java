@@ -0,0 +1,81 @@
+package simpledb;
+
+import java.nio.ByteBuffer;
+
+/**
+ * IndexPage is a page of an index file. It is decoded into objects when it
+ * is read and encoded again by getPageData, so it keeps its before image as
+ * the page data it had before its first change, which it only takes when
+ * that change comes.
+ *
+ * @see BTreePage
+ * @see HashIndexFile
+ */
+public abstract class IndexPage implements Page {
+
+    final IndexPageId pid;
+    final Type keyType;
+    final int pageSize;
+    //the image of the page when its before image was last set, or null
+    //while the page is unchanged since then
+    private byte[] before;
+    private TransactionId dirtier = null;
+
+    IndexPage(IndexPageId pid, Type keyType, int pageSize, byte[] before) {
+        this.pid = pid;
+        this.keyType = keyType;
+        this.pageSize = pageSize;
+        this.before = before;
+    }
+
+    /**
+     * Takes the before image, if the page has not been changed since it was
+     * last set; called ahead of every change.
+     */
+    void prepareWrite() {
+        if (before == null)
+            before = getPageData();
+    }
+
+    /**
+     * Gives this page the before image of other, which it replaces in the
+     * buffer pool, as when a B+ tree root changes from a leaf to an
+     * internal page.
+     */
+    void inheritBeforeImage(IndexPage other) {
+        other.prepareWrite();
+        this.before = other.before;
+    }
+
+    public IndexPageId getId() {
+        return pid;
+    }
+
+    public TransactionId isDirty() {
+        return dirtier;
+    }
+
+    public void markDirty(boolean dirty, TransactionId tid) {
+        this.dirtier = dirty ? tid : null;
+    }
+
+    public byte[] getPageData() {
+        ByteBuffer bb = ByteBuffer.allocate(pageSize);
+        encode(bb);
+        return bb.array();
+    }
+
+    //write the page image into bb, which is pageSize bytes of zeroes
+    abstract void encode(ByteBuffer bb);
+
+    //the page with image data, of the same kind as this one
+    abstract IndexPage decode(byte[] data);
+
+    public IndexPage getBeforeImage() {
+        return decode(before != null ? before : getPageData());
+    }
+
+    public void setBeforeImage() {
+        before = null;
+    }
+}
@@ -0,0 +1,54 @@
+package simpledb;
+
+/**
+ * Unique identifier for the pages of an index file, such as a BTreeFile or
+ * a HashIndexFile.
+ *
+ * @see IndexFile
+ */
+public class IndexPageId implements PageId {
+    private int tableId;
+    private int pageNo;
+
+    /**
+     * Constructor. Create a page id structure for a specific page of a
+     * specific index.
+     *
+     * @param tableId The id of the index file (see IndexFile#getId)
+     * @param pgNo The page number in that file.
+     */
+    public IndexPageId(int tableId, int pgNo) {
+        this.tableId = tableId;
+        this.pageNo = pgNo;
+    }
+
+    /** @return the index file associated with this PageId */
+    public int getTableId() {
+        return this.tableId;
+    }
+
+    /** @return the page number in the index file */
+    public int pageNumber() {
+        return this.pageNo;
+    }
+
+    public int hashCode() {
+        return 31 * this.tableId + this.pageNo;
+    }
+
+    public boolean equals(Object o) {
+        if (!(o instanceof PageId))
+            return false;
+        PageId other = (PageId) o;
+        return other.pageNumber() == this.pageNo
+                && other.getTableId() == this.tableId;
+    }
+
+    public int[] serialize() {
+        return new int[] { tableId, pageNo };
+    }
+
+    public String toString() {
+        return "index page " + pageNo + " of " + tableId;
+    }
+}
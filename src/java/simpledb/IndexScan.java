@@ -0,0 +1,53 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * IndexScan is an access method that reads the tuples of a table whose key
+ * satisfies a set of predicates through an index on the key, rather than
+ * reading the whole table. Its tuples have the TupleDesc of the table and
+ * come in the order of the index.
+ *
+ * @see IndexFile#iterator(TransactionId, List)
+ * @see LogicalPlan#physicalPlan
+ */
+public class IndexScan extends SeqScan {
+
+    private static final long serialVersionUID = 1L;
+    private final IndexFile index;
+    private final List<Predicate> preds;
+
+    /**
+     * Creates a scan over the tuples of the specified table that satisfy
+     * preds as a part of the specified transaction.
+     *
+     * @param tid
+     *            The transaction this scan is running as a part of.
+     * @param tableid
+     *            the table to scan
+     * @param tableAlias
+     *            the alias of this table (see SeqScan)
+     * @param index
+     *            an index on the table
+     * @param preds
+     *            predicates on the key column of the index, with operators
+     *            the index supports
+     */
+    public IndexScan(TransactionId tid, int tableid, String tableAlias,
+            IndexFile index, List<Predicate> preds) {
+        super(tid, tableid, tableAlias);
+        this.index = index;
+        this.preds = new ArrayList<Predicate>(preds);
+        this.it = index.iterator(tid, this.preds);
+    }
+
+    /** @return the index this scan reads */
+    public IndexFile getIndex() {
+        return index;
+    }
+
+    /** @return the predicates the tuples of this scan satisfy */
+    public List<Predicate> getPredicates() {
+        return preds;
+    }
+}
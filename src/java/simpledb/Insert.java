@@ -1,5 +1,7 @@
 package simpledb;
 
+import java.util.*;
+
 /**
  * Inserts tuples read from the child operator into the tableid specified in the
  * constructor
@@ -15,6 +17,11 @@ public class Insert extends Operator {
 
     private boolean hasFetched = false;
     private TupleDesc tupleDesc = null;
+    private boolean bulk = false;
+
+    /** Number of pages of tuples a bulk insert appends at a time. */
+    public static final int BULK_PAGES = 64;
+
     /**
      * Constructor.
      * 
@@ -43,6 +50,31 @@ public class Insert extends Operator {
         tupleDesc = new TupleDesc(type);
     }
 
+    /**
+     * Constructor.
+     *
+     * @param t
+     *            The transaction running the insert.
+     * @param child
+     *            The child operator from which to read tuples to be inserted.
+     * @param tableid
+     *            The table in which to insert tuples.
+     * @param bulk
+     *            If true, tuples are appended to the table BULK_PAGES whole
+     *            pages at a time with BufferPool.bulkInsertTuples, instead of
+     *            one at a time into whatever page has room. Meant for loading
+     *            many tuples, e.g. with INSERT ... SELECT.
+     * @throws DbException
+     *             if TupleDesc of child differs from table into which we are to
+     *             insert.
+     * @see BufferPool#bulkInsertTuples
+     */
+    public Insert(TransactionId t, DbIterator child, int tableid, boolean bulk)
+            throws DbException {
+        this(t, child, tableid);
+        this.bulk = bulk;
+    }
+
     public TupleDesc getTupleDesc() {
         // some code goes here
         return tupleDesc;
@@ -101,9 +133,25 @@ public class Insert extends Operator {
         if (!hasFetched) {        
             try {
                 int count = 0;
-                while (it.hasNext()) {
-                    Database.getBufferPool().insertTuple(transactionId, tableId, it.next());
-                    count++;
+                if (bulk) {
+                    DbFile f = Database.getCatalog().getDbFile(tableId);
+                    int batchSize = f instanceof HeapFile
+                            ? BULK_PAGES * ((HeapFile) f).tuplesPerPage() : 1;
+                    ArrayList<Tuple> batch = new ArrayList<Tuple>(batchSize);
+                    while (it.hasNext()) {
+                        batch.add(it.next());
+                        count++;
+                        if (batch.size() == batchSize) {
+                            Database.getBufferPool().bulkInsertTuples(transactionId, tableId, batch);
+                            batch.clear();
+                        }
+                    }
+                    Database.getBufferPool().bulkInsertTuples(transactionId, tableId, batch);
+                } else {
+                    while (it.hasNext()) {
+                        Database.getBufferPool().insertTuple(transactionId, tableId, it.next());
+                        count++;
+                    }
                 }
 
                 returnedTuple = new Tuple(tupleDesc);
@@ -68,12 +68,59 @@ public class JoinOptimizer {
 
         JoinPredicate p = new JoinPredicate(t1id, lj.p, t2id);
 
+        //probe the index on the inner join column if estimateJoinCost found
+        //that cheaper than rescanning the inner table for every outer tuple
+        if (lj.t2Index != null) {
+            j = instantiateIndexJoin(p, plan1, plan2, lj.t2Index);
+            if (j != null)
+                return j;
+        }
+
         j = new Join(p,plan1,plan2);
 
         return j;
 
     }
 
+    /**
+     * @return an IndexJoin of plan1 with plan2 on p that probes index, if
+     *   plan2 is Filters over a scan of the table of index; else null
+     */
+    private static DbIterator instantiateIndexJoin(JoinPredicate p,
+            DbIterator plan1, DbIterator plan2, IndexFile index) {
+        List<Predicate> filters = new ArrayList<Predicate>();
+        DbIterator base = plan2;
+        while (base instanceof Filter) {
+            filters.add(((Filter) base).getPredicate());
+            base = ((Filter) base).getChildren()[0];
+        }
+        //other scans read differently stored tables, which have no indexes
+        if (base.getClass() != SeqScan.class && base.getClass() != IndexScan.class)
+            return null;
+        SeqScan scan = (SeqScan) base;
+        if (Database.getCatalog().getTableId(scan.getTableName()) != index.getTable().getId())
+            return null;
+        return new IndexJoin(p, plan1, plan2, scan.getTransactionId(), index, filters);
+    }
+
+    /**
+     * @return the index on field of the table with id tableId that finds
+     *   the tuples joining with an outer tuple under a join predicate with
+     *   operator op in the fewest page reads, or null if it has none
+     */
+    static IndexFile joinIndex(int tableId, int field, Predicate.Op op) {
+        Predicate.Op probeOp = IndexJoin.probeOp(op);
+        IndexFile best = null;
+        if (probeOp == null)
+            return null;
+        for (IndexFile index : Database.getCatalog().getIndexes(tableId)) {
+            if (index.getKeyField() == field && index.supports(probeOp)
+                    && (best == null || index.lookupPages() < best.lookupPages()))
+                best = index;
+        }
+        return best;
+    }
+
     /**
      * Estimate the cost of a join.
      * 
@@ -115,6 +162,51 @@ public class JoinOptimizer {
         }
     }
 
+    /**
+     * Estimate the cost of a join whose inner (right-hand) side may be a
+     * table rather than another join. If it is, and the table has an index
+     * that can find the tuples joining with an outer tuple, the join may be
+     * an {@link IndexJoin}: for each of the card1 outer tuples, it reads
+     * the index pages down to the first entry, and then a table page for
+     * each inner tuple that joins with it, without applying the inner
+     * filters first. The inner tuples per outer tuple follow from the
+     * cardinality of the join with the whole inner table.
+     * <p>
+     * Returns the cost of the cheaper of that and a nested-loops join, and
+     * records the choice in j.t2Index for {@link #instantiateJoin}.
+     *
+     * @param stats2
+     *            the statistics of the inner table, or null if the inner
+     *            side is not a table
+     * @see #estimateJoinCost(LogicalJoinNode, int, int, double, double)
+     */
+    public double estimateJoinCost(LogicalJoinNode j, int card1, int card2,
+            double cost1, double cost2, TableStats stats2) {
+        double cost = estimateJoinCost(j, card1, card2, cost1, cost2);
+        if (j instanceof LogicalSubplanJoinNode)
+            return cost;
+        j.t2Index = null;
+        if (stats2 == null)
+            return cost;
+        int tableId = p.getTableId(j.t2Alias);
+        int field = Database.getCatalog().getTupleDesc(tableId).fieldNameToIndex(j.f2PureName);
+        IndexFile index = joinIndex(tableId, field, j.p);
+        if (index == null)
+            return cost;
+        int total = Math.max(stats2.totalTuples(), 1);
+        int joined = estimateTableJoinCardinality(j.p, j.t1Alias, j.t2Alias,
+                j.f1PureName, j.f2PureName, Math.max(card1, 1), total,
+                isPkey(j.t1Alias, j.f1PureName), isPkey(j.t2Alias, j.f2PureName),
+                null, null);
+        double perProbe = joined / (double) Math.max(card1, 1);
+        double indexCost = cost1 + card1 * stats2.estimateIndexScanCost(index, perProbe / total)
+                + card1 * perProbe;
+        if (indexCost >= cost)
+            return cost;
+        j.t2Index = index;
+        return indexCost;
+    }
+
     /**
      * Estimate the cardinality of a join. The cardinality of a join is the
      * number of tuples produced by the join.
@@ -238,6 +330,9 @@ public class JoinOptimizer {
         // some code goes here
         //Replace the following    
         Vector<LogicalJoinNode> bestOrder = null;
+        //nothing to order; the plan cache has no entry for the empty set
+        if (joins.isEmpty())
+            return joins;
 
         try {       
             Set<Set<LogicalJoinNode>> joinNodes = enumerateSubsets(joins, 1);
@@ -312,7 +407,12 @@ public class JoinOptimizer {
             LogicalJoinNode joinToRemove, Set<LogicalJoinNode> joinSet,
             double bestCostSoFar, PlanCache pc) throws ParsingException {
 
+        //estimateJoinCost records the join method in j, which must not
+        //change the node in the plans of other subsets
         LogicalJoinNode j = joinToRemove;
+        if (!(j instanceof LogicalSubplanJoinNode))
+            j = new LogicalJoinNode(j.t1Alias, j.t2Alias, j.f1PureName,
+                    j.f2PureName, j.p);
 
         Vector<LogicalJoinNode> prevBest;
 
@@ -338,13 +438,12 @@ public class JoinOptimizer {
 
         if (news.isEmpty()) { // base case -- both are base relations
             prevBest = new Vector<LogicalJoinNode>();
-            t1cost = stats.get(table1Name).estimateScanCost();
+            t1cost = scanCost(stats.get(table1Name), j.t1Alias);
             t1card = stats.get(table1Name).estimateTableCardinality(
                     filterSelectivities.get(j.t1Alias));
             leftPkey = isPkey(j.t1Alias, j.f1PureName);
 
-            t2cost = table2Alias == null ? 0 : stats.get(table2Name)
-                    .estimateScanCost();
+            t2cost = table2Alias == null ? 0 : scanCost(stats.get(table2Name), table2Alias);
             t2card = table2Alias == null ? 0 : stats.get(table2Name)
                     .estimateTableCardinality(
                             filterSelectivities.get(j.t2Alias));
@@ -371,8 +470,7 @@ public class JoinOptimizer {
                 t1card = bestCard;
                 leftPkey = hasPkey(prevBest);
 
-                t2cost = j.t2Alias == null ? 0 : stats.get(table2Name)
-                        .estimateScanCost();
+                t2cost = j.t2Alias == null ? 0 : scanCost(stats.get(table2Name), j.t2Alias);
                 t2card = j.t2Alias == null ? 0 : stats.get(table2Name)
                         .estimateTableCardinality(
                                 filterSelectivities.get(j.t2Alias));
@@ -387,7 +485,7 @@ public class JoinOptimizer {
                 t2card = bestCard;
                 rightPkey = hasPkey(prevBest);
 
-                t1cost = stats.get(table1Name).estimateScanCost();
+                t1cost = scanCost(stats.get(table1Name), j.t1Alias);
                 t1card = stats.get(table1Name).estimateTableCardinality(
                         filterSelectivities.get(j.t1Alias));
                 leftPkey = isPkey(j.t1Alias, j.f1PureName);
@@ -399,11 +497,18 @@ public class JoinOptimizer {
             }
         }
 
+        //the side not in prevBest is a table, which an index may probe
+        TableStats t1stats = null, t2stats = null;
+        if (news.isEmpty() || !doesJoin(prevBest, table1Alias))
+            t1stats = stats.get(table1Name);
+        if (table2Alias != null && (news.isEmpty() || !doesJoin(prevBest, table2Alias)))
+            t2stats = stats.get(table2Name);
+
         // case where prevbest is left
-        double cost1 = estimateJoinCost(j, t1card, t2card, t1cost, t2cost);
+        double cost1 = estimateJoinCost(j, t1card, t2card, t1cost, t2cost, t2stats);
 
         LogicalJoinNode j2 = j.swapInnerOuter();
-        double cost2 = estimateJoinCost(j2, t2card, t1card, t2cost, t1cost);
+        double cost2 = estimateJoinCost(j2, t2card, t1card, t2cost, t1cost, t1stats);
         if (cost2 < cost1) {
             boolean tmp;
             j = j2;
@@ -425,6 +530,14 @@ public class JoinOptimizer {
         return cc;
     }
 
+    /**
+     * @return the cost of the scan of the table with alias, whose statistics
+     *   are stats, reading only the columns the plan needs of it
+     */
+    private double scanCost(TableStats stats, String alias) {
+        return stats.estimateScanCost(p.getScanColumns(alias));
+    }
+
     /**
      * Return true if the specified table is in the list of joins, false
      * otherwise
@@ -527,7 +640,7 @@ public class JoinOptimizer {
             if (n == null) { // never seen this table before
                 n = new DefaultMutableTreeNode(j.t1Alias
                         + " (Cost = "
-                        + stats.get(table1Name).estimateScanCost()
+                        + scanCost(stats.get(table1Name), j.t1Alias)
                         + ", card = "
                         + stats.get(table1Name).estimateTableCardinality(
                                 selectivities.get(j.t1Alias)) + ")");
@@ -546,8 +659,7 @@ public class JoinOptimizer {
                         j.t2Alias == null ? "Subplan"
                                 : (j.t2Alias
                                         + " (Cost = "
-                                        + stats.get(table2Name)
-                                                .estimateScanCost()
+                                        + scanCost(stats.get(table2Name), j.t2Alias)
                                         + ", card = "
                                         + stats.get(table2Name)
                                                 .estimateTableCardinality(
@@ -0,0 +1,83 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * LazyTuple is a lightweight view of a tuple stored in a page image. It
+ * keeps a reference to the page and the offset of the tuple, and only
+ * decodes a field (at its fixed offset from {@link TupleDesc#getFieldOffset})
+ * the first time getField asks for it. Scans that filter on one column or
+ * project a few columns therefore never build Field objects for the rest.
+ * <p>
+ * The page bytes must not change while the view is in use; HeapPage never
+ * writes into the buffer it was read from. The bytes are read through the
+ * page, which never lets the BufferPool reuse its frame while they are
+ * read, so the view stays valid when the page is detached from the frame
+ * (see {@link HeapPage#detach}).
+ *
+ * @see HeapPage#iterator
+ */
+class LazyTuple extends Tuple {
+
+    private static final long serialVersionUID = 1L;
+
+    private final transient HeapPage page;
+    private final int offset;
+    //decoded (or explicitly set) fields, allocated on first access
+    private Field[] decoded = null;
+
+    /**
+     * @param td the schema of the tuple
+     * @param rid the location of the tuple
+     * @param page the page holding the tuple
+     * @param offset the index in the page image of the first byte of the
+     *   tuple
+     */
+    LazyTuple(TupleDesc td, RecordId rid, HeapPage page, int offset) {
+        super(td, rid);
+        this.page = page;
+        this.offset = offset;
+    }
+
+    public Field getField(int i) {
+        TupleDesc td = getTupleDesc();
+        if (i < 0 || i >= td.numFields())
+            throw new IndexOutOfBoundsException(i + "is out of bounds");
+
+        if (decoded == null)
+            decoded = new Field[td.numFields()];
+        Field f = decoded[i];
+        if (f == null) {
+            f = page.parse(td.getFieldType(i), offset + td.getFieldOffset(i));
+            decoded[i] = f;
+        }
+        return f;
+    }
+
+    public void setField(int i, Field f) {
+        TupleDesc td = getTupleDesc();
+        if (i < 0 || i >= td.numFields())
+            throw new IndexOutOfBoundsException("Field " + i + " is out of fields bound");
+
+        if (decoded == null)
+            decoded = new Field[td.numFields()];
+        decoded[i] = f;
+    }
+
+    public Iterator<Field> fields() {
+        int n = getTupleDesc().numFields();
+        for (int i = 0; i < n; i++)
+            getField(i);
+        return Arrays.asList(decoded).iterator();
+    }
+
+    /** Serialize as a plain Tuple, since the page buffer cannot be. */
+    private Object writeReplace() {
+        Tuple t = new Tuple(getTupleDesc());
+        for (int i = 0; i < getTupleDesc().numFields(); i++)
+            t.setField(i, getField(i));
+        if (getRecordId() != null)
+            t.setRecordId(getRecordId());
+        return t;
+    }
+}
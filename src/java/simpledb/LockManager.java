@@ -46,13 +46,42 @@ public class LockManager {
     }
 
     //check if a transaction has lock on a page or not.
-    public boolean hasLocks(TransactionId tid, PageId pid){
-        boolean hasWriteLock = writeLocks.get(pid).equals(tid);
-        boolean hasReadLock = readLocks.get(pid).contains(tid);
+    public synchronized boolean hasLocks(TransactionId tid, PageId pid){
+        //a page no transaction has locked has no entries
+        TransactionId writeLockTid = writeLocks.get(pid);
+        boolean hasWriteLock = writeLockTid != null && writeLockTid.equals(tid);
+        Set<TransactionId> readLocksId = readLocks.get(pid);
+        boolean hasReadLock = readLocksId != null && readLocksId.contains(tid);
 
         return hasWriteLock || hasReadLock;
     }
 
+    //check if some transaction holds a write lock on a page
+    public boolean isWriteLocked(PageId pid) {
+        return writeLocks.containsKey(pid);
+    }
+
+    //check if every lock on a page that keeps tid from locking it with
+    //perm is held by one of holders
+    public synchronized boolean heldOnlyBy(PageId pid, TransactionId tid,
+            Permissions perm, Set<TransactionId> holders) {
+        TransactionId writeLockTid = writeLocks.get(pid);
+        if (writeLockTid != null && !writeLockTid.equals(tid)
+                && !holders.contains(writeLockTid)) {
+            return false;
+        }
+
+        Set<TransactionId> readLockTid = readLocks.get(pid);
+        if (perm.equals(Permissions.READ_WRITE) && readLockTid != null) {
+            for (TransactionId reader : readLockTid) {
+                if (!reader.equals(tid) && !holders.contains(reader))
+                    return false;
+            }
+        }
+
+        return true;
+    }
+
     //release all locks holds by a transaction
     public synchronized void releaseAllTransactionLocks(TransactionId tid) {
         exclusivePages.remove(tid);
@@ -2,6 +2,7 @@
 package simpledb;
 
 import java.io.*;
+import java.nio.ByteBuffer;
 import java.util.*;
 import java.lang.reflect.*;
 
@@ -15,8 +16,8 @@ two-phase locking discipline are followed.  <p>
 <p>
 
 Many of the methods here are synchronized (to prevent concurrent log
-writes from happening); many of the methods in BufferPool are also
-synchronized (for similar reasons.)  Problem is that BufferPool writes
+writes from happening); the partitions of the BufferPool are also
+latched (for similar reasons.)  Problem is that BufferPool writes
 log records (on page flushed) and the log file flushes BufferPool
 pages (on checkpoints and recovery.)  This can lead to deadlock.  For
 that reason, any LogFile operation that needs to access the BufferPool
@@ -24,12 +25,16 @@ must not be declared synchronized and must begin with a block like:
 
 <p>
 <pre>
-    synchronized (Database.getBufferPool()) {
+    BufferPool pool = Database.getBufferPool();
+    pool.latchAll();
+    try {
        synchronized (this) {
 
        ..
 
        }
+    } finally {
+       pool.unlatchAll();
     }
 </pre>
 */
@@ -147,7 +152,9 @@ public class LogFile {
         // must have buffer pool lock before proceeding, since this
         // calls rollback
 
-        synchronized (Database.getBufferPool()) {
+        BufferPool pool = Database.getBufferPool();
+        pool.latchAll();
+        try {
 
             synchronized(this) {
                 preAppend();
@@ -165,6 +172,8 @@ public class LogFile {
                 force();
                 tidToFirstLogRecord.remove(tid.getId());
             }
+        } finally {
+            pool.unlatchAll();
         }
     }
 
@@ -218,7 +227,42 @@ public class LogFile {
         Debug.log("WRITE OFFSET = " + currentOffset);
     }
 
-    void writePageData(RandomAccessFile raf, Page p) throws IOException{
+    /** Write UPDATE records for a batch of pages written by tid, as one
+        append to the log, and force the log to disk. Used by bulk inserts,
+        which write the after images to the table files right away.
+        @param tid The transaction performing the writes
+        @param before The before images of the pages
+        @param after The after images of the pages, in the same order
+
+        @see #logWrite
+    */
+    public synchronized void logWrites(TransactionId tid, List<Page> before,
+                                       List<Page> after)
+        throws IOException {
+        if (before.size() != after.size())
+            throw new IllegalArgumentException("before and after images differ in number");
+        Debug.log("WRITE " + after.size() + " PAGES, offset = " + raf.getFilePointer());
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        DataOutputStream dos = new DataOutputStream(baos);
+        long recordStart = currentOffset;
+        for (int i = 0; i < after.size(); i++) {
+            preAppend();
+            if (i == 0)
+                recordStart = currentOffset;
+            dos.writeInt(UPDATE_RECORD);
+            dos.writeLong(tid.getId());
+            writePageData(dos, before.get(i));
+            writePageData(dos, after.get(i));
+            dos.writeLong(recordStart);
+            dos.flush();
+            recordStart = currentOffset + baos.size();
+        }
+        raf.write(baos.toByteArray());
+        currentOffset = raf.getFilePointer();
+        force();
+    }
+
+    void writePageData(DataOutput raf, Page p) throws IOException{
         PageId pid = p.getId();
         int pageInfo[] = pid.serialize();
 
@@ -240,6 +284,15 @@ public class LogFile {
         for (int i = 0; i < pageInfo.length; i++) {
             raf.writeInt(pageInfo[i]);
         }
+        if (p instanceof HeapPage) {
+            //serialize into this thread's page buffer rather than a new array
+            HeapPage hp = (HeapPage) p;
+            ByteBuffer bb = HeapPage.pageBuffer(hp.pageSize);
+            hp.getPageData(bb);
+            raf.writeInt(bb.position());
+            raf.write(bb.array(), bb.arrayOffset(), bb.position());
+            return;
+        }
         byte[] pageData = p.getPageData();
         raf.writeInt(pageData.length);
         raf.write(pageData);
@@ -265,7 +318,14 @@ public class LogFile {
             }
             pid = (PageId)idConsts[0].newInstance(idArgs);
 
-            Constructor<?>[] pageConsts = pageClass.getDeclaredConstructors();
+            Constructor<?> pageConst = null;
+            for (Constructor<?> c : pageClass.getDeclaredConstructors()) {
+                Class<?>[] params = c.getParameterTypes();
+                if (params.length == 2 && params[1] == byte[].class)
+                    pageConst = c;
+            }
+            if (pageConst == null)
+                throw new IOException("no (PageId, byte[]) constructor in " + pageClassName);
             int pageSize = raf.readInt();
 
             byte[] pageData = new byte[pageSize];
@@ -275,7 +335,7 @@ public class LogFile {
             pageArgs[0] = pid;
             pageArgs[1] = pageData;
 
-            newPage = (Page)pageConsts[0].newInstance(pageArgs);
+            newPage = (Page)pageConst.newInstance(pageArgs);
 
             //            Debug.log("READ PAGE OF TYPE " + pageClassName + ", table = " + newPage.getId().getTableId() + ", page = " + newPage.getId().pageno());
         } catch (ClassNotFoundException e){
@@ -319,7 +379,9 @@ public class LogFile {
     /** Checkpoint the log and write a checkpoint record. */
     public void logCheckpoint() throws IOException {
         //make sure we have buffer pool lock before proceeding
-        synchronized (Database.getBufferPool()) {
+        BufferPool pool = Database.getBufferPool();
+        pool.latchAll();
+        try {
             synchronized (this) {
                 //Debug.log("CHECKPOINT, offset = " + raf.getFilePointer());
                 preAppend();
@@ -352,6 +414,8 @@ public class LogFile {
                 currentOffset = raf.getFilePointer();
                 //Debug.log("CP OFFSET = " + currentOffset);
             }
+        } finally {
+            pool.unlatchAll();
         }
 
         logTruncate();
@@ -463,11 +527,15 @@ public class LogFile {
     */
     public void rollback(TransactionId tid)
         throws NoSuchElementException, IOException {
-        synchronized (Database.getBufferPool()) {
+        BufferPool pool = Database.getBufferPool();
+        pool.latchAll();
+        try {
             synchronized(this) {
                 preAppend();
                 // some code goes here
             }
+        } finally {
+            pool.unlatchAll();
         }
     }
 
@@ -490,12 +558,16 @@ public class LogFile {
         updates of uncommitted transactions are not installed.
     */
     public void recover() throws IOException {
-        synchronized (Database.getBufferPool()) {
+        BufferPool pool = Database.getBufferPool();
+        pool.latchAll();
+        try {
             synchronized (this) {
                 recoveryUndecided = false;
                 // some code goes here
             }
-         }
+        } finally {
+            pool.unlatchAll();
+        }
     }
 
     /** Print out a human readable represenation of the log */
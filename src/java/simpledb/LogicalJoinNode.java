@@ -23,6 +23,10 @@ public class LogicalJoinNode {
     /** The join predicate */
     public Predicate.Op p;
 
+    /** The index to probe t2 with in an IndexJoin, or null to join with
+     * nested loops.  JoinOptimizer#orderJoins sets it to the cheaper one. */
+    public IndexFile t2Index;
+
     public LogicalJoinNode() {
     }
 
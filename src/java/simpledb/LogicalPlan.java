@@ -5,7 +5,10 @@ import java.util.HashMap;
 import java.util.Iterator;
 import java.io.File;
 import java.util.ArrayList;
+import java.util.List;
 import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.TreeSet;
 
 /**
  * LogicalPlan represents a logical query plan that has been through
@@ -27,6 +30,8 @@ public class LogicalPlan {
     private Vector<LogicalFilterNode> filters;
     private HashMap<String,DbIterator> subplanMap;
     private HashMap<String,Integer> tableMap;
+    //the columns read by the scans of columnar tables, by alias
+    private HashMap<String,Set<Integer>> scanColumns;
 
     private Vector<LogicalSelectListNode> selectList;
     private String groupByField = null;
@@ -45,6 +50,7 @@ public class LogicalPlan {
         tables = new Vector<LogicalScanNode>();
         subplanMap = new HashMap<String,DbIterator>();
         tableMap = new HashMap<String,Integer>();
+        scanColumns = new HashMap<String,Set<Integer>>();
 
         selectList = new Vector<LogicalSelectListNode>();
         this.query = "";
@@ -81,6 +87,16 @@ public class LogicalPlan {
         return this.tableMap;
     }
 
+    /** Return the columns that the scan of the table with the given alias
+        reads, if {@link #physicalPlan} scans it with a {@link ColumnarScan}.
+
+        @param alias the table alias
+        @return the column indexes, or null if the scan reads every column
+     */
+    public Set<Integer> getScanColumns(String alias) {
+        return scanColumns.get(alias);
+    }
+
     /** Add a new filter to the logical plan
      *   @param field The name of the over which the filter applies;
      *   this can be a fully qualified field (tablename.field or
@@ -258,6 +274,49 @@ public class LogicalPlan {
 
     }
 
+    /** Return the indexes of the columns of the scanned table that this plan
+     *  refers to through the select list, filters, joins, grouping and
+     *  ordering, so that a columnar table only has those columns read.
+     *  @return the column indexes, or null if the plan needs every column
+     */
+    private Set<Integer> neededColumns(LogicalScanNode table) {
+        ArrayList<String> names = new ArrayList<String>();
+        for (LogicalSelectListNode si : selectList)
+            names.add(si.fname);
+        for (LogicalFilterNode lf : filters) {
+            if (lf.tableAlias.equals(table.alias))
+                names.add(lf.tableAlias + "." + lf.fieldPureName);
+        }
+        for (LogicalJoinNode lj : joins) {
+            names.add(lj.t1Alias + "." + lj.f1PureName);
+            if (!(lj instanceof LogicalSubplanJoinNode))
+                names.add(lj.t2Alias + "." + lj.f2PureName);
+        }
+        if (groupByField != null)
+            names.add(groupByField);
+        if (aggField != null)
+            names.add(aggField);
+        if (oByField != null)
+            names.add(oByField);
+
+        TupleDesc td = Database.getCatalog().getTupleDesc(table.t);
+        Set<Integer> columns = new TreeSet<Integer>();
+        String prefix = table.alias + ".";
+        for (String name : names) {
+            if (name.endsWith(".*") || name.equals("*"))
+                return null;
+            if (!name.startsWith(prefix))
+                continue;
+            try {
+                columns.add(td.fieldNameToIndex(name.substring(prefix.length())));
+            } catch (NoSuchElementException e) {
+                //reported when the plan itself is built
+                return null;
+            }
+        }
+        return columns;
+    }
+
     /** Convert the aggregate operator name s into an Aggregator.op operation.
      *  @throws ParsingException if s is not a valid operator name 
      */
@@ -294,7 +353,16 @@ public class LogicalPlan {
             LogicalScanNode table = tableIt.next();
             SeqScan ss = null;
             try {
-                 ss = new SeqScan(t, Database.getCatalog().getDbFile(table.t).getId(), table.alias);
+                 DbFile f = Database.getCatalog().getDbFile(table.t);
+                 Set<Integer> columns = f instanceof ColumnarFile ? neededColumns(table) : null;
+                 if (columns != null) {
+                     ss = new ColumnarScan(t, f.getId(), table.alias, columns);
+                     scanColumns.put(table.alias, columns);
+                 }
+                 else if (f instanceof PartitionedFile)
+                     ss = new PartitionedScan(t, f.getId(), table.alias);
+                 else
+                     ss = new SeqScan(t, f.getId(), table.alias);
             } catch (NoSuchElementException e) {
                 throw new ParsingException("Unknown table " + table.t);
             }
@@ -334,6 +402,17 @@ public class LogicalPlan {
             } catch (NoSuchElementException e) {
                 throw new ParsingException("Unknown field " + lf.fieldQuantifiedName);
             }
+            //leave out the partitions the filter rules out
+            DbIterator base = subplan;
+            while (base instanceof Filter)
+                base = ((Filter) base).getChildren()[0];
+            if (base instanceof PartitionedScan) {
+                PartitionedScan ps = (PartitionedScan) base;
+                int n = ps.prune(p);
+                if (explain)
+                    System.out.println("Partitions of " + lf.tableAlias + " left by "
+                            + lf.fieldQuantifiedName + " " + lf.p + " " + lf.c + ": " + n);
+            }
             subplanMap.put(lf.tableAlias, new Filter(p, subplan));
 
             TableStats s = statsMap.get(Database.getCatalog().getTableName(this.getTableId(lf.tableAlias)));
@@ -343,6 +422,10 @@ public class LogicalPlan {
 
             //s.addSelectivityFactor(estimateFilterSelectivity(lf,statsMap));
         }
+
+        //read selective filters through an index rather than the whole table
+        for (String alias : new ArrayList<String>(subplanMap.keySet()))
+            subplanMap.put(alias, indexPlan(t, alias, subplanMap.get(alias), statsMap, explain));
         
         JoinOptimizer jo = new JoinOptimizer(this,joins);
 
@@ -481,6 +564,85 @@ public class LogicalPlan {
         return new Project(outFields, outTypes, node);
     }
 
+    /**
+     * Replaces the SeqScan under subplan, the filters on table alias, with
+     * an IndexScan, if the table has an index on a filtered column and the
+     * estimated cost of reading the matching tuples through it is below
+     * that of a scan, or with a BitmapScan, if filtered columns have bitmap
+     * indexes and the pages holding the tuples in the AND of their bitmaps
+     * cost less still. The filters stay on top of the new scan.
+     */
+    private DbIterator indexPlan(TransactionId t, String alias, DbIterator subplan,
+            Map<String,TableStats> statsMap, boolean explain) {
+        List<Filter> chain = new ArrayList<Filter>();
+        DbIterator base = subplan;
+        while (base instanceof Filter) {
+            chain.add((Filter) base);
+            base = ((Filter) base).getChildren()[0];
+        }
+        //other scans read differently stored tables, which have no indexes
+        if (chain.isEmpty() || base.getClass() != SeqScan.class)
+            return subplan;
+        int tableId = getTableId(alias);
+        TableStats s = statsMap.get(Database.getCatalog().getTableName(tableId));
+        double scanCost = s.estimateScanCost();
+        double bestCost = scanCost;
+        IndexFile best = null;
+        List<Predicate> bestPreds = null;
+        for (IndexFile index : Database.getCatalog().getIndexes(tableId)) {
+            List<Predicate> preds = new ArrayList<Predicate>();
+            for (Filter f : chain) {
+                Predicate p = f.getPredicate();
+                if (p.getField() == index.getKeyField() && index.supports(p.getOp()))
+                    preds.add(p);
+            }
+            if (preds.isEmpty())
+                continue;
+            double cost = s.estimateIndexScanCost(index, s.estimateSelectivity(preds));
+            if (cost < bestCost) {
+                bestCost = cost;
+                best = index;
+                bestPreds = preds;
+            }
+        }
+        //the bitmaps are in memory, so the pages to read are known exactly
+        DbFile table = Database.getCatalog().getDbFile(tableId);
+        List<Predicate> bitmapPreds = new ArrayList<Predicate>();
+        if (table instanceof HeapFile) {
+            HeapFile hf = (HeapFile) table;
+            for (BitmapIndex b : hf.getBitmapIndexes()) {
+                if (!b.isUsable())
+                    continue;
+                for (Filter f : chain)
+                    if (f.getPredicate().getField() == b.getColumn())
+                        bitmapPreds.add(f.getPredicate());
+            }
+            if (!bitmapPreds.isEmpty()) {
+                Bitmap bitmap = BitmapScan.lookup(hf, bitmapPreds);
+                double cost = s.estimateBitmapScanCost(hf, bitmap);
+                if (cost < bestCost) {
+                    if (explain)
+                        System.out.println("Bitmap scan of " + alias + " on "
+                                + bitmapPreds.size() + " predicates, " + bitmap.cardinality()
+                                + " tuples on " + bitmap.numPages() + " pages: cost " + cost
+                                + " instead of " + scanCost);
+                    chain.get(chain.size() - 1).setChildren(new DbIterator[] {
+                            new BitmapScan(t, tableId, alias, bitmapPreds) });
+                    return subplan;
+                }
+            }
+        }
+        if (best == null)
+            return subplan;
+        if (explain)
+            System.out.println("Index scan of " + alias + " on "
+                    + Database.getCatalog().getTupleDesc(tableId).getFieldName(best.getKeyField())
+                    + ": cost " + bestCost + " instead of " + scanCost);
+        chain.get(chain.size() - 1).setChildren(new DbIterator[] {
+                new IndexScan(t, tableId, alias, best, bestPreds) });
+        return subplan;
+    }
+
     public static void main(String argv[]) {
         // construct a 3-column table schema
         Type types[] = new Type[]{ Type.INT_TYPE, Type.INT_TYPE, Type.INT_TYPE };
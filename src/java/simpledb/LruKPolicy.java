@@ -0,0 +1,90 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * LruKPolicy is the LRU-K policy of O'Neil, O'Neil and Weikum: it evicts the
+ * page whose K-th most recent access is the oldest, so that a page read
+ * once by a scan goes before a page read often. Pages accessed fewer than
+ * K times go first, least recently used first.
+ * <p>
+ * The access times of evicted pages are kept for as many pages as the pool
+ * holds, so that a page that comes back soon is judged by its history.
+ * Accesses are timed by a counter of accesses; there is no correlated
+ * reference period.
+ */
+public class LruKPolicy extends ReplacementPolicy {
+
+    private final int k;
+    private long clock = 0;
+    //the times of the last k accesses of each cached page, most recent
+    //first, 0 for none
+    private final Map<PageId, long[]> history = new HashMap<PageId, long[]>();
+    //the cached pages, in the order to evict them
+    private final TreeSet<PageId> resident;
+    //the history of pages evicted lately, oldest first
+    private final LinkedHashMap<PageId, long[]> retained;
+
+    /**
+     * Creates an LRU-K policy for a pool of numPages pages.
+     *
+     * @param k the number of accesses to time, at least 1; LRU-1 is LRU
+     */
+    public LruKPolicy(int k, final int numPages) {
+        if (k < 1)
+            throw new IllegalArgumentException("LRU-" + k);
+        this.k = k;
+        this.resident = new TreeSet<PageId>(new Comparator<PageId>() {
+            public int compare(PageId a, PageId b) {
+                long[] x = history.get(a);
+                long[] y = history.get(b);
+                if (x[x.length - 1] != y[y.length - 1])
+                    return x[x.length - 1] < y[y.length - 1] ? -1 : 1;
+                //the last accesses of two pages are never at the same time
+                return x[0] < y[0] ? -1 : x[0] > y[0] ? 1 : 0;
+            }
+        });
+        this.retained = new LinkedHashMap<PageId, long[]>() {
+            private static final long serialVersionUID = 1L;
+
+            protected boolean removeEldestEntry(Map.Entry<PageId, long[]> eldest) {
+                return size() > numPages;
+            }
+        };
+    }
+
+    private void access(long[] times) {
+        System.arraycopy(times, 0, times, 1, times.length - 1);
+        times[0] = ++clock;
+    }
+
+    public void admitted(PageId pid) {
+        long[] times = retained.remove(pid);
+        if (times == null)
+            times = new long[k];
+        access(times);
+        history.put(pid, times);
+        resident.add(pid);
+    }
+
+    public void accessed(PageId pid) {
+        long[] times = history.get(pid);
+        if (times == null)
+            return;
+        //reorder the page by taking it out before its times change
+        resident.remove(pid);
+        access(times);
+        resident.add(pid);
+    }
+
+    public void removed(PageId pid) {
+        if (!history.containsKey(pid))
+            return;
+        resident.remove(pid);
+        retained.put(pid, history.remove(pid));
+    }
+
+    public Iterator<PageId> victims() {
+        return resident.iterator();
+    }
+}
@@ -0,0 +1,31 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * LruPolicy evicts the least recently used page. The cached pages are kept
+ * in access order, so admitting, accessing and removing a page, and finding
+ * the next victim, each take constant time.
+ */
+public class LruPolicy extends ReplacementPolicy {
+
+    //least recently used first
+    private final LinkedHashMap<PageId, Boolean> pages =
+            new LinkedHashMap<PageId, Boolean>(16, 0.75f, true);
+
+    public void admitted(PageId pid) {
+        pages.put(pid, Boolean.TRUE);
+    }
+
+    public void accessed(PageId pid) {
+        pages.get(pid);
+    }
+
+    public void removed(PageId pid) {
+        pages.remove(pid);
+    }
+
+    public Iterator<PageId> victims() {
+        return pages.keySet().iterator();
+    }
+}
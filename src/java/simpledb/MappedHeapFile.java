@@ -0,0 +1,182 @@
+package simpledb;
+
+import java.io.*;
+import java.lang.ref.WeakReference;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.util.*;
+
+/**
+ * MappedHeapFile is a HeapFile whose pages are served from read-only memory
+ * mappings of the table file instead of read() calls. The file is mapped in
+ * fixed-size regions of REGION_PAGES pages; a page miss in the BufferPool
+ * slices the page out of its region and hands the slice to the HeapPage
+ * constructor, so no read syscall or copy into a fresh byte[] is needed.
+ * <p>
+ * Writes still go through the file's PageChannel. The mappings are shared
+ * with the file, so a written page would change under the pages read from
+ * it before, and under their tuples and before images; a write therefore
+ * first detaches those pages, which copy the slice to the heap. When
+ * insertTuple appends pages past the end of the last region, that region is
+ * remapped to cover them. This makes MappedHeapFile a good fit for
+ * read-mostly reference tables. It is selected per table with the "mapped"
+ * annotation in the catalog file.
+ *
+ * @see Catalog#loadSchema
+ */
+public class MappedHeapFile extends HeapFile {
+
+    private static final long serialVersionUID = 1L;
+
+    /** Number of pages covered by one mapped region. */
+    public static final int REGION_PAGES = 256;
+
+    private transient List<MappedByteBuffer> regions;
+    //the pages read from slices of each page, which may still view its
+    //mapped bytes; pages that are no longer used drop out by themselves
+    private transient Map<Integer, List<WeakReference<HeapPage>>> views;
+
+    /**
+     * Constructs a mapped heap file backed by the specified file.
+     *
+     * @param f
+     *            the file that stores the on-disk backing store for this heap
+     *            file.
+     */
+    public MappedHeapFile(File f, TupleDesc td) {
+        super(f, td);
+    }
+
+    /**
+     * Constructs a mapped heap file backed by the specified file, whose
+     * pages are SlottedHeapPages if slotted is true.
+     *
+     * @see HeapFile#HeapFile(File, TupleDesc, boolean)
+     */
+    public MappedHeapFile(File f, TupleDesc td, boolean slotted) {
+        super(f, td, slotted);
+    }
+
+    /**
+     * Constructs a mapped heap file backed by the specified file, with pages
+     * of pageSize bytes.
+     *
+     * @see HeapFile#HeapFile(File, TupleDesc, boolean, int)
+     */
+    public MappedHeapFile(File f, TupleDesc td, boolean slotted, int pageSize) {
+        super(f, td, slotted, pageSize);
+    }
+
+    // see DbFile.java for javadocs
+    public Page readPage(PageId pid) {
+        HeapPageId hpid = (HeapPageId) pid;
+        try {
+            synchronized (this) {
+                ByteBuffer data = pageSlice(hpid.pageNumber());
+                if (data == null)
+                    return newPage(hpid, ByteBuffer.wrap(HeapPage.createEmptyPageData(getPageSize())));
+                HeapPage page = newPage(hpid, data);
+                addView(hpid.pageNumber(), page);
+                return page;
+            }
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    //remember that page was read from a slice of page pgNo
+    private void addView(int pgNo, HeapPage page) {
+        if (views == null)
+            views = new HashMap<Integer, List<WeakReference<HeapPage>>>();
+        List<WeakReference<HeapPage>> l = views.get(pgNo);
+        if (l == null) {
+            l = new ArrayList<WeakReference<HeapPage>>();
+            views.put(pgNo, l);
+        }
+        for (Iterator<WeakReference<HeapPage>> it = l.iterator(); it.hasNext();) {
+            if (it.next().get() == null)
+                it.remove();
+        }
+        l.add(new WeakReference<HeapPage>(page));
+    }
+
+    //make the pages read from page pgNo copy its bytes, before they change
+    private void detachViews(int pgNo) {
+        List<WeakReference<HeapPage>> l = views == null ? null : views.remove(pgNo);
+        if (l == null)
+            return;
+        for (WeakReference<HeapPage> ref : l) {
+            HeapPage page = ref.get();
+            if (page != null)
+                page.detach();
+        }
+    }
+
+    /**
+     * Detaches the pages read from page pgNo before writing it, as they
+     * view the bytes the write replaces.
+     */
+    synchronized void writePageData(int pgNo, ByteBuffer data) throws IOException {
+        detachViews(pgNo);
+        super.writePageData(pgNo, data);
+    }
+
+    //the pages are already views of the mapped file, off the heap
+    boolean readsIntoFrames() {
+        return false;
+    }
+
+    /**
+     * Drops the mappings that reach past the new end of the file before
+     * cutting it, as touching a mapping past the end of its file faults;
+     * the next read of a page in the last region maps it again. The pages
+     * read from the dropped pages are detached first, so none of them
+     * views the mappings, which are unmapped once they are collected.
+     */
+    synchronized void truncatePages(int numPages) throws IOException {
+        if (views != null) {
+            for (Integer pgNo : new ArrayList<Integer>(views.keySet())) {
+                if (pgNo >= numPages)
+                    detachViews(pgNo);
+            }
+        }
+        if (regions != null) {
+            for (int r = numPages / REGION_PAGES; r < regions.size(); r++)
+                regions.set(r, null);
+        }
+        super.truncatePages(numPages);
+    }
+
+    /**
+     * Returns a read-only view of page pgNo in the mapped file, or null if the
+     * page lies past the end of the file.
+     */
+    synchronized ByteBuffer pageSlice(int pgNo) throws IOException {
+        int pageSize = getPageChannel().getPageSize();
+        long regionBytes = (long) REGION_PAGES * pageSize;
+        long regionStart = (pgNo / REGION_PAGES) * regionBytes;
+        int offset = (pgNo % REGION_PAGES) * pageSize;
+
+        if (regions == null)
+            regions = new ArrayList<MappedByteBuffer>();
+        int r = pgNo / REGION_PAGES;
+        while (regions.size() <= r)
+            regions.add(null);
+
+        MappedByteBuffer region = regions.get(r);
+        if (region == null || region.capacity() < offset + pageSize) {
+            //map (or grow the mapping of) this region up to the end of file
+            long fileSize = getPageChannel().size();
+            long length = Math.min(regionBytes, fileSize - regionStart);
+            if (length < offset + pageSize)
+                return null;
+            region = getPageChannel().map(regionStart, length);
+            regions.set(r, region);
+        }
+
+        ByteBuffer slice = region.duplicate();
+        slice.position(offset);
+        slice.limit(offset + pageSize);
+        return slice.slice();
+    }
+}
@@ -0,0 +1,25 @@
+package simpledb;
+
+/**
+ * Node is a page cached in a BufferPartition and what the partition knows
+ * of it. Its fields are guarded by the latch of the partition.
+ */
+class Node {
+    PageId pageId;
+    Page page;
+    //read ahead of a scan and not used since
+    boolean prefetched = false;
+    //the ring of the scan that read the page, while no one else used it
+    BufferRing ring = null;
+    //the frame of the arena the page was read into, or -1, and the page
+    //that is a view of it
+    int frame = -1;
+    HeapPage framed = null;
+    //bytes in the page
+    int size;
+
+    public Node(PageId id, Page p) {
+        this.pageId = id;
+        this.page = p;
+    }
+}
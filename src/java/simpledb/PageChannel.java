@@ -0,0 +1,198 @@
+package simpledb;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+
+/**
+ * PageChannel is the page I/O layer shared by the DbFile implementations.
+ * It keeps one FileChannel open on the backing file for as long as the
+ * DbFile is in use and moves whole pages with positional reads and writes,
+ * so a buffer pool miss costs a single pread() rather than an
+ * open/skip/read/close sequence.
+ * <p>
+ * Positional channel operations are safe to issue from several threads at
+ * once; the channel itself is only opened (and re-opened, if an interrupted
+ * thread closed it) under the PageChannel monitor.
+ *
+ * @see HeapFile
+ */
+public class PageChannel {
+
+    private final File file;
+    private final int pageSize;
+
+    private RandomAccessFile raf = null;
+    private volatile FileChannel channel = null;
+
+    /**
+     * Creates a page channel over the specified file. The file is not opened
+     * until the first page is read or written.
+     *
+     * @param f the file to read pages from and write pages to
+     * @param pageSize the number of bytes in a page of this file
+     */
+    public PageChannel(File f, int pageSize) {
+        this.file = f;
+        this.pageSize = pageSize;
+    }
+
+    /** @return the file behind this channel */
+    public File getFile() {
+        return file;
+    }
+
+    /** @return the number of bytes per page of this channel */
+    public int getPageSize() {
+        return pageSize;
+    }
+
+    //open the channel on first use, or again if an interrupt closed it
+    private synchronized FileChannel open() throws IOException {
+        if (channel == null || !channel.isOpen()) {
+            if (raf != null) {
+                try {
+                    raf.close();
+                } catch (IOException e) {
+                    //the old descriptor is useless anyway
+                }
+            }
+            raf = file.exists() && !file.canWrite()
+                    ? new RandomAccessFile(file, "r")
+                    : new RandomAccessFile(file, "rw");
+            channel = raf.getChannel();
+        }
+        return channel;
+    }
+
+    private FileChannel channel() throws IOException {
+        FileChannel ch = channel;
+        if (ch == null || !ch.isOpen())
+            ch = open();
+        return ch;
+    }
+
+    /**
+     * Reads page pgNo into dst, starting at dst's position and filling it up
+     * to its limit. Bytes past the end of the file are returned as zeroes.
+     */
+    public void readPage(int pgNo, ByteBuffer dst) throws IOException {
+        long position = (long) pgNo * pageSize;
+        int start = dst.position();
+        for (int retry = 0; ; retry++) {
+            try {
+                FileChannel ch = channel();
+                dst.position(start);
+                long pos = position;
+                while (dst.hasRemaining()) {
+                    int n = ch.read(dst, pos);
+                    if (n < 0)
+                        break;
+                    pos += n;
+                }
+                while (dst.hasRemaining())
+                    dst.put((byte) 0);
+                return;
+            } catch (ClosedChannelException e) {
+                if (retry > 0)
+                    throw e;
+            }
+        }
+    }
+
+    /**
+     * Reads page pgNo into a new byte array of getPageSize() bytes.
+     */
+    public byte[] readPage(int pgNo) throws IOException {
+        byte[] data = new byte[pageSize];
+        readPage(pgNo, ByteBuffer.wrap(data));
+        return data;
+    }
+
+    /**
+     * Writes the remaining bytes of src at the start of page pgNo, growing
+     * the file if pgNo is past its end. src may hold several consecutive
+     * pages, which are then written with one call.
+     */
+    public void writePage(int pgNo, ByteBuffer src) throws IOException {
+        long position = (long) pgNo * pageSize;
+        int start = src.position();
+        for (int retry = 0; ; retry++) {
+            try {
+                FileChannel ch = channel();
+                src.position(start);
+                long pos = position;
+                while (src.hasRemaining())
+                    pos += ch.write(src, pos);
+                return;
+            } catch (ClosedChannelException e) {
+                if (retry > 0)
+                    throw e;
+            }
+        }
+    }
+
+    /**
+     * Writes data at the start of page pgNo.
+     */
+    public void writePage(int pgNo, byte[] data) throws IOException {
+        writePage(pgNo, ByteBuffer.wrap(data));
+    }
+
+    /**
+     * Maps length bytes of the backing file, starting at position, read-only
+     * into memory. The mapping is shared with the file, so pages written
+     * through this channel later are visible through it.
+     */
+    public MappedByteBuffer map(long position, long length) throws IOException {
+        return channel().map(FileChannel.MapMode.READ_ONLY, position, length);
+    }
+
+    /**
+     * @return the length of the backing file in bytes, or 0 if the file
+     *   does not exist yet.
+     */
+    public long size() throws IOException {
+        if (channel == null && !file.exists())
+            return 0;
+        return channel().size();
+    }
+
+    /**
+     * @return the number of whole pages in the backing file
+     */
+    public int numPages() {
+        try {
+            return (int) (size() / pageSize);
+        } catch (IOException e) {
+            return (int) (file.length() / pageSize);
+        }
+    }
+
+    /**
+     * Cuts the backing file down to its first numPages pages. Nothing
+     * happens if the file is not longer than that.
+     */
+    public void truncate(int numPages) throws IOException {
+        long length = (long) numPages * pageSize;
+        if (length < size())
+            channel().truncate(length);
+    }
+
+    /** Forces all written pages to the storage device. */
+    public void force() throws IOException {
+        if (channel != null)
+            channel().force(false);
+    }
+
+    /** Closes the channel; it will be reopened on the next page access. */
+    public synchronized void close() throws IOException {
+        if (raf != null) {
+            raf.close();
+            raf = null;
+        }
+        channel = null;
+    }
+}
@@ -0,0 +1,339 @@
+package simpledb;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.util.concurrent.*;
+
+/**
+ * ParallelHeapFileEncoder converts a delimited text file into a heap file,
+ * like HeapFileEncoder, but parses and encodes on a pool of worker threads.
+ * <p>
+ * One reader thread streams the input and cuts it into chunks of exactly
+ * PAGES_PER_CHUNK pages worth of rows, so the page number at which every
+ * chunk starts is known before it is parsed. Workers take chunks from a
+ * bounded queue, encode them into complete page images and write those at
+ * their final offset in the output file with a positional PageChannel
+ * write, so chunks can finish in any order. At most a few chunks per worker
+ * are held in memory at any time, whatever the size of the input.
+ * <p>
+ * The input format is the one described in HeapFileEncoder: one row per
+ * line, fields separated by a single separator character. Blank lines and
+ * '\r' characters are ignored, missing trailing fields are left zero and a
+ * last line without a line terminator is still converted.
+ *
+ * @see HeapFileEncoder
+ * @see HeapPage
+ */
+public class ParallelHeapFileEncoder {
+
+    /** Number of pages of rows in one unit of work. */
+    public static final int PAGES_PER_CHUNK = 64;
+
+    //size of the reads from the input file
+    private static final int READ_SIZE = 1 << 16;
+
+    /** Counts and timing of one conversion. */
+    public static class Result {
+        /** Number of rows converted. */
+        public final long rows;
+        /** Number of pages written. */
+        public final int pages;
+        /** Number of bytes read from the input file. */
+        public final long inputBytes;
+        /** Wall clock time of the conversion, in nanoseconds. */
+        public final long nanos;
+
+        Result(long rows, int pages, long inputBytes, long nanos) {
+            this.rows = rows;
+            this.pages = pages;
+            this.inputBytes = inputBytes;
+            this.nanos = nanos;
+        }
+
+        /** @return rows converted per second */
+        public double rowsPerSecond() {
+            return rows / (nanos / 1e9);
+        }
+
+        /** @return megabytes of input converted per second */
+        public double mbPerSecond() {
+            return inputBytes / (double) (1 << 20) / (nanos / 1e9);
+        }
+
+        public String toString() {
+            return String.format("%d rows, %d pages in %.2f s: %.0f rows/s, %.1f MB/s",
+                    rows, pages, nanos / 1e9, rowsPerSecond(), mbPerSecond());
+        }
+    }
+
+    //a run of whole lines of the input holding the rows of the pages
+    //starting at page firstPage
+    private static class Chunk {
+        final int firstPage;
+        final byte[] data;
+        final int rows;
+
+        Chunk(int firstPage, byte[] data, int rows) {
+            this.firstPage = firstPage;
+            this.data = data;
+            this.rows = rows;
+        }
+    }
+
+    //marks the end of the input on the work queue
+    private static final Chunk END = new Chunk(-1, null, 0);
+
+    private final int npagebytes;
+    private final Type[] typeAr;
+    private final byte fieldSeparator;
+    private final int nrecbytes;
+    private final int nrecords;
+    private final int nheaderbytes;
+
+    private ParallelHeapFileEncoder(int npagebytes, int numFields, Type[] typeAr,
+            char fieldSeparator) {
+        this.npagebytes = npagebytes;
+        this.typeAr = typeAr;
+        this.fieldSeparator = (byte) fieldSeparator;
+        int recbytes = 0;
+        for (int i = 0; i < numFields; i++)
+            recbytes += typeAr[i].getLen();
+        this.nrecbytes = recbytes;
+        this.nrecords = (npagebytes * 8) / (nrecbytes * 8 + 1);
+        this.nheaderbytes = (nrecords + 7) / 8;
+    }
+
+    /**
+     * Converts inFile into a heap file in outFile, using one worker thread
+     * per available processor.
+     *
+     * @see #convert(File, File, int, int, Type[], char, int)
+     */
+    public static Result convert(File inFile, File outFile, int npagebytes,
+            int numFields, Type[] typeAr, char fieldSeparator) throws IOException {
+        return convert(inFile, outFile, npagebytes, numFields, typeAr, fieldSeparator,
+                Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Converts inFile into a heap file in outFile.
+     *
+     * @param inFile The input file to read data from
+     * @param outFile The output file to write data to; it is truncated first
+     * @param npagebytes The number of bytes per page in the output file
+     * @param numFields the number of fields in each input line/output tuple
+     * @param typeAr the types of the fields
+     * @param fieldSeparator the character between the fields of a line
+     * @param numWorkers the number of threads parsing and encoding pages
+     * @return the number of rows and pages written and the conversion rate
+     * @throws IOException if the input/output file can't be opened or a line
+     *   has more than numFields fields
+     */
+    public static Result convert(File inFile, File outFile, int npagebytes,
+            int numFields, Type[] typeAr, char fieldSeparator, int numWorkers)
+            throws IOException {
+        return new ParallelHeapFileEncoder(npagebytes, numFields, typeAr, fieldSeparator)
+                .run(inFile, outFile, Math.max(1, numWorkers));
+    }
+
+    private Result run(File inFile, File outFile, int numWorkers) throws IOException {
+        long start = System.nanoTime();
+        new FileOutputStream(outFile).close();
+        final PageChannel out = new PageChannel(outFile, npagebytes);
+        final BlockingQueue<Chunk> queue = new ArrayBlockingQueue<Chunk>(2 * numWorkers);
+        ExecutorService workers = Executors.newFixedThreadPool(numWorkers);
+        CompletionService<Void> done = new ExecutorCompletionService<Void>(workers);
+        for (int i = 0; i < numWorkers; i++) {
+            done.submit(new Callable<Void>() {
+                public Void call() throws Exception {
+                    for (Chunk c = queue.take(); c != END; c = queue.take())
+                        encode(c, out);
+                    queue.put(END);
+                    return null;
+                }
+            });
+        }
+
+        long rows = 0;
+        long inputBytes = 0;
+        int pages = 0;
+        try {
+            //cut the input into chunks of whole pages of rows
+            int chunkRows = PAGES_PER_CHUNK * nrecords;
+            InputStream in = new FileInputStream(inFile);
+            try {
+                ByteArrayOutputStream current = new ByteArrayOutputStream();
+                byte[] block = new byte[READ_SIZE];
+                int inChunk = 0;
+                boolean lineHasData = false;
+                int n;
+                while ((n = in.read(block)) > 0) {
+                    inputBytes += n;
+                    int segStart = 0;
+                    for (int i = 0; i < n; i++) {
+                        byte b = block[i];
+                        if (b == '\n') {
+                            if (!lineHasData)
+                                continue;
+                            lineHasData = false;
+                            if (++inChunk == chunkRows) {
+                                current.write(block, segStart, i + 1 - segStart);
+                                segStart = i + 1;
+                                pages += submit(queue, done, pages, current, inChunk);
+                                rows += inChunk;
+                                inChunk = 0;
+                            }
+                        } else if (b != '\r') {
+                            lineHasData = true;
+                        }
+                    }
+                    current.write(block, segStart, n - segStart);
+                }
+                if (lineHasData)
+                    inChunk++;
+                if (inChunk > 0) {
+                    pages += submit(queue, done, pages, current, inChunk);
+                    rows += inChunk;
+                }
+            } finally {
+                in.close();
+            }
+            offer(queue, done, END);
+            for (int i = 0; i < numWorkers; i++)
+                done.take().get();
+
+            //like HeapFileEncoder, an empty input still gets one empty page
+            if (pages == 0) {
+                out.writePage(0, new byte[npagebytes]);
+                pages = 1;
+            }
+            out.force();
+        } catch (InterruptedException e) {
+            throw new IOException("conversion interrupted", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException)
+                throw (IOException) e.getCause();
+            throw new IOException(e.getCause());
+        } finally {
+            workers.shutdownNow();
+            out.close();
+        }
+        return new Result(rows, pages, inputBytes, System.nanoTime() - start);
+    }
+
+    //queue the rows in current as the chunk starting at page firstPage,
+    //and return the number of pages they fill
+    private int submit(BlockingQueue<Chunk> queue, CompletionService<Void> done,
+            int firstPage, ByteArrayOutputStream current, int rows)
+            throws InterruptedException, ExecutionException {
+        Chunk c = new Chunk(firstPage, current.toByteArray(), rows);
+        current.reset();
+        offer(queue, done, c);
+        return (rows + nrecords - 1) / nrecords;
+    }
+
+    //wait for room on the queue, giving up if a worker has failed
+    private static void offer(BlockingQueue<Chunk> queue, CompletionService<Void> done,
+            Chunk c) throws InterruptedException, ExecutionException {
+        while (!queue.offer(c, 100, TimeUnit.MILLISECONDS)) {
+            Future<Void> f = done.poll();
+            if (f != null)
+                f.get();
+        }
+    }
+
+    //parse the rows of c into page images and write them to out
+    private void encode(Chunk c, PageChannel out) throws IOException {
+        int numPages = (c.rows + nrecords - 1) / nrecords;
+        ByteBuffer pages = ByteBuffer.allocate(numPages * npagebytes);
+        byte[] data = c.data;
+        int row = 0;
+        int pos = 0;
+        while (pos < data.length && row < c.rows) {
+            int end = pos;
+            while (end < data.length && data[end] != '\n')
+                end++;
+            if (hasData(data, pos, end)) {
+                int page = row / nrecords;
+                int slot = row % nrecords;
+                int base = page * npagebytes;
+                pages.put(base + slot / 8, (byte) (pages.get(base + slot / 8) | (1 << (slot % 8))));
+                encodeRow(data, pos, end, pages, base + nheaderbytes + slot * nrecbytes);
+                row++;
+            }
+            pos = end + 1;
+        }
+        out.writePage(c.firstPage, pages);
+    }
+
+    private static boolean hasData(byte[] data, int from, int to) {
+        for (int i = from; i < to; i++) {
+            if (data[i] != '\r')
+                return true;
+        }
+        return false;
+    }
+
+    //encode the fields of the line data[from, to) at offset of dst
+    private void encodeRow(byte[] data, int from, int to, ByteBuffer dst, int offset)
+            throws IOException {
+        int fieldNo = 0;
+        int fieldStart = from;
+        for (int i = from; i <= to; i++) {
+            if (i < to && data[i] != fieldSeparator)
+                continue;
+            if (fieldNo >= typeAr.length)
+                throw new IOException("line has more than " + typeAr.length + " fields: "
+                        + new String(data, from, to - from));
+            if (typeAr[fieldNo] == Type.INT_TYPE) {
+                dst.putInt(offset, parseInt(data, fieldStart, i));
+            } else if (typeAr[fieldNo] == Type.STRING_TYPE) {
+                int s = fieldStart;
+                int e = i;
+                while (s < e && isBlank(data[s]))
+                    s++;
+                while (e > s && isBlank(data[e - 1]))
+                    e--;
+                int len = 0;
+                for (int j = s; j < e && len < Type.STRING_LEN; j++) {
+                    if (data[j] != '\r')
+                        dst.put(offset + 4 + len++, data[j]);
+                }
+                dst.putInt(offset, len);
+            }
+            offset += typeAr[fieldNo].getLen();
+            fieldNo++;
+            fieldStart = i + 1;
+        }
+    }
+
+    private static boolean isBlank(byte b) {
+        return b == ' ' || b == '\t' || b == '\r';
+    }
+
+    //parse an int field, printing it and returning 0 if it is malformed
+    private static int parseInt(byte[] data, int from, int to) {
+        while (from < to && isBlank(data[from]))
+            from++;
+        while (to > from && isBlank(data[to - 1]))
+            to--;
+        boolean negative = from < to && data[from] == '-';
+        int i = negative || (from < to && data[from] == '+') ? from + 1 : from;
+        long value = 0;
+        boolean ok = i < to && to - i <= 10;
+        for (; ok && i < to; i++) {
+            int d = data[i] - '0';
+            if (d < 0 || d > 9)
+                ok = false;
+            else
+                value = value * 10 + d;
+        }
+        if (negative)
+            value = -value;
+        if (!ok || value < Integer.MIN_VALUE || value > Integer.MAX_VALUE) {
+            System.out.println("BAD LINE : " + new String(data, from, to - from));
+            return 0;
+        }
+        return (int) value;
+    }
+}
@@ -342,6 +342,7 @@ public class Parser {
         Tuple t = new Tuple(td);
         int i = 0;
         DbIterator newTups;
+        boolean bulk = false;
 
         if (s.getValues() != null) {
             @SuppressWarnings("unchecked")
@@ -389,9 +390,19 @@ public class Parser {
             ZQuery zq = (ZQuery) s.getQuery();
             LogicalPlan lp = parseQueryLogicalPlan(tId, zq);
             newTups = lp.physicalPlan(tId, TableStats.getStatsMap(), explain);
+
+            //load the result of the select page by page, unless the select
+            //reads the table itself and would see the appended pages
+            bulk = true;
+            @SuppressWarnings("unchecked")
+            Vector<ZFromItem> from = (Vector<ZFromItem>) zq.getFrom();
+            for (ZFromItem fromIt : from) {
+                if (fromIt.getTable().equals(s.getTable()))
+                    bulk = false;
+            }
         }
         Query insertQ = new Query(tId);
-        insertQ.setPhysicalPlan(new Insert(tId, newTups, tableId));
+        insertQ.setPhysicalPlan(new Insert(tId, newTups, tableId, bulk));
         return insertQ;
     }
 
@@ -464,6 +475,132 @@ public class Parser {
         }
     }
 
+    /**
+     * Compacts the named table (see Vacuum), outside of any user
+     * transaction, and reports how many pages it shrank by.
+     */
+    public void handleVacuumStatement(String tableName) {
+        if (inUserTrans) {
+            System.out.println("Can't vacuum inside a transaction; commit or rollback first.");
+            return;
+        }
+        int tableId;
+        try {
+            tableId = Database.getCatalog().getTableId(tableName);
+        } catch (NoSuchElementException e) {
+            System.out.println("Unknown table " + tableName);
+            return;
+        }
+        DbFile f = Database.getCatalog().getDbFile(tableId);
+        //a partitioned table is vacuumed partition by partition
+        List<HeapFile> files = new ArrayList<HeapFile>();
+        if (f instanceof PartitionedFile) {
+            for (int i = 0; i < ((PartitionedFile) f).numPartitions(); i++)
+                files.add(((PartitionedFile) f).getPartition(i));
+        } else if (f instanceof HeapFile) {
+            files.add((HeapFile) f);
+        } else {
+            System.out.println("Only heap file tables can be vacuumed.");
+            return;
+        }
+        try {
+            int before = 0;
+            int after = 0;
+            for (HeapFile hf : files) {
+                before += hf.numPages();
+                //a vacuum started by deletes may do the work meanwhile
+                Vacuum.vacuum(hf);
+                after += hf.numPages();
+            }
+            System.out.println("Vacuumed " + tableName + ": " + before + " -> "
+                    + after + " pages");
+        } catch (DbException e) {
+            e.printStackTrace();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Builds a hash index (see HashIndexFile) on a column of the named table,
+     * outside of any user transaction, and adds it to the catalog so later
+     * inserts and deletes maintain it and the planner may probe it. The
+     * statement is
+     * <pre>create index on table [(column)]</pre>
+     * where the column defaults to the table's primary key.
+     */
+    public void handleCreateIndexStatement(String args) {
+        if (inUserTrans) {
+            System.out.println("Can't create an index inside a transaction; commit or rollback first.");
+            return;
+        }
+        String tableName = args;
+        String column = null;
+        if (args.indexOf("(") >= 0 && args.endsWith(")")) {
+            tableName = args.substring(0, args.indexOf("(")).trim();
+            column = args.substring(args.indexOf("(") + 1, args.length() - 1).trim();
+        }
+        int tableId;
+        try {
+            tableId = Database.getCatalog().getTableId(tableName);
+        } catch (NoSuchElementException e) {
+            System.out.println("Unknown table " + tableName);
+            return;
+        }
+        if (column == null || column.length() == 0)
+            column = Database.getCatalog().getPrimaryKey(tableId);
+        DbFile f = Database.getCatalog().getDbFile(tableId);
+        if (!(f instanceof HeapFile)) {
+            System.out.println("Only heap file tables can be indexed.");
+            return;
+        }
+        HeapFile hf = (HeapFile) f;
+        int keyField;
+        try {
+            keyField = hf.getTupleDesc().fieldNameToIndex(column);
+        } catch (NoSuchElementException e) {
+            System.out.println("Unknown column " + column + " of " + tableName);
+            return;
+        }
+        File file = HashIndexFile.indexFile(hf.getFile(), column);
+        for (IndexFile index : Database.getCatalog().getIndexes(tableId)) {
+            if (index instanceof HashIndexFile && index.getKeyField() == keyField) {
+                System.out.println("Index " + file.getName() + " already exists.");
+                return;
+            }
+        }
+        HashIndexFile index = new HashIndexFile(file, hf, keyField);
+        //keep the table's pages read locked until the index is added, so
+        //that a vacuum cannot move tuples the index was built from
+        Transaction t = new Transaction();
+        t.start();
+        boolean built = false;
+        try {
+            index.build(t.getId());
+            Database.getCatalog().addIndex(tableId, index);
+            built = true;
+        } catch (DbException e) {
+            e.printStackTrace();
+        } catch (TransactionAbortedException e) {
+            e.printStackTrace();
+        } catch (IOException e) {
+            e.printStackTrace();
+        } finally {
+            try {
+                if (built)
+                    t.commit();
+                else
+                    t.abort();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+        if (!built)
+            return;
+        System.out.println("Created index " + file.getName() + ": "
+                + index.numPages() + " pages");
+    }
+
     public LogicalPlan generateLogicalPlan(TransactionId tid, String s)
             throws simpledb.ParsingException {
         ByteArrayInputStream bis = new ByteArrayInputStream(s.getBytes());
@@ -582,7 +719,7 @@ public class Parser {
     // Basic SQL completions
     public static final String[] SQL_COMMANDS = { "select", "from", "where",
             "group by", "max(", "min(", "avg(", "count", "rollback", "commit",
-            "insert", "delete", "values", "into" };
+            "insert", "delete", "values", "into", "vacuum", "create index on" };
 
     public static void main(String argv[]) throws IOException {
 
@@ -677,8 +814,15 @@ public class Parser {
                     }
 
                     long startTime = System.currentTimeMillis();
-                    processNextStatement(new ByteArrayInputStream(
-                            statementBytes));
+                    if (cmd.toLowerCase().startsWith("vacuum "))
+                        handleVacuumStatement(cmd.substring(7,
+                                cmd.length() - 1).trim());
+                    else if (cmd.toLowerCase().startsWith("create index on "))
+                        handleCreateIndexStatement(cmd.substring(16,
+                                cmd.length() - 1).trim());
+                    else
+                        processNextStatement(new ByteArrayInputStream(
+                                statementBytes));
                     long time = System.currentTimeMillis() - startTime;
                     System.out.printf("----------------\n%.2f seconds\n\n",
                             ((double) time / 1000.0));
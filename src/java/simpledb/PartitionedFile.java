@@ -0,0 +1,284 @@
+package simpledb;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * PartitionedFile is a DbFile whose tuples are spread over several
+ * HeapFiles, the partitions, by the value of one column, the partition
+ * column. With range partitioning, k increasing bounds b1 < ... < bk cut the
+ * int values into k + 1 partitions: partition 0 holds the values below b1,
+ * partition i those in [bi, bi+1), and partition k those from bk up. With
+ * hash partitioning, a tuple goes to partition hash(value) mod n.
+ * <p>
+ * Each partition is a table file of its own, registered in the catalog by
+ * its own id (but under no name), so the pages of a partition are the pages
+ * of that HeapFile and tuples keep RecordIds in it; the PartitionedFile
+ * itself has no pages. Inserts are routed to the partition of the tuple,
+ * deletes go to the partition the tuple's RecordId names. A scan can leave
+ * out the partitions a predicate on the partition column rules out, and read
+ * the others in parallel.
+ *
+ * @see PartitionedScan
+ * @see Catalog#loadSchema
+ */
+public class PartitionedFile implements DbFile {
+
+    private static final long serialVersionUID = 1L;
+
+    private final File file;
+    private final TupleDesc td;
+    //index of the partition column
+    private final int column;
+    //the range bounds, or null for hash partitioning
+    private final int[] bounds;
+    private final HeapFile[] parts;
+
+    /**
+     * Creates a range-partitioned file.
+     *
+     * @param f
+     *            the file that names this table; it holds no data, and
+     *            f.getAbsoluteFile().hashCode() is the id of the table
+     * @param td
+     *            the schema of the table and of every partition
+     * @param column
+     *            the index of the partition column, which must be an int
+     *            column
+     * @param bounds
+     *            the increasing lower bounds of partitions 1 and up
+     * @param parts
+     *            the partitions, one more than there are bounds
+     */
+    public PartitionedFile(File f, TupleDesc td, int column, int[] bounds, HeapFile[] parts) {
+        if (td.getFieldType(column) != Type.INT_TYPE)
+            throw new IllegalArgumentException("range partition column must be an int column");
+        if (parts.length != bounds.length + 1)
+            throw new IllegalArgumentException("need " + (bounds.length + 1) + " partitions");
+        for (int i = 1; i < bounds.length; i++)
+            if (bounds[i] <= bounds[i - 1])
+                throw new IllegalArgumentException("partition bounds must increase");
+        this.file = f;
+        this.td = td;
+        this.column = column;
+        this.bounds = bounds.clone();
+        this.parts = parts.clone();
+    }
+
+    /**
+     * Creates a hash-partitioned file over parts.length partitions.
+     *
+     * @see #PartitionedFile(File, TupleDesc, int, int[], HeapFile[])
+     */
+    public PartitionedFile(File f, TupleDesc td, int column, HeapFile[] parts) {
+        if (parts.length == 0)
+            throw new IllegalArgumentException("need at least one partition");
+        this.file = f;
+        this.td = td;
+        this.column = column;
+        this.bounds = null;
+        this.parts = parts.clone();
+    }
+
+    /**
+     * @return the file of partition i of the table in file f, which is f
+     *   with ".p" and i inserted before its extension
+     */
+    public static File partitionFile(File f, int i) {
+        String name = f.getName();
+        int dot = name.lastIndexOf('.');
+        String part = dot < 0 ? name + ".p" + i
+                : name.substring(0, dot) + ".p" + i + name.substring(dot);
+        return new File(f.getParentFile(), part);
+    }
+
+    /** @return true if the partitions are ranges, false if hashed */
+    public boolean isRangePartitioned() {
+        return bounds != null;
+    }
+
+    /** @return the index of the partition column */
+    public int getPartitionColumn() {
+        return column;
+    }
+
+    /** @return the number of partitions */
+    public int numPartitions() {
+        return parts.length;
+    }
+
+    /** @return partition i */
+    public HeapFile getPartition(int i) {
+        return parts[i];
+    }
+
+    /** @return the total number of pages of the partitions */
+    public int numPages() {
+        int n = 0;
+        for (HeapFile hf : parts)
+            n += hf.numPages();
+        return n;
+    }
+
+    /**
+     * @return the index of the partition that holds tuples whose partition
+     *   column is v
+     */
+    public int partitionOf(Field v) {
+        if (bounds == null) {
+            int h = v.hashCode() % parts.length;
+            return h < 0 ? h + parts.length : h;
+        }
+        int x = ((IntField) v).getValue();
+        //the number of bounds at or below x
+        int lo = 0, hi = bounds.length;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (bounds[mid] <= x)
+                lo = mid + 1;
+            else
+                hi = mid;
+        }
+        return lo;
+    }
+
+    /**
+     * Returns, for each partition, whether it may hold a tuple that
+     * satisfies p. Predicates on other columns rule no partition out, and
+     * hash partitions are only told apart by equality.
+     */
+    public boolean[] partitionsMatching(Predicate p) {
+        boolean[] keep = new boolean[parts.length];
+        Field v = p.getOperand();
+        boolean equality = p.getOp() == Predicate.Op.EQUALS
+                || (p.getOp() == Predicate.Op.LIKE && v instanceof IntField);
+        if (p.getField() != column || v.getType() != td.getFieldType(column)) {
+            Arrays.fill(keep, true);
+        } else if (bounds == null) {
+            if (equality)
+                keep[partitionOf(v)] = true;
+            else
+                Arrays.fill(keep, true);
+        } else {
+            int x = ((IntField) v).getValue();
+            for (int i = 0; i < parts.length; i++) {
+                int min = i == 0 ? Integer.MIN_VALUE : bounds[i - 1];
+                int max = i == bounds.length ? Integer.MAX_VALUE : bounds[i] - 1;
+                keep[i] = ZoneMap.mayMatch(min, max, p.getOp(), x);
+            }
+        }
+        return keep;
+    }
+
+    //the partition whose id is tableId
+    private HeapFile partition(int tableId) {
+        for (HeapFile hf : parts)
+            if (hf.getId() == tableId)
+                return hf;
+        throw new IllegalArgumentException("page of table " + tableId
+                + " is not in a partition of " + file.getName());
+    }
+
+    /**
+     * The partitions are registered in the catalog, so their pages are read
+     * through them; this reads a page of the partition pid names.
+     */
+    public Page readPage(PageId pid) {
+        return partition(pid.getTableId()).readPage(pid);
+    }
+
+    public void writePage(Page page) throws IOException {
+        partition(page.getId().getTableId()).writePage(page);
+    }
+
+    /**
+     * Returns the File naming this table; it holds no tuples.
+     */
+    public File getFile() {
+        return file;
+    }
+
+    /**
+     * @return an ID uniquely identifying this table, see HeapFile#getId
+     */
+    public int getId() {
+        return file.getAbsoluteFile().hashCode();
+    }
+
+    public TupleDesc getTupleDesc() {
+        return td;
+    }
+
+    // see DbFile.java for javadocs
+    public ArrayList<Page> insertTuple(TransactionId tid, Tuple t)
+            throws DbException, IOException, TransactionAbortedException {
+        return parts[partitionOf(t.getField(column))].insertTuple(tid, t);
+    }
+
+    // see DbFile.java for javadocs
+    public Page deleteTuple(TransactionId tid, Tuple t) throws DbException,
+            TransactionAbortedException {
+        if (t.getRecordId() == null)
+            throw new DbException("tuple has no record id");
+        return partition(t.getRecordId().getPageId().getTableId()).deleteTuple(tid, t);
+    }
+
+    // see DbFile.java for javadocs
+    public DbFileIterator iterator(TransactionId tid) {
+        boolean[] all = new boolean[parts.length];
+        Arrays.fill(all, true);
+        return iterator(tid, all);
+    }
+
+    /**
+     * Returns an iterator over the partitions i for which keep[i] is true,
+     * one after another.
+     */
+    public DbFileIterator iterator(final TransactionId tid, final boolean[] keep) {
+        return new DbFileIterator() {
+            //nothing is returned before open()
+            private int part = parts.length;
+            private DbFileIterator it = null;
+
+            public void open() throws DbException, TransactionAbortedException {
+                part = -1;
+                it = null;
+            }
+
+            public boolean hasNext() throws DbException, TransactionAbortedException {
+                while (it == null || !it.hasNext()) {
+                    if (it != null)
+                        it.close();
+                    it = null;
+                    do {
+                        part++;
+                    } while (part < parts.length && !keep[part]);
+                    if (part >= parts.length)
+                        return false;
+                    it = parts[part].iterator(tid);
+                    it.open();
+                }
+                return true;
+            }
+
+            public Tuple next() throws DbException, TransactionAbortedException,
+                    NoSuchElementException {
+                if (!hasNext())
+                    throw new NoSuchElementException();
+                return it.next();
+            }
+
+            public void rewind() throws DbException, TransactionAbortedException {
+                close();
+                open();
+            }
+
+            public void close() {
+                if (it != null)
+                    it.close();
+                it = null;
+                part = parts.length;
+            }
+        };
+    }
+}
@@ -0,0 +1,251 @@
+package simpledb;
+
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * PartitionedScan is a sequential scan of a table stored in a
+ * PartitionedFile. Predicates on the partition column rule out the
+ * partitions that cannot hold a matching tuple, which are then not read at
+ * all; the other partitions are scanned at the same time, each on a thread
+ * of its own, and their tuples are returned as they arrive, in no
+ * particular order.
+ * <p>
+ * All threads fetch pages as part of the scan's transaction. They hand
+ * their tuples over in batches through a bounded queue, so a scan whose
+ * consumer is slow does not pull its partitions into memory ahead of it.
+ *
+ * @see PartitionedFile
+ * @see LogicalPlan#physicalPlan
+ */
+public class PartitionedScan extends SeqScan {
+
+    private static final long serialVersionUID = 1L;
+
+    /** Number of tuples a partition thread hands over at a time. */
+    public static final int BATCH_TUPLES = 256;
+    /** Number of batches per partition thread the queue holds at most. */
+    public static final int QUEUED_BATCHES = 4;
+
+    //threads for the partitions of all scans; a scan's threads only wait
+    //for its consumer, so scans running inside each other (as the inner
+    //and outer of a join do) need threads of their own
+    private static ExecutorService workers = null;
+
+    private final TransactionId tid;
+    private final PartitionedFile pf;
+    //the partitions that are read
+    private final boolean[] keep;
+    //predicates every wanted tuple satisfies
+    private final List<Predicate> pushed = new ArrayList<Predicate>();
+
+    /**
+     * Creates a scan over the specified table as a part of the specified
+     * transaction.
+     *
+     * @param tid
+     *            The transaction this scan is running as a part of.
+     * @param tableid
+     *            the table to scan; must be stored in a PartitionedFile
+     * @param tableAlias
+     *            the alias of this table (see SeqScan)
+     */
+    public PartitionedScan(TransactionId tid, int tableid, String tableAlias) {
+        super(tid, tableid, tableAlias);
+        this.tid = tid;
+        this.pf = (PartitionedFile) Database.getCatalog().getDbFile(tableid);
+        this.keep = new boolean[pf.numPartitions()];
+        Arrays.fill(keep, true);
+        this.it = new ParallelIterator();
+    }
+
+    /**
+     * Leaves out the partitions that hold no tuple satisfying p. Must be
+     * called before the scan is opened.
+     *
+     * @return the number of partitions still read
+     */
+    public int prune(Predicate p) {
+        boolean[] matching = pf.partitionsMatching(p);
+        for (int i = 0; i < keep.length; i++)
+            keep[i] &= matching[i];
+        return numPartitionsScanned();
+    }
+
+    /** @return the number of partitions this scan reads */
+    public int numPartitionsScanned() {
+        int n = 0;
+        for (boolean k : keep)
+            if (k)
+                n++;
+        return n;
+    }
+
+    /**
+     * Prunes partitions with p, and lets the scans of the remaining ones
+     * skip pages by their zone maps.
+     */
+    public boolean pushPredicate(Predicate p) {
+        prune(p);
+        if (!pushed.contains(p))
+            pushed.add(p);
+        return true;
+    }
+
+    public void close() {
+        if (this.it != null)
+            this.it.close();
+        super.close();
+    }
+
+    private static synchronized ExecutorService workers() {
+        if (workers == null) {
+            workers = Executors.newCachedThreadPool(new ThreadFactory() {
+                public Thread newThread(Runnable r) {
+                    Thread t = new Thread(r, "partition-scan");
+                    t.setDaemon(true);
+                    return t;
+                }
+            });
+        }
+        return workers;
+    }
+
+    //no more batches from a partition thread
+    private static final List<Tuple> END = new ArrayList<Tuple>();
+
+    /**
+     * Reads each kept partition on a thread of its own and returns the
+     * tuples of all of them.
+     */
+    private class ParallelIterator implements DbFileIterator {
+        private BlockingQueue<List<Tuple>> queue = null;
+        private List<Future<?>> running = new ArrayList<Future<?>>();
+        //partition threads that have not sent END yet
+        private int active = 0;
+        private Iterator<Tuple> batch = null;
+        private volatile boolean cancelled = false;
+        //the first exception a partition thread ran into
+        private volatile Exception failure = null;
+
+        public void open() throws DbException, TransactionAbortedException {
+            close();
+            cancelled = false;
+            failure = null;
+            int n = numPartitionsScanned();
+            queue = new ArrayBlockingQueue<List<Tuple>>(Math.max(1, n * QUEUED_BATCHES));
+            for (int i = 0; i < keep.length; i++) {
+                if (!keep[i])
+                    continue;
+                final HeapFile part = pf.getPartition(i);
+                active++;
+                running.add(workers().submit(new Runnable() {
+                    public void run() {
+                        scanPartition(part);
+                    }
+                }));
+            }
+        }
+
+        //send the tuples of part to the queue, then END
+        private void scanPartition(HeapFile part) {
+            try {
+                HeapFile.DFIterator pit = (HeapFile.DFIterator) part.iterator(tid);
+                for (Predicate p : pushed)
+                    pit.skipPagesFailing(p);
+                pit.open();
+                List<Tuple> tuples = new ArrayList<Tuple>(BATCH_TUPLES);
+                while (!cancelled && pit.hasNext()) {
+                    tuples.add(pit.next());
+                    if (tuples.size() == BATCH_TUPLES) {
+                        send(tuples);
+                        tuples = new ArrayList<Tuple>(BATCH_TUPLES);
+                    }
+                }
+                pit.close();
+                if (!tuples.isEmpty())
+                    send(tuples);
+            } catch (Exception e) {
+                if (failure == null)
+                    failure = e;
+            } finally {
+                try {
+                    send(END);
+                } catch (InterruptedException e) {
+                    //the scan is being closed
+                }
+            }
+        }
+
+        //wait for room in the queue, unless the scan is closed meanwhile
+        private void send(List<Tuple> tuples) throws InterruptedException {
+            while (!cancelled) {
+                if (queue.offer(tuples, 10, TimeUnit.MILLISECONDS))
+                    return;
+            }
+        }
+
+        public boolean hasNext() throws DbException, TransactionAbortedException {
+            while (batch == null || !batch.hasNext()) {
+                if (active == 0 || queue == null)
+                    return false;
+                List<Tuple> next;
+                try {
+                    next = queue.take();
+                } catch (InterruptedException e) {
+                    throw new DbException("interrupted while scanning partitions");
+                }
+                if (next == END) {
+                    active--;
+                    rethrow();
+                    continue;
+                }
+                batch = next.iterator();
+            }
+            return true;
+        }
+
+        //report the failure of a partition thread to the consumer
+        private void rethrow() throws DbException, TransactionAbortedException {
+            Exception e = failure;
+            if (e == null)
+                return;
+            close();
+            if (e instanceof TransactionAbortedException)
+                throw (TransactionAbortedException) e;
+            if (e instanceof DbException)
+                throw (DbException) e;
+            throw new DbException("partition scan failed: " + e);
+        }
+
+        public Tuple next() throws DbException, TransactionAbortedException,
+                NoSuchElementException {
+            if (!hasNext())
+                throw new NoSuchElementException();
+            return batch.next();
+        }
+
+        public void rewind() throws DbException, TransactionAbortedException {
+            open();
+        }
+
+        //stop the partition threads and wait for them, so that none of
+        //them fetches a page after the transaction may have ended
+        public void close() {
+            cancelled = true;
+            for (Future<?> f : running) {
+                try {
+                    f.get();
+                } catch (InterruptedException e) {
+                    break;
+                } catch (ExecutionException e) {
+                    //reported through failure
+                }
+            }
+            running.clear();
+            active = 0;
+            batch = null;
+            queue = null;
+        }
+    }
+}
@@ -0,0 +1,119 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * ReplacementPolicy decides which page the BufferPool evicts when it needs
+ * room. The pool tells the policy about every page that enters the pool,
+ * is accessed while cached, or leaves it, and asks it for the cached pages
+ * in the order it would rather evict them; the pool then evicts the first
+ * of those it can, as it keeps dirty and locked pages as long as possible.
+ * <p>
+ * Each partition of a BufferPool has a policy of its own, which it calls
+ * while holding its latch, so policies need not be thread-safe. Which
+ * policy a new BufferPool uses is set with the system property
+ * simpledb.ReplacementPolicy, for example -Dsimpledb.ReplacementPolicy=arc;
+ * see {@link #create}.
+ */
+public abstract class ReplacementPolicy {
+
+    /** Names of the policies {@link #create} knows. */
+    public static final String[] NAMES = { "lru", "lru-k", "2q", "arc" };
+
+    /**
+     * Creates the policy of the specified name for a pool of numPages
+     * pages: "lru" for {@link LruPolicy}, "lru-k" or "lru-K" for a number
+     * K for {@link LruKPolicy}, "2q" for {@link TwoQPolicy} and "arc" for
+     * {@link ArcPolicy}.
+     *
+     * @throws IllegalArgumentException if there is no such policy
+     */
+    public static ReplacementPolicy create(String name, int numPages) {
+        String n = name.trim().toLowerCase();
+        if (n.equals("lru"))
+            return new LruPolicy();
+        if (n.equals("lru-k"))
+            return new LruKPolicy(2, numPages);
+        if (n.startsWith("lru-")) {
+            try {
+                return new LruKPolicy(Integer.parseInt(n.substring("lru-".length())), numPages);
+            } catch (NumberFormatException e) {
+                //fall through
+            }
+        }
+        if (n.equals("2q"))
+            return new TwoQPolicy(numPages);
+        if (n.equals("arc"))
+            return new ArcPolicy(numPages);
+        throw new IllegalArgumentException("Unknown replacement policy " + name);
+    }
+
+    /**
+     * Creates the policy named by the system property
+     * simpledb.ReplacementPolicy, or an LruPolicy if it is not set.
+     */
+    public static ReplacementPolicy create(int numPages) {
+        return create(System.getProperty("simpledb.ReplacementPolicy", "lru"), numPages);
+    }
+
+    /**
+     * Replays a trace of page accesses, such as one recorded with
+     * {@link BufferPool#startTrace}, through policy as through a pool of
+     * frames pages that evicts the first victim of the policy each time,
+     * without reading any page.
+     *
+     * @return the share of accesses that found their page cached
+     */
+    public static double replay(List<PageId> trace, ReplacementPolicy policy, int frames) {
+        Set<PageId> cached = new HashSet<PageId>();
+        long hits = 0;
+        for (PageId pid : trace) {
+            if (cached.contains(pid)) {
+                hits++;
+                policy.accessed(pid);
+                continue;
+            }
+            if (cached.size() == frames) {
+                PageId victim = policy.victims().next();
+                cached.remove(victim);
+                policy.removed(victim);
+            }
+            cached.add(pid);
+            policy.admitted(pid);
+        }
+        return trace.isEmpty() ? 0 : hits / (double) trace.size();
+    }
+
+    /** Called when page pid, which was not cached, enters the pool. */
+    public abstract void admitted(PageId pid);
+
+    /** Called when page pid is accessed while cached. */
+    public abstract void accessed(PageId pid);
+
+    /** Called when page pid leaves the pool. */
+    public abstract void removed(PageId pid);
+
+    /**
+     * @return the cached pages, those admitted and not removed since, in
+     *   the order the policy would evict them. The iterator is only used
+     *   until the pool next calls the policy.
+     */
+    public abstract Iterator<PageId> victims();
+
+    //the elements of a, and then those of b
+    static <T> Iterator<T> concat(final Iterator<T> a, final Iterator<T> b) {
+        return new Iterator<T>() {
+            public boolean hasNext() {
+                return a.hasNext() || b.hasNext();
+            }
+
+            public T next() {
+                return a.hasNext() ? a.next() : b.next();
+            }
+
+            public void remove() {
+                throw new UnsupportedOperationException();
+            }
+        };
+    }
+}
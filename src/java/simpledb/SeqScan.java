@@ -14,7 +14,8 @@ public class SeqScan implements DbIterator {
     private int tableId;
     private String tableAlias = null;
     private String tableName = null;
-    private DbFileIterator it = null;
+    //package-private so that subclasses can scan through another iterator
+    DbFileIterator it = null;
 
     /**
      * Creates a sequential scan over the specified table as a part of the
@@ -77,10 +78,31 @@ public class SeqScan implements DbIterator {
         this.tableAlias = tableAlias;
     }
 
+    /** @return the transaction this scan is running as a part of */
+    TransactionId getTransactionId() {
+        return this.tid;
+    }
+
     public SeqScan(TransactionId tid, int tableid) {
         this(tid, tableid, Database.getCatalog().getTableName(tableid));
     }
 
+    /**
+     * Tells this scan that only tuples satisfying p are wanted, so that it
+     * may skip pages whose zone map shows they hold none. The scan still
+     * returns every tuple of the pages it reads; the caller applies p.
+     *
+     * @return true if the scan can use p to skip pages
+     * @see ZoneMap
+     */
+    public boolean pushPredicate(Predicate p) {
+        if (this.it instanceof HeapFile.DFIterator) {
+            ((HeapFile.DFIterator) this.it).skipPagesFailing(p);
+            return true;
+        }
+        return false;
+    }
+
     public void open() throws DbException, TransactionAbortedException {
         // some code goes here
         this.it.open();
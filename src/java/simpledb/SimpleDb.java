@@ -8,7 +8,7 @@ public class SimpleDb {
         // convert a file
         if(args[0].equals("convert")) {
         try {
-            if (args.length<3 || args.length>5){
+            if (args.length<3 || args.length>6){
                 System.err.println("Unexpected number of arguments to convert ");
                 return;
             }
@@ -40,12 +40,16 @@ public class SimpleDb {
                                 return;
                             }
                 }
-                if (args.length==5)
+                if (args.length>=5)
                     fieldSeparator=args[4].charAt(0);
             }
+            //for tables given another size with a pagesize catalog annotation
+            int pageSize = args.length==6 ? Integer.parseInt(args[5]) : BufferPool.PAGE_SIZE;
 
-            HeapFileEncoder.convert(sourceTxtFile,targetDatFile,
-                        BufferPool.PAGE_SIZE,numOfAttributes,ts,fieldSeparator);
+            ParallelHeapFileEncoder.Result result = ParallelHeapFileEncoder.convert(
+                        sourceTxtFile,targetDatFile,
+                        pageSize,numOfAttributes,ts,fieldSeparator);
+            System.out.println("Converted " + result);
 
         } catch (IOException e) {
                 throw new RuntimeException(e);
@@ -67,6 +71,32 @@ public class SimpleDb {
                }
                it.close();
             }
+        } else if (args[0].equals("columnar")) {
+            //rewrite an all-int heap file in the ColumnarFile layout
+            File tableFile = new File(args[1]);
+            int columns = Integer.parseInt(args[2]);
+            HeapFile table = Utility.openHeapFile(columns, tableFile);
+            File columnarFile = new File(args[1] + ".columnar");
+            int rows = ColumnarFile.convert(table.iterator(new TransactionId()),
+                    table.getTupleDesc(), columnarFile);
+            table.getPageChannel().close();
+            if (!columnarFile.renameTo(tableFile))
+                throw new IOException("could not replace " + tableFile);
+            System.out.println("Rewrote " + rows + " rows of " + tableFile
+                    + " as a columnar table");
+        }
+        else if (args[0].equals("compress")) {
+            //rewrite a heap file in the CompressedHeapFile layout
+            File tableFile = new File(args[1]);
+            File compressedFile = new File(args[1] + ".compressed");
+            int pageSize = args.length > 2 ? Integer.parseInt(args[2]) : BufferPool.PAGE_SIZE;
+            int pages = CompressedHeapFile.compress(tableFile, compressedFile, pageSize);
+            File index = new File(compressedFile.getPath() + CompressedHeapFile.INDEX_SUFFIX);
+            if (!compressedFile.renameTo(tableFile)
+                    || !index.renameTo(new File(args[1] + CompressedHeapFile.INDEX_SUFFIX)))
+                throw new IOException("could not replace " + tableFile);
+            System.out.println("Compressed " + pages + " pages of " + tableFile + " to "
+                    + tableFile.length() / 1024 + " KB");
         }
         else if (args[0].equals("parser")) {
             // Strip the first argument and call the parser
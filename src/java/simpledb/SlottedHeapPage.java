@@ -0,0 +1,410 @@
+package simpledb;
+
+import java.util.*;
+import java.io.*;
+import java.nio.ByteBuffer;
+
+/**
+ * SlottedHeapPage is a HeapPage that stores records at their actual length
+ * instead of in fixed-size slots, so strings only take the bytes they hold
+ * rather than Type.STRING_LEN + 4. It is the page format of HeapFiles
+ * opened with the "slotted" catalog annotation.
+ * <p>
+ * The page starts with two unsigned shorts: the number of entries in the
+ * slot directory, and the offset of the start of the record area (0 for an
+ * empty page, meaning the page size). The slot directory follows,
+ * one entry per slot of two unsigned shorts: the offset and the length of
+ * the record, with offset 0 marking a free slot. Records are packed at the
+ * end of the page and grow down towards the directory. A record holds its
+ * fields in order: an int as 4 bytes, a string as a 2-byte length followed
+ * by that many bytes.
+ * <p>
+ * Slot numbers (the tuple numbers of RecordIds) never change while a record
+ * is on the page. Deleting a record only frees its directory entry; the
+ * bytes are reclaimed by compacting the record area when an insert needs
+ * them. As offsets are unsigned shorts, slotted pages hold at most
+ * MAX_PAGE_SIZE bytes.
+ *
+ * @see HeapFile
+ * @see HeapPage
+ */
+public class SlottedHeapPage extends HeapPage {
+
+    //bytes before the slot directory
+    static final int HEADER_SIZE = 4;
+    //bytes per slot directory entry
+    static final int SLOT_SIZE = 4;
+
+    /** The largest page size that record offsets can address. */
+    public static final int MAX_PAGE_SIZE = 1 << 16;
+
+    //the page image, updated in place
+    private final byte[] page;
+    private final ByteBuffer buf;
+    //copy of the before image, taken on the first write after
+    //setBeforeImage; null while the before image is the current page
+    private byte[] oldPage;
+
+    /**
+     * Create a SlottedHeapPage from a page image read from disk, in the
+     * format described above. An all-zero page is an empty page.
+     */
+    public SlottedHeapPage(HeapPageId id, byte[] data) throws IOException {
+        this(id, ByteBuffer.wrap(data));
+    }
+
+    /**
+     * Create a SlottedHeapPage from page bytes that are already in memory.
+     * The bytes are copied, so data is only read.
+     *
+     * @see #SlottedHeapPage(HeapPageId, byte[])
+     */
+    public SlottedHeapPage(HeapPageId id, ByteBuffer data) throws IOException {
+        super(id);
+        this.pageSize = data.limit();
+        if (pageSize > MAX_PAGE_SIZE || pageSize < HEADER_SIZE)
+            throw new IOException("page " + id.pageNumber() + " has " + data.limit() + " bytes");
+        this.page = new byte[pageSize];
+        ByteBuffer src = data.duplicate();
+        src.position(0);
+        src.get(this.page);
+        this.buf = ByteBuffer.wrap(this.page);
+        if (HEADER_SIZE + getSlotCount() * SLOT_SIZE > recordStart())
+            throw new IOException("page " + id.pageNumber() + " has a corrupt slot directory");
+    }
+
+    //number of slot directory entries
+    private int getSlotCount() {
+        return buf.getShort(0) & 0xffff;
+    }
+
+    private void setSlotCount(int n) {
+        buf.putShort(0, (short) n);
+    }
+
+    //offset of the first byte of the record area
+    private int recordStart() {
+        int start = buf.getShort(2) & 0xffff;
+        return start == 0 ? pageSize : start;
+    }
+
+    private void setRecordStart(int start) {
+        buf.putShort(2, (short) (start == pageSize ? 0 : start));
+    }
+
+    private int slotOffset(int i) {
+        return buf.getShort(HEADER_SIZE + i * SLOT_SIZE) & 0xffff;
+    }
+
+    private int slotLength(int i) {
+        return buf.getShort(HEADER_SIZE + i * SLOT_SIZE + 2) & 0xffff;
+    }
+
+    private void setSlot(int i, int offset, int length) {
+        buf.putShort(HEADER_SIZE + i * SLOT_SIZE, (short) offset);
+        buf.putShort(HEADER_SIZE + i * SLOT_SIZE + 2, (short) length);
+    }
+
+    /**
+     * @return the number of bytes t takes on a slotted page, not counting
+     *   its slot directory entry
+     */
+    static int recordSize(Tuple t) {
+        TupleDesc td = t.getTupleDesc();
+        int size = 0;
+        for (int i = 0; i < td.numFields(); i++) {
+            if (td.getFieldType(i) == Type.STRING_TYPE)
+                size += 2 + Math.min(((StringField) t.getField(i)).getValue().length(), Type.STRING_LEN);
+            else
+                size += td.getFieldType(i).getLen();
+        }
+        return size;
+    }
+
+    //the size of the smallest record of schema td: all strings empty
+    private static int minRecordSize(TupleDesc td) {
+        int size = 0;
+        for (int i = 0; i < td.numFields(); i++)
+            size += td.getFieldType(i) == Type.STRING_TYPE ? 2 : td.getFieldType(i).getLen();
+        return size;
+    }
+
+    /**
+     * @return the largest number of tuples of schema td that fit on a page
+     *   of pageSize bytes
+     */
+    static int maxTuples(TupleDesc td, int pageSize) {
+        return (pageSize - HEADER_SIZE) / (minRecordSize(td) + SLOT_SIZE);
+    }
+
+    //write the record of t at offset of bb
+    private static void putRecord(ByteBuffer bb, int offset, Tuple t) {
+        TupleDesc td = t.getTupleDesc();
+        for (int i = 0; i < td.numFields(); i++) {
+            Field f = t.getField(i);
+            if (td.getFieldType(i) == Type.STRING_TYPE) {
+                String s = ((StringField) f).getValue();
+                int len = Math.min(s.length(), Type.STRING_LEN);
+                bb.putShort(offset, (short) len);
+                offset += 2;
+                //one byte per char, as StringField.serialize writes them
+                for (int j = 0; j < len; j++)
+                    bb.put(offset++, (byte) s.charAt(j));
+            } else {
+                bb.putInt(offset, ((IntField) f).getValue());
+                offset += 4;
+            }
+        }
+    }
+
+    //decode the record in slot i
+    private Tuple getRecord(int i) {
+        Tuple t = new Tuple(td);
+        int offset = slotOffset(i);
+        for (int j = 0; j < td.numFields(); j++) {
+            if (td.getFieldType(j) == Type.STRING_TYPE) {
+                int len = buf.getShort(offset) & 0xffff;
+                t.setField(j, new StringField(new String(page, offset + 2, len), Type.STRING_LEN));
+                offset += 2 + len;
+            } else {
+                t.setField(j, td.getFieldType(j).parse(buf, offset));
+                offset += td.getFieldType(j).getLen();
+            }
+        }
+        t.setRecordId(new RecordId(pid, i));
+        return t;
+    }
+
+    /**
+     * Static method to generate the page image of a new slotted page of
+     * pageSize bytes holding tuples from through to-1 of tuples in slots 0
+     * through to-from-1.
+     *
+     * @throws DbException if the tuples do not fit on one page
+     * @see #fill
+     */
+    static byte[] createPageData(TupleDesc td, int pageSize, List<Tuple> tuples, int from, int to)
+            throws DbException {
+        ByteBuffer bb = ByteBuffer.wrap(createEmptyPageData(pageSize));
+        int start = pageSize;
+        int count = to - from;
+        for (int i = 0; i < count; i++) {
+            Tuple t = tuples.get(from + i);
+            int len = recordSize(t);
+            start -= len;
+            if (start < HEADER_SIZE + count * SLOT_SIZE)
+                throw new DbException(count + " tuples do not fit on a page");
+            putRecord(bb, start, t);
+            bb.putShort(HEADER_SIZE + i * SLOT_SIZE, (short) start);
+            bb.putShort(HEADER_SIZE + i * SLOT_SIZE + 2, (short) len);
+        }
+        bb.putShort(0, (short) count);
+        bb.putShort(2, (short) (start == pageSize ? 0 : start));
+        return bb.array();
+    }
+
+    /**
+     * @return the end of the run of tuples starting at from that fits on one
+     *   new slotted page of pageSize bytes; at least from + 1 if from is in
+     *   range
+     */
+    static int fill(List<Tuple> tuples, int from, int pageSize) {
+        int free = pageSize - HEADER_SIZE;
+        int to = from;
+        while (to < tuples.size()) {
+            int need = recordSize(tuples.get(to)) + SLOT_SIZE;
+            if (need > free && to > from)
+                break;
+            free -= need;
+            to++;
+        }
+        return to;
+    }
+
+    //bytes between the end of the slot directory and the record area
+    private int contiguousFree() {
+        return recordStart() - HEADER_SIZE - getSlotCount() * SLOT_SIZE;
+    }
+
+    //bytes that a compaction would make available
+    private int totalFree() {
+        int used = 0;
+        for (int i = 0; i < getSlotCount(); i++) {
+            if (slotOffset(i) != 0)
+                used += slotLength(i);
+        }
+        return pageSize - HEADER_SIZE - getSlotCount() * SLOT_SIZE - used;
+    }
+
+    //slide all records to the end of the page, closing the gaps left by
+    //deleted records
+    private void compact() {
+        byte[] copy = page.clone();
+        int start = pageSize;
+        for (int i = 0; i < getSlotCount(); i++) {
+            int offset = slotOffset(i);
+            if (offset == 0)
+                continue;
+            int len = slotLength(i);
+            start -= len;
+            System.arraycopy(copy, offset, page, start, len);
+            setSlot(i, start, len);
+        }
+        Arrays.fill(page, HEADER_SIZE + getSlotCount() * SLOT_SIZE, start, (byte) 0);
+        setRecordStart(start);
+    }
+
+    //the first free directory entry, or the slot count if there is none
+    private int freeSlot() {
+        int n = getSlotCount();
+        for (int i = 0; i < n; i++) {
+            if (slotOffset(i) == 0)
+                return i;
+        }
+        return n;
+    }
+
+    /**
+     * @return true if t fits on this page, compacting it if needed
+     */
+    public boolean hasRoomFor(Tuple t) {
+        int need = recordSize(t) + (freeSlot() == getSlotCount() ? SLOT_SIZE : 0);
+        return need <= totalFree();
+    }
+
+    /**
+     * Adds the specified tuple to the page at its actual length, compacting
+     * the record area first if the free bytes are not contiguous.
+     *
+     * @throws DbException if the page does not have room for the tuple or
+     *         tupledesc is mismatch.
+     */
+    public void insertTuple(Tuple t) throws DbException {
+        if (!this.td.equals(t.getTupleDesc()))
+            throw new DbException("TupleDesc is mismatch!");
+        if (!hasRoomFor(t))
+            throw new DbException("Insersion failed cause page is full.");
+
+        prepareWrite();
+        int slot = freeSlot();
+        int len = recordSize(t);
+        int dirEnd = HEADER_SIZE + Math.max(getSlotCount(), slot + 1) * SLOT_SIZE;
+        if (recordStart() - len < dirEnd)
+            compact();
+        int start = recordStart() - len;
+        putRecord(buf, start, t);
+        if (slot == getSlotCount())
+            setSlotCount(slot + 1);
+        setSlot(slot, start, len);
+        setRecordStart(start);
+        t.setRecordId(new RecordId(pid, slot));
+        spaceChanged(slot, t);
+    }
+
+    /**
+     * Delete the specified tuple from the page, freeing its slot. Trailing
+     * free entries are dropped from the slot directory.
+     *
+     * @throws DbException if this tuple is not on this page, or tuple slot is
+     *         already empty.
+     */
+    public void deleteTuple(Tuple t) throws DbException {
+        RecordId rid = t.getRecordId();
+        int tupleNo = rid.tupleno();
+        if (!isSlotUsed(tupleNo))
+            throw new DbException("No such tuple exists.");
+        if (!this.pid.equals(rid.getPageId()))
+            throw new DbException("Tuple is not on this page");
+
+        prepareWrite();
+        setSlot(tupleNo, 0, 0);
+        int n = getSlotCount();
+        while (n > 0 && slotOffset(n - 1) == 0)
+            n--;
+        Arrays.fill(page, HEADER_SIZE + n * SLOT_SIZE, HEADER_SIZE + getSlotCount() * SLOT_SIZE, (byte) 0);
+        setSlotCount(n);
+        if (n == 0)
+            setRecordStart(pageSize);
+        spaceChanged(tupleNo, null);
+    }
+
+    public Tuple getTuple(int i) {
+        return isSlotUsed(i) ? getRecord(i) : null;
+    }
+
+    /**
+     * Returns true if slot i holds a record.
+     */
+    public boolean isSlotUsed(int i) {
+        return i >= 0 && i < getSlotCount() && slotOffset(i) != 0;
+    }
+
+    /**
+     * Returns an estimate of the number of tuples that can still be
+     * inserted: the free bytes divided by the average size of the records
+     * on the page (or the largest possible record when the page is empty)
+     * plus a directory entry. Used as a free-space map hint.
+     */
+    public int getNumEmptySlots() {
+        int used = 0;
+        int count = 0;
+        for (int i = 0; i < getSlotCount(); i++) {
+            if (slotOffset(i) != 0) {
+                used += slotLength(i);
+                count++;
+            }
+        }
+        int avg = count == 0 ? td.getSize() : (used + count - 1) / count;
+        int reusable = getSlotCount() - count;
+        int free = totalFree() + reusable * SLOT_SIZE;
+        return Math.max(0, free / (avg + SLOT_SIZE));
+    }
+
+    //copy the before image on the first write after setBeforeImage
+    private void prepareWrite() {
+        if (oldPage == null)
+            oldPage = page.clone();
+    }
+
+    /** Return a view of this page before it was modified
+        -- used by recovery */
+    public SlottedHeapPage getBeforeImage() {
+        try {
+            return new SlottedHeapPage(pid, oldPage != null ? oldPage.clone() : page.clone());
+        } catch (IOException e) {
+            e.printStackTrace();
+            //should never happen -- we parsed it OK before!
+            System.exit(1);
+        }
+        return null;
+    }
+
+    public void setBeforeImage() {
+        oldPage = null;
+    }
+
+    public byte[] getPageData() {
+        return page.clone();
+    }
+
+    public void getPageData(ByteBuffer dst) {
+        dst.put(page);
+    }
+
+    /**
+     * @return an iterator over the tuples on this page, decoded when the
+     *   iterator is created (calling remove on it throws an
+     *   UnsupportedOperationException)
+     */
+    public Iterator<Tuple> iterator() {
+        return Collections.unmodifiableList(getAllTuples()).iterator();
+    }
+
+    public List<Tuple> getAllTuples() {
+        List<Tuple> list = new ArrayList<Tuple>();
+        for (int i = 0; i < getSlotCount(); i++)
+            if (slotOffset(i) != 0)
+                list.add(getRecord(i));
+        return list;
+    }
+}
@@ -1,6 +1,7 @@
 package simpledb;
 
 import java.io.*;
+import java.nio.ByteBuffer;
 
 /**
  * Instance of Field that stores a single String of a fixed length.
@@ -66,6 +67,20 @@ public class StringField implements Field {
 			dos.write((byte) 0);
 	}
 
+	/**
+	 * Write this string into bb at offset, in the format written by
+	 * serialize(DataOutputStream): maxSize + 4 bytes.
+	 */
+	public void serialize(ByteBuffer bb, int offset) {
+		int len = Math.min(value.length(), maxSize);
+		bb.putInt(offset, len);
+		offset += 4;
+		//one byte per char, as DataOutputStream.writeBytes writes them
+		for (int i = 0; i < len; i++)
+			bb.put(offset + i, (byte) value.charAt(i));
+		HeapPage.zero(bb, offset + len, maxSize - len);
+	}
+
 	/**
 	 * Compare the specified field to the value of this Field. Return semantics
 	 * are as specified by Field.compare
@@ -1,8 +1,11 @@
 package simpledb;
 
+import java.io.IOException;
 import java.util.HashMap;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 
 /**
@@ -110,7 +113,8 @@ public class TableStats {
         
         //init histogram
         //scan once, for each field, find the min and max
-        DbFileIterator it = mdbfile.iterator(new TransactionId());
+        TransactionId tid = new TransactionId();
+        DbFileIterator it = mdbfile.iterator(tid);
         Tuple tp;
         
         try{
@@ -144,6 +148,11 @@ public class TableStats {
             for(int i = 0; i < td.numFields(); i++){
                 String fieldname = td.getFieldName(i);
                 if(td.getFieldType(i) == Type.INT_TYPE){
+                    //an empty table has no min or max
+                    if(minValue.get(fieldname) == null){
+                        minValue.put(fieldname, 0);
+                        maxValue.put(fieldname, 0);
+                    }
                     IntHistogram tih = new IntHistogram(NUM_HIST_BINS, minValue.get(fieldname), maxValue.get(fieldname));
                     ihistogram.put(fieldname, tih);
                 }
@@ -170,6 +179,11 @@ public class TableStats {
             }
         
             it.close();
+            //release the read locks of the scan
+            Database.getBufferPool().transactionComplete(tid);
+        }
+        catch (IOException e){
+            e.printStackTrace();
         }
         catch (DbException e){
             e.printStackTrace();
@@ -193,7 +207,73 @@ public class TableStats {
      */
     public double estimateScanCost() {
         // some code goes here
-        return ((HeapFile)mdbfile).numPages() * iocostperpage;
+        if (mdbfile instanceof ColumnarFile)
+            return ((ColumnarFile)mdbfile).numPages() * iocostperpage;
+        //a scan of all partitions; pruning is not accounted for
+        if (mdbfile instanceof PartitionedFile) {
+            PartitionedFile pf = (PartitionedFile)mdbfile;
+            double cost = 0;
+            for (int i = 0; i < pf.numPartitions(); i++)
+                cost += scanCost(pf.getPartition(i));
+            return cost;
+        }
+        return scanCost((HeapFile)mdbfile);
+    }
+
+    /**
+     * Estimates the cost of a sequential scan that reads only the given
+     * columns. Only a columnar table skips the pages of the other columns;
+     * a scan of any other table costs {@link #estimateScanCost()}.
+     *
+     * @param columns the columns the scan reads, or null for all of them
+     * @return The estimated cost of the scan.
+     */
+    public double estimateScanCost(Set<Integer> columns) {
+        if (columns == null || !(mdbfile instanceof ColumnarFile))
+            return estimateScanCost();
+        ColumnarFile cf = (ColumnarFile)mdbfile;
+        int pages = 0;
+        for (int c : columns)
+            pages += cf.numColumnPages(c);
+        return pages * iocostperpage;
+    }
+
+    private double scanCost(HeapFile hf) {
+        //ioCostPerPage is the cost of a BufferPool.PAGE_SIZE page; larger
+        //pages cost as many times that as they are larger
+        double costPerPage = iocostperpage * hf.getPageSize() / (double) BufferPool.PAGE_SIZE;
+        //a cold scan of a compressed table only reads the compressed bytes
+        if (hf instanceof CompressedHeapFile)
+            return ((CompressedHeapFile)hf).storedPages() * costPerPage;
+        return hf.numPages() * costPerPage;
+    }
+
+    /**
+     * Estimates the cost of reading the tuples that satisfy predicates of
+     * selectivity selectivityFactor through index: the index pages read
+     * down to the first entry, and then a page of the table for each
+     * matching tuple, as the index is not in table order, but no more pages
+     * than the table has.
+     *
+     * @return The estimated cost of the index scan.
+     */
+    public double estimateIndexScanCost(IndexFile index, double selectivityFactor) {
+        HeapFile hf = (HeapFile)index.getTable();
+        double costPerPage = iocostperpage * hf.getPageSize() / (double) BufferPool.PAGE_SIZE;
+        double pages = Math.min(numTuple * selectivityFactor, hf.numPages());
+        return index.lookupPages() * iocostperpage + pages * costPerPage;
+    }
+
+    /**
+     * Estimates the cost of reading the tuples at the positions set in
+     * bitmap, as a BitmapScan does: a page of the table for each page with
+     * set bits, in table order. The bitmaps themselves are in memory.
+     *
+     * @return The estimated cost of the bitmap scan.
+     */
+    public double estimateBitmapScanCost(HeapFile hf, Bitmap bitmap) {
+        double costPerPage = iocostperpage * hf.getPageSize() / (double) BufferPool.PAGE_SIZE;
+        return bitmap.numPages() * costPerPage;
     }
 
     /**
@@ -253,6 +333,34 @@ public class TableStats {
         }
     }
 
+    /**
+     * Estimate the selectivity of the conjunction of preds, which are all on
+     * the same field. Multiplying their selectivities would treat a lower
+     * and an upper bound as independent; the tuples between the bounds are
+     * rather those that pass both, as far as each excludes other tuples.
+     *
+     * @return The estimated selectivity of all of preds together
+     */
+    public double estimateSelectivity(List<Predicate> preds) {
+        double low = 1.0, high = 1.0, other = 1.0;
+        for (Predicate p : preds) {
+            double sel = estimateSelectivity(p.getField(), p.getOp(), p.getOperand());
+            switch (p.getOp()) {
+            case GREATER_THAN:
+            case GREATER_THAN_OR_EQ:
+                low = Math.min(low, sel);
+                break;
+            case LESS_THAN:
+            case LESS_THAN_OR_EQ:
+                high = Math.min(high, sel);
+                break;
+            default:
+                other = Math.min(other, sel);
+            }
+        }
+        return Math.min(other, Math.max(0.0, low + high - 1.0));
+    }
+
     /**
      * return the total number of tuples in this table
      * */
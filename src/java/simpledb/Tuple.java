@@ -35,6 +35,16 @@ public class Tuple implements Serializable {
         tupleDesc = td;
     }
 
+    /**
+     * Creates a tuple with the specified schema and location whose fields are
+     * not stored in this object. Used by subclasses that supply their fields
+     * some other way, such as {@link LazyTuple}.
+     */
+    Tuple(TupleDesc td, RecordId rid) {
+        tupleDesc = td;
+        recordId = rid;
+    }
+
     //A static method to merge tuples as merge method in TupleDesc class
     public static Tuple merge(Tuple t1, Tuple t2) {
         TupleDesc td = TupleDesc.merge(t1.getTupleDesc(), t2.getTupleDesc());
@@ -81,7 +91,7 @@ public class Tuple implements Serializable {
      */
     public void setRecordId(RecordId rid) {
         // some code goes here
-        recordId = new RecordId(rid.getPageId(), rid.tupleno());
+        recordId = rid == null ? null : new RecordId(rid.getPageId(), rid.tupleno());
     }
 
     /**
@@ -127,9 +137,9 @@ public class Tuple implements Serializable {
         // some code goes here
         //throw new UnsupportedOperationException("Implement this");
         StringBuilder sb = new StringBuilder();
-        int size = tupleFields.size();
+        int size = tupleDesc.numFields();
         for (int i = 0; i < size; i++) {
-            Field f = tupleFields.get(i);
+            Field f = getField(i);
             String dilimter = i == size-1 ? "\n" : "\t";
             if (f == null)
                 sb.append("null");
@@ -50,6 +50,8 @@ public class TupleDesc implements Serializable {
 
     //TDItems
     public List<TDItem> tdItems = null;
+    //field offsets in a serialized tuple, computed on first use
+    private transient int[] fieldOffsets = null;
     /**
      * Create a new TupleDesc with typeAr.length fields with fields of the
      * specified types, with associated named fields.
@@ -177,6 +179,34 @@ public class TupleDesc implements Serializable {
         return totalSize;
     }
 
+    /**
+     * Gets the byte offset of the ith field within a serialized tuple of this
+     * TupleDesc, i.e. the summed lengths of the fields before it.
+     *
+     * @param i
+     *            The index of the field. It must be a valid index.
+     * @return the offset of the ith field from the start of the tuple
+     * @throws NoSuchElementException
+     *             if i is not a valid field reference.
+     */
+    public int getFieldOffset(int i) throws NoSuchElementException {
+        if (i < 0 || i > this.tdItems.size() - 1)
+            throw new NoSuchElementException("No such element " + i);
+
+        int[] offsets = this.fieldOffsets;
+        if (offsets == null || offsets.length != this.tdItems.size()) {
+            offsets = new int[this.tdItems.size()];
+            int offset = 0;
+            for (int j = 0; j < offsets.length; j++) {
+                offsets[j] = offset;
+                offset += this.getFieldType(j).getLen();
+            }
+            this.fieldOffsets = offsets;
+        }
+
+        return offsets[i];
+    }
+
     /**
      * Merge two TupleDescs into one, with td1.numFields + td2.numFields fields,
      * with the first td1.numFields coming from td1 and the remaining from td2.
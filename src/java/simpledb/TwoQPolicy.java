@@ -0,0 +1,61 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * TwoQPolicy is the full 2Q policy of Johnson and Shasha. Pages enter a
+ * first-in first-out queue A1in of a quarter of the pool; the pages evicted
+ * from it are remembered, without their contents, in a queue A1out of half
+ * the pool's size. A page that is admitted again while in A1out has been
+ * wanted twice within a short time and goes to Am, an LRU list of the rest
+ * of the pool. Pages read once, such as those of a scan, thus only ever
+ * displace each other in A1in.
+ */
+public class TwoQPolicy extends ReplacementPolicy {
+
+    private final int kin;
+    //oldest first
+    private final LinkedHashMap<PageId, Boolean> a1in = new LinkedHashMap<PageId, Boolean>();
+    private final LinkedHashMap<PageId, Boolean> a1out;
+    //least recently used first
+    private final LinkedHashMap<PageId, Boolean> am =
+            new LinkedHashMap<PageId, Boolean>(16, 0.75f, true);
+
+    /** Creates a 2Q policy for a pool of numPages pages. */
+    public TwoQPolicy(int numPages) {
+        this.kin = Math.max(1, numPages / 4);
+        final int kout = Math.max(1, numPages / 2);
+        this.a1out = new LinkedHashMap<PageId, Boolean>() {
+            private static final long serialVersionUID = 1L;
+
+            protected boolean removeEldestEntry(Map.Entry<PageId, Boolean> eldest) {
+                return size() > kout;
+            }
+        };
+    }
+
+    public void admitted(PageId pid) {
+        if (a1out.remove(pid) != null)
+            am.put(pid, Boolean.TRUE);
+        else
+            a1in.put(pid, Boolean.TRUE);
+    }
+
+    public void accessed(PageId pid) {
+        //accesses while in A1in are taken to be correlated with the first
+        am.get(pid);
+    }
+
+    public void removed(PageId pid) {
+        if (a1in.remove(pid) != null)
+            a1out.put(pid, Boolean.TRUE);
+        else
+            am.remove(pid);
+    }
+
+    public Iterator<PageId> victims() {
+        if (a1in.size() > kin || am.isEmpty())
+            return concat(a1in.keySet().iterator(), am.keySet().iterator());
+        return concat(am.keySet().iterator(), a1in.keySet().iterator());
+    }
+}
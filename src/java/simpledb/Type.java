@@ -2,6 +2,7 @@ package simpledb;
 
 import java.text.ParseException;
 import java.io.*;
+import java.nio.ByteBuffer;
 
 /**
  * Class representing a type in SimpleDB.
@@ -24,6 +25,11 @@ public enum Type implements Serializable {
             }
         }
 
+        @Override
+        public Field parse(ByteBuffer bb, int offset) {
+            return new IntField(bb.getInt(offset));
+        }
+
     }, STRING_TYPE() {
         @Override
         public int getLen() {
@@ -42,6 +48,21 @@ public enum Type implements Serializable {
                 throw new ParseException("couldn't parse", 0);
             }
         }
+
+        @Override
+        public Field parse(ByteBuffer bb, int offset) {
+            int strLen = Math.max(0, Math.min(bb.getInt(offset), STRING_LEN));
+            String s;
+            if (bb.hasArray()) {
+                s = new String(bb.array(), bb.arrayOffset() + offset + 4, strLen);
+            } else {
+                byte bs[] = new byte[strLen];
+                for (int i = 0; i < strLen; i++)
+                    bs[i] = bb.get(offset + 4 + i);
+                s = new String(bs);
+            }
+            return new StringField(s, STRING_LEN);
+        }
     };
     
     public static final int STRING_LEN = 128;
@@ -60,4 +81,14 @@ public enum Type implements Serializable {
    */
     public abstract Field parse(DataInputStream dis) throws ParseException;
 
+  /**
+   * @return a Field object of the same type as this object that has contents
+   *   read from bb at the absolute position offset, in the same format
+   *   {@link #parse(DataInputStream)} reads. The position of bb is not
+   *   changed.
+   * @param bb The buffer to read from
+   * @param offset The index in bb of the first byte of the field
+   */
+    public abstract Field parse(ByteBuffer bb, int offset);
+
 }
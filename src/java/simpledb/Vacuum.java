@@ -0,0 +1,327 @@
+package simpledb;
+
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Vacuum compacts a HeapFile while other transactions keep using it: it
+ * moves the tuples of the last pages of the file into free slots of earlier
+ * pages, and then cuts the emptied pages off the end of the file, so that
+ * scans stop reading pages that deletes have left (nearly) empty.
+ * <p>
+ * Tuples are moved by short transactions, each of which write-locks at most
+ * BATCH_PAGES pages through the BufferPool like any other transaction, logs
+ * its writes and commits before the next one starts. A moved tuple gets the
+ * RecordId of its new slot. The vacuum never waits for a lock: it passes
+ * over the free pages other transactions have locked, and ends the move
+ * phase at a last page that is locked, as the file cannot be cut short of
+ * it. One more transaction then write-locks the empty pages at the end of
+ * the file, up to the first one in use, and truncates the file and its
+ * free-space and zone maps before it releases them.
+ * <p>
+ * A vacuum runs on request ("vacuum tablename;" in the parser console), or
+ * on a background thread when a transaction that deleted tuples from a
+ * table of at least AUTO_VACUUM_MIN_PAGES pages commits and the free-space
+ * map shows more than AUTO_VACUUM_FRACTION of the table's slots free.
+ *
+ * @see HeapFile#truncate
+ */
+public class Vacuum {
+
+    /** Free fraction of a table above which deletes start a vacuum. */
+    public static final double AUTO_VACUUM_FRACTION = 0.5;
+    /** Tables smaller than this many pages are never vacuumed on their own. */
+    public static final int AUTO_VACUUM_MIN_PAGES = 8;
+    /** Number of pages one transaction of the move phase locks at most. */
+    public static final int BATCH_PAGES = 8;
+    /**
+     * Milliseconds a background vacuum waits between batches, leaving the
+     * pages of its last batch to the transactions that wait for them. A
+     * transaction that waits too long for a lock is aborted, however long
+     * it waited, once it has run for BufferPool's ABORT_UPPER_TIME, which is
+     * why the vacuum itself skips pages in use rather than wait for them.
+     */
+    public static final int BATCH_PAUSE = 10;
+
+    //one daemon thread for all background vacuums
+    private static ExecutorService worker = null;
+    //tables being vacuumed, or with a background vacuum queued
+    private static final Set<Integer> queued = Collections
+            .newSetFromMap(new ConcurrentHashMap<Integer, Boolean>());
+    private static volatile boolean auto = true;
+
+    /**
+     * Turns starting vacuums after deletes on or off.
+     */
+    public static void setAutoVacuum(boolean on) {
+        auto = on;
+    }
+
+    /**
+     * Compacts hf and truncates it, after waiting for a background vacuum
+     * of hf to finish if one is queued or running.
+     *
+     * @return the number of pages cut off the end of the file
+     */
+    public static int vacuum(HeapFile hf) throws DbException, IOException {
+        while (!queued.add(hf.getId())) {
+            try {
+                Thread.sleep(BATCH_PAUSE);
+            } catch (InterruptedException e) {
+                return 0;
+            }
+        }
+        try {
+            compact(hf, 0);
+            return truncate(hf);
+        } finally {
+            queued.remove(hf.getId());
+        }
+    }
+
+    /**
+     * Queues a vacuum of hf on the background thread, unless one is already
+     * queued or running.
+     *
+     * @return false if a vacuum of hf was already queued
+     */
+    public static boolean vacuumInBackground(final HeapFile hf) {
+        if (!queued.add(hf.getId()))
+            return false;
+        worker().execute(new Runnable() {
+            public void run() {
+                //a failed vacuum leaves the table as its last batch left it;
+                //the failure goes to the worker thread's uncaught exception
+                //handler, as there is no caller to throw it to
+                try {
+                    compact(hf, BATCH_PAUSE);
+                    truncate(hf);
+                } catch (DbException e) {
+                    throw new RuntimeException(e);
+                } catch (IOException e) {
+                    throw new RuntimeException(e);
+                } finally {
+                    queued.remove(hf.getId());
+                }
+            }
+        });
+        return true;
+    }
+
+    /**
+     * Called by the BufferPool when a transaction that deleted tuples from
+     * hf commits; queues a vacuum if hf has become sparse enough. This sums
+     * the free-space map, so it costs one pass over an int per page.
+     */
+    public static void deleted(HeapFile hf) {
+        if (!auto || queued.contains(hf.getId()))
+            return;
+        if (hf.numPages() < AUTO_VACUUM_MIN_PAGES)
+            return;
+        if (hf.getFreeSpaceMap().freeFraction(hf.tuplesPerPage()) > AUTO_VACUUM_FRACTION)
+            vacuumInBackground(hf);
+    }
+
+    private static synchronized ExecutorService worker() {
+        if (worker == null) {
+            worker = Executors.newSingleThreadExecutor(new ThreadFactory() {
+                public Thread newThread(Runnable r) {
+                    Thread t = new Thread(r, "vacuum");
+                    t.setDaemon(true);
+                    return t;
+                }
+            });
+        }
+        return worker;
+    }
+
+    /**
+     * Moves tuples from the last pages of hf into free slots of the first
+     * ones, until the two meet, pausing for pause milliseconds after each
+     * batch. Tables with indexes are left as they are: moving a tuple
+     * changes its RecordId, and the index entries could not be rewritten
+     * without waiting for index page locks in the middle of a move. The
+     * vacuum stops when an index is added to the table while it runs.
+     *
+     * @return the number of tuples moved
+     */
+    static int compact(HeapFile hf, int pause) throws DbException, IOException {
+        if (!Database.getCatalog().getIndexes(hf.getId()).isEmpty())
+            return 0;
+        BufferPool pool = Database.getBufferPool();
+        FreeSpaceMap fsm = hf.getFreeSpaceMap();
+        int moved = 0;
+        int front = 0;
+        int back = hf.numPages() - 1;
+        while (front < back) {
+            Transaction batch = new Transaction();
+            batch.start();
+            TransactionId tid = batch.getId();
+            Set<Integer> locked = new HashSet<Integer>();
+            Map<Integer, HeapPage> dirtied = new HashMap<Integer, HeapPage>();
+            boolean committed = false;
+            try {
+                while (front < back && locked.size() < BATCH_PAGES) {
+                    HeapPage tail = (HeapPage) pool.tryGetPage(tid, pageId(hf, back),
+                            Permissions.READ_WRITE);
+                    //in use: leave it, and the pages before it, as they are
+                    if (tail == null) {
+                        front = back;
+                        break;
+                    }
+                    locked.add(back);
+                    List<Tuple> tuples = new ArrayList<Tuple>();
+                    Iterator<Tuple> it = tail.iterator();
+                    while (it.hasNext())
+                        tuples.add(it.next());
+                    if (tuples.isEmpty()) {
+                        back--;
+                        continue;
+                    }
+
+                    //the map wraps around; a page before front means none
+                    int pgNo = fsm.findPageWithSpace(front);
+                    if (pgNo < front || pgNo >= back) {
+                        front = back;
+                        break;
+                    }
+                    HeapPage head = (HeapPage) pool.tryGetPage(tid, pageId(hf, pgNo),
+                            Permissions.READ_WRITE);
+                    //in use: look for space past it
+                    if (head == null) {
+                        front = pgNo + 1;
+                        continue;
+                    }
+                    front = pgNo;
+                    locked.add(front);
+                    //an index added since the vacuum started was built
+                    //from the tuples as they are now, and is kept in step
+                    //with inserts and deletes but not with moves; once
+                    //both pages are locked, its build is over
+                    if (!Database.getCatalog().getIndexes(hf.getId()).isEmpty()) {
+                        front = back;
+                        break;
+                    }
+                    //fill the head page with copies of the tuples, as the
+                    //tuples may still read from the tail page's image
+                    boolean full = false;
+                    int n = 0;
+                    for (Tuple t : tuples) {
+                        Tuple copy = new Tuple(t.getTupleDesc());
+                        for (int i = 0; i < copy.getTupleDesc().numFields(); i++)
+                            copy.setField(i, t.getField(i));
+                        if (!head.hasRoomFor(copy)) {
+                            full = true;
+                            break;
+                        }
+                        head.insertTuple(copy);
+                        n++;
+                    }
+                    if (n > 0) {
+                        pool.pageDirtied(tid, head);
+                        dirtied.put(front, head);
+                        //fetching the head page may have pushed the tail
+                        //page out of the pool, so fetch it again rather than
+                        //change a page the pool no longer holds
+                        tail = (HeapPage) pool.getPage(tid, pageId(hf, back),
+                                Permissions.READ_WRITE);
+                        for (int i = 0; i < n; i++)
+                            tail.deleteTuple(tuples.get(i));
+                        pool.pageDirtied(tid, tail);
+                        dirtied.put(back, tail);
+                        moved += n;
+                    }
+                    if (full)
+                        front++;
+                }
+                commit(batch, dirtied.values());
+                committed = true;
+            } catch (TransactionAbortedException e) {
+                //only a lock that is waited for aborts, and the pages are
+                //all locked already when they are fetched again
+                break;
+            } finally {
+                if (!committed)
+                    batch.abort();
+            }
+            if (pause > 0) {
+                try {
+                    Thread.sleep(pause);
+                } catch (InterruptedException e) {
+                    break;
+                }
+            }
+        }
+        return moved;
+    }
+
+    /**
+     * Cuts the empty pages at the end of hf off the file.
+     *
+     * @return the number of pages cut off
+     */
+    static int truncate(HeapFile hf) throws DbException, IOException {
+        BufferPool pool = Database.getBufferPool();
+        //loading a map may take the file's monitor, which truncating holds
+        //while it updates the maps, so load them first
+        hf.getFreeSpaceMap().getFreeSlots(0);
+        hf.getZoneMap().getCount(0);
+
+        Transaction t = new Transaction();
+        t.start();
+        TransactionId tid = t.getId();
+        int n = hf.numPages();
+        int end = n;
+        boolean committed = false;
+        try {
+            while (end > 0) {
+                HeapPage p = (HeapPage) pool.tryGetPage(tid, pageId(hf, end - 1),
+                        Permissions.READ_WRITE);
+                if (p == null || p.iterator().hasNext())
+                    break;
+                end--;
+            }
+            //pages appended meanwhile are not locked, so leave the file
+            //alone if there are any
+            synchronized (hf) {
+                if (end < n && hf.numPages() == n)
+                    hf.truncate(end);
+                else
+                    end = n;
+            }
+            //the BufferPool takes the file's monitor when it writes a page,
+            //so discard the pages outside it; they are still locked
+            for (int pgNo = end; pgNo < n; pgNo++)
+                pool.discardPage(pageId(hf, pgNo));
+            commit(t, Collections.<HeapPage>emptyList());
+            committed = true;
+        } catch (TransactionAbortedException e) {
+            return 0;
+        } finally {
+            if (!committed)
+                t.abort();
+        }
+        return n - end;
+    }
+
+    //log the writes of t, the pages it dirtied, and commit it; the
+    //BufferPool writes the pages at commit without logging them
+    private static void commit(Transaction t, Collection<HeapPage> dirtied)
+            throws IOException {
+        if (!dirtied.isEmpty()) {
+            List<Page> before = new ArrayList<Page>();
+            List<Page> after = new ArrayList<Page>();
+            for (HeapPage p : dirtied) {
+                before.add(p.getBeforeImage());
+                after.add(p);
+            }
+            Database.getLogFile().logWrites(t.getId(), before, after);
+        }
+        t.commit();
+    }
+
+    private static PageId pageId(HeapFile hf, int pgNo) {
+        return new HeapPageId(hf.getId(), pgNo);
+    }
+}
@@ -0,0 +1,260 @@
+package simpledb;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.util.*;
+
+/**
+ * ZoneMap records, for every page of a HeapFile, the number of tuples on the
+ * page and the minimum and maximum value of each integer column among them,
+ * so that a scan with a range predicate can skip pages that cannot hold a
+ * matching tuple without fetching them. SimpleDB fields are never null, so
+ * the tuple count is also the non-null count of every column.
+ * <p>
+ * Like the FreeSpaceMap, the map lives in memory and is persisted in a
+ * sidecar file next to the table file (the table file name plus ".zm"), one
+ * fixed-size entry per page. Inserts only widen an entry, as they happen and
+ * including uncommitted ones. Deletes leave it as it is: a delete may still
+ * abort, and a scan that skipped the page without locking it would miss
+ * tuples that are still committed. An entry is made exact again from the
+ * page contents when the page is written to disk, which a commit does. So
+ * an entry may be wider than the page, which costs a needless read, but
+ * never narrower. A sidecar that is missing or older than the table file is
+ * rebuilt from the pages, and pages without an entry are never skipped.
+ *
+ * @see HeapFile.DFIterator
+ * @see Filter
+ */
+public class ZoneMap {
+
+    /** Suffix appended to the table file name to get the sidecar file. */
+    public static final String SUFFIX = ".zm";
+
+    private final HeapFile hf;
+    private final File file;
+    //the integer columns of the table, and their position in an entry
+    private final int[] columns;
+    private final int[] slotOf;
+    private final int entrySize;
+    private PageChannel sidecar;
+    //per page: count, then min and max of each integer column
+    private int[] zones = new int[0];
+    private int numPages = 0;
+    private boolean loaded = false;
+
+    /**
+     * Creates the zone map of hf. Nothing is read until the map is first
+     * used.
+     */
+    public ZoneMap(HeapFile hf) {
+        this.hf = hf;
+        this.file = new File(hf.getFile().getPath() + SUFFIX);
+        TupleDesc td = hf.getTupleDesc();
+        ArrayList<Integer> ints = new ArrayList<Integer>();
+        this.slotOf = new int[td.numFields()];
+        for (int i = 0; i < td.numFields(); i++) {
+            slotOf[i] = -1;
+            if (td.getFieldType(i) == Type.INT_TYPE) {
+                slotOf[i] = ints.size();
+                ints.add(i);
+            }
+        }
+        this.columns = new int[ints.size()];
+        for (int i = 0; i < columns.length; i++)
+            columns[i] = ints.get(i);
+        this.entrySize = 1 + 2 * columns.length;
+    }
+
+    /** @return the sidecar file of this map */
+    public File getFile() {
+        return file;
+    }
+
+    //load the sidecar on first use, rebuilding it from the table if it is
+    //stale
+    private void load() {
+        if (loaded)
+            return;
+        loaded = true;
+        int tablePages = hf.numPages();
+        sidecar = new PageChannel(file, entrySize * 4);
+        boolean stale = !file.exists()
+                || file.lastModified() < hf.getFile().lastModified();
+        int known = stale ? 0 : Math.min(sidecar.numPages(), tablePages);
+        ensureCapacity(tablePages);
+        try {
+            if (known > 0) {
+                ByteBuffer bb = ByteBuffer.allocate(known * entrySize * 4);
+                sidecar.readPage(0, bb);
+                bb.flip();
+                bb.asIntBuffer().get(zones, 0, known * entrySize);
+            }
+        } catch (IOException e) {
+            known = 0;
+        }
+        numPages = known;
+        for (int pgNo = known; pgNo < tablePages; pgNo++) {
+            extend(pgNo);
+            Page p = hf.readPage(new HeapPageId(hf.getId(), pgNo));
+            if (p instanceof HeapPage)
+                recompute(pgNo, (HeapPage) p);
+            persistEntry(pgNo);
+        }
+    }
+
+    private void ensureCapacity(int n) {
+        if (zones.length < n * entrySize)
+            zones = Arrays.copyOf(zones, Math.max(n, zones.length / entrySize * 2) * entrySize);
+    }
+
+    //make sure page pgNo has an entry, starting out empty
+    private void extend(int pgNo) {
+        if (pgNo < numPages)
+            return;
+        ensureCapacity(pgNo + 1);
+        for (; numPages <= pgNo; numPages++)
+            clear(numPages);
+    }
+
+    private void clear(int pgNo) {
+        int e = pgNo * entrySize;
+        zones[e] = 0;
+        for (int c = 0; c < columns.length; c++) {
+            zones[e + 1 + 2 * c] = Integer.MAX_VALUE;
+            zones[e + 2 + 2 * c] = Integer.MIN_VALUE;
+        }
+    }
+
+    //widen the entry of pgNo to cover t
+    private void include(int pgNo, Tuple t) {
+        int e = pgNo * entrySize;
+        zones[e]++;
+        for (int c = 0; c < columns.length; c++) {
+            int v = ((IntField) t.getField(columns[c])).getValue();
+            if (v < zones[e + 1 + 2 * c])
+                zones[e + 1 + 2 * c] = v;
+            if (v > zones[e + 2 + 2 * c])
+                zones[e + 2 + 2 * c] = v;
+        }
+    }
+
+    //set the entry of pgNo from the tuples on page
+    private void recompute(int pgNo, HeapPage page) {
+        extend(pgNo);
+        clear(pgNo);
+        Iterator<Tuple> it = page.iterator();
+        while (it.hasNext())
+            include(pgNo, it.next());
+    }
+
+    private void persistEntry(int pgNo) {
+        ByteBuffer bb = ByteBuffer.allocate(entrySize * 4);
+        bb.asIntBuffer().put(zones, pgNo * entrySize, entrySize);
+        try {
+            sidecar.writePage(pgNo, bb);
+        } catch (IOException e) {
+            //the sidecar is only a hint; it is rebuilt when found stale
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Records, in memory only, that t was inserted into page pgNo.
+     */
+    public synchronized void inserted(int pgNo, Tuple t) {
+        load();
+        extend(pgNo);
+        include(pgNo, t);
+    }
+
+    /**
+     * Sets the entry of the page from its contents and writes it to the
+     * sidecar. Called when the page is written to disk.
+     */
+    public synchronized void persist(HeapPage page) {
+        load();
+        int pgNo = page.getId().pageNumber();
+        recompute(pgNo, page);
+        persistEntry(pgNo);
+    }
+
+    /**
+     * Sets the entry of the page from its contents, in memory only. Called
+     * when an aborted transaction's changes to a cached page are undone, as
+     * the entry may no longer count the page's tuples correctly.
+     */
+    public synchronized void restore(HeapPage page) {
+        load();
+        recompute(page.getId().pageNumber(), page);
+    }
+
+    /**
+     * Drops the entries of pages numPages and up, in memory and in the
+     * sidecar. Called when the table file is truncated.
+     */
+    public synchronized void truncate(int numPages) {
+        load();
+        if (numPages >= this.numPages)
+            return;
+        this.numPages = numPages;
+        try {
+            sidecar.truncate(numPages);
+        } catch (IOException e) {
+            //the sidecar is only a hint; it is rebuilt when found stale
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * @return the recorded number of tuples on page pgNo, or -1 if the page
+     *   has no entry
+     */
+    public synchronized int getCount(int pgNo) {
+        load();
+        return pgNo < numPages ? zones[pgNo * entrySize] : -1;
+    }
+
+    /**
+     * Returns false if the entry of page pgNo shows that no tuple on it can
+     * satisfy all of preds, which must refer to the columns of the table.
+     * Predicates over string columns never rule a page out.
+     */
+    public synchronized boolean mayMatch(int pgNo, List<Predicate> preds) {
+        load();
+        if (pgNo >= numPages)
+            return true;
+        int e = pgNo * entrySize;
+        if (zones[e] == 0)
+            return false;
+        for (Predicate p : preds) {
+            int c = p.getField() < slotOf.length ? slotOf[p.getField()] : -1;
+            if (c < 0 || !(p.getOperand() instanceof IntField))
+                continue;
+            if (!mayMatch(zones[e + 1 + 2 * c], zones[e + 2 + 2 * c], p.getOp(),
+                    ((IntField) p.getOperand()).getValue()))
+                return false;
+        }
+        return true;
+    }
+
+    //can a value in [min, max] satisfy "value op v"? Also used to prune
+    //the partitions of a PartitionedFile
+    static boolean mayMatch(int min, int max, Predicate.Op op, int v) {
+        switch (op) {
+        case EQUALS:
+        case LIKE:
+            return min <= v && v <= max;
+        case GREATER_THAN:
+            return max > v;
+        case GREATER_THAN_OR_EQ:
+            return max >= v;
+        case LESS_THAN:
+            return min < v;
+        case LESS_THAN_OR_EQ:
+            return min <= v;
+        case NOT_EQUALS:
+            return min != v || max != v;
+        }
+        return true;
+    }
+}
@@ -0,0 +1,162 @@
+package simpledb;
+
+import java.io.*;
+import java.util.*;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class BTreeFileTest extends IndexFileTestBase {
+    private static final int ROWS = 3000;
+
+    protected IndexFile createIndex(File f, HeapFile table) {
+        return new BTreeFile(f, table, 0);
+    }
+
+    protected File indexFile(File tableFile) {
+        return BTreeFile.indexFile(tableFile, "key");
+    }
+
+    protected void build() throws Exception {
+        btree().build();
+    }
+
+    private BTreeFile btree() {
+        return (BTreeFile) index;
+    }
+
+    private static List<Integer> range(int from, int to) {
+        List<Integer> l = new ArrayList<Integer>();
+        for (int i = from; i < to; i++)
+            l.add(i);
+        return l;
+    }
+
+    /**
+     * Inserts in a scrambled order split the root leaf and then the leaves
+     * under it, and the index still returns every key in order
+     */
+    @Test public void leafSplits() throws Exception {
+        assertEquals(1, index.lookupPages());
+        insert(keys(0, ROWS), true);
+        assertTrue(btree().numPages() > 3);
+        assertEquals(2, index.lookupPages());
+
+        Transaction t = new Transaction();
+        t.start();
+        DbFileIterator it = index.iterator(t.getId());
+        List<Integer> all = new ArrayList<Integer>();
+        it.open();
+        while (it.hasNext())
+            all.add(((IntField) it.next().getField(0)).getValue());
+        it.close();
+        t.commit();
+        assertEquals(range(0, ROWS), all);
+    }
+
+    /**
+     * Enough ascending keys to fill the root with separators split it
+     * again, adding a level of internal pages
+     */
+    @Test public void internalSplits() throws Exception {
+        int n = 0;
+        while (index.lookupPages() < 3) {
+            int[] keys = new int[10000];
+            for (int i = 0; i < keys.length; i++)
+                keys[i] = n++;
+            insert(keys, true);
+            assertTrue(n + " keys", n < 500000);
+        }
+        for (int k = 0; k < n; k += n / 50)
+            assertEquals(Arrays.asList(k), column(lookup(Predicate.Op.EQUALS, k), 0));
+        assertEquals(range(n - 5, n), column(lookup(Predicate.Op.GREATER_THAN, n - 6), 0));
+    }
+
+    /**
+     * Every comparison returns exactly the keys in its range, in key
+     * order, across leaf boundaries
+     */
+    @Test public void rangeScans() throws Exception {
+        insert(keys(0, ROWS), true);
+        assertEquals(range(0, 10), column(lookup(Predicate.Op.LESS_THAN, 10), 0));
+        assertEquals(range(0, 11), column(lookup(Predicate.Op.LESS_THAN_OR_EQ, 10), 0));
+        assertEquals(range(ROWS - 10, ROWS),
+                column(lookup(Predicate.Op.GREATER_THAN_OR_EQ, ROWS - 10), 0));
+        assertEquals(range(ROWS - 9, ROWS),
+                column(lookup(Predicate.Op.GREATER_THAN, ROWS - 10), 0));
+        assertEquals(range(0, ROWS), column(lookup(Predicate.Op.GREATER_THAN, -1), 0));
+        assertEquals(0, lookup(Predicate.Op.GREATER_THAN, ROWS - 1).size());
+        assertEquals(0, lookup(Predicate.Op.LESS_THAN, 0).size());
+        assertEquals(0, lookup(Predicate.Op.EQUALS, ROWS).size());
+    }
+
+    /**
+     * A key that more tuples have than a leaf holds spans several leaves,
+     * and lookups find all of them and nothing of the keys around it
+     */
+    @Test public void duplicateKeysSpanLeaves() throws Exception {
+        //key 501 replaces the keys of all multiples of 3
+        int[] keys = new int[ROWS];
+        for (int i = 0; i < ROWS; i++)
+            keys[i] = i % 3 == 0 ? 501 : i;
+        insert(keys, true);
+
+        List<Integer> values = column(lookup(Predicate.Op.EQUALS, 501), 1);
+        assertEquals(ROWS / 3, values.size());
+        Collections.sort(values);
+        for (int i = 0; i < values.size(); i++)
+            assertEquals(3 * i, (int) values.get(i));
+        assertEquals(Arrays.asList(500), column(lookup(Predicate.Op.EQUALS, 500), 0));
+        assertEquals(Arrays.asList(502), column(lookup(Predicate.Op.EQUALS, 502), 0));
+        List<Integer> above = column(lookup(Predicate.Op.GREATER_THAN, 500), 0);
+        //the copies of 501, then the 1666 other keys from 502 to 2999
+        assertEquals(ROWS / 3 + 1666, above.size());
+        assertEquals(Arrays.asList(501, 502), Arrays.asList(above.get(ROWS / 3 - 1),
+                above.get(ROWS / 3)));
+    }
+
+    /**
+     * Deleted entries are gone, also after the index is read back from
+     * disk, and the emptied leaves take new keys
+     */
+    @Test public void deleteAndReopen() throws Exception {
+        insert(keys(0, ROWS), true);
+        deleteBelow(ROWS / 2);
+        int pages = btree().numPages();
+
+        reopen();
+        assertEquals(pages, btree().numPages());
+        assertEquals(0, lookup(Predicate.Op.LESS_THAN, ROWS / 2).size());
+        assertEquals(range(ROWS / 2, ROWS), column(lookup(Predicate.Op.GREATER_THAN, -1), 0));
+
+        insert(keys(0, 100), true);
+        assertEquals(range(0, 100), column(lookup(Predicate.Op.LESS_THAN, ROWS / 2), 0));
+        assertEquals(pages, btree().numPages());
+    }
+
+    /**
+     * Aborting a transaction whose inserts split leaves and the root
+     * leaves the tree as it was
+     */
+    @Test public void abortRollsBackSplits() throws Exception {
+        insert(keys(0, ROWS), true);
+        insert(keys(ROWS, 2 * ROWS), false);
+
+        assertEquals(0, lookup(Predicate.Op.GREATER_THAN_OR_EQ, ROWS).size());
+        assertEquals(range(0, ROWS), column(lookup(Predicate.Op.GREATER_THAN_OR_EQ, 0), 0));
+        assertEquals(ROWS, count());
+
+        //the tree is still usable
+        insert(keys(2 * ROWS, 2 * ROWS + 10), true);
+        assertEquals(range(2 * ROWS, 2 * ROWS + 10),
+                column(lookup(Predicate.Op.GREATER_THAN_OR_EQ, ROWS), 0));
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(BTreeFileTest.class);
+    }
+}
@@ -0,0 +1,228 @@
+package simpledb;
+
+import java.io.*;
+import java.util.*;
+
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class CompressedHeapFileTest extends SimpleDbTestBase {
+    private static final int ROWS = 5000;
+    private File f;
+    private CompressedHeapFile cf;
+
+    /**
+     * Set up an empty compressed table of two int columns.
+     */
+    @Before public void setUp() throws Exception {
+        super.setUp();
+        f = File.createTempFile("compressed", ".dat");
+        f.deleteOnExit();
+        new File(f.getPath() + CompressedHeapFile.INDEX_SUFFIX).deleteOnExit();
+        open();
+        Database.resetBufferPool(100);
+    }
+
+    private void open() {
+        cf = new CompressedHeapFile(f, Utility.getTupleDesc(2), false);
+        Database.getCatalog().addTable(cf, "compressed");
+    }
+
+    //insert the tuples (i, value(i)) for i from..to-1 in one transaction,
+    //and commit or abort it
+    private void insert(int from, int to, boolean commit, boolean random) throws Exception {
+        Random r = new Random(from);
+        Transaction t = new Transaction();
+        t.start();
+        for (int i = from; i < to; i++) {
+            int v = random ? r.nextInt() : i / 100;
+            Database.getBufferPool().insertTuple(t.getId(), cf.getId(),
+                    Utility.getHeapTuple(new int[] { i, v }));
+        }
+        if (commit)
+            t.commit();
+        else
+            t.abort();
+    }
+
+    //column 0 of every tuple of the table, sorted
+    private List<Integer> keys() throws Exception {
+        Transaction t = new Transaction();
+        t.start();
+        DbFileIterator it = cf.iterator(t.getId());
+        List<Integer> keys = new ArrayList<Integer>();
+        it.open();
+        while (it.hasNext())
+            keys.add(((IntField) it.next().getField(0)).getValue());
+        it.close();
+        t.commit();
+        Collections.sort(keys);
+        return keys;
+    }
+
+    private static List<Integer> range(int from, int to, int step) {
+        List<Integer> l = new ArrayList<Integer>();
+        for (int i = from; i < to; i += step)
+            l.add(i);
+        return l;
+    }
+
+    /**
+     * Committed inserts are stored in fewer bytes than plain pages and
+     * read back after a restart; aborted ones are not there
+     */
+    @Test public void insertAndReopen() throws Exception {
+        insert(0, ROWS, true, false);
+        insert(ROWS, ROWS + 500, false, false);
+        int pages = cf.numPages();
+        assertTrue(pages > 1);
+        assertTrue(cf.storedPages() < pages);
+        assertTrue(f.length() < (long) pages * BufferPool.PAGE_SIZE);
+
+        Database.reset();
+        Database.resetBufferPool(100);
+        open();
+        assertEquals(pages, cf.numPages());
+        assertEquals(range(0, ROWS, 1), keys());
+    }
+
+    /**
+     * Deletes are written back, and a page that compresses worse after an
+     * update is moved to a new record, which the page-offset index, and a
+     * rebuild of it, find
+     */
+    @Test public void deleteAndGrow() throws Exception {
+        insert(0, ROWS, true, false);
+        long before = f.length();
+
+        Transaction t = new Transaction();
+        t.start();
+        DbFileIterator it = cf.iterator(t.getId());
+        List<Tuple> victims = new ArrayList<Tuple>();
+        it.open();
+        while (it.hasNext()) {
+            Tuple tup = it.next();
+            if (((IntField) tup.getField(0)).getValue() % 2 == 1)
+                victims.add(tup);
+        }
+        it.close();
+        for (Tuple tup : victims)
+            Database.getBufferPool().deleteTuple(t.getId(), tup);
+        t.commit();
+        assertEquals(range(0, ROWS, 2), keys());
+
+        //random values fill the freed slots and barely compress
+        insert(ROWS, ROWS + ROWS / 2, true, true);
+        assertTrue(f.length() > before);
+        List<Integer> expected = range(0, ROWS, 2);
+        expected.addAll(range(ROWS, ROWS + ROWS / 2, 1));
+        assertEquals(expected, keys());
+
+        Database.reset();
+        Database.resetBufferPool(100);
+        assertTrue(new File(f.getPath() + CompressedHeapFile.INDEX_SUFFIX).delete());
+        open();
+        assertEquals(expected, keys());
+    }
+
+    /**
+     * Truncating leaves no record behind that a rebuild of the page-offset
+     * index would take for a page, even where the dropped pages' records
+     * lie before the record of a page that is kept
+     */
+    @Test public void truncateThenRebuild() throws Exception {
+        int keep = 2;
+        //only the explicit vacuum below may truncate the table
+        Vacuum.setAutoVacuum(false);
+        try {
+            insert(0, ROWS, true, false);
+            delete(0, 0);
+
+            //values that barely compress fill the free slots, half of page
+            //0 among them, and the record of page 0 moves to the end of
+            //the file, past those of the pages dropped below
+            long before = f.length();
+            insert(ROWS, ROWS + emptySlots(), true, true);
+            assertEquals(0, emptySlots());
+            assertTrue(f.length() > before);
+
+            delete(keep, cf.numPages());
+            List<Integer> expected = keys();
+            Vacuum.vacuum(cf);
+            assertEquals(keep, cf.numPages());
+            assertEquals(expected, keys());
+
+            Database.reset();
+            Database.resetBufferPool(100);
+            assertTrue(new File(f.getPath() + CompressedHeapFile.INDEX_SUFFIX).delete());
+            open();
+            assertEquals(keep, cf.numPages());
+            assertEquals(expected, keys());
+        } finally {
+            Vacuum.setAutoVacuum(true);
+        }
+    }
+
+    //delete the odd keys of page from, or all tuples of pages from..to-1
+    //if from < to, and commit
+    private void delete(int from, int to) throws Exception {
+        Transaction t = new Transaction();
+        t.start();
+        DbFileIterator it = cf.iterator(t.getId());
+        List<Tuple> victims = new ArrayList<Tuple>();
+        it.open();
+        while (it.hasNext()) {
+            Tuple tup = it.next();
+            int pgNo = tup.getRecordId().getPageId().pageNumber();
+            if (from < to ? pgNo >= from && pgNo < to
+                    : pgNo == from && ((IntField) tup.getField(0)).getValue() % 2 == 1)
+                victims.add(tup);
+        }
+        it.close();
+        for (Tuple tup : victims)
+            Database.getBufferPool().deleteTuple(t.getId(), tup);
+        t.commit();
+    }
+
+    //the number of empty slots on all pages of the table
+    private int emptySlots() throws Exception {
+        Transaction t = new Transaction();
+        t.start();
+        int n = 0;
+        for (int pgNo = 0; pgNo < cf.numPages(); pgNo++)
+            n += ((HeapPage) Database.getBufferPool().getPage(t.getId(),
+                    new HeapPageId(cf.getId(), pgNo), Permissions.READ_ONLY))
+                    .getNumEmptySlots();
+        t.commit();
+        return n;
+    }
+
+    /**
+     * compress() rewrites a plain heap file as an equal compressed table
+     */
+    @Test public void compressHeapFile() throws Exception {
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        HeapFile hf = SystemTestUtil.createRandomHeapFile(2, 3000, 100, null, tuples);
+        File out = File.createTempFile("compressed", ".dat");
+        out.deleteOnExit();
+        new File(out.getPath() + CompressedHeapFile.INDEX_SUFFIX).deleteOnExit();
+        assertEquals(hf.numPages(), CompressedHeapFile.compress(hf.getFile(), out));
+
+        CompressedHeapFile c = new CompressedHeapFile(out, Utility.getTupleDesc(2), false);
+        Database.getCatalog().addTable(c, "c");
+        assertEquals(hf.numPages(), c.numPages());
+        assertTrue(out.length() < hf.getFile().length());
+        SystemTestUtil.matchTuples(c, tuples);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(CompressedHeapFileTest.class);
+    }
+}
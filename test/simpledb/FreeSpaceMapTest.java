@@ -0,0 +1,95 @@
+package simpledb;
+
+import java.io.*;
+
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class FreeSpaceMapTest extends SimpleDbTestBase {
+    private File f;
+    private HeapFile hf;
+    //tuples per page of two int columns
+    private int perPage;
+
+    /**
+     * Set up a table of two int columns with three full pages.
+     */
+    @Before public void setUp() throws Exception {
+        super.setUp();
+        f = File.createTempFile("fsm", ".dat");
+        f.deleteOnExit();
+        new File(f.getPath() + FreeSpaceMap.SUFFIX).deleteOnExit();
+        new File(f.getPath() + ZoneMap.SUFFIX).deleteOnExit();
+        Utility.createEmptyHeapFile(f.getAbsolutePath(), 2);
+        open();
+        Database.resetBufferPool(100);
+        perPage = hf.tuplesPerPage();
+        insert(3 * perPage, true);
+        assertEquals(3, hf.numPages());
+    }
+
+    private void open() {
+        hf = Utility.openHeapFile(2, f);
+        Database.getCatalog().addTable(hf, "fsm");
+    }
+
+    //insert n tuples in one transaction, and commit or abort it
+    private void insert(int n, boolean commit) throws Exception {
+        Transaction t = new Transaction();
+        t.start();
+        for (int i = 0; i < n; i++)
+            Database.getBufferPool().insertTuple(t.getId(), hf.getId(),
+                    Utility.getHeapTuple(new int[] { i, i }));
+        if (commit)
+            t.commit();
+        else
+            t.abort();
+    }
+
+    /**
+     * A page appended by a transaction that aborts has its entry in the
+     * sidecar, so the sidecar is not found stale at the next start
+     */
+    @Test public void abortedAppend() throws Exception {
+        File sidecar = hf.getFreeSpaceMap().getFile();
+        insert(1, false);
+        assertEquals(4, hf.numPages());
+        assertEquals(4 * 2, sidecar.length());
+        assertFalse(sidecar.lastModified() < f.lastModified());
+
+        Database.reset();
+        open();
+        for (int pgNo = 0; pgNo < 3; pgNo++)
+            assertEquals(0, hf.getFreeSpaceMap().getFreeSlots(pgNo));
+        assertEquals(perPage, hf.getFreeSpaceMap().getFreeSlots(3));
+    }
+
+    /**
+     * A missing sidecar is rebuilt from the pages and written out whole
+     */
+    @Test public void rebuild() throws Exception {
+        insert(perPage / 2, true);
+        Database.reset();
+        File sidecar = new File(f.getPath() + FreeSpaceMap.SUFFIX);
+        assertTrue(sidecar.delete());
+        open();
+
+        FreeSpaceMap fsm = hf.getFreeSpaceMap();
+        assertEquals(perPage - perPage / 2, fsm.getFreeSlots(3));
+        assertEquals(4 * 2, sidecar.length());
+        Database.reset();
+        open();
+        assertEquals(perPage - perPage / 2, hf.getFreeSpaceMap().getFreeSlots(3));
+        assertEquals(0, hf.getFreeSpaceMap().getFreeSlots(0));
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(FreeSpaceMapTest.class);
+    }
+}
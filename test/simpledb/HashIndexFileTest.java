@@ -0,0 +1,134 @@
+package simpledb;
+
+import java.io.*;
+import java.util.*;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class HashIndexFileTest extends IndexFileTestBase {
+    private static final int ROWS = 5000;
+
+    protected IndexFile createIndex(File f, HeapFile table) {
+        return new HashIndexFile(f, table, 0);
+    }
+
+    protected File indexFile(File tableFile) {
+        return HashIndexFile.indexFile(tableFile, "key");
+    }
+
+    protected void build() throws Exception {
+        ((HashIndexFile) index).build();
+    }
+
+    //the header page as last written to disk
+    private HashHeaderPage header() {
+        return (HashHeaderPage) index.readPage(new IndexPageId(index.getId(), 0));
+    }
+
+    private List<Integer> values(int key) throws Exception {
+        List<Integer> values = column(lookup(Predicate.Op.EQUALS, key), 1);
+        Collections.sort(values);
+        return values;
+    }
+
+    /**
+     * Only equality lookups can use a hash index
+     */
+    @Test public void supports() {
+        assertTrue(index.supports(Predicate.Op.EQUALS));
+        assertFalse(index.supports(Predicate.Op.GREATER_THAN));
+        assertFalse(index.supports(Predicate.Op.LESS_THAN_OR_EQ));
+        assertEquals(1, index.lookupPages());
+    }
+
+    /**
+     * The table grows a bucket at a time as buckets overflow, and every
+     * key is found in the bucket a split moved it to
+     */
+    @Test public void bucketSplits() throws Exception {
+        assertEquals(1, header().numBuckets());
+        int[] keys = keys(0, ROWS);
+        int buckets = 1;
+        for (int from = 0; from < ROWS; from += 500) {
+            insert(Arrays.copyOfRange(keys, from, from + 500), true);
+            assertTrue(header().numBuckets() >= buckets);
+            buckets = header().numBuckets();
+            //keys inserted before the latest splits moved with their bucket
+            for (int i = 0; i < from; i += 37)
+                assertEquals(1, lookup(Predicate.Op.EQUALS, keys[i]).size());
+        }
+        assertTrue(buckets + " buckets", buckets > 4);
+
+        for (int k = 0; k < ROWS; k++)
+            assertEquals(Arrays.asList(k), column(lookup(Predicate.Op.EQUALS, k), 0));
+        assertEquals(0, lookup(Predicate.Op.EQUALS, ROWS).size());
+        assertEquals(0, lookup(Predicate.Op.EQUALS, -1).size());
+        assertEquals(ROWS, count());
+    }
+
+    /**
+     * A key with more tuples than a page holds fills a chain of overflow
+     * pages, which splits cannot shorten, and lookups read all of them
+     */
+    @Test public void overflowChains() throws Exception {
+        int[] keys = new int[ROWS];
+        for (int i = 0; i < ROWS; i++)
+            keys[i] = i % 10;
+        insert(keys, true);
+        for (int k = 0; k < 10; k++) {
+            List<Integer> values = values(k);
+            assertEquals(ROWS / 10, values.size());
+            for (int i = 0; i < values.size(); i++)
+                assertEquals(k + 10 * i, (int) values.get(i));
+        }
+    }
+
+    /**
+     * Deleted entries are gone, also after the index is read back from
+     * disk, and the other keys are still found
+     */
+    @Test public void deleteAndReopen() throws Exception {
+        insert(keys(0, ROWS), true);
+        deleteBelow(ROWS / 2);
+        int buckets = header().numBuckets();
+
+        reopen();
+        assertEquals(buckets, header().numBuckets());
+        assertEquals(0, lookup(Predicate.Op.EQUALS, 0).size());
+        assertEquals(0, lookup(Predicate.Op.EQUALS, ROWS / 2 - 1).size());
+        assertEquals(1, lookup(Predicate.Op.EQUALS, ROWS / 2).size());
+        assertEquals(ROWS - ROWS / 2, count());
+    }
+
+    /**
+     * Aborting a transaction whose inserts split buckets puts the header
+     * and the buckets back as they were
+     */
+    @Test public void abortRollsBackSplits() throws Exception {
+        insert(keys(0, ROWS), true);
+        int buckets = header().numBuckets();
+        int next = header().nextToSplit();
+
+        insert(keys(ROWS, 2 * ROWS), false);
+        assertEquals(buckets, header().numBuckets());
+        assertEquals(next, header().nextToSplit());
+        assertEquals(0, lookup(Predicate.Op.EQUALS, ROWS).size());
+        assertEquals(0, lookup(Predicate.Op.EQUALS, 2 * ROWS - 1).size());
+        assertEquals(1, lookup(Predicate.Op.EQUALS, 17).size());
+        assertEquals(ROWS, count());
+
+        //the index is still usable
+        insert(keys(ROWS, ROWS + 10), true);
+        assertEquals(1, lookup(Predicate.Op.EQUALS, ROWS + 3).size());
+        assertEquals(ROWS + 10, count());
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(HashIndexFileTest.class);
+    }
+}
@@ -0,0 +1,145 @@
+package simpledb;
+
+import java.io.*;
+import java.util.*;
+
+import org.junit.Before;
+import static org.junit.Assert.*;
+import simpledb.systemtest.SimpleDbTestBase;
+
+/**
+ * Base class for tests of an IndexFile: sets up an empty two-column table
+ * "t" with an index on column 0, and inserts, deletes and looks up tuples
+ * through the BufferPool and IndexScan.
+ */
+public abstract class IndexFileTestBase extends SimpleDbTestBase {
+    protected File tableFile;
+    protected HeapFile hf;
+    protected IndexFile index;
+
+    /** @return the index on column 0 of table, stored in f */
+    protected abstract IndexFile createIndex(File f, HeapFile table);
+
+    /** @return the file that stores the index on the table in tableFile */
+    protected abstract File indexFile(File tableFile);
+
+    /** Builds the index from the empty table. */
+    protected abstract void build() throws Exception;
+
+    @Before public void setUp() throws Exception {
+        super.setUp();
+        tableFile = File.createTempFile("index", ".dat");
+        tableFile.deleteOnExit();
+        indexFile(tableFile).deleteOnExit();
+        hf = Utility.createEmptyHeapFile(tableFile.getAbsolutePath(), 2);
+        open();
+        build();
+        Database.resetBufferPool(1000);
+    }
+
+    //register the table and its index in the catalog
+    private void open() {
+        hf = Utility.openHeapFile(2, tableFile);
+        index = createIndex(indexFile(tableFile), hf);
+        Database.getCatalog().addTable(hf, "t");
+        Database.getCatalog().addIndex(hf.getId(), index);
+    }
+
+    /** Simulates a restart, and opens the table and index from disk. */
+    protected void reopen() {
+        Database.reset();
+        Database.resetBufferPool(1000);
+        open();
+    }
+
+    /** Inserts the tuples (keys[i], i) as part of t. */
+    protected void insert(Transaction t, int[] keys) throws Exception {
+        for (int i = 0; i < keys.length; i++)
+            Database.getBufferPool().insertTuple(t.getId(), hf.getId(),
+                    Utility.getHeapTuple(new int[] { keys[i], i }));
+    }
+
+    /** Inserts the tuples (keys[i], i) and commits, or aborts if !commit. */
+    protected void insert(int[] keys, boolean commit) throws Exception {
+        Transaction t = new Transaction();
+        t.start();
+        insert(t, keys);
+        if (commit)
+            t.commit();
+        else
+            t.abort();
+    }
+
+    /** @return the keys from..to-1, in a scrambled order */
+    protected static int[] keys(int from, int to) {
+        int n = to - from;
+        int[] keys = new int[n];
+        for (int i = 0; i < n; i++)
+            keys[i] = from + (int) ((i * 7919L) % n);
+        return keys;
+    }
+
+    /**
+     * @return the tuples an IndexScan returns for the predicate key op v,
+     *   in the order the index returns them
+     */
+    protected List<Tuple> lookup(Predicate.Op op, int v) throws Exception {
+        Transaction t = new Transaction();
+        t.start();
+        List<Predicate> preds = new ArrayList<Predicate>();
+        preds.add(new Predicate(0, op, new IntField(v)));
+        IndexScan scan = new IndexScan(t.getId(), hf.getId(), "t", index, preds);
+        List<Tuple> tuples = new ArrayList<Tuple>();
+        scan.open();
+        while (scan.hasNext()) {
+            Tuple tup = scan.next();
+            assertTrue(preds.get(0).filter(tup));
+            tuples.add(tup);
+        }
+        scan.close();
+        t.commit();
+        return tuples;
+    }
+
+    /** @return column c of each of tuples */
+    protected static List<Integer> column(List<Tuple> tuples, int c) {
+        List<Integer> l = new ArrayList<Integer>();
+        for (Tuple tup : tuples)
+            l.add(((IntField) tup.getField(c)).getValue());
+        return l;
+    }
+
+    /** Deletes the tuples whose key is less than v, and commits. */
+    protected void deleteBelow(int v) throws Exception {
+        Transaction t = new Transaction();
+        t.start();
+        DbFileIterator it = hf.iterator(t.getId());
+        List<Tuple> victims = new ArrayList<Tuple>();
+        it.open();
+        while (it.hasNext()) {
+            Tuple tup = it.next();
+            if (((IntField) tup.getField(0)).getValue() < v)
+                victims.add(tup);
+        }
+        it.close();
+        for (Tuple tup : victims)
+            Database.getBufferPool().deleteTuple(t.getId(), tup);
+        t.commit();
+    }
+
+    /** @return the number of tuples the index returns without a predicate */
+    protected int count() throws Exception {
+        Transaction t = new Transaction();
+        t.start();
+        DbFileIterator it = index.iterator(t.getId());
+        int n = 0;
+        it.open();
+        while (it.hasNext()) {
+            it.next();
+            n++;
+        }
+        it.close();
+        t.commit();
+        return n;
+    }
+}
@@ -0,0 +1,136 @@
+package simpledb;
+
+import java.io.*;
+import java.util.*;
+
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class LruPolicyTest extends SimpleDbTestBase {
+    private static final int TABLE_PAGES = 400;
+    private HeapFile hf;
+
+    /**
+     * Set up a table of TABLE_PAGES empty pages.
+     */
+    @Before public void setUp() throws Exception {
+        super.setUp();
+        File f = File.createTempFile("lru", ".dat");
+        f.deleteOnExit();
+        FileOutputStream out = new FileOutputStream(f);
+        out.write(new byte[TABLE_PAGES * BufferPool.PAGE_SIZE]);
+        out.close();
+        hf = new HeapFile(f, Utility.getTupleDesc(1));
+        Database.getCatalog().addTable(hf, "lru");
+    }
+
+    private PageId pid(int pgNo) {
+        return new HeapPageId(hf.getId(), pgNo);
+    }
+
+    /**
+     * Unit test for LruPolicy.victims(): least recently admitted or
+     * accessed first, without the removed pages
+     */
+    @Test public void victimOrder() {
+        LruPolicy lru = new LruPolicy();
+        for (int i = 0; i < 4; i++)
+            lru.admitted(pid(i));
+        lru.accessed(pid(1));
+        lru.accessed(pid(0));
+        assertEquals(Arrays.asList(pid(2), pid(3), pid(1), pid(0)), victims(lru));
+
+        lru.removed(pid(3));
+        lru.accessed(pid(2));
+        assertEquals(Arrays.asList(pid(1), pid(0), pid(2)), victims(lru));
+    }
+
+    /**
+     * The BufferPool evicts the least recently used clean page
+     */
+    @Test public void poolEvictsLeastRecentlyUsed() throws Exception {
+        BufferPool bp = Database.resetBufferPool(3);
+        TransactionId tid = new TransactionId();
+        for (int i = 0; i < 3; i++)
+            bp.getPage(tid, pid(i), Permissions.READ_ONLY);
+        bp.getPage(tid, pid(0), Permissions.READ_ONLY);
+        //evicts page 1
+        bp.getPage(tid, pid(3), Permissions.READ_ONLY);
+        bp.resetStats();
+
+        bp.getPage(tid, pid(0), Permissions.READ_ONLY);
+        bp.getPage(tid, pid(2), Permissions.READ_ONLY);
+        bp.getPage(tid, pid(3), Permissions.READ_ONLY);
+        assertEquals(3, bp.getHits());
+        assertEquals(0, bp.getMisses());
+
+        bp.getPage(tid, pid(1), Permissions.READ_ONLY);
+        assertEquals(1, bp.getMisses());
+        bp.transactionComplete(tid);
+    }
+
+    /**
+     * Under a Zipfian workload, LRU keeps most of the hit ratio of caching
+     * the most accessed pages, and the BufferPool hits exactly as often as
+     * a replay of the same accesses through an LruPolicy
+     */
+    @Test public void zipfianHitRatio() throws Exception {
+        int frames = 100;
+        double[] cdf = zipf(TABLE_PAGES, 1.0);
+        //the share of accesses to the frames most accessed pages
+        double ideal = cdf[frames - 1];
+        List<Integer> ranks = new ArrayList<Integer>();
+        for (int i = 0; i < TABLE_PAGES; i++)
+            ranks.add(i);
+        Random r = new Random(1);
+        Collections.shuffle(ranks, r);
+        List<PageId> trace = new ArrayList<PageId>();
+        for (int i = 0; i < 20000; i++) {
+            int rank = Arrays.binarySearch(cdf, r.nextDouble());
+            rank = Math.min(rank < 0 ? -rank - 1 : rank, TABLE_PAGES - 1);
+            trace.add(pid(ranks.get(rank)));
+        }
+
+        double replayed = ReplacementPolicy.replay(trace, new LruPolicy(), frames);
+        assertTrue("hit ratio " + replayed + " of " + ideal, replayed > ideal * 0.8);
+
+        BufferPool bp = Database.resetBufferPool(frames);
+        TransactionId tid = new TransactionId();
+        for (PageId pid : trace)
+            bp.getPage(tid, pid, Permissions.READ_ONLY);
+        bp.transactionComplete(tid);
+        assertEquals(replayed, bp.getHitRatio(), 1e-9);
+    }
+
+    private static List<PageId> victims(ReplacementPolicy policy) {
+        List<PageId> l = new ArrayList<PageId>();
+        Iterator<PageId> it = policy.victims();
+        while (it.hasNext())
+            l.add(it.next());
+        return l;
+    }
+
+    //the cumulative distribution of ranks 0..n-1 with probability
+    //proportional to 1 / (rank + 1)^s
+    private static double[] zipf(int n, double s) {
+        double[] cdf = new double[n];
+        double sum = 0;
+        for (int i = 0; i < n; i++) {
+            sum += 1 / Math.pow(i + 1, s);
+            cdf[i] = sum;
+        }
+        for (int i = 0; i < n; i++)
+            cdf[i] /= sum;
+        return cdf;
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(LruPolicyTest.class);
+    }
+}
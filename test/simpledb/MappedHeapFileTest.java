@@ -0,0 +1,128 @@
+package simpledb;
+
+import java.io.*;
+import java.util.*;
+
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class MappedHeapFileTest extends SimpleDbTestBase {
+    private File f;
+    private MappedHeapFile mf;
+    //tuples per page of two int columns
+    private int perPage;
+
+    /**
+     * Set up an empty mapped table of two int columns.
+     */
+    @Before public void setUp() throws Exception {
+        super.setUp();
+        f = File.createTempFile("mapped", ".dat");
+        f.deleteOnExit();
+        new File(f.getPath() + FreeSpaceMap.SUFFIX).deleteOnExit();
+        new File(f.getPath() + ZoneMap.SUFFIX).deleteOnExit();
+        mf = new MappedHeapFile(f, Utility.getTupleDesc(2));
+        Database.getCatalog().addTable(mf, "mapped");
+        Database.resetBufferPool(100);
+        perPage = HeapPage.numSlots(mf.getTupleDesc(), BufferPool.PAGE_SIZE);
+    }
+
+    //insert the tuples (i, v) for i from..to-1 and commit
+    private void insert(int from, int to, int v) throws Exception {
+        Transaction t = new Transaction();
+        t.start();
+        for (int i = from; i < to; i++)
+            Database.getBufferPool().insertTuple(t.getId(), mf.getId(),
+                    Utility.getHeapTuple(new int[] { i, v }));
+        t.commit();
+    }
+
+    //delete the tuples of pages from..numPages-1 and commit
+    private void deletePages(int from) throws Exception {
+        Transaction t = new Transaction();
+        t.start();
+        for (int pgNo = from; pgNo < mf.numPages(); pgNo++) {
+            for (Tuple tup : tuples(page(t.getId(), pgNo)))
+                Database.getBufferPool().deleteTuple(t.getId(), tup);
+        }
+        t.commit();
+    }
+
+    private HeapPage page(TransactionId tid, int pgNo) throws Exception {
+        return (HeapPage) Database.getBufferPool().getPage(tid,
+                new HeapPageId(mf.getId(), pgNo), Permissions.READ_WRITE);
+    }
+
+    //the tuples of p, not yet decoded
+    private static List<Tuple> tuples(HeapPage p) {
+        List<Tuple> tuples = new ArrayList<Tuple>();
+        Iterator<Tuple> it = p.iterator();
+        while (it.hasNext())
+            tuples.add(it.next());
+        return tuples;
+    }
+
+    private static int field(Tuple t, int i) {
+        return ((IntField) t.getField(i)).getValue();
+    }
+
+    /**
+     * Pages read from the mapping and their tuples keep the bytes they
+     * were read with when the page is written over
+     */
+    @Test public void writeKeepsReadPages() throws Exception {
+        insert(0, perPage, 1);
+        assertEquals(1, mf.numPages());
+        HeapPageId pid = new HeapPageId(mf.getId(), 0);
+        HeapPage read = (HeapPage) mf.readPage(pid);
+        List<Tuple> before = tuples(read);
+
+        //the deleted slots are the only free ones, so the inserts reuse them
+        deletePages(0);
+        insert(0, perPage, 2);
+        assertEquals(1, mf.numPages());
+        for (Tuple tup : tuples((HeapPage) mf.readPage(pid)))
+            assertEquals(2, field(tup, 1));
+
+        assertEquals(perPage, before.size());
+        for (Tuple tup : before)
+            assertEquals(1, field(tup, 1));
+    }
+
+    /**
+     * Pages read from the pages a truncate drops can still be read, as they
+     * no longer view the mapping past the end of the file
+     */
+    @Test public void truncateDetachesPages() throws Exception {
+        insert(0, 3 * perPage, 1);
+        assertEquals(3, mf.numPages());
+        HeapPage last = (HeapPage) mf.readPage(new HeapPageId(mf.getId(), 2));
+        List<Tuple> before = tuples(last);
+
+        deletePages(1);
+        mf.truncate(1);
+        for (int pgNo = 1; pgNo < 3; pgNo++)
+            Database.getBufferPool().discardPage(new HeapPageId(mf.getId(), pgNo));
+        assertEquals(1, mf.numPages());
+
+        assertEquals(perPage, before.size());
+        for (Tuple tup : before)
+            assertEquals(1, field(tup, 1));
+
+        //the last region is mapped again as the table grows
+        insert(3 * perPage, 4 * perPage, 3);
+        assertEquals(2, mf.numPages());
+        for (Tuple tup : tuples((HeapPage) mf.readPage(new HeapPageId(mf.getId(), 1))))
+            assertEquals(3, field(tup, 1));
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(MappedHeapFileTest.class);
+    }
+}
@@ -0,0 +1,221 @@
+package simpledb;
+
+import java.io.*;
+import java.util.*;
+
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class PartitionedFileTest extends SimpleDbTestBase {
+    private static final int ROWS = 3000;
+    private static final int[] BOUNDS = { 1000, 2000 };
+    private File f;
+    private PartitionedFile pf;
+
+    /**
+     * Set up an empty two-column table in three partitions by ranges of
+     * column 0.
+     */
+    @Before public void setUp() throws Exception {
+        super.setUp();
+        f = File.createTempFile("partitioned", ".dat");
+        f.deleteOnExit();
+        for (int i = 0; i <= BOUNDS.length; i++) {
+            File part = PartitionedFile.partitionFile(f, i);
+            Utility.createEmptyHeapFile(part.getAbsolutePath(), 2);
+            part.deleteOnExit();
+        }
+        open(true);
+        Database.resetBufferPool(1000);
+    }
+
+    //register the table, range or hash partitioned, in the catalog
+    private void open(boolean range) {
+        HeapFile[] parts = new HeapFile[BOUNDS.length + 1];
+        for (int i = 0; i < parts.length; i++)
+            parts[i] = Utility.openHeapFile(2, PartitionedFile.partitionFile(f, i));
+        TupleDesc td = Utility.getTupleDesc(2);
+        pf = range ? new PartitionedFile(f, td, 0, BOUNDS, parts)
+                : new PartitionedFile(f, td, 0, parts);
+        Database.getCatalog().addTable(pf, "p");
+    }
+
+    //insert the tuples (i, -i) for i from..to-1, and commit or abort
+    private void insert(int from, int to, boolean commit) throws Exception {
+        Transaction t = new Transaction();
+        t.start();
+        for (int i = from; i < to; i++)
+            Database.getBufferPool().insertTuple(t.getId(), pf.getId(),
+                    Utility.getHeapTuple(new int[] { i, -i }));
+        if (commit)
+            t.commit();
+        else
+            t.abort();
+    }
+
+    //column 0 of the tuples of the partitions i with keep[i], sorted
+    private List<Integer> keys(boolean[] keep) throws Exception {
+        Transaction t = new Transaction();
+        t.start();
+        DbFileIterator it = pf.iterator(t.getId(), keep);
+        List<Integer> keys = new ArrayList<Integer>();
+        it.open();
+        while (it.hasNext()) {
+            Tuple tup = it.next();
+            assertEquals(-((IntField) tup.getField(0)).getValue(),
+                    ((IntField) tup.getField(1)).getValue());
+            keys.add(((IntField) tup.getField(0)).getValue());
+        }
+        it.close();
+        t.commit();
+        Collections.sort(keys);
+        return keys;
+    }
+
+    private List<Integer> keys() throws Exception {
+        boolean[] all = new boolean[pf.numPartitions()];
+        Arrays.fill(all, true);
+        return keys(all);
+    }
+
+    private static List<Integer> range(int from, int to, int step) {
+        List<Integer> l = new ArrayList<Integer>();
+        for (int i = from; i < to; i += step)
+            l.add(i);
+        return l;
+    }
+
+    /**
+     * Each tuple is stored in the partition of the range its key falls in
+     */
+    @Test public void rangeRouting() throws Exception {
+        assertEquals(0, pf.partitionOf(new IntField(Integer.MIN_VALUE)));
+        assertEquals(0, pf.partitionOf(new IntField(999)));
+        assertEquals(1, pf.partitionOf(new IntField(1000)));
+        assertEquals(2, pf.partitionOf(new IntField(2000)));
+
+        insert(0, ROWS, true);
+        assertEquals(range(0, ROWS, 1), keys());
+        for (int i = 0; i < pf.numPartitions(); i++) {
+            boolean[] keep = new boolean[pf.numPartitions()];
+            keep[i] = true;
+            assertEquals(range(i * 1000, (i + 1) * 1000, 1), keys(keep));
+        }
+        assertEquals(pf.getPartition(0).numPages() + pf.getPartition(1).numPages()
+                + pf.getPartition(2).numPages(), pf.numPages());
+    }
+
+    /**
+     * Predicates on the partition column rule out the partitions that hold
+     * no matching tuple
+     */
+    @Test public void pruning() throws Exception {
+        assertTrue(Arrays.equals(new boolean[] { false, true, true },
+                pf.partitionsMatching(new Predicate(0, Predicate.Op.GREATER_THAN,
+                        new IntField(999)))));
+        assertTrue(Arrays.equals(new boolean[] { true, false, false },
+                pf.partitionsMatching(new Predicate(0, Predicate.Op.LESS_THAN,
+                        new IntField(1000)))));
+        assertTrue(Arrays.equals(new boolean[] { false, true, false },
+                pf.partitionsMatching(new Predicate(0, Predicate.Op.EQUALS,
+                        new IntField(1500)))));
+        assertTrue(Arrays.equals(new boolean[] { true, true, true },
+                pf.partitionsMatching(new Predicate(1, Predicate.Op.EQUALS,
+                        new IntField(1500)))));
+
+        insert(0, ROWS, true);
+        TransactionId tid = new TransactionId();
+        PartitionedScan scan = new PartitionedScan(tid, pf.getId(), "p");
+        assertEquals(1, scan.prune(new Predicate(0, Predicate.Op.GREATER_THAN_OR_EQ,
+                new IntField(2500))));
+        int n = 0;
+        scan.open();
+        while (scan.hasNext()) {
+            assertTrue(((IntField) scan.next().getField(0)).getValue() >= 2000);
+            n++;
+        }
+        scan.close();
+        Database.getBufferPool().transactionComplete(tid);
+        assertEquals(1000, n);
+    }
+
+    /**
+     * Deletes through the BufferPool reach the partition of the tuple
+     */
+    @Test public void delete() throws Exception {
+        insert(0, ROWS, true);
+
+        Transaction t = new Transaction();
+        t.start();
+        DbFileIterator it = pf.iterator(t.getId());
+        List<Tuple> victims = new ArrayList<Tuple>();
+        it.open();
+        while (it.hasNext()) {
+            Tuple tup = it.next();
+            if (((IntField) tup.getField(0)).getValue() % 2 == 0)
+                victims.add(tup);
+        }
+        it.close();
+        for (Tuple tup : victims)
+            Database.getBufferPool().deleteTuple(t.getId(), tup);
+        t.commit();
+        assertEquals(range(1, ROWS, 2), keys());
+    }
+
+    /**
+     * Committed tuples are found in their partitions after a restart, and
+     * those of an aborted transaction are not
+     */
+    @Test public void reopenAndAbort() throws Exception {
+        insert(0, ROWS, true);
+        insert(ROWS, ROWS + 500, false);
+        insert(-500, 0, false);
+        int pages = pf.numPages();
+
+        Database.reset();
+        Database.resetBufferPool(1000);
+        open(true);
+        assertEquals(pages, pf.numPages());
+        assertEquals(range(0, ROWS, 1), keys());
+    }
+
+    /**
+     * A hash-partitioned table spreads its tuples over all partitions by
+     * the hash of the key, and an equality predicate keeps only one
+     */
+    @Test public void hashPartitions() throws Exception {
+        Database.reset();
+        Database.resetBufferPool(1000);
+        open(false);
+        assertFalse(pf.isRangePartitioned());
+        insert(0, ROWS, true);
+        assertEquals(range(0, ROWS, 1), keys());
+
+        for (int i = 0; i < pf.numPartitions(); i++) {
+            boolean[] keep = new boolean[pf.numPartitions()];
+            keep[i] = true;
+            List<Integer> part = keys(keep);
+            assertTrue(part.size() > 0);
+            for (int k : part)
+                assertEquals(i, pf.partitionOf(new IntField(k)));
+        }
+        boolean[] keep = pf.partitionsMatching(new Predicate(0, Predicate.Op.EQUALS,
+                new IntField(42)));
+        assertTrue(keys(keep).contains(42));
+        int kept = 0;
+        for (boolean k : keep)
+            if (k)
+                kept++;
+        assertEquals(1, kept);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(PartitionedFileTest.class);
+    }
+}
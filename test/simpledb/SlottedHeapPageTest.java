@@ -0,0 +1,194 @@
+package simpledb;
+
+import java.io.*;
+import java.util.*;
+
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class SlottedHeapPageTest extends SimpleDbTestBase {
+    private File f;
+    private TupleDesc td;
+    private HeapFile hf;
+    private HeapPageId pid;
+
+    /**
+     * Set up an empty slotted table of an int and a string column.
+     */
+    @Before public void setUp() throws Exception {
+        super.setUp();
+        f = File.createTempFile("slotted", ".dat");
+        f.deleteOnExit();
+        td = new TupleDesc(new Type[] { Type.INT_TYPE, Type.STRING_TYPE },
+                new String[] { "id", "name" });
+        open();
+        pid = new HeapPageId(hf.getId(), 0);
+        Database.resetBufferPool(100);
+    }
+
+    private void open() {
+        hf = new HeapFile(f, td, true);
+        Database.getCatalog().addTable(hf, "slotted");
+    }
+
+    private Tuple tuple(int id, String name) {
+        Tuple t = new Tuple(td);
+        t.setField(0, new IntField(id));
+        t.setField(1, new StringField(name, Type.STRING_LEN));
+        return t;
+    }
+
+    //a string of n copies of c
+    private static String repeat(char c, int n) {
+        char[] s = new char[n];
+        Arrays.fill(s, c);
+        return new String(s);
+    }
+
+    private static String name(Tuple t) {
+        return ((StringField) t.getField(1)).getValue();
+    }
+
+    private static int id(Tuple t) {
+        return ((IntField) t.getField(0)).getValue();
+    }
+
+    /**
+     * Short strings take only their own bytes, so a slotted page holds
+     * more of them than fixed slots would
+     */
+    @Test public void insertAtActualLength() throws Exception {
+        SlottedHeapPage page = new SlottedHeapPage(pid, new byte[BufferPool.PAGE_SIZE]);
+        int n = 0;
+        while (page.hasRoomFor(tuple(n, "abc")))
+            page.insertTuple(tuple(n++, "abc"));
+        int fixed = (BufferPool.PAGE_SIZE * 8) / (td.getSize() * 8 + 1);
+        assertTrue(n + " tuples", n > 4 * fixed);
+        assertEquals(0, page.getNumEmptySlots());
+
+        try {
+            page.insertTuple(tuple(n, "abc"));
+            fail("inserted into a full page");
+        } catch (DbException e) {
+            //expected
+        }
+
+        Iterator<Tuple> it = page.iterator();
+        for (int i = 0; i < n; i++) {
+            Tuple t = it.next();
+            assertEquals(i, id(t));
+            assertEquals("abc", name(t));
+            assertEquals(new RecordId(pid, i), t.getRecordId());
+        }
+        assertFalse(it.hasNext());
+    }
+
+    /**
+     * A deleted record's slot number is reused, and its bytes are
+     * reclaimed by compacting the page when an insert needs them
+     */
+    @Test public void deleteAndCompact() throws Exception {
+        SlottedHeapPage page = new SlottedHeapPage(pid, new byte[BufferPool.PAGE_SIZE]);
+        String big = repeat('x', Type.STRING_LEN);
+        List<Tuple> tuples = new ArrayList<Tuple>();
+        for (int i = 0; page.hasRoomFor(tuple(i, big)); i++) {
+            Tuple t = tuple(i, big);
+            page.insertTuple(t);
+            tuples.add(t);
+        }
+        int n = tuples.size();
+
+        //free every other record; no hole is contiguous with the free space
+        for (int i = 0; i < n; i += 2)
+            page.deleteTuple(tuples.get(i));
+        assertFalse(page.isSlotUsed(0));
+        try {
+            page.deleteTuple(tuples.get(0));
+            fail("deleted a free slot");
+        } catch (DbException e) {
+            //expected
+        }
+
+        Tuple t = tuple(1000, repeat('y', Type.STRING_LEN));
+        assertTrue(page.hasRoomFor(t));
+        page.insertTuple(t);
+        assertEquals(new RecordId(pid, 0), t.getRecordId());
+        assertEquals(1000, id(page.getTuple(0)));
+        for (int i = 1; i < n; i += 2) {
+            assertEquals(i, id(page.getTuple(i)));
+            assertEquals(big, name(page.getTuple(i)));
+        }
+    }
+
+    /**
+     * The page image reads back as the same records in the same slots
+     */
+    @Test public void pageDataRoundTrip() throws Exception {
+        SlottedHeapPage page = new SlottedHeapPage(pid, new byte[BufferPool.PAGE_SIZE]);
+        for (int i = 0; i < 50; i++)
+            page.insertTuple(tuple(i, repeat((char) ('a' + i % 26), i % 40)));
+        page.deleteTuple(page.getTuple(7));
+
+        SlottedHeapPage copy = new SlottedHeapPage(pid, page.getPageData());
+        for (int i = 0; i < 50; i++) {
+            if (i == 7) {
+                assertFalse(copy.isSlotUsed(i));
+                continue;
+            }
+            assertEquals(i, id(copy.getTuple(i)));
+            assertEquals(repeat((char) ('a' + i % 26), i % 40), name(copy.getTuple(i)));
+        }
+        assertEquals(page.getNumEmptySlots(), copy.getNumEmptySlots());
+    }
+
+    /**
+     * Tuples of a slotted table inserted through the BufferPool are found
+     * again after a restart, and those of an aborted transaction are not
+     */
+    @Test public void reopenAndAbort() throws Exception {
+        Transaction t = new Transaction();
+        t.start();
+        for (int i = 0; i < 2000; i++)
+            Database.getBufferPool().insertTuple(t.getId(), hf.getId(), tuple(i, "n" + i));
+        t.commit();
+        int pages = hf.numPages();
+        assertTrue(pages > 1);
+
+        t = new Transaction();
+        t.start();
+        for (int i = 2000; i < 2100; i++)
+            Database.getBufferPool().insertTuple(t.getId(), hf.getId(), tuple(i, "n" + i));
+        t.abort();
+
+        Database.reset();
+        Database.resetBufferPool(100);
+        open();
+        assertEquals(pages, hf.numPages());
+        t = new Transaction();
+        t.start();
+        DbFileIterator it = hf.iterator(t.getId());
+        boolean[] seen = new boolean[2000];
+        it.open();
+        while (it.hasNext()) {
+            Tuple tup = it.next();
+            assertTrue(id(tup) < 2000);
+            assertFalse(seen[id(tup)]);
+            assertEquals("n" + id(tup), name(tup));
+            seen[id(tup)] = true;
+        }
+        it.close();
+        t.commit();
+        for (boolean b : seen)
+            assertTrue(b);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(SlottedHeapPageTest.class);
+    }
+}
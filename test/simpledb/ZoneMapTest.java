@@ -0,0 +1,192 @@
+package simpledb;
+
+import java.io.*;
+import java.util.*;
+
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class ZoneMapTest extends SimpleDbTestBase {
+    private static final int ROWS = 2000;
+    private File f;
+    private HeapFile hf;
+    //the number of the page each key was inserted on
+    private int[] pageOf;
+
+    /**
+     * Set up a table of the tuples (i, i mod 7), inserted in order of i, so
+     * that each page holds a range of keys.
+     */
+    @Before public void setUp() throws Exception {
+        super.setUp();
+        f = File.createTempFile("zonemap", ".dat");
+        f.deleteOnExit();
+        new File(f.getPath() + ZoneMap.SUFFIX).deleteOnExit();
+        Utility.createEmptyHeapFile(f.getAbsolutePath(), 2);
+        open();
+        Database.resetBufferPool(1000);
+
+        Transaction t = new Transaction();
+        t.start();
+        for (int i = 0; i < ROWS; i++)
+            Database.getBufferPool().insertTuple(t.getId(), hf.getId(),
+                    Utility.getHeapTuple(new int[] { i, i % 7 }));
+        t.commit();
+
+        pageOf = new int[ROWS];
+        for (Tuple tup : scan(null))
+            pageOf[key(tup)] = tup.getRecordId().getPageId().pageNumber();
+        assertTrue(hf.numPages() > 2);
+    }
+
+    private void open() {
+        hf = Utility.openHeapFile(2, f);
+        Database.getCatalog().addTable(hf, "zm");
+    }
+
+    private static int key(Tuple t) {
+        return ((IntField) t.getField(0)).getValue();
+    }
+
+    private static List<Predicate> preds(Predicate.Op op, int v) {
+        return Arrays.asList(new Predicate(0, op, new IntField(v)));
+    }
+
+    //the tuples of the pages a scan reads, with p pushed if it is not null
+    private List<Tuple> scan(Predicate p) throws Exception {
+        Transaction t = new Transaction();
+        t.start();
+        SeqScan scan = new SeqScan(t.getId(), hf.getId());
+        if (p != null)
+            assertTrue(scan.pushPredicate(p));
+        List<Tuple> tuples = new ArrayList<Tuple>();
+        scan.open();
+        while (scan.hasNext())
+            tuples.add(scan.next());
+        scan.close();
+        t.commit();
+        return tuples;
+    }
+
+    //the tuples of page pgNo
+    private List<Tuple> page(TransactionId tid, int pgNo) throws Exception {
+        HeapPage p = (HeapPage) Database.getBufferPool().getPage(tid,
+                new HeapPageId(hf.getId(), pgNo), Permissions.READ_WRITE);
+        List<Tuple> tuples = new ArrayList<Tuple>();
+        Iterator<Tuple> it = p.iterator();
+        while (it.hasNext())
+            tuples.add(it.next());
+        return tuples;
+    }
+
+    /**
+     * A scan with a pushed predicate reads only the pages whose key range
+     * can satisfy it
+     */
+    @Test public void pruning() throws Exception {
+        ZoneMap zm = hf.getZoneMap();
+        int last = pageOf[ROWS - 1];
+        for (int pgNo = 0; pgNo < hf.numPages(); pgNo++) {
+            assertEquals(pgNo == last, zm.mayMatch(pgNo,
+                    preds(Predicate.Op.GREATER_THAN_OR_EQ, ROWS - 1)));
+            assertEquals(pgNo == 0, zm.mayMatch(pgNo, preds(Predicate.Op.EQUALS, 0)));
+            //every page holds all values of the second column
+            assertTrue(zm.mayMatch(pgNo, Arrays.asList(
+                    new Predicate(1, Predicate.Op.EQUALS, new IntField(3)))));
+        }
+        assertFalse(zm.mayMatch(0, preds(Predicate.Op.LESS_THAN, 0)));
+
+        List<Tuple> tuples = scan(new Predicate(0, Predicate.Op.GREATER_THAN_OR_EQ,
+                new IntField(ROWS - 1)));
+        assertEquals(zm.getCount(last), tuples.size());
+        for (Tuple t : tuples)
+            assertEquals(last, t.getRecordId().getPageId().pageNumber());
+    }
+
+    /**
+     * A sidecar older than the table file is rebuilt from the pages rather
+     * than trusted, and one that is up to date is read back
+     */
+    @Test public void staleSidecar() throws Exception {
+        int[] counts = new int[hf.numPages()];
+        for (int pgNo = 0; pgNo < counts.length; pgNo++)
+            counts[pgNo] = hf.getZoneMap().getCount(pgNo);
+
+        Database.reset();
+        open();
+        for (int pgNo = 0; pgNo < counts.length; pgNo++)
+            assertEquals(counts[pgNo], hf.getZoneMap().getCount(pgNo));
+
+        //entries that would rule out every page, written before the table
+        Database.reset();
+        File sidecar = new File(f.getPath() + ZoneMap.SUFFIX);
+        long length = sidecar.length();
+        FileOutputStream out = new FileOutputStream(sidecar);
+        out.write(new byte[(int) length]);
+        out.close();
+        assertTrue(sidecar.setLastModified(f.lastModified() - 10000));
+        open();
+        for (int pgNo = 0; pgNo < counts.length; pgNo++)
+            assertEquals(counts[pgNo], hf.getZoneMap().getCount(pgNo));
+        assertTrue(hf.getZoneMap().mayMatch(0, preds(Predicate.Op.EQUALS, 0)));
+    }
+
+    /**
+     * A page whose tuples are all deleted is still read until the delete
+     * commits, so an abort leaves nothing to miss; after the commit it is
+     * skipped
+     */
+    @Test public void abortedDelete() throws Exception {
+        ZoneMap zm = hf.getZoneMap();
+        int count = zm.getCount(0);
+        List<Predicate> first = preds(Predicate.Op.EQUALS, 0);
+
+        Transaction t = new Transaction();
+        t.start();
+        for (Tuple tup : page(t.getId(), 0))
+            Database.getBufferPool().deleteTuple(t.getId(), tup);
+        assertEquals(0, page(t.getId(), 0).size());
+        assertEquals(count, zm.getCount(0));
+        assertTrue(zm.mayMatch(0, first));
+        t.abort();
+
+        assertEquals(count, zm.getCount(0));
+        assertTrue(zm.mayMatch(0, first));
+        List<Tuple> tuples = scan(new Predicate(0, Predicate.Op.EQUALS, new IntField(0)));
+        assertEquals(count, tuples.size());
+
+        t = new Transaction();
+        t.start();
+        for (Tuple tup : page(t.getId(), 0))
+            Database.getBufferPool().deleteTuple(t.getId(), tup);
+        t.commit();
+        assertEquals(0, zm.getCount(0));
+        assertFalse(zm.mayMatch(0, first));
+        assertEquals(0, scan(new Predicate(0, Predicate.Op.EQUALS, new IntField(0))).size());
+    }
+
+    /**
+     * An uncommitted insert widens the entry of its page right away
+     */
+    @Test public void uncommittedInsert() throws Exception {
+        ZoneMap zm = hf.getZoneMap();
+        Transaction t = new Transaction();
+        t.start();
+        Tuple tup = Utility.getHeapTuple(new int[] { -5, 0 });
+        Database.getBufferPool().insertTuple(t.getId(), hf.getId(), tup);
+        int pgNo = tup.getRecordId().getPageId().pageNumber();
+        assertTrue(zm.mayMatch(pgNo, preds(Predicate.Op.EQUALS, -5)));
+        t.abort();
+        assertFalse(zm.mayMatch(pgNo, preds(Predicate.Op.EQUALS, -5)));
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(ZoneMapTest.class);
+    }
+}
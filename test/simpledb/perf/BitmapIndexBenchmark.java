@@ -0,0 +1,101 @@
+package simpledb.perf;
+
+import java.io.*;
+import java.util.*;
+
+import simpledb.*;
+
+/**
+ * Compares a BitmapScan with filters over a SeqScan for conjunctions of
+ * predicates on two low-cardinality columns, and prints the size of the
+ * bitmap indexes.
+ * <p>
+ * Usage: BitmapIndexBenchmark [rows]
+ * <p>
+ * The table has three int columns: a region of 16 values that is
+ * clustered, as if the rows were loaded region by region, a status of 4
+ * pseudo-random values, and the row number. Each query runs through an
+ * empty buffer pool both ways, and the benchmark checks that they find the
+ * same rows.
+ */
+public class BitmapIndexBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        int rows = args.length > 0 ? Integer.parseInt(args[0]) : 2000000;
+
+        HeapFile hf = encode(rows);
+        Database.getCatalog().addTable(hf, "t");
+        for (int column = 0; column < 2; column++) {
+            String prefix = hf.getFile().getPath() + "." + hf.getTupleDesc().getFieldName(column);
+            new File(prefix + BitmapIndex.SUFFIX).deleteOnExit();
+            new File(prefix + BitmapIndex.VALUES_SUFFIX).deleteOnExit();
+        }
+        long t0 = System.nanoTime();
+        BitmapIndex region = hf.addBitmapIndex(0);
+        BitmapIndex status = hf.addBitmapIndex(1);
+        System.out.printf("table: %d rows, %d pages; bitmap indexes: region %d values, %d KB;"
+                + " status %d values, %d KB; built in %.1f ms%n", rows, hf.numPages(),
+                region.numValues(), region.sizeInBytes() / 1024, status.numValues(),
+                status.sizeInBytes() / 1024, (System.nanoTime() - t0) / 1e6);
+
+        Predicate.Op[] ops = { Predicate.Op.EQUALS, Predicate.Op.GREATER_THAN_OR_EQ,
+                Predicate.Op.LESS_THAN_OR_EQ, Predicate.Op.GREATER_THAN_OR_EQ };
+        int[] regions = { 5, 14, 7, 0 };
+        int[] statuses = { 2, 0, 1, 3 };
+        for (int q = 0; q < ops.length; q++) {
+            List<Predicate> preds = new ArrayList<Predicate>();
+            preds.add(new Predicate(0, ops[q], new IntField(regions[q])));
+            preds.add(new Predicate(1, Predicate.Op.EQUALS, new IntField(statuses[q])));
+            t0 = System.nanoTime();
+            Bitmap bitmap = BitmapScan.lookup(hf, preds);
+            long lookupNanos = System.nanoTime() - t0;
+            long[] scan = run(hf, preds, false);
+            long[] bm = run(hf, preds, true);
+            if (scan[0] != bm[0] || scan[1] != bm[1])
+                throw new RuntimeException("bitmap scan found other rows");
+            System.out.printf("region %s %d and status = %d: %d rows on %d pages, bitmaps"
+                    + " combined in %.2f ms; scan %.1f ms, bitmap scan %.1f ms%n",
+                    ops[q], regions[q], statuses[q], bm[0], bitmap.numPages(),
+                    lookupNanos / 1e6, scan[2] / 1e6, bm[2] / 1e6);
+        }
+    }
+
+    static HeapFile encode(int rows) throws IOException {
+        File txt = File.createTempFile("bitmap", ".txt");
+        File dat = File.createTempFile("bitmap", ".dat");
+        txt.deleteOnExit();
+        dat.deleteOnExit();
+        BufferedWriter w = new BufferedWriter(new FileWriter(txt));
+        for (int i = 0; i < rows; i++) {
+            int status = ((i * 0x9E3779B1) >>> 1) % 4;
+            w.write((int) ((long) i * 16 / rows) + "," + status + "," + i + "\n");
+        }
+        w.close();
+        HeapFileEncoder.convert(txt, dat, BufferPool.PAGE_SIZE, 3);
+        return new HeapFile(dat, Utility.getTupleDesc(3, "field"));
+    }
+
+    //reads the rows of hf that satisfy preds through a BitmapScan if
+    //bitmap, else a SeqScan, with the filters on top, through an empty
+    //buffer pool; returns rows, sum of field2 and nanoseconds
+    static long[] run(HeapFile hf, List<Predicate> preds, boolean bitmap) throws Exception {
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        TransactionId tid = new TransactionId();
+        DbIterator it = bitmap ? new BitmapScan(tid, hf.getId(), "t", preds)
+                : new SeqScan(tid, hf.getId(), "t");
+        for (Predicate p : preds)
+            it = new Filter(p, it);
+        long rows = 0;
+        long sum = 0;
+        long t0 = System.nanoTime();
+        it.open();
+        while (it.hasNext()) {
+            rows++;
+            sum += ((IntField) it.next().getField(2)).getValue();
+        }
+        it.close();
+        long nanos = System.nanoTime() - t0;
+        Database.getBufferPool().transactionComplete(tid);
+        return new long[] { rows, sum, nanos };
+    }
+}
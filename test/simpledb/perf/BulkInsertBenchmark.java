@@ -0,0 +1,54 @@
+package simpledb.perf;
+
+import java.io.*;
+
+import simpledb.*;
+
+/**
+ * Compares loading a table with Insert one tuple at a time against the bulk
+ * Insert path, which appends whole pages through BufferPool.bulkInsertTuples.
+ * <p>
+ * Usage: BulkInsertBenchmark [numPages] [rounds]
+ * <p>
+ * Every round copies a source table of numPages pages into a new, empty
+ * table with both paths and commits. The buffer pool is made large enough
+ * to hold both tables, so the per-tuple path is not slowed down by
+ * evictions.
+ */
+public class BulkInsertBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        int numPages = args.length > 0 ? Integer.parseInt(args[0]) : 400;
+        int rounds = args.length > 1 ? Integer.parseInt(args[1]) : 3;
+
+        Database.resetBufferPool(numPages * 4 + BufferPool.DEFAULT_PAGES);
+        HeapFile src = ColdScanBenchmark.createTable(numPages, 4);
+        System.out.println("source: " + src.numPages() + " pages");
+
+        for (int r = 0; r < rounds; r++) {
+            long perTuple = load(src, false);
+            long bulk = load(src, true);
+            System.out.printf("round %d: per tuple %s | bulk %s%n", r,
+                    ColdScanBenchmark.rate(src.numPages(), perTuple),
+                    ColdScanBenchmark.rate(src.numPages(), bulk));
+        }
+    }
+
+    /** Copies src into a new table and returns the time taken, commit included. */
+    static long load(HeapFile src, boolean bulk) throws Exception {
+        File dat = File.createTempFile("bulk", ".dat");
+        dat.deleteOnExit();
+        new File(dat.getPath() + FreeSpaceMap.SUFFIX).deleteOnExit();
+        HeapFile dst = new HeapFile(dat, src.getTupleDesc());
+        Database.getCatalog().addTable(dst, dat.getName());
+
+        long t0 = System.nanoTime();
+        TransactionId tid = new TransactionId();
+        Insert ins = new Insert(tid, new SeqScan(tid, src.getId()), dst.getId(), bulk);
+        ins.open();
+        ins.next();
+        ins.close();
+        Database.getBufferPool().transactionComplete(tid);
+        return System.nanoTime() - t0;
+    }
+}
@@ -0,0 +1,96 @@
+package simpledb.perf;
+
+import java.io.*;
+
+import simpledb.*;
+
+/**
+ * Compares cold-scan throughput of the old stream-per-page read path with
+ * the PageChannel read path used by HeapFile.
+ * <p>
+ * Usage: ColdScanBenchmark [numPages] [rounds]
+ * <p>
+ * Every round reads each page of a freshly encoded table once with both
+ * readers, then runs a full SeqScan through an empty buffer pool. The OS
+ * page cache is not dropped between rounds, so the numbers measure the
+ * per-miss software overhead rather than device bandwidth.
+ */
+public class ColdScanBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        int numPages = args.length > 0 ? Integer.parseInt(args[0]) : 2000;
+        int rounds = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+
+        HeapFile hf = createTable(numPages, 4);
+        System.out.println("table: " + hf.numPages() + " pages, "
+                + hf.getFile().length() / 1024 + " KB");
+
+        for (int r = 0; r < rounds; r++) {
+            long t0 = System.nanoTime();
+            for (int i = 0; i < hf.numPages(); i++)
+                legacyRead(hf, i);
+            long legacy = System.nanoTime() - t0;
+
+            t0 = System.nanoTime();
+            for (int i = 0; i < hf.numPages(); i++)
+                hf.readPage(new HeapPageId(hf.getId(), i));
+            long channel = System.nanoTime() - t0;
+
+            Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+            TransactionId tid = new TransactionId();
+            SeqScan scan = new SeqScan(tid, hf.getId());
+            t0 = System.nanoTime();
+            scan.open();
+            int rows = 0;
+            while (scan.hasNext()) {
+                scan.next();
+                rows++;
+            }
+            scan.close();
+            long seqScan = System.nanoTime() - t0;
+            Database.getBufferPool().transactionComplete(tid);
+
+            System.out.printf("round %d: stream read %s | channel read %s | SeqScan %s (%d rows)%n",
+                    r, rate(hf.numPages(), legacy), rate(hf.numPages(), channel),
+                    rate(hf.numPages(), seqScan), rows);
+        }
+    }
+
+    /** The page read path HeapFile used before PageChannel. */
+    static HeapPage legacyRead(HeapFile hf, int pgNo) throws IOException {
+        byte[] buf = new byte[BufferPool.PAGE_SIZE];
+        BufferedInputStream in = new BufferedInputStream(new FileInputStream(hf.getFile()));
+        in.skip((long) pgNo * BufferPool.PAGE_SIZE);
+        in.read(buf, 0, BufferPool.PAGE_SIZE);
+        in.close();
+        return new HeapPage(new HeapPageId(hf.getId(), pgNo), buf);
+    }
+
+    static String rate(int pages, long nanos) {
+        double secs = nanos / 1e9;
+        return String.format("%.0f pages/s %.1f MB/s", pages / secs,
+                pages * (double) BufferPool.PAGE_SIZE / (1 << 20) / secs);
+    }
+
+    /** Encodes a table of roughly numPages pages of random ints and adds it to the catalog. */
+    static HeapFile createTable(int numPages, int columns) throws IOException {
+        int rowsPerPage = (BufferPool.PAGE_SIZE * 8) / (columns * 4 * 8 + 1);
+        File txt = File.createTempFile("bench", ".txt");
+        File dat = File.createTempFile("bench", ".dat");
+        txt.deleteOnExit();
+        dat.deleteOnExit();
+        BufferedWriter w = new BufferedWriter(new FileWriter(txt));
+        java.util.Random rand = new java.util.Random(42);
+        for (long i = 0; i < (long) rowsPerPage * numPages; i++) {
+            for (int c = 0; c < columns; c++) {
+                if (c > 0)
+                    w.write(',');
+                w.write(Integer.toString(rand.nextInt(1 << 20)));
+            }
+            w.write('\n');
+        }
+        w.close();
+        HeapFileEncoder.convert(txt, dat, BufferPool.PAGE_SIZE, columns);
+        return Utility.openHeapFile(columns, dat);
+    }
+}
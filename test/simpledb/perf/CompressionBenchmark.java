@@ -0,0 +1,75 @@
+package simpledb.perf;
+
+import java.io.*;
+
+import simpledb.*;
+
+/**
+ * Reports the compression ratio of a string-heavy table stored as a
+ * CompressedHeapFile and compares its cold-scan throughput with the same
+ * table stored uncompressed.
+ * <p>
+ * Usage: CompressionBenchmark [numRows] [rounds]
+ * <p>
+ * The table has schema (int, string, string, int) with strings of 5 to 30
+ * characters, and is encoded with HeapFileEncoder, so every string is padded
+ * to Type.STRING_LEN bytes. The heap file is then rewritten with
+ * CompressedHeapFile.compress. Every round runs a full SeqScan of each table
+ * through an empty buffer pool and checks both return the same rows.
+ */
+public class CompressionBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        int numRows = args.length > 0 ? Integer.parseInt(args[0]) : 100000;
+        int rounds = args.length > 1 ? Integer.parseInt(args[1]) : 8;
+
+        Type[] types = new Type[] { Type.INT_TYPE, Type.STRING_TYPE, Type.STRING_TYPE, Type.INT_TYPE };
+        File txt = File.createTempFile("compress", ".txt");
+        File heapDat = File.createTempFile("heap", ".dat");
+        File compressedDat = File.createTempFile("compressed", ".dat");
+        for (File f : new File[] { txt, heapDat, compressedDat }) {
+            f.deleteOnExit();
+            new File(f.getPath() + FreeSpaceMap.SUFFIX).deleteOnExit();
+            new File(f.getPath() + CompressedHeapFile.INDEX_SUFFIX).deleteOnExit();
+        }
+        BufferedWriter w = new BufferedWriter(new FileWriter(txt));
+        java.util.Random rand = new java.util.Random(42);
+        for (int i = 0; i < numRows; i++)
+            w.write(i + "," + word(rand) + "," + word(rand) + "," + rand.nextInt(1000) + "\n");
+        w.close();
+        HeapFileEncoder.convert(txt, heapDat, BufferPool.PAGE_SIZE, types.length, types);
+
+        long t0 = System.nanoTime();
+        CompressedHeapFile.compress(heapDat, compressedDat);
+        long compressNanos = System.nanoTime() - t0;
+
+        TupleDesc td = new TupleDesc(types, new String[] { "c0", "c1", "c2", "c3" });
+        HeapFile heap = new HeapFile(heapDat, td);
+        CompressedHeapFile compressed = new CompressedHeapFile(compressedDat, td, false);
+        Database.getCatalog().addTable(heap, "heap");
+        Database.getCatalog().addTable(compressed, "compressed");
+
+        long stored = compressedDat.length() + compressed.getIndexFile().length();
+        System.out.printf("heap: %d pages, %d KB | compressed: %d KB (%d KB index), ratio %.1fx, compressed in %.2f s%n",
+                heap.numPages(), heapDat.length() / 1024, stored / 1024,
+                compressed.getIndexFile().length() / 1024,
+                heapDat.length() / (double) stored, compressNanos / 1e9);
+
+        for (int r = 0; r < rounds; r++) {
+            long[] a = SlottedPageBenchmark.scan(heap);
+            long[] b = SlottedPageBenchmark.scan(compressed);
+            if (a[0] != b[0] || a[1] != b[1])
+                throw new RuntimeException("tables differ: " + a[0] + " vs " + b[0] + " rows");
+            System.out.printf("round %d: heap %s | compressed %s (%d rows)%n", r,
+                    ColdScanBenchmark.rate(heap.numPages(), a[2]),
+                    ColdScanBenchmark.rate(compressed.numPages(), b[2]), a[0]);
+        }
+    }
+
+    private static String word(java.util.Random rand) {
+        StringBuilder s = new StringBuilder();
+        for (int j = 5 + rand.nextInt(26); j > 0; j--)
+            s.append((char) ('a' + rand.nextInt(26)));
+        return s.toString();
+    }
+}
@@ -0,0 +1,73 @@
+package simpledb.perf;
+
+import java.io.*;
+import java.util.Arrays;
+
+import simpledb.*;
+
+/**
+ * Compares HeapFileEncoder with ParallelHeapFileEncoder on a generated
+ * text file, and checks that both produce the same heap file.
+ * <p>
+ * Usage: EncoderBenchmark [rows] [workers]
+ * <p>
+ * The input has two int columns and one string column. Both encoders read
+ * the same file, which the OS will have cached after the first round, so
+ * the numbers reflect parsing and encoding cost rather than disk speed.
+ */
+public class EncoderBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        int rows = args.length > 0 ? Integer.parseInt(args[0]) : 1000000;
+        int workers = args.length > 1 ? Integer.parseInt(args[1])
+                : Runtime.getRuntime().availableProcessors();
+        Type[] types = new Type[] { Type.INT_TYPE, Type.INT_TYPE, Type.STRING_TYPE };
+
+        File txt = File.createTempFile("encode", ".txt");
+        File serial = File.createTempFile("serial", ".dat");
+        File parallel = File.createTempFile("parallel", ".dat");
+        txt.deleteOnExit();
+        serial.deleteOnExit();
+        parallel.deleteOnExit();
+        BufferedWriter w = new BufferedWriter(new FileWriter(txt));
+        java.util.Random rand = new java.util.Random(42);
+        for (int i = 0; i < rows; i++)
+            w.write(i + "," + (rand.nextInt() >> 4) + ",name" + rand.nextInt(100000) + "\n");
+        w.close();
+        System.out.println("input: " + rows + " rows, " + txt.length() / 1024 + " KB, "
+                + workers + " workers");
+
+        for (int r = 0; r < 3; r++) {
+            long t0 = System.nanoTime();
+            HeapFileEncoder.convert(txt, serial, BufferPool.PAGE_SIZE, types.length, types, ',');
+            long nanos = System.nanoTime() - t0;
+            ParallelHeapFileEncoder.Result result = ParallelHeapFileEncoder.convert(txt, parallel,
+                    BufferPool.PAGE_SIZE, types.length, types, ',', workers);
+            System.out.printf("round %d: HeapFileEncoder %.0f rows/s, %.1f MB/s | parallel %s%n",
+                    r, rows / (nanos / 1e9), txt.length() / (double) (1 << 20) / (nanos / 1e9),
+                    result);
+        }
+        System.out.println("outputs identical: " + sameContents(serial, parallel));
+    }
+
+    static boolean sameContents(File a, File b) throws IOException {
+        if (a.length() != b.length())
+            return false;
+        DataInputStream ina = new DataInputStream(new BufferedInputStream(new FileInputStream(a)));
+        DataInputStream inb = new DataInputStream(new BufferedInputStream(new FileInputStream(b)));
+        byte[] pa = new byte[BufferPool.PAGE_SIZE];
+        byte[] pb = new byte[BufferPool.PAGE_SIZE];
+        try {
+            for (long left = a.length(); left > 0; left -= pa.length) {
+                ina.readFully(pa);
+                inb.readFully(pb);
+                if (!Arrays.equals(pa, pb))
+                    return false;
+            }
+        } finally {
+            ina.close();
+            inb.close();
+        }
+        return true;
+    }
+}
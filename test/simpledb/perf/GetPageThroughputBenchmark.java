@@ -0,0 +1,132 @@
+package simpledb.perf;
+
+import java.util.*;
+import java.util.concurrent.*;
+
+import simpledb.*;
+
+/**
+ * Measures the throughput of BufferPool.getPage from 1 to 64 threads, with
+ * the pool in one partition and in BufferPool.PARTITIONS partitions.
+ * <p>
+ * Usage: GetPageThroughputBenchmark [poolPages] [tablePages] [seconds]
+ * <p>
+ * Each thread runs its own transaction and reads random pages of a table of
+ * tablePages pages with READ_ONLY permission, as fast as it can. As in JMH,
+ * each run has a warmup iteration that is not counted, and then 3
+ * measured iterations of seconds seconds each; the benchmark prints the
+ * mean getPage calls per second and the spread of the iterations. When
+ * the table fits in the pool, it checks that each call after the table was
+ * read once hits. The benchmark also checks that every call returns the
+ * page asked for. How much the partitions help depends on the number of
+ * cores; on one core they cannot.
+ */
+public class GetPageThroughputBenchmark {
+
+    static final int[] THREADS = { 1, 2, 4, 8, 16, 32, 64 };
+    static final int ITERATIONS = 3;
+    //set to stop the threads of a run
+    static volatile boolean stop;
+
+    public static void main(String[] args) throws Exception {
+        int poolPages = args.length > 0 ? Integer.parseInt(args[0]) : 8192;
+        int tablePages = args.length > 1 ? Integer.parseInt(args[1]) : poolPages;
+        double seconds = args.length > 2 ? Double.parseDouble(args[2]) : 1;
+
+        int columns = 4;
+        int rowsPerPage = (BufferPool.PAGE_SIZE * 8) / (columns * 4 * 8 + 1);
+        HeapFile hf = PartitionBenchmark.encode(0, rowsPerPage * tablePages, columns);
+        Database.getCatalog().addTable(hf, "t");
+
+        System.out.printf("%d cores, pool of %d pages, table of %d pages%n",
+                Runtime.getRuntime().availableProcessors(), poolPages, tablePages);
+        for (int threads : THREADS) {
+            for (int partitions : new int[] { 1, BufferPool.PARTITIONS }) {
+                System.setProperty("simpledb.BufferPoolPartitions", Integer.toString(partitions));
+                BufferPool bp = Database.resetBufferPool(poolPages);
+                //read the table once, so that the iterations find what fits cached
+                TransactionId tid = new TransactionId();
+                for (int pgNo = 0; pgNo < tablePages; pgNo++)
+                    bp.getPage(tid, new HeapPageId(hf.getId(), pgNo), Permissions.READ_ONLY);
+                bp.transactionComplete(tid);
+                bp.resetStats();
+
+                run(hf, tablePages, threads, seconds);
+                double[] rates = new double[ITERATIONS];
+                long calls = 0;
+                for (int i = 0; i < ITERATIONS; i++) {
+                    long n = run(hf, tablePages, threads, seconds);
+                    rates[i] = n / seconds;
+                    calls += n;
+                }
+                double mean = 0;
+                for (double r : rates)
+                    mean += r / ITERATIONS;
+                double spread = 0;
+                for (double r : rates)
+                    spread = Math.max(spread, Math.abs(r - mean));
+
+                System.out.printf("%2d threads, %2d partitions: %,12.0f +- %,10.0f getPage/s"
+                        + " (hit ratio %.3f)%n", threads, bp.getPartitions(), mean, spread,
+                        bp.getHitRatio());
+                if (tablePages <= poolPages && bp.getMisses() != 0)
+                    throw new RuntimeException(bp.getMisses() + " misses of cached pages");
+                if (bp.getHits() + bp.getMisses() < calls)
+                    throw new RuntimeException("lost getPage calls");
+            }
+        }
+    }
+
+    //runs threads threads calling getPage for seconds seconds, and returns
+    //the number of calls they made
+    static long run(final HeapFile hf, final int tablePages, int threads, double seconds)
+            throws Exception {
+        final BufferPool bp = Database.getBufferPool();
+        final CountDownLatch start = new CountDownLatch(1);
+        final long[] counts = new long[threads];
+        final Throwable[] failure = new Throwable[1];
+        Thread[] workers = new Thread[threads];
+        for (int t = 0; t < threads; t++) {
+            final int id = t;
+            workers[t] = new Thread() {
+                public void run() {
+                    TransactionId tid = new TransactionId();
+                    Random r = new Random(id);
+                    long n = 0;
+                    try {
+                        start.await();
+                        while (!stop) {
+                            HeapPageId pid = new HeapPageId(hf.getId(), r.nextInt(tablePages));
+                            Page p = bp.getPage(tid, pid, Permissions.READ_ONLY);
+                            if (!p.getId().equals(pid))
+                                throw new RuntimeException("asked for " + pid + ", got "
+                                        + p.getId());
+                            n++;
+                        }
+                        bp.transactionComplete(tid);
+                    } catch (Throwable e) {
+                        synchronized (failure) {
+                            failure[0] = e;
+                        }
+                    }
+                    counts[id] = n;
+                }
+            };
+            workers[t].start();
+        }
+        stop = false;
+        start.countDown();
+        Thread.sleep((long) (seconds * 1000));
+        stop = true;
+        long total = 0;
+        for (int t = 0; t < threads; t++) {
+            workers[t].join();
+            total += counts[t];
+        }
+        synchronized (failure) {
+            if (failure[0] != null)
+                throw new RuntimeException(failure[0]);
+        }
+        return total;
+    }
+}
@@ -0,0 +1,72 @@
+package simpledb.perf;
+
+import java.io.*;
+import java.util.*;
+
+import simpledb.*;
+
+/**
+ * Compares point lookups on a unique key through a HashIndexFile, through
+ * a BTreeFile and with a filter over a SeqScan.
+ * <p>
+ * Usage: HashIndexBenchmark [numPages] [lookups]
+ * <p>
+ * The table has four int columns; the first is the row number, which is
+ * the key of both indexes. Each way runs the same lookups of random keys,
+ * each through an empty buffer pool, and the benchmark checks that they
+ * all find the one row. The scan runs only a tenth of the lookups.
+ */
+public class HashIndexBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        int numPages = args.length > 0 ? Integer.parseInt(args[0]) : 2000;
+        int lookups = args.length > 1 ? Integer.parseInt(args[1]) : 200;
+
+        int columns = 4;
+        int rowsPerPage = (BufferPool.PAGE_SIZE * 8) / (columns * 4 * 8 + 1);
+        int rows = rowsPerPage * numPages;
+        HeapFile hf = PartitionBenchmark.encode(0, rows, columns);
+        Database.getCatalog().addTable(hf, "t");
+
+        File hashFile = HashIndexFile.indexFile(hf.getFile(), "field0");
+        hashFile.deleteOnExit();
+        HashIndexFile hash = new HashIndexFile(hashFile, hf, 0);
+        long t0 = System.nanoTime();
+        hash.build();
+        Database.getCatalog().addIndex(hf.getId(), hash);
+        System.out.printf("table: %d rows, %d pages; hash index: %d pages, built in %.1f ms%n",
+                rows, hf.numPages(), hash.numPages(), (System.nanoTime() - t0) / 1e6);
+        File btreeFile = BTreeFile.indexFile(hf.getFile(), "field0");
+        btreeFile.deleteOnExit();
+        BTreeFile btree = new BTreeFile(btreeFile, hf, 0);
+        t0 = System.nanoTime();
+        btree.build();
+        Database.getCatalog().addIndex(hf.getId(), btree);
+        System.out.printf("b+ tree index: %d pages, height %d, built in %.1f ms%n",
+                btree.numPages(), btree.lookupPages(), (System.nanoTime() - t0) / 1e6);
+
+        Random r = new Random(1);
+        long hashNanos = 0;
+        long btreeNanos = 0;
+        long scanNanos = 0;
+        for (int i = 0; i < lookups; i++) {
+            List<Predicate> preds = new ArrayList<Predicate>();
+            preds.add(new Predicate(0, Predicate.Op.EQUALS, new IntField(r.nextInt(rows))));
+            long[] h = IndexBenchmark.run(hf.getId(), hash, preds);
+            long[] b = IndexBenchmark.run(hf.getId(), btree, preds);
+            if (h[0] != 1 || b[0] != 1)
+                throw new RuntimeException("lookup found " + h[0] + " and " + b[0] + " rows");
+            hashNanos += h[2];
+            btreeNanos += b[2];
+            if (i % 10 == 0) {
+                long[] s = IndexBenchmark.run(hf.getId(), null, preds);
+                if (s[0] != 1)
+                    throw new RuntimeException("scan found " + s[0] + " rows");
+                scanNanos += s[2];
+            }
+        }
+        int scans = (lookups + 9) / 10;
+        System.out.printf("per lookup: hash %.3f ms, b+ tree %.3f ms, scan %.1f ms%n",
+                hashNanos / 1e6 / lookups, btreeNanos / 1e6 / lookups, scanNanos / 1e6 / scans);
+    }
+}
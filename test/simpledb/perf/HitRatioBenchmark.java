@@ -0,0 +1,99 @@
+package simpledb.perf;
+
+import java.util.*;
+
+import simpledb.*;
+
+/**
+ * Measures the hit ratio of the BufferPool for skewed page accesses, and
+ * checks that it comes close to that of a pool holding the most accessed
+ * pages.
+ * <p>
+ * Usage: HitRatioBenchmark [numPages] [poolPages] [accesses]
+ * <p>
+ * Pages of a table of numPages pages are read with getPage, in one
+ * transaction, in a Zipfian distribution of exponent 1 over pages ranked
+ * in random order. The benchmark then reads a hot set of a
+ * quarter of the pool, one page after another, each followed by a page
+ * never read before, and checks that every hot read after the first round
+ * hits, as the pages read since any hot page are fewer than the pool holds.
+ */
+public class HitRatioBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        int numPages = args.length > 0 ? Integer.parseInt(args[0]) : 5000;
+        int poolPages = args.length > 1 ? Integer.parseInt(args[1]) : 500;
+        int accesses = args.length > 2 ? Integer.parseInt(args[2]) : 200000;
+
+        int columns = 4;
+        int rowsPerPage = (BufferPool.PAGE_SIZE * 8) / (columns * 4 * 8 + 1);
+        HeapFile hf = PartitionBenchmark.encode(0, rowsPerPage * numPages, columns);
+        Database.getCatalog().addTable(hf, "t");
+
+        double[] cdf = zipf(numPages, 1.0);
+        //the share of accesses to the poolPages most accessed pages
+        double ideal = cdf[poolPages - 1];
+        List<Integer> ranks = new ArrayList<Integer>();
+        for (int i = 0; i < numPages; i++)
+            ranks.add(i);
+        Random r = new Random(1);
+        Collections.shuffle(ranks, r);
+        int[] pages = new int[accesses];
+        for (int i = 0; i < accesses; i++) {
+            int rank = Arrays.binarySearch(cdf, r.nextDouble());
+            rank = Math.min(rank < 0 ? -rank - 1 : rank, numPages - 1);
+            pages[i] = ranks.get(rank);
+        }
+
+        BufferPool bp = Database.resetBufferPool(poolPages);
+        bp.setReadAhead(0);
+        long t0 = System.nanoTime();
+        replay(hf, pages);
+        double ratio = bp.getHitRatio();
+        System.out.printf("zipfian: %d accesses to %d pages through %d frames: hit ratio %.3f,"
+                + " %.3f with the most accessed pages cached; %.0f ns per access%n",
+                accesses, numPages, poolPages, ratio, ideal,
+                (System.nanoTime() - t0) / (double) accesses);
+        if (ratio < ideal * 0.8)
+            throw new RuntimeException("hit ratio too low");
+
+        int hot = poolPages / 4;
+        int rounds = Math.min(20, (numPages - hot) / hot);
+        int[] mixed = new int[2 * hot * rounds];
+        int cold = hot;
+        for (int i = 0; i < hot * rounds; i++) {
+            mixed[2 * i] = i % hot;
+            mixed[2 * i + 1] = cold++;
+        }
+        bp = Database.resetBufferPool(poolPages);
+        bp.setReadAhead(0);
+        replay(hf, mixed);
+        System.out.printf("hot set of %d pages among %d cold ones: %d hits, %d misses%n",
+                hot, hot * rounds, bp.getHits(), bp.getMisses());
+        if (bp.getHits() != (long) hot * (rounds - 1))
+            throw new RuntimeException("hot pages were evicted");
+    }
+
+    //the cumulative distribution of ranks 0..n-1 with probability
+    //proportional to 1 / (rank + 1)^s
+    static double[] zipf(int n, double s) {
+        double[] cdf = new double[n];
+        double sum = 0;
+        for (int i = 0; i < n; i++) {
+            sum += 1 / Math.pow(i + 1, s);
+            cdf[i] = sum;
+        }
+        for (int i = 0; i < n; i++)
+            cdf[i] /= sum;
+        return cdf;
+    }
+
+    //reads each of pages of hf in turn, in one transaction
+    static void replay(HeapFile hf, int[] pages) throws Exception {
+        BufferPool bp = Database.getBufferPool();
+        TransactionId tid = new TransactionId();
+        for (int pgNo : pages)
+            bp.getPage(tid, new HeapPageId(hf.getId(), pgNo), Permissions.READ_ONLY);
+        bp.transactionComplete(tid);
+    }
+}
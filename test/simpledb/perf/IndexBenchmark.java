@@ -0,0 +1,93 @@
+package simpledb.perf;
+
+import java.io.*;
+import java.util.*;
+
+import simpledb.*;
+
+/**
+ * Compares a filter over a SeqScan with an IndexScan through a BTreeFile
+ * for predicates of growing selectivity, and shows which of the two the
+ * planner's cost estimates pick.
+ * <p>
+ * Usage: IndexBenchmark [numPages] [rounds]
+ * <p>
+ * The table has four int columns whose values are pseudo-random in
+ * [0, 2^20); the index is on the second column. Every round runs, through
+ * an empty buffer pool, an equality predicate and range predicates that
+ * match about 0.01%, 0.1%, 1% and 10% of the table both ways, and checks
+ * that both find the same rows.
+ */
+public class IndexBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        int numPages = args.length > 0 ? Integer.parseInt(args[0]) : 2000;
+        int rounds = args.length > 1 ? Integer.parseInt(args[1]) : 3;
+
+        int columns = 4;
+        int rowsPerPage = (BufferPool.PAGE_SIZE * 8) / (columns * 4 * 8 + 1);
+        int rows = rowsPerPage * numPages;
+        HeapFile hf = PartitionBenchmark.encode(0, rows, columns);
+        Database.getCatalog().addTable(hf, "t");
+        File f = BTreeFile.indexFile(hf.getFile(), "field1");
+        f.deleteOnExit();
+        BTreeFile index = new BTreeFile(f, hf, 1);
+        long t0 = System.nanoTime();
+        index.build();
+        Database.getCatalog().addIndex(hf.getId(), index);
+        System.out.printf("table: %d rows, %d pages; index: %d pages, height %d, built in %.1f ms%n",
+                rows, hf.numPages(), index.numPages(), index.lookupPages(),
+                (System.nanoTime() - t0) / 1e6);
+
+        TableStats stats = new TableStats(hf.getId(), 1000);
+        int key = ((1 + 1) * 0x9E3779B1) >>> 12;
+        double[] fractions = { 0, 0.0001, 0.001, 0.01, 0.1 };
+        for (int r = 0; r < rounds; r++) {
+            for (double fraction : fractions) {
+                List<Predicate> preds = new ArrayList<Predicate>();
+                if (fraction == 0) {
+                    preds.add(new Predicate(1, Predicate.Op.EQUALS, new IntField(key)));
+                } else {
+                    int lo = 1 << 18;
+                    int hi = lo + (int) ((1 << 20) * fraction);
+                    preds.add(new Predicate(1, Predicate.Op.GREATER_THAN_OR_EQ, new IntField(lo)));
+                    preds.add(new Predicate(1, Predicate.Op.LESS_THAN, new IntField(hi)));
+                }
+                boolean pick = stats.estimateIndexScanCost(index, stats.estimateSelectivity(preds))
+                        < stats.estimateScanCost();
+
+                long[] scan = run(hf.getId(), null, preds);
+                long[] indexed = run(hf.getId(), index, preds);
+                if (scan[0] != indexed[0] || scan[1] != indexed[1])
+                    throw new RuntimeException("index scan found other rows");
+                System.out.printf("round %d: %s %d rows: scan %.1f ms, index %.1f ms; planner picks %s%n",
+                        r, fraction == 0 ? "equality" : ("range " + fraction * 100 + "%"),
+                        scan[0], scan[2] / 1e6, indexed[2] / 1e6, pick ? "index" : "scan");
+            }
+        }
+    }
+
+    //reads the rows that satisfy preds with filters over a SeqScan, or
+    //over an IndexScan of index if it is not null, through an empty buffer
+    //pool; returns rows, sum of column 0 and nanoseconds
+    static long[] run(int tableId, IndexFile index, List<Predicate> preds) throws Exception {
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        TransactionId tid = new TransactionId();
+        DbIterator it = index == null ? new SeqScan(tid, tableId)
+                : new IndexScan(tid, tableId, "t", index, preds);
+        for (Predicate p : preds)
+            it = new Filter(p, it);
+        long rows = 0;
+        long sum = 0;
+        long t0 = System.nanoTime();
+        it.open();
+        while (it.hasNext()) {
+            rows++;
+            sum += ((IntField) it.next().getField(0)).getValue();
+        }
+        it.close();
+        long nanos = System.nanoTime() - t0;
+        Database.getBufferPool().transactionComplete(tid);
+        return new long[] { rows, sum, nanos };
+    }
+}
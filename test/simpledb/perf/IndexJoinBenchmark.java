@@ -0,0 +1,119 @@
+package simpledb.perf;
+
+import java.io.*;
+import java.util.*;
+
+import simpledb.*;
+
+/**
+ * Compares a nested-loop Join with an IndexJoin through a HashIndexFile and
+ * through a BTreeFile for a foreign-key join of growing outer cardinality,
+ * and prints the costs the optimizer estimates for both.
+ * <p>
+ * Usage: IndexJoinBenchmark [dimRows] [factRows]
+ * <p>
+ * The dimension table d has two int columns, a primary key 0..dimRows-1
+ * and a value; the fact table f has a row number and a pseudo-random key
+ * of d. Each run joins the fact rows whose number is below a bound with d
+ * on the key, through an empty buffer pool, and checks that all joins
+ * find the same rows.
+ */
+public class IndexJoinBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        int dimRows = args.length > 0 ? Integer.parseInt(args[0]) : 20000;
+        int factRows = args.length > 1 ? Integer.parseInt(args[1]) : 200000;
+
+        HeapFile dim = encode(dimRows, dimRows, false);
+        Database.getCatalog().addTable(dim, "d", "field0");
+        HeapFile fact = encode(factRows, dimRows, true);
+        Database.getCatalog().addTable(fact, "f", "field0");
+
+        File hashFile = HashIndexFile.indexFile(dim.getFile(), "field0");
+        hashFile.deleteOnExit();
+        HashIndexFile hash = new HashIndexFile(hashFile, dim, 0);
+        hash.build();
+        File btreeFile = BTreeFile.indexFile(dim.getFile(), "field0");
+        btreeFile.deleteOnExit();
+        BTreeFile btree = new BTreeFile(btreeFile, dim, 0);
+        btree.build();
+        System.out.printf("d: %d rows, %d pages; f: %d rows, %d pages%n",
+                dimRows, dim.numPages(), factRows, fact.numPages());
+
+        //the optimizer prefers the hash index, which reads fewer pages
+        Database.getCatalog().addIndex(dim.getId(), hash);
+        Database.getCatalog().addIndex(dim.getId(), btree);
+        LogicalPlan lp = new LogicalPlan();
+        lp.addScan(fact.getId(), "f");
+        lp.addScan(dim.getId(), "d");
+        LogicalJoinNode lj = new LogicalJoinNode("f", "d", "f.field1", "d.field0",
+                Predicate.Op.EQUALS);
+        Vector<LogicalJoinNode> joins = new Vector<LogicalJoinNode>();
+        joins.add(lj);
+        JoinOptimizer jo = new JoinOptimizer(lp, joins);
+        TableStats dimStats = new TableStats(dim.getId(), 1000);
+        TableStats factStats = new TableStats(fact.getId(), 1000);
+
+        int[] bounds = { 10, 100, 1000 };
+        for (int bound : bounds) {
+            Predicate outer = new Predicate(0, Predicate.Op.LESS_THAN, new IntField(bound));
+            long[] loop = run(fact, dim, outer, null);
+            long[] h = run(fact, dim, outer, hash);
+            long[] b = run(fact, dim, outer, btree);
+            if (loop[0] != h[0] || loop[1] != h[1] || loop[0] != b[0] || loop[1] != b[1])
+                throw new RuntimeException("index join found other rows");
+            int card1 = factStats.estimateTableCardinality(
+                    factStats.estimateSelectivity(0, Predicate.Op.LESS_THAN, new IntField(bound)));
+            double nestedCost = jo.estimateJoinCost(lj, card1, dimRows,
+                    factStats.estimateScanCost(), dimStats.estimateScanCost());
+            double indexCost = jo.estimateJoinCost(lj, card1, dimRows,
+                    factStats.estimateScanCost(), dimStats.estimateScanCost(), dimStats);
+            System.out.printf("%d outer rows, %d joined: nested loop %.1f ms, hash index %.1f ms,"
+                    + " b+ tree %.1f ms; estimated cost %.0f vs %.0f%n", bound, loop[0],
+                    loop[2] / 1e6, h[2] / 1e6, b[2] / 1e6, nestedCost, indexCost);
+        }
+    }
+
+    //encodes rows 0..rows-1 with a second column that is a pseudo-random
+    //key below keys if fact, else the row number modulo 100
+    static HeapFile encode(int rows, int keys, boolean fact) throws IOException {
+        File txt = File.createTempFile("join", ".txt");
+        File dat = File.createTempFile("join", ".dat");
+        txt.deleteOnExit();
+        dat.deleteOnExit();
+        BufferedWriter w = new BufferedWriter(new FileWriter(txt));
+        for (int i = 0; i < rows; i++) {
+            int v = fact ? ((i * 0x9E3779B1) >>> 1) % keys : i % 100;
+            w.write(i + "," + v + "\n");
+        }
+        w.close();
+        HeapFileEncoder.convert(txt, dat, BufferPool.PAGE_SIZE, 2);
+        return new HeapFile(dat, Utility.getTupleDesc(2, "field"));
+    }
+
+    //joins the rows of fact that satisfy outer with dim, through an
+    //IndexJoin on index if it is not null, else a nested-loop Join, through
+    //an empty buffer pool; returns rows, sum of d.field1 and nanoseconds
+    static long[] run(HeapFile fact, HeapFile dim, Predicate outer, IndexFile index)
+            throws Exception {
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        TransactionId tid = new TransactionId();
+        DbIterator left = new Filter(outer, new SeqScan(tid, fact.getId(), "f"));
+        DbIterator right = new SeqScan(tid, dim.getId(), "d");
+        JoinPredicate p = new JoinPredicate(1, Predicate.Op.EQUALS, 0);
+        DbIterator it = index == null ? new Join(p, left, right)
+                : new IndexJoin(p, left, right, tid, index, new ArrayList<Predicate>());
+        long rows = 0;
+        long sum = 0;
+        long t0 = System.nanoTime();
+        it.open();
+        while (it.hasNext()) {
+            rows++;
+            sum += ((IntField) it.next().getField(3)).getValue();
+        }
+        it.close();
+        long nanos = System.nanoTime() - t0;
+        Database.getBufferPool().transactionComplete(tid);
+        return new long[] { rows, sum, nanos };
+    }
+}
@@ -0,0 +1,101 @@
+package simpledb.perf;
+
+import java.lang.management.*;
+import java.util.*;
+
+import simpledb.*;
+
+/**
+ * Compares the heap a full BufferPool takes, and the garbage collection
+ * pauses it causes, with page images in off-heap frames and on the heap.
+ * <p>
+ * Usage: OffHeapBenchmark [poolPages] [accesses]
+ * <p>
+ * For each way, the benchmark fills a pool of poolPages pages with all the
+ * pages of a table of as many pages, and measures the heap in use and the
+ * time of a full collection. It then reads random fields of random cached
+ * pages, which allocates garbage, and reports the collections that run
+ * meanwhile. Run it with a heap large enough for the pool, e.g. -Xmx2g.
+ * The benchmark checks that the off-heap pool takes less than half the
+ * heap of the other.
+ */
+public class OffHeapBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        int poolPages = args.length > 0 ? Integer.parseInt(args[0]) : 25000;
+        int accesses = args.length > 1 ? Integer.parseInt(args[1]) : 2000000;
+
+        int columns = 4;
+        int rowsPerPage = (BufferPool.PAGE_SIZE * 8) / (columns * 4 * 8 + 1);
+        HeapFile hf = PartitionBenchmark.encode(0, rowsPerPage * poolPages, columns);
+        Database.getCatalog().addTable(hf, "t");
+        //one partition, so that a table of as many pages as the pool fits
+        //in it; the pages of a table do not spread evenly over partitions
+        System.setProperty("simpledb.BufferPoolPartitions", "1");
+
+        for (int round = 0; round < 2; round++) {
+            long onHeapUsed = 0;
+            for (boolean offHeap : new boolean[] { false, true }) {
+                System.setProperty("simpledb.OffHeapFrames", Boolean.toString(offHeap));
+                BufferPool bp = Database.resetBufferPool(poolPages);
+                fullGc();
+                long base = heapUsed();
+                TransactionId tid = new TransactionId();
+                for (int pgNo = 0; pgNo < poolPages; pgNo++)
+                    bp.getPage(tid, new HeapPageId(hf.getId(), pgNo), Permissions.READ_ONLY);
+                long gcNanos = 0;
+                for (int i = 0; i < 3; i++)
+                    gcNanos += fullGc();
+                long used = heapUsed() - base;
+
+                long[] gc0 = gcStats();
+                Random r = new Random(1);
+                long sum = 0;
+                long t0 = System.nanoTime();
+                for (int i = 0; i < accesses; i++) {
+                    HeapPage p = (HeapPage) bp.getPage(tid,
+                            new HeapPageId(hf.getId(), r.nextInt(poolPages)), Permissions.READ_ONLY);
+                    Tuple t = p.getTuple(r.nextInt(rowsPerPage));
+                    sum += ((IntField) t.getField(r.nextInt(columns))).getValue();
+                }
+                long nanos = System.nanoTime() - t0;
+                long[] gc1 = gcStats();
+                bp.transactionComplete(tid);
+                if (bp.getMisses() != poolPages)
+                    throw new RuntimeException(bp.getMisses() + " misses");
+
+                System.out.printf("round %d, %s: %d pages cached in %.1f MB of heap and %.1f MB"
+                        + " off-heap; full gc %.1f ms; %d reads in %.0f ms with %d gcs taking"
+                        + " %d ms (sum %d)%n", round, offHeap ? "off-heap" : "on heap", poolPages,
+                        used / 1e6, bp.getOffHeapBytes() / 1e6, gcNanos / 3 / 1e6, accesses,
+                        nanos / 1e6, gc1[0] - gc0[0], gc1[1] - gc0[1], sum);
+                if (!offHeap)
+                    onHeapUsed = used;
+                else if (used > onHeapUsed / 2)
+                    throw new RuntimeException("the page images are still on the heap");
+            }
+        }
+    }
+
+    //runs a full collection and returns how long it took
+    static long fullGc() {
+        long t0 = System.nanoTime();
+        System.gc();
+        return System.nanoTime() - t0;
+    }
+
+    static long heapUsed() {
+        return ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed();
+    }
+
+    //the number of collections so far, and the milliseconds they took
+    static long[] gcStats() {
+        long count = 0;
+        long millis = 0;
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+            count += Math.max(0, gc.getCollectionCount());
+            millis += Math.max(0, gc.getCollectionTime());
+        }
+        return new long[] { count, millis };
+    }
+}
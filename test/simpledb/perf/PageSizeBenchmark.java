@@ -0,0 +1,60 @@
+package simpledb.perf;
+
+import java.io.*;
+
+import simpledb.*;
+
+/**
+ * Compares full-scan throughput of the same table stored with pages of
+ * different sizes.
+ * <p>
+ * Usage: PageSizeBenchmark [numRows] [rounds]
+ * <p>
+ * The table has four int columns and is encoded once per page size. Every
+ * round runs a SeqScan of each copy through an empty buffer pool of
+ * DEFAULT_PAGES * PAGE_SIZE bytes, so the pool holds fewer of the larger
+ * pages. The OS page cache is not dropped, so the scan numbers show the
+ * per-page software overhead.
+ */
+public class PageSizeBenchmark {
+
+    static final int[] SIZES = { 4096, 16384, 65536, 262144 };
+
+    public static void main(String[] args) throws Exception {
+        int numRows = args.length > 0 ? Integer.parseInt(args[0]) : 500000;
+        int rounds = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+
+        int columns = 4;
+        File txt = File.createTempFile("pagesize", ".txt");
+        txt.deleteOnExit();
+        BufferedWriter w = new BufferedWriter(new FileWriter(txt));
+        java.util.Random rand = new java.util.Random(42);
+        for (int i = 0; i < numRows; i++)
+            w.write(i + "," + rand.nextInt(1 << 20) + "," + rand.nextInt(1 << 20) + ","
+                    + rand.nextInt(1 << 20) + "\n");
+        w.close();
+
+        HeapFile[] tables = new HeapFile[SIZES.length];
+        for (int i = 0; i < SIZES.length; i++) {
+            File dat = File.createTempFile("pagesize" + SIZES[i], ".dat");
+            dat.deleteOnExit();
+            new File(dat.getPath() + FreeSpaceMap.SUFFIX).deleteOnExit();
+            new File(dat.getPath() + ZoneMap.SUFFIX).deleteOnExit();
+            HeapFileEncoder.convert(txt, dat, SIZES[i], columns);
+            tables[i] = new HeapFile(dat, Utility.getTupleDesc(columns), false, SIZES[i]);
+            Database.getCatalog().addTable(tables[i], "pagesize" + SIZES[i]);
+        }
+
+        for (int r = 0; r < rounds; r++) {
+            StringBuilder line = new StringBuilder("round " + r + ":");
+            for (HeapFile hf : tables) {
+                long[] res = SlottedPageBenchmark.scan(hf);
+                if (res[0] != numRows)
+                    throw new RuntimeException(res[0] + " rows instead of " + numRows);
+                line.append(String.format(" | %dK %.1f MB/s", hf.getPageSize() / 1024,
+                        hf.getFile().length() / (double) (1 << 20) / (res[2] / 1e9)));
+            }
+            System.out.println(line);
+        }
+    }
+}
@@ -0,0 +1,112 @@
+package simpledb.perf;
+
+import java.io.*;
+
+import simpledb.*;
+
+/**
+ * Compares queries on the recent end of an append-mostly event table stored
+ * in one heap file and range partitioned on its timestamp.
+ * <p>
+ * Usage: PartitionBenchmark [numPages] [partitions] [recentFraction] [rounds]
+ * <p>
+ * The table has four int columns, the first a timestamp that grows with
+ * every row; the rest are pseudo-random functions of it. Every round runs, through an empty buffer
+ * pool, a filter on the newest recentFraction of the timestamps and a full
+ * scan, over the heap file with a SeqScan and over the partitioned table
+ * with a PartitionedScan, and checks that both find the same rows. Zone maps
+ * are on for both, so the filter over the heap file skips old pages too, but
+ * only after consulting an entry per page; the partitioned scan does not
+ * look at the old partitions at all, and scans the ones it reads in
+ * parallel.
+ */
+public class PartitionBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        int numPages = args.length > 0 ? Integer.parseInt(args[0]) : 4000;
+        int numParts = args.length > 1 ? Integer.parseInt(args[1]) : 16;
+        double recent = args.length > 2 ? Double.parseDouble(args[2]) : 0.05;
+        int rounds = args.length > 3 ? Integer.parseInt(args[3]) : 3;
+
+        int columns = 4;
+        int rowsPerPage = (BufferPool.PAGE_SIZE * 8) / (columns * 4 * 8 + 1);
+        int rows = rowsPerPage * numPages;
+        HeapFile whole = encode(0, rows, columns);
+        Database.getCatalog().addTable(whole, "events_heap");
+
+        int[] bounds = new int[numParts - 1];
+        HeapFile[] parts = new HeapFile[numParts];
+        for (int i = 0; i < numParts; i++) {
+            int lo = (int) ((long) rows * i / numParts);
+            int hi = (int) ((long) rows * (i + 1) / numParts);
+            if (i > 0)
+                bounds[i - 1] = lo;
+            parts[i] = encode(lo, hi, columns);
+        }
+        File f = File.createTempFile("events", ".dat");
+        f.deleteOnExit();
+        PartitionedFile pf = new PartitionedFile(f, whole.getTupleDesc(), 0, bounds, parts);
+        Database.getCatalog().addTable(pf, "events");
+        System.out.println("table: " + rows + " rows, " + whole.numPages() + " pages, "
+                + numParts + " partitions");
+
+        int from = (int) (rows * (1 - recent));
+        Predicate p = new Predicate(0, Predicate.Op.GREATER_THAN_OR_EQ, new IntField(from));
+        for (int r = 0; r < rounds; r++) {
+            long[] heapRecent = run(whole.getId(), false, p);
+            long[] partRecent = run(pf.getId(), true, p);
+            long[] heapAll = run(whole.getId(), false, null);
+            long[] partAll = run(pf.getId(), true, null);
+            if (heapRecent[0] != partRecent[0] || heapRecent[1] != partRecent[1]
+                    || heapAll[0] != partAll[0] || heapAll[1] != partAll[1])
+                throw new RuntimeException("partitioned scan found other rows");
+            System.out.printf("round %d: recent %d rows: heap %.1f ms, partitioned %.1f ms"
+                    + " | all %d rows: heap %.1f ms, partitioned %.1f ms%n", r,
+                    heapRecent[0], heapRecent[2] / 1e6, partRecent[2] / 1e6,
+                    heapAll[0], heapAll[2] / 1e6, partAll[2] / 1e6);
+        }
+    }
+
+    //encodes the rows with timestamps lo..hi-1 into a heap file
+    static HeapFile encode(int lo, int hi, int columns) throws IOException {
+        File txt = File.createTempFile("events", ".txt");
+        File dat = File.createTempFile("events", ".dat");
+        txt.deleteOnExit();
+        dat.deleteOnExit();
+        BufferedWriter w = new BufferedWriter(new FileWriter(txt));
+        for (int ts = lo; ts < hi; ts++) {
+            w.write(Integer.toString(ts));
+            //the same row whichever file it is encoded into
+            for (int c = 1; c < columns; c++) {
+                w.write(',');
+                w.write(Integer.toString(((ts + c) * 0x9E3779B1) >>> 12));
+            }
+            w.write('\n');
+        }
+        w.close();
+        HeapFileEncoder.convert(txt, dat, BufferPool.PAGE_SIZE, columns);
+        return new HeapFile(dat, Utility.getTupleDesc(columns));
+    }
+
+    //scans the table, under a filter of p if p is not null, through an
+    //empty buffer pool; returns rows, sum of column 1 and nanoseconds
+    static long[] run(int tableId, boolean partitioned, Predicate p) throws Exception {
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        TransactionId tid = new TransactionId();
+        SeqScan scan = partitioned ? new PartitionedScan(tid, tableId, "events")
+                : new SeqScan(tid, tableId);
+        DbIterator it = p == null ? scan : new Filter(p, scan);
+        long rows = 0;
+        long sum = 0;
+        long t0 = System.nanoTime();
+        it.open();
+        while (it.hasNext()) {
+            rows++;
+            sum += ((IntField) it.next().getField(1)).getValue();
+        }
+        it.close();
+        long nanos = System.nanoTime() - t0;
+        Database.getBufferPool().transactionComplete(tid);
+        return new long[] { rows, sum, nanos };
+    }
+}
@@ -0,0 +1,81 @@
+package simpledb.perf;
+
+import java.io.*;
+
+import simpledb.*;
+
+/**
+ * Compares the throughput of a full SeqScan with and without read-ahead,
+ * that is, with the buffer pool reading the next pages of the scan on its
+ * prefetch threads while the scan works through the current one.
+ * <p>
+ * Usage: ReadAheadBenchmark [numPages] [rounds] [readAhead]
+ * <p>
+ * Before every scan the OS page cache is dropped, if the benchmark is
+ * allowed to (it has to run as root on Linux); otherwise the table is read
+ * from the page cache and the numbers only show the overhead of prefetching.
+ */
+public class ReadAheadBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        int numPages = args.length > 0 ? Integer.parseInt(args[0]) : 4000;
+        int rounds = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+        int readAhead = args.length > 2 ? Integer.parseInt(args[2]) : BufferPool.PREFETCH_PAGES;
+
+        HeapFile hf = ColdScanBenchmark.createTable(numPages, 4);
+        System.out.println("table: " + hf.numPages() + " pages, "
+                + hf.getFile().length() / 1024 + " KB, read-ahead " + readAhead + " pages"
+                + (dropCaches() ? "" : " (cannot drop the page cache)"));
+
+        for (int r = 0; r < rounds; r++) {
+            long[] sync = scan(hf, 0);
+            long[] ahead = scan(hf, readAhead);
+            if (sync[0] != ahead[0] || sync[1] != ahead[1])
+                throw new RuntimeException("scans differ: " + sync[0] + " vs " + ahead[0] + " rows");
+            System.out.printf("round %d: synchronous %s | read-ahead %s (%d rows)%n", r,
+                    ColdScanBenchmark.rate(hf.numPages(), sync[2]),
+                    ColdScanBenchmark.rate(hf.numPages(), ahead[2]), sync[0]);
+        }
+    }
+
+    /**
+     * Scans hf through an empty buffer pool that reads readAhead pages
+     * ahead, after dropping the OS page cache.
+     *
+     * @return the number of rows, a checksum of the rows and the nanoseconds
+     *   the scan took
+     */
+    static long[] scan(HeapFile hf, int readAhead) throws Exception {
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        Database.getBufferPool().setReadAhead(readAhead);
+        dropCaches();
+        TransactionId tid = new TransactionId();
+        SeqScan scan = new SeqScan(tid, hf.getId());
+        long rows = 0;
+        long sum = 0;
+        long t0 = System.nanoTime();
+        scan.open();
+        while (scan.hasNext()) {
+            Tuple t = scan.next();
+            rows++;
+            sum = sum * 31 + ((IntField) t.getField(0)).getValue();
+        }
+        scan.close();
+        long nanos = System.nanoTime() - t0;
+        Database.getBufferPool().transactionComplete(tid);
+        return new long[] { rows, sum, nanos };
+    }
+
+    //ask Linux to drop its page cache; false if not allowed
+    static boolean dropCaches() {
+        try {
+            Runtime.getRuntime().exec(new String[] { "sync" }).waitFor();
+            FileWriter w = new FileWriter("/proc/sys/vm/drop_caches");
+            w.write("3\n");
+            w.close();
+            return true;
+        } catch (Exception e) {
+            return false;
+        }
+    }
+}
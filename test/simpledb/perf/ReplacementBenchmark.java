@@ -0,0 +1,98 @@
+package simpledb.perf;
+
+import java.util.*;
+
+import simpledb.*;
+
+/**
+ * Records a trace of the pages getPage is called for in a mixed workload,
+ * replays it through each ReplacementPolicy for several pool sizes and
+ * prints their hit ratios.
+ * <p>
+ * Usage: ReplacementBenchmark [poolPages] [rounds]
+ * <p>
+ * The workload has two tables of four int columns: an OLTP table of 8
+ * times poolPages pages, read in a Zipfian distribution of exponent 1, and
+ * a reporting table of 4 times poolPages pages. Each round reads 20 times
+ * poolPages OLTP pages and then scans the reporting table. The trace is
+ * recorded from a pool of poolPages pages; the benchmark then runs it on
+ * real pools of poolPages pages with each policy and checks that they hit
+ * as often as the replay predicts.
+ */
+public class ReplacementBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        int poolPages = args.length > 0 ? Integer.parseInt(args[0]) : 250;
+        int rounds = args.length > 1 ? Integer.parseInt(args[1]) : 10;
+
+        int columns = 4;
+        int rowsPerPage = (BufferPool.PAGE_SIZE * 8) / (columns * 4 * 8 + 1);
+        int oltpPages = 8 * poolPages;
+        int reportPages = 4 * poolPages;
+        HeapFile oltp = PartitionBenchmark.encode(0, rowsPerPage * oltpPages, columns);
+        Database.getCatalog().addTable(oltp, "oltp");
+        HeapFile report = PartitionBenchmark.encode(0, rowsPerPage * reportPages, columns);
+        Database.getCatalog().addTable(report, "report");
+
+        double[] cdf = HitRatioBenchmark.zipf(oltpPages, 1.0);
+        List<Integer> ranks = new ArrayList<Integer>();
+        for (int i = 0; i < oltpPages; i++)
+            ranks.add(i);
+        Random r = new Random(1);
+        Collections.shuffle(ranks, r);
+        List<PageId> workload = new ArrayList<PageId>();
+        for (int round = 0; round < rounds; round++) {
+            for (int i = 0; i < 20 * poolPages; i++) {
+                int rank = Arrays.binarySearch(cdf, r.nextDouble());
+                rank = Math.min(rank < 0 ? -rank - 1 : rank, oltpPages - 1);
+                workload.add(new HeapPageId(oltp.getId(), ranks.get(rank)));
+            }
+            for (int pgNo = 0; pgNo < reportPages; pgNo++)
+                workload.add(new HeapPageId(report.getId(), pgNo));
+        }
+
+        BufferPool bp = Database.resetBufferPool(poolPages);
+        bp.setReadAhead(0);
+        bp.startTrace();
+        run(workload);
+        List<PageId> trace = bp.stopTrace();
+        System.out.printf("trace of %d accesses, %d rounds of %d OLTP pages and a scan of %d pages%n",
+                trace.size(), rounds, 20 * poolPages, reportPages);
+
+        int[] sizes = { poolPages / 2, poolPages, 2 * poolPages };
+        for (String name : ReplacementPolicy.NAMES) {
+            StringBuilder line = new StringBuilder(String.format("%-6s", name));
+            for (int frames : sizes) {
+                double ratio = ReplacementPolicy.replay(trace,
+                        ReplacementPolicy.create(name, frames), frames);
+                line.append(String.format("  %d frames %.3f", frames, ratio));
+            }
+            System.out.println(line);
+        }
+
+        for (String name : ReplacementPolicy.NAMES) {
+            double replayed = ReplacementPolicy.replay(trace,
+                    ReplacementPolicy.create(name, poolPages), poolPages);
+            //the pools Database makes take their policy from the property
+            System.setProperty("simpledb.ReplacementPolicy", name);
+            bp = Database.resetBufferPool(poolPages);
+            bp.setReadAhead(0);
+            long t0 = System.nanoTime();
+            run(workload);
+            System.out.printf("%-6s on a pool of %d pages: hit ratio %.3f, %.0f ns per access%n",
+                    name, poolPages, bp.getHitRatio(),
+                    (System.nanoTime() - t0) / (double) workload.size());
+            if (Math.abs(bp.getHitRatio() - replayed) > 1e-9)
+                throw new RuntimeException(name + " replayed hit ratio " + replayed);
+        }
+    }
+
+    //reads each of pages in turn, in one transaction
+    static void run(List<PageId> pages) throws Exception {
+        BufferPool bp = Database.getBufferPool();
+        TransactionId tid = new TransactionId();
+        for (PageId pid : pages)
+            bp.getPage(tid, pid, Permissions.READ_ONLY);
+        bp.transactionComplete(tid);
+    }
+}
@@ -0,0 +1,70 @@
+package simpledb.perf;
+
+import java.lang.management.ManagementFactory;
+
+import simpledb.*;
+
+/**
+ * Measures scan throughput and bytes allocated per page read, with and
+ * without the full page serialization every HeapPage used to pay for its
+ * before image when it was read.
+ * <p>
+ * Usage: ScanAllocationBenchmark [numPages] [rounds]
+ * <p>
+ * The "eager before image" column re-creates the old cost by calling
+ * getPageData() on every page read; the "copy on first write" column is the
+ * current read path. Allocation is read from the JVM's per-thread allocation
+ * counter, so it needs a HotSpot-compatible JVM.
+ */
+public class ScanAllocationBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        int numPages = args.length > 0 ? Integer.parseInt(args[0]) : 2000;
+        int rounds = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+
+        HeapFile hf = ColdScanBenchmark.createTable(numPages, 4);
+        int pages = hf.numPages();
+        System.out.println("table: " + pages + " pages");
+
+        for (int r = 0; r < rounds; r++) {
+            long[] eager = scan(hf, true);
+            long[] lazy = scan(hf, false);
+            System.out.printf("round %d: eager before image %s | copy on first write %s%n",
+                    r, report(pages, eager), report(pages, lazy));
+        }
+    }
+
+    /** Reads every page and touches the first field of every tuple. */
+    static long[] scan(HeapFile hf, boolean serializeOnRead) {
+        long bytes0 = allocatedBytes();
+        long t0 = System.nanoTime();
+        long sum = 0;
+        for (int i = 0; i < hf.numPages(); i++) {
+            HeapPage p = (HeapPage) hf.readPage(new HeapPageId(hf.getId(), i));
+            if (serializeOnRead)
+                sum += p.getPageData().clone().length;
+            java.util.Iterator<Tuple> it = p.iterator();
+            while (it.hasNext())
+                sum += ((IntField) it.next().getField(0)).getValue();
+        }
+        long nanos = System.nanoTime() - t0;
+        long bytes = allocatedBytes() - bytes0;
+        if (sum == 42)
+            System.out.println();
+        return new long[] { nanos, bytes };
+    }
+
+    static String report(int pages, long[] result) {
+        double secs = result[0] / 1e9;
+        return String.format("%.0f pages/s, %.1f KB allocated/page, %.1f MB/s allocation",
+                pages / secs, result[1] / 1024.0 / pages, result[1] / (double) (1 << 20) / secs);
+    }
+
+    static long allocatedBytes() {
+        java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if (bean instanceof com.sun.management.ThreadMXBean)
+            return ((com.sun.management.ThreadMXBean) bean)
+                    .getThreadAllocatedBytes(Thread.currentThread().getId());
+        return 0;
+    }
+}
@@ -0,0 +1,64 @@
+package simpledb.perf;
+
+import java.util.*;
+
+import simpledb.*;
+
+/**
+ * Measures how much of an OLTP working set survives a large sequential
+ * scan, with the scan reading its pages into a BufferRing and without.
+ * <p>
+ * Usage: ScanResistanceBenchmark [poolPages] [scanPages]
+ * <p>
+ * A hot set of half the pool's pages of one table is read, a SeqScan then
+ * reads all of a second table of scanPages pages, and the hot set is read
+ * again. With rings, the benchmark checks that every page of the hot set
+ * is still cached after the scan.
+ */
+public class ScanResistanceBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        int poolPages = args.length > 0 ? Integer.parseInt(args[0]) : 500;
+        int scanPages = args.length > 1 ? Integer.parseInt(args[1]) : 5000;
+
+        int columns = 4;
+        int rowsPerPage = (BufferPool.PAGE_SIZE * 8) / (columns * 4 * 8 + 1);
+        int hot = poolPages / 2;
+        HeapFile oltp = PartitionBenchmark.encode(0, rowsPerPage * hot, columns);
+        Database.getCatalog().addTable(oltp, "oltp");
+        HeapFile report = PartitionBenchmark.encode(0, rowsPerPage * scanPages, columns);
+        Database.getCatalog().addTable(report, "report");
+
+        for (int round = 0; round < 3; round++) {
+            for (boolean rings : new boolean[] { false, true }) {
+                BufferPool bp = Database.resetBufferPool(poolPages);
+                if (!rings)
+                    bp.setScanRing(0);
+                TransactionId tid = new TransactionId();
+                for (int pgNo = 0; pgNo < hot; pgNo++)
+                    bp.getPage(tid, new HeapPageId(oltp.getId(), pgNo), Permissions.READ_ONLY);
+
+                long t0 = System.nanoTime();
+                SeqScan scan = new SeqScan(tid, report.getId(), "report");
+                long rows = 0;
+                scan.open();
+                while (scan.hasNext()) {
+                    scan.next();
+                    rows++;
+                }
+                scan.close();
+                long scanNanos = System.nanoTime() - t0;
+
+                bp.resetStats();
+                for (int pgNo = 0; pgNo < hot; pgNo++)
+                    bp.getPage(tid, new HeapPageId(oltp.getId(), pgNo), Permissions.READ_ONLY);
+                bp.transactionComplete(tid);
+                System.out.printf("round %d, %s: scan of %d rows in %.1f ms; then %d of %d"
+                        + " hot pages cached%n", round, rings ? "ring of " + bp.getScanRing()
+                        + " pages" : "no ring", rows, scanNanos / 1e6, bp.getHits(), hot);
+                if (rings && bp.getHits() != hot)
+                    throw new RuntimeException("the scan evicted hot pages");
+            }
+        }
+    }
+}
@@ -0,0 +1,155 @@
+package simpledb.perf;
+
+import java.io.*;
+import java.util.*;
+
+import simpledb.*;
+
+/**
+ * Measures the time and the bytes allocated per page to serialize modified
+ * HeapPages, with the stream-based serializer HeapPage used to have and with
+ * the current one, both into a new array and into a reused buffer; and the
+ * same for writing the pages back to the table file, which now goes through
+ * the reused buffer.
+ * <p>
+ * Usage: SerializationBenchmark [numPages] [rounds]
+ * <p>
+ * The table has schema (int, string, int). Before measuring, a third of the
+ * tuples of every page are deleted and replaced, so that pages hold freed
+ * slots, inserted tuples and tuples still in the page image read from disk.
+ * The old serializer is rebuilt from the public HeapPage API, so unlike the
+ * original it also decodes the tuples it copies. writePage includes
+ * updating the free-space and zone maps. Allocation is read from the JVM's
+ * per-thread allocation counter.
+ */
+public class SerializationBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        int numPages = args.length > 0 ? Integer.parseInt(args[0]) : 500;
+        int rounds = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+
+        Type[] types = new Type[] { Type.INT_TYPE, Type.STRING_TYPE, Type.INT_TYPE };
+        TupleDesc td = new TupleDesc(types, new String[] { "a", "b", "c" });
+        int perPage = (BufferPool.PAGE_SIZE * 8) / (td.getSize() * 8 + 1);
+        File txt = File.createTempFile("serialize", ".txt");
+        File dat = File.createTempFile("serialize", ".dat");
+        for (File f : new File[] { txt, dat }) {
+            f.deleteOnExit();
+            new File(f.getPath() + FreeSpaceMap.SUFFIX).deleteOnExit();
+            new File(f.getPath() + ZoneMap.SUFFIX).deleteOnExit();
+        }
+        Random rand = new Random(42);
+        BufferedWriter w = new BufferedWriter(new FileWriter(txt));
+        for (int i = 0; i < perPage * numPages; i++)
+            w.write(i + "," + word(rand) + "," + rand.nextInt() + "\n");
+        w.close();
+        HeapFileEncoder.convert(txt, dat, BufferPool.PAGE_SIZE, types.length, types);
+        HeapFile hf = new HeapFile(dat, td);
+        Database.getCatalog().addTable(hf, "serialize");
+
+        List<HeapPage> pages = new ArrayList<HeapPage>();
+        for (int i = 0; i < hf.numPages(); i++) {
+            HeapPage p = (HeapPage) hf.readPage(new HeapPageId(hf.getId(), i));
+            List<Tuple> victims = new ArrayList<Tuple>();
+            Iterator<Tuple> it = p.iterator();
+            while (it.hasNext()) {
+                Tuple t = it.next();
+                if (rand.nextInt(3) == 0)
+                    victims.add(t);
+            }
+            for (Tuple t : victims) {
+                p.deleteTuple(t);
+                Tuple n = new Tuple(td);
+                n.setField(0, new IntField(rand.nextInt()));
+                n.setField(1, new StringField(word(rand), Type.STRING_LEN));
+                n.setField(2, new IntField(rand.nextInt()));
+                p.insertTuple(n);
+            }
+            pages.add(p);
+        }
+        System.out.println("table: " + pages.size() + " pages");
+
+        java.nio.ByteBuffer buffer = java.nio.ByteBuffer.allocate(BufferPool.PAGE_SIZE);
+        for (int r = 0; r < rounds; r++) {
+            long checksum = 0;
+            long bytes0 = ScanAllocationBenchmark.allocatedBytes();
+            long t0 = System.nanoTime();
+            for (HeapPage p : pages)
+                checksum += legacyPageData(p, td)[BufferPool.PAGE_SIZE - 1];
+            long[] legacy = { System.nanoTime() - t0, ScanAllocationBenchmark.allocatedBytes() - bytes0 };
+
+            bytes0 = ScanAllocationBenchmark.allocatedBytes();
+            t0 = System.nanoTime();
+            for (HeapPage p : pages)
+                checksum += p.getPageData()[BufferPool.PAGE_SIZE - 1];
+            long[] array = { System.nanoTime() - t0, ScanAllocationBenchmark.allocatedBytes() - bytes0 };
+
+            bytes0 = ScanAllocationBenchmark.allocatedBytes();
+            t0 = System.nanoTime();
+            for (HeapPage p : pages) {
+                buffer.clear();
+                p.getPageData(buffer);
+                checksum += buffer.get(BufferPool.PAGE_SIZE - 1);
+            }
+            long[] reused = { System.nanoTime() - t0, ScanAllocationBenchmark.allocatedBytes() - bytes0 };
+
+            bytes0 = ScanAllocationBenchmark.allocatedBytes();
+            t0 = System.nanoTime();
+            for (HeapPage p : pages)
+                hf.writePage(p);
+            long[] flush = { System.nanoTime() - t0, ScanAllocationBenchmark.allocatedBytes() - bytes0 };
+
+            if (checksum == 42)
+                System.out.println();
+            System.out.printf("round %d: stream %s | array %s | reused buffer %s | writePage %s%n", r,
+                    report(pages.size(), legacy), report(pages.size(), array),
+                    report(pages.size(), reused), report(pages.size(), flush));
+        }
+    }
+
+    static String report(int pages, long[] result) {
+        return String.format("%.1f us, %.1f KB/page", result[0] / 1e3 / pages,
+                result[1] / 1024.0 / pages);
+    }
+
+    /** The page serializer HeapPage used before it wrote into buffers. */
+    static byte[] legacyPageData(HeapPage p, TupleDesc td) throws IOException {
+        int slots = (BufferPool.PAGE_SIZE * 8) / (td.getSize() * 8 + 1);
+        Tuple[] bySlot = new Tuple[slots];
+        Iterator<Tuple> it = p.iterator();
+        while (it.hasNext()) {
+            Tuple t = it.next();
+            bySlot[t.getRecordId().tupleno()] = t;
+        }
+        ByteArrayOutputStream baos = new ByteArrayOutputStream(BufferPool.PAGE_SIZE);
+        DataOutputStream dos = new DataOutputStream(baos);
+        int headerSize = (slots + 7) / 8;
+        for (int i = 0; i < headerSize; i++) {
+            int b = 0;
+            for (int j = 0; j < 8 && i * 8 + j < slots; j++)
+                if (p.isSlotUsed(i * 8 + j))
+                    b |= 1 << j;
+            dos.writeByte(b);
+        }
+        for (int i = 0; i < slots; i++) {
+            if (bySlot[i] == null) {
+                for (int j = 0; j < td.getSize(); j++)
+                    dos.writeByte(0);
+                continue;
+            }
+            for (int j = 0; j < td.numFields(); j++)
+                bySlot[i].getField(j).serialize(dos);
+        }
+        int zerolen = BufferPool.PAGE_SIZE - (headerSize + td.getSize() * slots);
+        dos.write(new byte[zerolen], 0, zerolen);
+        dos.flush();
+        return baos.toByteArray();
+    }
+
+    private static String word(Random rand) {
+        StringBuilder s = new StringBuilder();
+        for (int j = 5 + rand.nextInt(26); j > 0; j--)
+            s.append((char) ('a' + rand.nextInt(26)));
+        return s.toString();
+    }
+}
@@ -0,0 +1,92 @@
+package simpledb.perf;
+
+import java.io.*;
+
+import simpledb.*;
+
+/**
+ * Compares the size and cold-scan speed of a table with short strings stored
+ * in fixed-size HeapPage slots against the same table stored in
+ * variable-length SlottedHeapPages.
+ * <p>
+ * Usage: SlottedPageBenchmark [numRows] [rounds]
+ * <p>
+ * The table has schema (int, string, int) with strings of 10 to 20
+ * characters. It is encoded with HeapFileEncoder and then copied into a
+ * slotted table with a bulk Insert. Every round runs a full SeqScan of each
+ * table through an empty buffer pool and checks both return the same rows.
+ */
+public class SlottedPageBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        int numRows = args.length > 0 ? Integer.parseInt(args[0]) : 100000;
+        int rounds = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+
+        Type[] types = new Type[] { Type.INT_TYPE, Type.STRING_TYPE, Type.INT_TYPE };
+        File txt = File.createTempFile("slotted", ".txt");
+        File fixedDat = File.createTempFile("fixed", ".dat");
+        File slottedDat = File.createTempFile("slotted", ".dat");
+        for (File f : new File[] { txt, fixedDat, slottedDat }) {
+            f.deleteOnExit();
+            new File(f.getPath() + FreeSpaceMap.SUFFIX).deleteOnExit();
+        }
+        BufferedWriter w = new BufferedWriter(new FileWriter(txt));
+        java.util.Random rand = new java.util.Random(42);
+        for (int i = 0; i < numRows; i++) {
+            StringBuilder s = new StringBuilder();
+            for (int j = 10 + rand.nextInt(11); j > 0; j--)
+                s.append((char) ('a' + rand.nextInt(26)));
+            w.write(i + "," + s + "," + rand.nextInt(1000) + "\n");
+        }
+        w.close();
+        HeapFileEncoder.convert(txt, fixedDat, BufferPool.PAGE_SIZE, types.length, types);
+
+        TupleDesc td = new TupleDesc(types, new String[] { "c0", "c1", "c2" });
+        HeapFile fixed = new HeapFile(fixedDat, td);
+        HeapFile slotted = new HeapFile(slottedDat, td, true);
+        Database.getCatalog().addTable(fixed, "fixed");
+        Database.getCatalog().addTable(slotted, "slotted");
+
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        TransactionId tid = new TransactionId();
+        Insert ins = new Insert(tid, new SeqScan(tid, fixed.getId()), slotted.getId(), true);
+        ins.open();
+        ins.next();
+        ins.close();
+        Database.getBufferPool().transactionComplete(tid);
+
+        System.out.printf("fixed: %d pages, %d KB | slotted: %d pages, %d KB%n",
+                fixed.numPages(), fixedDat.length() / 1024,
+                slotted.numPages(), slottedDat.length() / 1024);
+
+        for (int r = 0; r < rounds; r++) {
+            long[] a = scan(fixed);
+            long[] b = scan(slotted);
+            if (a[0] != b[0] || a[1] != b[1])
+                throw new RuntimeException("tables differ: " + a[0] + " vs " + b[0] + " rows");
+            System.out.printf("round %d: fixed %s | slotted %s (%d rows)%n", r,
+                    ColdScanBenchmark.rate(fixed.numPages(), a[2]),
+                    ColdScanBenchmark.rate(slotted.numPages(), b[2]), a[0]);
+        }
+    }
+
+    /** Scans hf cold and returns the row count, a checksum and the time taken. */
+    static long[] scan(HeapFile hf) throws Exception {
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        TransactionId tid = new TransactionId();
+        SeqScan scan = new SeqScan(tid, hf.getId());
+        long t0 = System.nanoTime();
+        long rows = 0;
+        long sum = 0;
+        scan.open();
+        while (scan.hasNext()) {
+            Tuple t = scan.next();
+            rows++;
+            sum += ((IntField) t.getField(0)).getValue() * 31L + t.getField(1).hashCode();
+        }
+        scan.close();
+        long nanos = System.nanoTime() - t0;
+        Database.getBufferPool().transactionComplete(tid);
+        return new long[] { rows, sum, nanos };
+    }
+}
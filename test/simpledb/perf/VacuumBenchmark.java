@@ -0,0 +1,80 @@
+package simpledb.perf;
+
+import java.io.*;
+import java.util.*;
+
+import simpledb.*;
+
+/**
+ * Measures what a vacuum gains after a heavy delete: the table is scanned
+ * after most of its tuples are deleted, then vacuumed, then scanned again.
+ * <p>
+ * Usage: VacuumBenchmark [numPages] [deleteFraction] [rounds]
+ * <p>
+ * The table has four int columns. Each round builds it afresh, deletes the
+ * given fraction of its tuples at random in one transaction, and compares a
+ * SeqScan through an empty buffer pool before and after the vacuum,
+ * checking both find the same rows. Vacuums after deletes are turned off, so
+ * the one vacuum per round is the measured one.
+ */
+public class VacuumBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        int numPages = args.length > 0 ? Integer.parseInt(args[0]) : 2000;
+        double fraction = args.length > 1 ? Double.parseDouble(args[1]) : 0.8;
+        int rounds = args.length > 2 ? Integer.parseInt(args[2]) : 3;
+
+        Vacuum.setAutoVacuum(false);
+        Random rand = new Random(42);
+        for (int r = 0; r < rounds; r++) {
+            HeapFile hf = ColdScanBenchmark.createTable(numPages, 4);
+
+            //delete with a pool that holds the whole table, so that the
+            //deleting transaction never has to write its pages early
+            Database.resetBufferPool(hf.numPages() + BufferPool.DEFAULT_PAGES);
+            TransactionId tid = new TransactionId();
+            SeqScan scan = new SeqScan(tid, hf.getId());
+            List<Tuple> victims = new ArrayList<Tuple>();
+            scan.open();
+            while (scan.hasNext()) {
+                Tuple t = scan.next();
+                if (rand.nextDouble() < fraction)
+                    victims.add(t);
+            }
+            scan.close();
+            for (Tuple t : victims)
+                Database.getBufferPool().deleteTuple(tid, t);
+            Database.getBufferPool().transactionComplete(tid);
+
+            int before = hf.numPages();
+            long expected = sum(hf);
+            long[] sparse = ReadAheadBenchmark.scan(hf, BufferPool.PREFETCH_PAGES);
+            Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+            long t0 = System.nanoTime();
+            Vacuum.vacuum(hf);
+            long vacuumNanos = System.nanoTime() - t0;
+            long[] dense = ReadAheadBenchmark.scan(hf, BufferPool.PREFETCH_PAGES);
+
+            //a vacuum moves rows, so compare sums rather than the ordered
+            //checksum of the scan
+            if (sparse[0] != dense[0] || sum(hf) != expected)
+                throw new RuntimeException("vacuum lost rows: " + sparse[0] + " vs " + dense[0]);
+            System.out.printf("round %d: %d rows | %d -> %d pages | vacuum %.1f ms"
+                    + " | scan before %.1f ms, after %.1f ms%n", r, dense[0], before,
+                    hf.numPages(), vacuumNanos / 1e6, sparse[2] / 1e6, dense[2] / 1e6);
+        }
+    }
+
+    //the sum of column 0 over the table
+    static long sum(HeapFile hf) throws Exception {
+        TransactionId tid = new TransactionId();
+        SeqScan scan = new SeqScan(tid, hf.getId());
+        long sum = 0;
+        scan.open();
+        while (scan.hasNext())
+            sum += ((IntField) scan.next().getField(0)).getValue();
+        scan.close();
+        Database.getBufferPool().transactionComplete(tid);
+        return sum;
+    }
+}
@@ -0,0 +1,91 @@
+package simpledb.perf;
+
+import java.io.*;
+
+import simpledb.*;
+
+/**
+ * Compares a range query over a time-ordered table run as a Filter over a
+ * SeqScan, which skips pages using the table's zone map, with the same
+ * predicates applied to a plain SeqScan that reads every page.
+ * <p>
+ * Usage: ZoneMapBenchmark [numPages] [selectivity] [rounds]
+ * <p>
+ * Column 0 of the table counts up from 0, like an id or timestamp column;
+ * the other columns are random. Each round picks a random range of column 0
+ * covering the given fraction of the rows and runs both plans through an
+ * empty buffer pool, checking they find the same rows.
+ */
+public class ZoneMapBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        int numPages = args.length > 0 ? Integer.parseInt(args[0]) : 2000;
+        double selectivity = args.length > 1 ? Double.parseDouble(args[1]) : 0.01;
+        int rounds = args.length > 2 ? Integer.parseInt(args[2]) : 5;
+
+        int columns = 4;
+        int rowsPerPage = (BufferPool.PAGE_SIZE * 8) / (columns * 4 * 8 + 1);
+        int numRows = rowsPerPage * numPages;
+        File txt = File.createTempFile("zones", ".txt");
+        File dat = File.createTempFile("zones", ".dat");
+        for (File f : new File[] { txt, dat }) {
+            f.deleteOnExit();
+            new File(f.getPath() + FreeSpaceMap.SUFFIX).deleteOnExit();
+            new File(f.getPath() + ZoneMap.SUFFIX).deleteOnExit();
+        }
+        BufferedWriter w = new BufferedWriter(new FileWriter(txt));
+        java.util.Random rand = new java.util.Random(42);
+        for (int i = 0; i < numRows; i++)
+            w.write(i + "," + rand.nextInt(1 << 20) + "," + rand.nextInt(1 << 20) + ","
+                    + rand.nextInt(1 << 20) + "\n");
+        w.close();
+        HeapFileEncoder.convert(txt, dat, BufferPool.PAGE_SIZE, columns);
+        HeapFile hf = Utility.openHeapFile(columns, dat);
+
+        long t0 = System.nanoTime();
+        hf.getZoneMap().getCount(0);
+        System.out.printf("table: %d pages, zone map built in %.2f s%n",
+                hf.numPages(), (System.nanoTime() - t0) / 1e9);
+
+        int width = (int) (numRows * selectivity);
+        for (int r = 0; r < rounds; r++) {
+            int lo = rand.nextInt(Math.max(1, numRows - width));
+            Predicate ge = new Predicate(0, Predicate.Op.GREATER_THAN_OR_EQ, new IntField(lo));
+            Predicate lt = new Predicate(0, Predicate.Op.LESS_THAN, new IntField(lo + width));
+
+            Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+            TransactionId tid = new TransactionId();
+            t0 = System.nanoTime();
+            SeqScan scan = new SeqScan(tid, hf.getId());
+            long plain = 0;
+            scan.open();
+            while (scan.hasNext()) {
+                Tuple t = scan.next();
+                if (ge.filter(t) && lt.filter(t))
+                    plain++;
+            }
+            scan.close();
+            long plainNanos = System.nanoTime() - t0;
+            Database.getBufferPool().transactionComplete(tid);
+
+            Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+            tid = new TransactionId();
+            t0 = System.nanoTime();
+            Filter f = new Filter(ge, new Filter(lt, new SeqScan(tid, hf.getId())));
+            long skipping = 0;
+            f.open();
+            while (f.hasNext()) {
+                f.next();
+                skipping++;
+            }
+            f.close();
+            long skippingNanos = System.nanoTime() - t0;
+            Database.getBufferPool().transactionComplete(tid);
+
+            if (plain != skipping)
+                throw new RuntimeException("plans differ: " + plain + " vs " + skipping + " rows");
+            System.out.printf("round %d: %d rows | full scan %.1f ms | zone map scan %.1f ms%n",
+                    r, plain, plainNanos / 1e6, skippingNanos / 1e6);
+        }
+    }
+}